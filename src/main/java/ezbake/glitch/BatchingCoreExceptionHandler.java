@@ -0,0 +1,34 @@
+package ezbake.glitch;
+
+import java.util.List;
+
+/**
+ * <p>
+ * A {@link CoreExceptionHandler} that processes exceptions in batches. The
+ * exception manager accumulates the exceptions destined for a batching
+ * handler and passes them to {@link #handleBatch(List)} once a batch is full
+ * or has waited long enough, so that a sink such as a database or a remote
+ * alerting service performs one round trip per batch instead of one per
+ * exception.
+ * </p>
+ * <p>
+ * The batch size and wait time are set with handler attributes in the
+ * configuration; see {@link ezbake.glitch.dispatch.DecoratedHandlers}. The
+ * {@link #handle(CoreException)} method is only called directly when the
+ * handler is used outside the exception manager.
+ * </p>
+ */
+public interface BatchingCoreExceptionHandler extends CoreExceptionHandler {
+
+   /**
+    * <p>
+    * The method that initiates the handler's processing of a batch of
+    * {@link CoreException} instances. The list belongs to the handler once
+    * passed and is never modified by the exception manager.
+    * </p>
+    * 
+    * @param exceptions The exception instances that are to be processed, in
+    *       the order they were dispatched.
+    */
+   void handleBatch(List<CoreException> exceptions);
+}
@@ -0,0 +1,30 @@
+package ezbake.glitch;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * Implemented by a {@link CoreExceptionHandler} that takes settings from the
+ * configuration. After the handler is instantiated, the exception manager
+ * passes it the attributes of its <code>handler</code> element, or of its
+ * <code>classname</code> element for a default handler, before the handler
+ * receives any exception.
+ * </p>
+ * <p>
+ * The attributes also tune how the manager executes the handler; see
+ * {@link ezbake.glitch.dispatch.DecoratedHandlers}. A handler's own
+ * attribute names should therefore carry a prefix of their own.
+ * </p>
+ */
+public interface Configurable {
+
+   /**
+    * <p>
+    * Applies the handler's configured attributes.
+    * </p>
+    *
+    * @param attributes The attribute names and values; empty if the
+    *       handler has none.
+    */
+   void configure(Map<String, String> attributes);
+}
@@ -1,17 +1,44 @@
 package ezbake.glitch;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ezbake.glitch.codec.DecodedException;
 import ezbake.glitch.config.Configuration;
 import ezbake.glitch.config.ConfigurationParserFactory;
+import ezbake.glitch.config.ConfigurationWatcher;
+import ezbake.glitch.dispatch.Bulkhead;
+import ezbake.glitch.dispatch.DecoratedHandlers;
+import ezbake.glitch.dispatch.Deduplicator;
+import ezbake.glitch.dispatch.DispatchPipeline;
+import ezbake.glitch.dispatch.DispatchPipelines;
+import ezbake.glitch.dispatch.DispatchTable;
+import ezbake.glitch.dispatch.Dispatcher;
+import ezbake.glitch.dispatch.DropAwareDispatcher;
+import ezbake.glitch.dispatch.ExceptionRateLimits;
+import ezbake.glitch.dispatch.ExceptionSamplers;
+import ezbake.glitch.dispatch.HandlerStartup;
+import ezbake.glitch.dispatch.QueuePipeline;
+import ezbake.glitch.dispatch.RetryHandler;
+import ezbake.glitch.dispatch.RingBufferPipeline;
+import ezbake.glitch.exception.DerivedException;
+import ezbake.glitch.exception.RepeatedException;
+import ezbake.glitch.exception.SampledException;
+import ezbake.glitch.exception.SpooledException;
+import ezbake.glitch.metrics.Gauge;
+import ezbake.glitch.metrics.Metrics;
+import ezbake.glitch.metrics.StripedCounter;
+import ezbake.glitch.spool.DeadLetterQueue;
+import ezbake.glitch.spool.Spool;
 
 
 /**
@@ -41,14 +68,77 @@ import ezbake.glitch.config.ConfigurationParserFactory;
  * </code>
  * </p>
  * <p>
+ * By default the handlers run on the thread that calls
+ * {@link #handleException(CoreException)}. Setting the <b>dispatch</b>
+ * configuration property to <b>async</b> hands the exception to worker
+ * threads through a bounded queue instead; see
+ * {@link ezbake.glitch.dispatch.DispatchPipelines} for the related properties.
+ * Individual handlers may also be given threads of their own, called
+ * bulkheads, with handler attributes; see
+ * {@link ezbake.glitch.dispatch.DecoratedHandlers}. Pending exceptions are
+ * flushed when the JVM exits or when {@link #shutdown(long, TimeUnit)} is
+ * called.
+ * </p>
+ * <p>
+ * Repeats of the same exception can be suppressed for a window and reported
+ * as one {@link RepeatedException} instead; see
+ * {@link ezbake.glitch.dispatch.Deduplicator}. How often the exceptions of
+ * a class are handled can be limited; see
+ * {@link ezbake.glitch.dispatch.ExceptionRateLimits}. Noisy exception classes
+ * can be sampled, in which case the handlers receive a
+ * {@link SampledException} that carries its weight; see
+ * {@link ezbake.glitch.dispatch.ExceptionSamplers}. A handler that keeps
+ * failing can be skipped by a circuit breaker and its exceptions passed to a
+ * fallback handler, which need not be mapped itself.
+ * </p>
+ * <p>
+ * Exceptions can be written to a {@link Spool} before they are dispatched,
+ * in which case the exceptions that a handler had not handled when the JVM
+ * stopped are handled when the next instance is created.
+ * </p>
+ * <p>
+ * The instance is created once, by the first call to {@link #getInstance()}
+ * or {@link #initialize(Configuration)}, and published safely to every
+ * thread. The manager works on its own copy of the configuration and gives
+ * the classes that read it an immutable copy, so later changes to a
+ * configuration passed to {@link #initialize(Configuration)} have no effect.
+ * </p>
+ * <p>
+ * What happens to the exceptions of each class, how each handler performs
+ * and how deep the queues are can be recorded in {@link Metrics}, which are
+ * exposed through JMX and HTTP.
+ * </p>
+ * <p>
+ * A configuration read from the configuration file can be reloaded when the
+ * file changes; see {@link ConfigurationWatcher}. The mappings, default
+ * handlers, handler attributes and exception attributes of the new
+ * configuration are published at once, as a snapshot that each dispatch
+ * reads without locking. Handlers whose attributes did not change are kept;
+ * new and changed handlers are instantiated. Dispatches that started on the
+ * previous snapshot finish on it before its handler threads are released.
+ * The properties that set up the dispatch pipeline, deduplication, spool
+ * and metrics take effect on the next start.
+ * </p>
+ * <p>
+ * The handlers are instantiated one after the other by default. They can be
+ * instantiated in parallel, within a startup budget, or each on its first
+ * exception instead; see {@link HandlerStartup}.
+ * </p>
  */
 public final class ExceptionManager {
 
-   private static ExceptionManager instance;
+   private static volatile ExceptionManager instance;
    
    private Logger logger = LoggerFactory.getLogger(ExceptionManager.class);
-   private Configuration configuration; 
-   private Map<String, CoreExceptionHandler> handlers; 
+   private final Configuration configuration; 
+   private volatile Snapshot snapshot;
+   private final DispatchPipeline pipeline;
+   private final Deduplicator deduplicator;
+   private final Spool spool;
+   private final Metrics metrics;
+   private final ConfigurationWatcher watcher;
+   private boolean closed;
+   private Thread shutdownHook;
    
    /**
     * <p>
@@ -75,8 +165,40 @@ public final class ExceptionManager {
     */
    private ExceptionManager(Configuration configuration) {
       
-      this.setConfiguration(configuration);
-      this.instantiateHandlers();
+      Configuration working = this.copyConfiguration(configuration);
+      Map<String, CoreExceptionHandler> handlers = this.instantiateHandlers(working, null);
+      this.configuration = working.toImmutable();
+      this.metrics = Metrics.create(this.configuration);
+      this.spool = Spool.create(this.configuration, handlers.keySet());
+      this.snapshot = new Snapshot(this.configuration, handlers, 
+            new DecoratedHandlers(this.configuration, handlers, this.spool, this.metrics));
+      this.pipeline = DispatchPipelines.create(this.configuration, new DropAwareDispatcher() {
+         public void dispatch(CoreException exception) {
+            ExceptionManager.this.dispatch(exception);
+         }
+         public void dropped(CoreException exception) {
+            ExceptionManager.this.dropped(exception);
+         }
+      });
+      this.deduplicator = Deduplicator.create(this.configuration, new Dispatcher() {
+         public void dispatch(CoreException exception) {
+            publish(exception);
+         }
+      });
+      this.addQueueDepths(this.snapshot);
+      this.watcher = configuration != null ? null : ConfigurationWatcher.create(this.configuration, new ConfigurationWatcher.Listener() {
+         public void reloaded(Configuration reloaded) {
+            reload(reloaded);
+         }
+      });
+      this.registerShutdownHook();
+      if (this.spool != null) {
+         this.spool.replay(new Dispatcher() {
+            public void dispatch(CoreException exception) {
+               pipeline.publish(exception);
+            }
+         });
+      }
    }
    
    /**
@@ -85,25 +207,36 @@ public final class ExceptionManager {
     * request the handling of a thrown {@link ezbake.glitch.CoreException}
     * exception.
     * </p>
+    * <p>
+    * The first call reads the configuration file and creates the instance;
+    * concurrent first calls wait for it rather than creating their own. Once
+    * the instance exists, this is a single volatile read.
+    * </p>
     * 
     * @return The ExceptionManager instance responsible for executing exception
     *       handler processing.
     */
    public static ExceptionManager getInstance() {
       
-      if (instance == null) {
+      ExceptionManager current = instance;
+      if (current == null) {
          synchronized (ExceptionManager.class) {
-            instance = new ExceptionManager();
+            current = instance;
+            if (current == null) {
+               current = new ExceptionManager();
+               instance = current;
+            }
          }
       }
-      return instance;
+      return current;
    }
    
    /**
     * <p>
     * Initializes the exception handler manager with the configuration provided.
     * Any existing exception handling manager instance is reset with the given
-    * configuration.
+    * configuration. Exceptions still pending in the existing instance are
+    * handled before it is replaced.
     * </p>
     * <p>
     * A null configuration is permissible. The result will be that no mappings
@@ -118,6 +251,9 @@ public final class ExceptionManager {
     */
    public synchronized static ExceptionManager initialize(Configuration configuration) {
       
+      if (instance != null) {
+         instance.close();
+      }
       instance = new ExceptionManager(configuration == null ? 
             new Configuration() : configuration);
       return instance;
@@ -142,7 +278,12 @@ public final class ExceptionManager {
     * <p>
     * Executes the handlers associated with the given exception. If no
     * associated handlers exist for the exception then the default handlers
-    * are executed.
+    * are executed. Depending on the configured dispatch, the handlers are
+    * either executed before this method returns or queued for execution.
+    * If deduplication is enabled, a repeat of a recently handled exception is
+    * only counted. An exception over the rate limit of its class is counted
+    * and not handled. If the exception's class is sampled, only the sampled
+    * occurrences are handled.
     * </p>
     * 
     * @param exception The exception instance that is to be handled. Handling
@@ -152,42 +293,381 @@ public final class ExceptionManager {
       
       if (exception == null) return;
       
-      String exceptionFqcn = exception.getClass().getName();
-      Collection<String> handlerFqcns = configuration.getExceptionHandlers(exceptionFqcn);
-
-      if (handlerFqcns.isEmpty()) {
-         handlerFqcns = configuration.getDefaultHandlers();
+      record(exception, Metrics.Event.RECEIVED);
+      
+      if (deduplicator != null && !deduplicator.admit(exception)) {
+         record(exception, Metrics.Event.SUPPRESSED);
+         return;
       }
       
-      for (String handlerFqcn : handlerFqcns) {
-         
+      Snapshot current = snapshot;
+      if (current.rateLimits != null && !current.rateLimits.tryAcquire(exception)) {
+         record(exception, Metrics.Event.DROPPED);
+         return;
+      }
+      
+      CoreException sampled = current.samplers == null ? exception : current.samplers.sample(exception);
+      if (sampled == null) {
+         record(exception, Metrics.Event.SUPPRESSED);
+         return;
+      }
+      
+      publish(sampled);
+   }
+   
+   /**
+    * <p>
+    * Returns the metrics of this instance.
+    * </p>
+    * 
+    * @return The metrics or null if they are not enabled.
+    */
+   public Metrics getMetrics() {
+      
+      return metrics;
+   }
+   
+   /**
+    * <p>
+    * Waits until every exception requested for handling so far has been
+    * handled. With synchronous dispatch and no bulkheads this returns
+    * immediately.
+    * </p>
+    * 
+    * @param timeout The maximum time to wait.
+    * @param unit The unit of the timeout.
+    * @return true if all pending exceptions were handled and false if the
+    *       timeout elapsed first.
+    * @throws InterruptedException if interrupted while waiting.
+    */
+   public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+      
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      return pipeline.drain(timeout, unit) && 
+            snapshot.decoratedHandlers.drain(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+   }
+   
+   /**
+    * <p>
+    * Passes the exceptions stored in the dead-letter queues back to their
+    * handlers, with the handlers' attributes applied, and empties the
+    * queues. Exceptions that fail again are retried and, once given up on,
+    * stored again. The exceptions are {@link DecodedException} instances.
+    * </p>
+    * 
+    * @return The number of exceptions passed back to their handlers.
+    */
+   public int reprocessDeadLetters() {
+      
+      DecoratedHandlers decoratedHandlers = snapshot.decoratedHandlers;
+      int count = 0;
+      for (Map.Entry<String, DeadLetterQueue> entry : decoratedHandlers.getDeadLetterQueues().entrySet()) {
          try {
-            CoreExceptionHandler handler = handlers.get(handlerFqcn);
-            if (handler == null) {
-               logger.info("Handler '" + handlerFqcn + "' was not found; ignoring this handler's processing for exception type '" + exceptionFqcn + "'. Verify that the handler's namespace/package is correct and that it is in the runtime classpath.");
+            count += entry.getValue().reprocess(decoratedHandlers.getHandlers().get(entry.getKey()));
+         } catch (IOException e) {
+            logger.error("Reprocessing the dead letters of handler '" + entry.getKey() + "' failed.", e);
+         }
+      }
+      return count;
+   }
+   
+   /**
+    * <p>
+    * Handles the exceptions that are still pending, including the counts of
+    * suppressed repeats, stops watching the configuration file, releases
+    * the dispatch and bulkhead threads, closes the spool and stops exposing
+    * the metrics.
+    * Exceptions requested for handling after shutdown are handled on the
+    * calling thread.
+    * </p>
+    * 
+    * @param timeout The maximum time to wait for pending exceptions.
+    * @param unit The unit of the timeout.
+    * @return true if all pending exceptions were handled and false if the
+    *       timeout elapsed first.
+    * @throws InterruptedException if interrupted while waiting.
+    */
+   public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+      
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      synchronized (this) {
+         closed = true;
+         if (watcher != null) {
+            watcher.close();
+         }
+      }
+      if (deduplicator != null) {
+         deduplicator.shutdown();
+      }
+      boolean terminated = pipeline.shutdown(timeout, unit);
+      terminated = snapshot.decoratedHandlers.shutdown(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) && terminated;
+      if (spool != null) {
+         spool.close();
+      }
+      if (metrics != null) {
+         metrics.close();
+      }
+      return terminated;
+   }
+   
+   /**
+    * <p>
+    * Writes the exception to the spool, if there is one, and publishes it
+    * for dispatch. An exception that cannot be spooled is published as it
+    * is.
+    * </p>
+    * 
+    * @param exception The exception instance that is to be handled.
+    */
+   private void publish(CoreException exception) {
+      
+      SpooledException spooled = spool == null ? null : spool.append(exception);
+      pipeline.publish(spooled == null ? exception : spooled);
+   }
+   
+   /**
+    * <p>
+    * Executes the handlers associated with the given exception on the
+    * calling thread. A handler that fails is logged and does not prevent the
+    * remaining handlers from executing. A {@link DerivedException}, such as a
+    * {@link RepeatedException}, is handled by the handlers of its original
+    * exception, and an exception replayed from the spool by the handlers of
+    * the class it was written with.
+    * </p>
+    * 
+    * @param exception The exception instance that is to be handled.
+    */
+   private void dispatch(CoreException exception) {
+      
+      Snapshot current = enter();
+      try {
+         CoreException mapped = exception;
+         while (mapped instanceof DerivedException) {
+            mapped = ((DerivedException) mapped).getOriginal();
+         }
+         DispatchTable dispatchTable = current.dispatchTable;
+         CoreExceptionHandler[] exceptionHandlers = mapped instanceof DecodedException ?
+               dispatchTable.getHandlers(((DecodedException) mapped).getOriginalClassName()) :
+               dispatchTable.getHandlers(mapped.getClass());
+         String mappedFqcn = mapped instanceof DecodedException ? ((DecodedException) mapped).getOriginalClassName() : mapped.getClass().getName();
+         
+         if (metrics != null) {
+            metrics.record(mappedFqcn, dispatchTable.isDefault(exceptionHandlers) ? Metrics.Event.DEFAULTED : Metrics.Event.DISPATCHED);
+         }
+         
+         for (int i = 0; i < exceptionHandlers.length; i++) {
+            
+            try {
+               exceptionHandlers[i].handle(exception);
+            } catch (Exception e) {
+               logger.error("Handler '" + dispatchTable.getHandlerName(exceptionHandlers[i]) + "' encountered errors when executing handler processing for exception type '" + mappedFqcn + "'.", e);
             }
-            handler.handle(exception);
-         } catch (Exception e) {
-            logger.error("Handler '" + handlerFqcn + "' encountered errors when executing handler processing for exception type '" + exceptionFqcn + "'.", e);
          }
+      } finally {
+         if (exception instanceof SpooledException) {
+            spool.dispatched((SpooledException) exception);
+         }
+         current.dispatching.add(-1);
       }
    }
    
    /**
     * <p>
-    * Sets the configuration settings and mappings. If the configuration object
-    * is null then the configuration is read and loaded from the configuration
-    * file. 
+    * Accounts for an exception that the dispatch pipeline dropped because it
+    * was full: it is counted, and a spooled exception is marked as dispatched
+    * so that it does not hold back the spool.
+    * </p>
+    * 
+    * @param exception The dropped exception.
+    */
+   private void dropped(CoreException exception) {
+      
+      record(exception, Metrics.Event.DROPPED);
+      if (exception instanceof SpooledException) {
+         spool.dispatched((SpooledException) exception);
+      }
+   }
+   
+   /**
+    * <p>
+    * Returns the current snapshot, counted as in use until the caller
+    * subtracts it again. If the snapshot is replaced while it is being
+    * counted, the count is taken back and the new snapshot is used, so a
+    * replaced snapshot that is not in use stays unused.
+    * </p>
+    * 
+    * @return The snapshot in use.
+    */
+   private Snapshot enter() {
+      
+      while (true) {
+         Snapshot current = snapshot;
+         current.dispatching.increment();
+         if (current == snapshot) {
+            return current;
+         }
+         current.dispatching.add(-1);
+      }
+   }
+   
+   /**
+    * <p>
+    * Publishes a snapshot of a reloaded configuration. The handlers whose
+    * attributes did not change are carried over; the others are
+    * instantiated. Once the dispatches on the previous snapshot have
+    * finished, its handler threads are released and the handlers that were
+    * not carried over are closed.
+    * </p>
+    * <p>
+    * This method is exposed for testing purposes; the configuration file
+    * watcher calls it when the file changed.
+    * </p>
+    * 
+    * @param reloaded The reloaded configuration.
+    */
+   synchronized void reload(Configuration reloaded) {
+      
+      if (closed) return;
+      
+      Snapshot previous = snapshot;
+      Configuration working = copyConfiguration(reloaded);
+      Map<String, CoreExceptionHandler> handlers = instantiateHandlers(working, previous);
+      Configuration published = working.toImmutable();
+      snapshot = new Snapshot(published, handlers, new DecoratedHandlers(published, handlers, spool, metrics));
+      addQueueDepths(snapshot);
+      
+      long timeoutMillis = DispatchPipelines.getShutdownTimeoutMillis(configuration);
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      try {
+         while (previous.dispatching.sum() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+         }
+         if (!previous.decoratedHandlers.retire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS, handlers.values())) {
+            logger.warn("The handlers of the previous configuration did not finish within " + timeoutMillis + "ms.");
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+   
+   /**
+    * <p>
+    * Counts an event of an exception if metrics are enabled.
+    * </p>
+    * 
+    * @param exception The exception the event happened to.
+    * @param event What happened to the exception.
+    */
+   private void record(CoreException exception, Metrics.Event event) {
+      
+      if (metrics != null) {
+         metrics.record(exception, event);
+      }
+   }
+   
+   /**
+    * <p>
+    * Sets the depths of the dispatch queue and of the bulkhead and retry
+    * queues of a snapshot as the queues of the metrics.
+    * </p>
+    * 
+    * @param current The snapshot whose queues are reported.
+    */
+   private void addQueueDepths(Snapshot current) {
+      
+      if (metrics == null) return;
+      
+      metrics.removeQueues();
+      if (pipeline instanceof QueuePipeline) {
+         final QueuePipeline queuePipeline = (QueuePipeline) pipeline;
+         metrics.addQueue("dispatch", new Gauge() {
+            public long getValue() {
+               return queuePipeline.getPendingCount();
+            }
+         });
+      } else if (pipeline instanceof RingBufferPipeline) {
+         final RingBufferPipeline ringBufferPipeline = (RingBufferPipeline) pipeline;
+         metrics.addQueue("dispatch", new Gauge() {
+            public long getValue() {
+               return ringBufferPipeline.getPendingCount();
+            }
+         });
+      }
+      for (final Bulkhead bulkhead : current.decoratedHandlers.getBulkheads()) {
+         metrics.addQueue("bulkhead:" + bulkhead.getName(), new Gauge() {
+            public long getValue() {
+               return bulkhead.getPendingCount();
+            }
+         });
+      }
+      for (final RetryHandler retryHandler : current.decoratedHandlers.getRetryHandlers()) {
+         metrics.addQueue("retry:" + retryHandler.getName(), new Gauge() {
+            public long getValue() {
+               return retryHandler.getPendingCount();
+            }
+         });
+      }
+   }
+   
+   /**
+    * <p>
+    * Registers a JVM shutdown hook that flushes the pending exceptions of an
+    * asynchronous pipeline, of the handler bulkheads or of the deduplicator,
+    * stops watching the configuration file, closes the spool and stops
+    * exposing the metrics.
+    * </p>
+    */
+   private void registerShutdownHook() {
+      
+      if (!pipeline.isAsynchronous() && !snapshot.decoratedHandlers.isAsynchronous() && deduplicator == null && spool == null && metrics == null && watcher == null) return;
+      
+      final long timeoutMillis = DispatchPipelines.getShutdownTimeoutMillis(configuration);
+      shutdownHook = new Thread(new Runnable() {
+         public void run() {
+            try {
+               shutdown(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+         }
+      }, "glitch-shutdown");
+      Runtime.getRuntime().addShutdownHook(shutdownHook);
+   }
+   
+   /**
+    * <p>
+    * Shuts down this instance's threads and removes its shutdown hook. Used
+    * when this instance is replaced by {@link #initialize(Configuration)}.
+    * </p>
+    */
+   private void close() {
+      
+      if (shutdownHook == null) return;
+      
+      try {
+         Runtime.getRuntime().removeShutdownHook(shutdownHook);
+         shutdownHook.run();
+      } catch (IllegalStateException e) {
+         // the JVM is already shutting down and the hook is running.
+      }
+   }
+   
+   /**
+    * <p>
+    * Returns a copy of the configuration settings and mappings that this
+    * instance may change. If the configuration object is null then the
+    * configuration is read and loaded from the configuration file. 
     * </p>
     * 
     * @param configuration The configuration tied to this instance. If null then
     *       configuration file is used. 
+    * @return A modifiable copy of the configuration.
     */
-   private void setConfiguration(Configuration configuration) {
+   private Configuration copyConfiguration(Configuration configuration) {
       
-      this.configuration = (configuration == null) ? 
+      return new Configuration((configuration == null) ? 
             readConfiguration() :
-            configuration;
+            configuration);
    }
    
    /**
@@ -200,70 +680,95 @@ public final class ExceptionManager {
     */
    private Configuration readConfiguration() {
       
-      return ConfigurationParserFactory.getParser().getConfiguration();
+      return ConfigurationParserFactory.getConfiguration();
    }
    
    /**
     * <p>
     * Obtains all the handlers defined in the configuration and instantiates
-    * each one. A handler that cannot be instantiated will have all its
-    * mappings removed.
+    * each one, as selected by the configuration's startup property; see
+    * {@link HandlerStartup}. A handler that cannot be instantiated will have
+    * all its mappings removed. A handler of the previous snapshot is kept if
+    * its attributes did not change.
     * </p>
+    * 
+    * @param configuration The configuration defining the handlers.
+    * @param previous The snapshot being replaced or null if there is none.
+    * @return The handlers keyed by their fully qualified class names.
     */
-   private void instantiateHandlers() {
+   private Map<String, CoreExceptionHandler> instantiateHandlers(Configuration configuration, Snapshot previous) {
       
-      handlers = new TreeMap<String, CoreExceptionHandler>();
+      Map<String, CoreExceptionHandler> handlers = new TreeMap<String, CoreExceptionHandler>();
+      HandlerStartup startup = HandlerStartup.create(configuration);
       
-      ArrayList<String> badHandlers = new ArrayList<String>();
+      ArrayList<String> newHandlers = new ArrayList<String>();
       Set<String> handlerFqcnSet = configuration.getAllHandlers();
       
       for (Iterator<String> handlerIterator = handlerFqcnSet.iterator(); handlerIterator.hasNext();) {
          
          String handlerFqcn = handlerIterator.next();
-         CoreExceptionHandler handler = instantiateHandler(handlerFqcn);
+         CoreExceptionHandler handler = previousHandler(handlerFqcn, configuration, previous);
          if (handler == null) {
-            badHandlers.add(handlerFqcn);
+            newHandlers.add(handlerFqcn);
          } else {
             handlers.put(handlerFqcn, handler);
          }
       }
+      handlers.putAll(startup.instantiate(newHandlers));
       
+      ArrayList<String> badHandlers = new ArrayList<String>();
+      for (String handlerFqcn : newHandlers) {
+         if (!handlers.containsKey(handlerFqcn)) {
+            badHandlers.add(handlerFqcn);
+         }
+      }
       configuration.removeHandlerReferences(badHandlers);
+      instantiateFallbackHandlers(configuration, previous, startup, handlers);
+      return handlers;
    }
    
    /**
     * <p>
-    * Given the fully qualified class name of a CoreExceptionHandler, returns
-    * an instance of the class.
+    * Instantiates the fallback handlers named by the handlers' attributes
+    * that are not mapped themselves, including the fallbacks of fallbacks.
     * </p>
-    * <p>
-    * If the class name is null, is empty, cannot be found, cannot be
-    * initialized or is not otherwise accessible then null is returned.
-    * </p>
-    * 
-    * @param fqcn A fully qualified class name of a CoreExceptionHandler.
-    * @return An instance of class identified by the given fully qualified
-    *       class name parameter. Null is returned if the class name is not
-    *       valid.
     */
-   @SuppressWarnings("unchecked")
-   private CoreExceptionHandler instantiateHandler(String fqcn) {
+   private void instantiateFallbackHandlers(Configuration configuration, Snapshot previous, HandlerStartup startup, Map<String, CoreExceptionHandler> handlers) {
       
-      CoreExceptionHandler handler = null;
+      ArrayList<String> pending = new ArrayList<String>(handlers.keySet());
+      Set<String> attempted = new HashSet<String>(pending);
       
-      if (fqcn != null && !fqcn.trim().isEmpty()) {
+      while (!pending.isEmpty()) {
          
-         try {
-            Class<CoreExceptionHandler> handlerClass = (Class<CoreExceptionHandler>) Class.forName(fqcn);
-            handler = handlerClass.newInstance();
-         } catch (Exception e) {
-            logger.error(
-                  "The handler '" + fqcn + "' could be found or could not be instantiated; ingoring all references and associations to this handler. Adjust the configuration to use a valid, locatable handler.", 
-                  e);
+         String fallbackFqcn = configuration.getHandlerAttributes(pending.remove(pending.size() - 1)).get(DecoratedHandlers.FALLBACK);
+         if (fallbackFqcn != null && attempted.add(fallbackFqcn)) {
+            CoreExceptionHandler fallback = previousHandler(fallbackFqcn, configuration, previous);
+            if (fallback == null) {
+               fallback = startup.instantiate(fallbackFqcn);
+            }
+            if (fallback != null) {
+               handlers.put(fallbackFqcn, fallback);
+               pending.add(fallbackFqcn);
+            }
          }
       }
+   }
+   
+   /**
+    * <p>
+    * Returns the handler of the previous snapshot if its attributes are the
+    * same in the configuration, or else null.
+    * </p>
+    */
+   private CoreExceptionHandler previousHandler(String fqcn, Configuration configuration, Snapshot previous) {
       
-      return handler;
+      if (previous != null) {
+         CoreExceptionHandler handler = previous.handlers.get(fqcn);
+         if (handler != null && previous.configuration.getHandlerAttributes(fqcn).equals(configuration.getHandlerAttributes(fqcn))) {
+            return handler;
+         }
+      }
+      return null;
    }
    
    /**
@@ -279,7 +784,64 @@ public final class ExceptionManager {
     */
    Map<String, CoreExceptionHandler> getHandlers() {
       
-      return this.handlers;
+      return this.snapshot.handlers;
+   }
+   
+   /**
+    * <p>
+    * Returns the exception rate limits of this instance.
+    * </p>
+    * <p>
+    * This method is only exposed for testing purposes.
+    * </p>
+    * 
+    * @return The exception rate limits or null if none are configured.
+    */
+   ExceptionRateLimits getRateLimits() {
+      
+      return this.snapshot.rateLimits;
+   }
+   
+   /**
+    * <p>
+    * Returns the exception samplers of this instance.
+    * </p>
+    * <p>
+    * This method is only exposed for testing purposes.
+    * </p>
+    * 
+    * @return The exception samplers or null if none are configured.
+    */
+   ExceptionSamplers getSamplers() {
+      
+      return this.snapshot.samplers;
+   }
+   
+   /**
+    * <p>
+    * The handlers, dispatch table and exception limits built from one
+    * configuration, replaced as a whole when the configuration is reloaded.
+    * </p>
+    */
+   private static final class Snapshot {
+      
+      private final Configuration configuration;
+      private final Map<String, CoreExceptionHandler> handlers;
+      private final DecoratedHandlers decoratedHandlers;
+      private final DispatchTable dispatchTable;
+      private final ExceptionRateLimits rateLimits;
+      private final ExceptionSamplers samplers;
+      private final StripedCounter dispatching = new StripedCounter();
+      
+      Snapshot(Configuration configuration, Map<String, CoreExceptionHandler> handlers, DecoratedHandlers decoratedHandlers) {
+         
+         this.configuration = configuration;
+         this.handlers = handlers;
+         this.decoratedHandlers = decoratedHandlers;
+         this.dispatchTable = new DispatchTable(configuration, decoratedHandlers.getHandlers());
+         this.rateLimits = ExceptionRateLimits.create(configuration);
+         this.samplers = ExceptionSamplers.create(configuration);
+      }
    }
    
 }
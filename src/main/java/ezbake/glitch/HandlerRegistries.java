@@ -0,0 +1,97 @@
+package ezbake.glitch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.config.Configuration;
+
+/**
+ * <p>
+ * The {@link HandlerRegistry} registries on the classpath, found once with
+ * {@link ServiceLoader}. A registry that cannot be loaded is logged and
+ * skipped.
+ * </p>
+ */
+public final class HandlerRegistries {
+
+   private static Logger logger = LoggerFactory.getLogger(HandlerRegistries.class);
+
+   private static final List<HandlerRegistry> registries = load();
+
+   private HandlerRegistries() {
+
+   }
+
+   /**
+    * <p>
+    * Returns the registries on the classpath.
+    * </p>
+    * 
+    * @return An unmodifiable list of the registries.
+    */
+   public static List<HandlerRegistry> getRegistries() {
+
+      return registries;
+   }
+
+   /**
+    * <p>
+    * Adds the mappings of every registry to a configuration, next to the
+    * mappings it already has.
+    * </p>
+    * 
+    * @param configuration The configuration to which the mappings are added.
+    */
+   public static void addMappings(Configuration configuration) {
+
+      for (HandlerRegistry registry : registries) {
+         registry.addMappings(configuration);
+      }
+   }
+
+   /**
+    * <p>
+    * Creates a handler with the first registry that knows it.
+    * </p>
+    * 
+    * @param handlerFqcn The fully qualified class name of the handler.
+    * @return A new instance of the handler or null if no registry knows it.
+    * @throws Exception If the handler's constructor fails.
+    */
+   public static CoreExceptionHandler newHandler(String handlerFqcn) throws Exception {
+
+      for (HandlerRegistry registry : registries) {
+         CoreExceptionHandler handler = registry.newHandler(handlerFqcn);
+         if (handler != null) {
+            return handler;
+         }
+      }
+      return null;
+   }
+
+   private static List<HandlerRegistry> load() {
+
+      List<HandlerRegistry> loaded = new ArrayList<HandlerRegistry>();
+      Iterator<HandlerRegistry> iterator = ServiceLoader.load(HandlerRegistry.class, HandlerRegistries.class.getClassLoader()).iterator();
+      while (true) {
+         try {
+            if (!iterator.hasNext()) {
+               break;
+            }
+            HandlerRegistry registry = iterator.next();
+            loaded.add(registry);
+            logger.debug("Loaded the handler registry " + registry.getClass().getName() + ".");
+         } catch (ServiceConfigurationError e) {
+            logger.error("A handler registry could not be loaded and is ignored.", e);
+         }
+      }
+      return Collections.unmodifiableList(loaded);
+   }
+}
@@ -0,0 +1,36 @@
+package ezbake.glitch;
+
+import ezbake.glitch.config.Configuration;
+
+/**
+ * <p>
+ * Supplies exception-handler mappings and creates the handlers it maps
+ * without reflection. A registry is generated by
+ * {@link ezbake.glitch.processor.HandlesProcessor} from the handlers
+ * annotated with {@link Handles} and found at runtime with
+ * {@link java.util.ServiceLoader}; see {@link HandlerRegistries}.
+ * </p>
+ */
+public interface HandlerRegistry {
+
+   /**
+    * <p>
+    * Adds the registry's mappings to a configuration.
+    * </p>
+    * 
+    * @param configuration The configuration to which the mappings are added.
+    */
+   void addMappings(Configuration configuration);
+   
+   /**
+    * <p>
+    * Creates a handler of the registry.
+    * </p>
+    * 
+    * @param handlerFqcn The fully qualified class name of the handler.
+    * @return A new instance of the handler or null if the handler is not
+    *       one of this registry's.
+    * @throws Exception If the handler's constructor fails.
+    */
+   CoreExceptionHandler newHandler(String handlerFqcn) throws Exception;
+}
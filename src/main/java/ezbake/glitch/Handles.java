@@ -0,0 +1,44 @@
+package ezbake.glitch;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>
+ * Maps a {@link CoreExceptionHandler} to the exceptions it handles in its
+ * own source instead of the configuration file. The annotation processor
+ * that ships with the framework, {@link ezbake.glitch.processor.HandlesProcessor},
+ * turns the annotated handlers of a compilation into a
+ * {@link HandlerRegistry} whose mappings are added to those of the
+ * configuration file and whose handlers are created without reflection.
+ * </p>
+ * <p>
+ * <code>
+ * &#64;Handles({ FatalShutdownException.class, MissingConfigurationException.class })<br>
+ * public class PagerHandler implements CoreExceptionHandler {<br>
+ * &nbsp;&nbsp;&nbsp;...<br>
+ * }<br>
+ * </code>
+ * </p>
+ * <p>
+ * The handler must be a public, top-level or static nested class with a
+ * public constructor that takes no arguments.
+ * </p>
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface Handles {
+
+   /**
+    * <p>
+    * The exceptions handled by the annotated handler.
+    * </p>
+    * 
+    * @return The exception classes.
+    */
+   Class<? extends CoreException>[] value();
+}
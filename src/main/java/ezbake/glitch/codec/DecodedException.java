@@ -0,0 +1,214 @@
+package ezbake.glitch.codec;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.exception.DerivedException;
+
+/**
+ * <p>
+ * An exception read back from its binary event by an {@link EventDecoder}.
+ * It is not a {@link java.lang.Throwable}; it reports the class names,
+ * messages and stack frames that were written, and prints its stack trace
+ * the way the original exception printed it, so it can be handed to the
+ * same handlers.
+ * </p>
+ */
+public class DecodedException implements CoreException {
+
+   private final long timestamp;
+   private final String thread;
+   private final String className;
+   private final String message;
+   private final Map<String, String> attributes;
+   private final List<Trace> traces;
+   private final boolean self;
+
+   DecodedException(long timestamp, String thread, String className, String message,
+         Map<String, String> attributes, List<Trace> traces, boolean self) {
+
+      this.timestamp = timestamp;
+      this.thread = thread;
+      this.className = className;
+      this.message = message;
+      this.attributes = Collections.unmodifiableMap(attributes);
+      this.traces = Collections.unmodifiableList(traces);
+      this.self = self;
+   }
+
+   public String getMessage() {
+
+      return message;
+   }
+
+   /**
+    * <p>
+    * Returns null, as a decoded exception was not thrown.
+    * </p>
+    *
+    * @return null.
+    */
+   public Throwable getException() {
+
+      return null;
+   }
+
+   public void printStackTrace(PrintStream out) {
+
+      if (!self) {
+         out.println(message == null ? className : className + ": " + message);
+      }
+      for (int i = 0; i < traces.size(); i++) {
+         Trace trace = traces.get(i);
+         String header = trace.message == null ? trace.className : trace.className + ": " + trace.message;
+         out.println(i == 0 ? header : "Caused by: " + header);
+         for (StackTraceElement frame : trace.frames) {
+            out.println("\tat " + frame);
+         }
+      }
+   }
+
+   /**
+    * <p>
+    * Returns the time the exception was written.
+    * </p>
+    *
+    * @return The time in milliseconds since the epoch.
+    */
+   public long getTimestamp() {
+
+      return timestamp;
+   }
+
+   /**
+    * <p>
+    * Returns the name of the thread the exception was written on.
+    * </p>
+    *
+    * @return The thread name.
+    */
+   public String getThread() {
+
+      return thread;
+   }
+
+   /**
+    * <p>
+    * Returns the fully qualified class name of the original exception.
+    * </p>
+    *
+    * @return The class name.
+    */
+   public String getClassName() {
+
+      return className;
+   }
+
+   /**
+    * <p>
+    * Returns the fully qualified class name of the exception that was
+    * requested for handling. For a derived exception, such as a repeated or
+    * sampled one, {@link #getClassName()} names the derived class and this
+    * method the class of the exception it stands for.
+    * </p>
+    *
+    * @return The class name of the original exception.
+    */
+   public String getOriginalClassName() {
+
+      String original = attributes.get(EventEncoder.ORIGINAL);
+      return original == null ? className : original;
+   }
+
+   /**
+    * <p>
+    * Returns the fully qualified class name an exception is dispatched by:
+    * that of its original if it is derived from another exception, such as a
+    * spooled one, and the original class name if it was decoded.
+    * </p>
+    *
+    * @param exception The exception.
+    * @return The class name of the exception it stands for.
+    */
+   public static String getMappedClassName(CoreException exception) {
+
+      CoreException mapped = exception;
+      while (mapped instanceof DerivedException) {
+         mapped = ((DerivedException) mapped).getOriginal();
+      }
+      return mapped instanceof DecodedException ? ((DecodedException) mapped).getOriginalClassName() : mapped.getClass().getName();
+   }
+
+   /**
+    * <p>
+    * Returns the context attributes written with the exception.
+    * </p>
+    *
+    * @return An unmodifiable map of the attributes.
+    */
+   public Map<String, String> getAttributes() {
+
+      return attributes;
+   }
+
+   /**
+    * <p>
+    * Returns the throwable of the original exception and its causes.
+    * </p>
+    *
+    * @return An unmodifiable list of the traces, outermost first.
+    */
+   public List<Trace> getTraces() {
+
+      return traces;
+   }
+
+   /**
+    * <p>
+    * Answers true if the exception was its own throwable, in which case the
+    * first trace is the exception itself.
+    * </p>
+    */
+   boolean isSelf() {
+
+      return self;
+   }
+
+   /**
+    * <p>
+    * The class name, message and stack frames of one throwable in a cause
+    * chain.
+    * </p>
+    */
+   public static final class Trace {
+
+      private final String className;
+      private final String message;
+      private final StackTraceElement[] frames;
+
+      Trace(String className, String message, StackTraceElement[] frames) {
+
+         this.className = className;
+         this.message = message;
+         this.frames = frames;
+      }
+
+      public String getClassName() {
+
+         return className;
+      }
+
+      public String getMessage() {
+
+         return message;
+      }
+
+      public StackTraceElement[] getFrames() {
+
+         return frames.clone();
+      }
+   }
+}
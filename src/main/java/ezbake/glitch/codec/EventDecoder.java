@@ -0,0 +1,439 @@
+package ezbake.glitch.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>
+ * Reads the binary events written by an {@link EventEncoder} back as
+ * {@link DecodedException} instances. A decoder follows one stream: it
+ * learns the names and frames each event defines and resolves the
+ * references of the events after it, so the events of a stream must be
+ * decoded in the order they were written.
+ * </p>
+ * <p>
+ * Names and frames are decoded once per stream and shared by the events
+ * that refer to them. {@link #decode(ByteBuffer)} builds a new exception
+ * with its own lists, map and strings for every event.
+ * {@link #decode(ByteBuffer, EventVisitor)} hands the parts of an event to a
+ * visitor instead and decodes the messages and attribute values into
+ * buffers it reuses, so once the names and frames of a stream are known it
+ * allocates nothing; {@link #skip(ByteBuffer)} reads past an event the same
+ * way.
+ * </p>
+ * <p>
+ * Run as a program, the decoder prints the events of the files named on the
+ * command line, which may be gzipped:
+ * </p>
+ * <pre>
+ * java -cp glitch.jar ezbake.glitch.codec.EventDecoder logs/glitch-20240102-030405-000.events
+ * </pre>
+ * <p>
+ * A decoder is not thread-safe.
+ * </p>
+ */
+public final class EventDecoder {
+
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+   private static final int MESSAGE = 0;
+   private static final int VALUE = 1;
+   private static final EventVisitor IGNORE = new EventVisitor() {
+      public void startEvent(long timestamp, String thread, String className, CharSequence message, boolean self) {
+      }
+      public void attribute(String name, CharSequence value) {
+      }
+      public void startTrace(String className, CharSequence message, int frameCount) {
+      }
+      public void frame(StackTraceElement frame) {
+      }
+      public void endEvent() {
+      }
+   };
+
+   private final List<String> symbols = new ArrayList<String>();
+   private final List<StackTraceElement> frames = new ArrayList<StackTraceElement>();
+   private final CharsetDecoder utf8 = UTF_8.newDecoder()
+         .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+   private final CharBuffer[] chars = { CharBuffer.allocate(256), CharBuffer.allocate(256) };
+   private final Builder builder = new Builder();
+   private byte[] scratch = new byte[256];
+
+   /**
+    * <p>
+    * Reads the event at the buffer's position and advances the position
+    * past it.
+    * </p>
+    *
+    * @param in The buffer holding the events.
+    * @return The decoded exception or null if the buffer has no event left,
+    *       which is the case when its remaining bytes start with a zero.
+    * @throws EventFormatException if the bytes are not a valid event.
+    */
+   public DecodedException decode(ByteBuffer in) {
+
+      return decode(in, builder) ? builder.build() : null;
+   }
+
+   /**
+    * <p>
+    * Reads the event at the buffer's position, hands its parts to a visitor
+    * and advances the position past it.
+    * </p>
+    *
+    * @param in The buffer holding the events.
+    * @param visitor The visitor that receives the parts of the event.
+    * @return true if an event was read, false if the buffer has no event
+    *       left, which is the case when its remaining bytes start with a
+    *       zero.
+    * @throws EventFormatException if the bytes are not a valid event.
+    */
+   public boolean decode(ByteBuffer in, EventVisitor visitor) {
+
+      if (!in.hasRemaining() || in.get(in.position()) == 0) {
+         return false;
+      }
+      int start = in.position();
+      try {
+         if (in.get() != EventFormat.MAGIC_0 || in.get() != EventFormat.MAGIC_1) {
+            throw new EventFormatException("No event starts at offset " + start + ".");
+         }
+         byte version = in.get();
+         if (version < EventFormat.FIRST_VERSION || version > EventFormat.VERSION) {
+            throw new EventFormatException("The event at offset " + start + " has the unknown version " + version + ".");
+         }
+         int flags = in.get();
+         int length = in.getInt();
+         int end = in.position() + length;
+         if (length < 0 || end > in.limit()) {
+            throw new EventFormatException("The event at offset " + start + " is truncated.");
+         }
+         if ((flags & EventFormat.FLAG_RESET) != 0) {
+            symbols.clear();
+            frames.clear();
+         }
+         boolean self = (flags & EventFormat.FLAG_SELF) != 0;
+
+         long timestamp = in.getLong();
+         String thread = getSymbol(in);
+         String className = getSymbol(in);
+         CharBuffer message = getChars(in, MESSAGE);
+         visitor.startEvent(timestamp, thread, className, message, self);
+
+         int attributeCount = getCount(in, end);
+         for (int i = 0; i < attributeCount; i++) {
+            visitor.attribute(getSymbol(in), getChars(in, VALUE));
+         }
+
+         int traceCount = getCount(in, end);
+         for (int i = 0; i < traceCount; i++) {
+            String traceClassName = className;
+            CharBuffer traceMessage = message;
+            if (i > 0 || !self) {
+               traceClassName = getSymbol(in);
+               traceMessage = getChars(in, VALUE);
+            } else if (message != null) {
+               message.rewind();
+            }
+            int frameCount = getCount(in, end);
+            visitor.startTrace(traceClassName, traceMessage, frameCount);
+            for (int j = 0; j < frameCount; j++) {
+               visitor.frame(getFrame(in, version));
+            }
+         }
+
+         if (in.position() != end) {
+            throw new EventFormatException("The event at offset " + start + " does not match its length.");
+         }
+         visitor.endEvent();
+         return true;
+      } catch (BufferUnderflowException e) {
+         throw new EventFormatException("The event at offset " + start + " is truncated.");
+      }
+   }
+
+   /**
+    * <p>
+    * Reads past the event at the buffer's position, learning the names and
+    * frames it defines, without building anything from it.
+    * </p>
+    *
+    * @param in The buffer holding the events.
+    * @return true if an event was read, false if the buffer has no event
+    *       left.
+    * @throws EventFormatException if the bytes are not a valid event.
+    */
+   public boolean skip(ByteBuffer in) {
+
+      return decode(in, IGNORE);
+   }
+
+   /**
+    * <p>
+    * Prints the events of the given files to standard output.
+    * </p>
+    *
+    * @param args The names of the files, each holding one stream of events.
+    * @throws IOException if a file cannot be read.
+    */
+   public static void main(String[] args) throws IOException {
+
+      SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+      PrintStream out = System.out;
+      for (String fileName : args) {
+         ByteBuffer in = ByteBuffer.wrap(read(fileName));
+         EventDecoder decoder = new EventDecoder();
+         for (DecodedException event = decoder.decode(in); event != null; event = decoder.decode(in)) {
+            out.println(format.format(new Date(event.getTimestamp())) + " [" + event.getThread() + "] " + event.getAttributes());
+            event.printStackTrace(out);
+         }
+      }
+      out.flush();
+   }
+
+   private static byte[] read(String fileName) throws IOException {
+
+      InputStream in = new FileInputStream(fileName);
+      try {
+         if (fileName.endsWith(".gz")) {
+            in = new GZIPInputStream(in);
+         }
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         byte[] buffer = new byte[64 * 1024];
+         for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            bytes.write(buffer, 0, read);
+         }
+         return bytes.toByteArray();
+      } finally {
+         in.close();
+      }
+   }
+
+   private StackTraceElement getFrame(ByteBuffer in, int version) {
+
+      int tag = getVarint(in);
+      if (tag != EventFormat.NEW_FRAME) {
+         int id = tag - EventFormat.FIRST_FRAME_REFERENCE;
+         if (id < 0 || id >= frames.size()) {
+            throw new EventFormatException("The frame " + id + " is not defined in this stream.");
+         }
+         return frames.get(id);
+      }
+      String classLoaderName = null;
+      String moduleName = null;
+      String moduleVersion = null;
+      if (version >= EventFormat.ORIGIN_VERSION) {
+         classLoaderName = getSymbol(in);
+         moduleName = getSymbol(in);
+         moduleVersion = getSymbol(in);
+      }
+      String declaringClass = getSymbol(in);
+      String methodName = getSymbol(in);
+      String fileName = getSymbol(in);
+      int zigzag = getVarint(in);
+      StackTraceElement frame = StackFrames.newFrame(classLoaderName, moduleName, moduleVersion,
+            declaringClass, methodName, fileName, (zigzag >>> 1) ^ -(zigzag & 1));
+      frames.add(frame);
+      return frame;
+   }
+
+   private String getSymbol(ByteBuffer in) {
+
+      int tag = getVarint(in);
+      if (tag == EventFormat.NULL) {
+         return null;
+      }
+      if (tag == EventFormat.NEW_SYMBOL) {
+         String symbol = getString(in);
+         symbols.add(symbol);
+         return symbol;
+      }
+      int id = tag - EventFormat.FIRST_SYMBOL_REFERENCE;
+      if (id < 0 || id >= symbols.size()) {
+         throw new EventFormatException("The symbol " + id + " is not defined in this stream.");
+      }
+      return symbols.get(id);
+   }
+
+   private String getString(ByteBuffer in) {
+
+      int tag = getVarint(in);
+      if (tag == EventFormat.NULL) {
+         return null;
+      }
+      int length = tag - 1;
+      if (length < 0 || length > in.remaining()) {
+         throw new BufferUnderflowException();
+      }
+      if (in.hasArray()) {
+         String value = new String(in.array(), in.arrayOffset() + in.position(), length, UTF_8);
+         in.position(in.position() + length);
+         return value;
+      }
+      if (scratch.length < length) {
+         scratch = new byte[Math.max(length, scratch.length * 2)];
+      }
+      in.get(scratch, 0, length);
+      return new String(scratch, 0, length, UTF_8);
+   }
+
+   /**
+    * <p>
+    * Decodes a string into one of the reused character buffers.
+    * </p>
+    *
+    * @return The buffer holding the string, or null for a null string.
+    */
+   private CharBuffer getChars(ByteBuffer in, int slot) {
+
+      int tag = getVarint(in);
+      if (tag == EventFormat.NULL) {
+         return null;
+      }
+      int length = tag - 1;
+      if (length < 0 || length > in.remaining()) {
+         throw new BufferUnderflowException();
+      }
+      CharBuffer buffer = chars[slot];
+      if (buffer.capacity() < length) {
+         buffer = CharBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+         chars[slot] = buffer;
+      }
+      buffer.clear();
+      int limit = in.limit();
+      int end = in.position() + length;
+      in.limit(end);
+      try {
+         utf8.reset();
+         if (utf8.decode(in, buffer, true).isOverflow() || utf8.flush(buffer).isOverflow()) {
+            throw new EventFormatException("The string at offset " + in.position() + " cannot be decoded.");
+         }
+      } finally {
+         in.limit(limit);
+      }
+      in.position(end);
+      buffer.flip();
+      return buffer;
+   }
+
+   /**
+    * <p>
+    * Reads the number of items that follow, each of which takes at least
+    * one byte before the end of the event.
+    * </p>
+    */
+   private static int getCount(ByteBuffer in, int end) {
+
+      int count = getVarint(in);
+      if (count < 0 || count > end - in.position()) {
+         throw new EventFormatException("The count " + count + " at offset " + in.position() + " exceeds the event.");
+      }
+      return count;
+   }
+
+   private static int getVarint(ByteBuffer in) {
+
+      int value = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+         byte b = in.get();
+         value |= (b & 0x7f) << shift;
+         if (b >= 0) {
+            return value;
+         }
+      }
+      throw new EventFormatException("A number at offset " + in.position() + " is too long.");
+   }
+
+   /**
+    * <p>
+    * Builds a {@link DecodedException} from the parts of an event.
+    * </p>
+    */
+   private static final class Builder implements EventVisitor {
+
+      private long timestamp;
+      private String thread;
+      private String className;
+      private String message;
+      private boolean self;
+      private Map<String, String> attributes;
+      private List<DecodedException.Trace> traces;
+      private String traceClassName;
+      private String traceMessage;
+      private StackTraceElement[] stackTrace;
+      private int frameCount;
+
+      public void startEvent(long timestamp, String thread, String className, CharSequence message, boolean self) {
+
+         this.timestamp = timestamp;
+         this.thread = thread;
+         this.className = className;
+         this.message = message == null ? null : message.toString();
+         this.self = self;
+         this.attributes = null;
+         this.traces = new ArrayList<DecodedException.Trace>(2);
+         this.stackTrace = null;
+      }
+
+      public void attribute(String name, CharSequence value) {
+
+         if (attributes == null) {
+            attributes = new LinkedHashMap<String, String>();
+         }
+         attributes.put(name, value == null ? null : value.toString());
+      }
+
+      public void startTrace(String className, CharSequence message, int frameCount) {
+
+         endTrace();
+         this.traceClassName = className;
+         this.traceMessage = self && traces.isEmpty() ? this.message : message == null ? null : message.toString();
+         this.stackTrace = new StackTraceElement[frameCount];
+         this.frameCount = 0;
+      }
+
+      public void frame(StackTraceElement frame) {
+
+         stackTrace[frameCount++] = frame;
+      }
+
+      public void endEvent() {
+
+         endTrace();
+      }
+
+      DecodedException build() {
+
+         Map<String, String> eventAttributes = attributes == null ? Collections.<String, String> emptyMap() : attributes;
+         DecodedException decoded = new DecodedException(timestamp, thread, className, message, eventAttributes, traces, self);
+         attributes = null;
+         traces = null;
+         return decoded;
+      }
+
+      private void endTrace() {
+
+         if (stackTrace != null) {
+            traces.add(new DecodedException.Trace(traceClassName, traceMessage, stackTrace));
+            stackTrace = null;
+         }
+      }
+   }
+}
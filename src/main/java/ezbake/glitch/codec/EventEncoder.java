@@ -0,0 +1,312 @@
+package ezbake.glitch.codec;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.exception.DerivedException;
+import ezbake.glitch.exception.RepeatedException;
+import ezbake.glitch.exception.SampledException;
+
+/**
+ * <p>
+ * Writes exceptions as compact binary events into a {@link ByteBuffer}; see
+ * {@link EventFormat} for the layout. Class names, method names, file names
+ * and thread names are written once per stream and referred to by number
+ * afterwards, and so are whole stack frames, so an exception that repeats
+ * costs little more than its message and a few bytes per frame.
+ * </p>
+ * <p>
+ * Encoding copies characters straight into the buffer; once the names of a
+ * stream are known, encoding an exception without attributes allocates
+ * nothing besides the copy of each stack trace that
+ * {@link Throwable#getStackTrace()} returns. The events written by one
+ * encoder form a stream that must be decoded in order by one
+ * {@link EventDecoder}, starting from an event written after
+ * {@link #reset()}. Events that are stored or sent one by one should
+ * therefore be written with a reset before each.
+ * </p>
+ * <p>
+ * An encoder is not thread-safe.
+ * </p>
+ */
+public final class EventEncoder {
+
+   public static final String OCCURRENCES = "occurrences";
+   public static final String SINCE = "since";
+   public static final String WEIGHT = "weight";
+   public static final String ORIGINAL = "original";
+
+   private final SymbolTable symbols = new SymbolTable(EventFormat.MAX_SYMBOLS);
+   private final SymbolTable frames = new SymbolTable(EventFormat.MAX_FRAMES);
+   private boolean resetPending = true;
+
+   /**
+    * <p>
+    * Forgets the names and frames written so far. The next event is written
+    * so that it can be decoded on its own.
+    * </p>
+    */
+   public void reset() {
+
+      symbols.clear();
+      frames.clear();
+      resetPending = true;
+   }
+
+   /**
+    * <p>
+    * Writes an exception that occurs now on the current thread. The
+    * attributes of a {@link RepeatedException} or {@link SampledException}
+    * are written with it. A {@link DecodedException} is written again as it
+    * was read, with its own time, thread and attributes.
+    * </p>
+    *
+    * @param exception The exception to write.
+    * @param out The buffer into which the event is written at its position.
+    * @return The number of bytes written.
+    * @throws BufferOverflowException if the event does not fit into the
+    *       buffer; the buffer's position is left unchanged and the next
+    *       event is written as after a {@link #reset()}.
+    */
+   public int encode(CoreException exception, ByteBuffer out) {
+
+      if (exception instanceof DecodedException) {
+         DecodedException decoded = (DecodedException) exception;
+         return encode(exception, decoded.getTimestamp(), decoded.getThread(), decoded.getAttributes(), out);
+      }
+      return encode(exception, System.currentTimeMillis(), Thread.currentThread().getName(), attributesOf(exception), out);
+   }
+
+   /**
+    * <p>
+    * Writes an exception.
+    * </p>
+    *
+    * @param exception The exception to write.
+    * @param timestamp The time of the exception in milliseconds since the
+    *       epoch.
+    * @param thread The name of the thread the exception occurred on.
+    * @param attributes Context attributes of the exception.
+    * @param out The buffer into which the event is written at its position.
+    * @return The number of bytes written.
+    * @throws BufferOverflowException if the event does not fit into the
+    *       buffer; the buffer's position is left unchanged and the next
+    *       event is written as after a {@link #reset()}.
+    */
+   public int encode(CoreException exception, long timestamp, String thread, Map<String, String> attributes, ByteBuffer out) {
+
+      if (symbols.isFull() || frames.isFull()) {
+         reset();
+      }
+
+      int start = out.position();
+      try {
+         Throwable throwable = exception.getException();
+         DecodedException decoded = exception instanceof DecodedException ? (DecodedException) exception : null;
+         boolean self = decoded == null ? throwable == exception : decoded.isSelf();
+         out.put(EventFormat.MAGIC_0);
+         out.put(EventFormat.MAGIC_1);
+         out.put(EventFormat.VERSION);
+         out.put((byte) ((resetPending ? EventFormat.FLAG_RESET : 0) | (self ? EventFormat.FLAG_SELF : 0)));
+         out.putInt(0);
+
+         out.putLong(timestamp);
+         putSymbol(out, thread);
+         putSymbol(out, decoded == null ? exception.getClass().getName() : decoded.getClassName());
+         putString(out, exception.getMessage());
+
+         putVarint(out, attributes.size());
+         for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            putSymbol(out, attribute.getKey());
+            putString(out, attribute.getValue());
+         }
+
+         if (decoded != null) {
+            putTraces(out, decoded.getTraces(), self);
+         } else {
+            putTraces(out, throwable, self);
+         }
+      } catch (RuntimeException e) {
+         out.position(start);
+         reset();
+         throw e;
+      }
+
+      out.putInt(start + 4, out.position() - start - EventFormat.HEADER_LENGTH);
+      resetPending = false;
+      return out.position() - start;
+   }
+
+   /**
+    * <p>
+    * Returns the attributes that are written with an exception by
+    * {@link #encode(CoreException, ByteBuffer)}.
+    * </p>
+    *
+    * @param exception The exception.
+    * @return The attributes; empty for an exception that is not derived.
+    */
+   static Map<String, String> attributesOf(CoreException exception) {
+
+      if (!(exception instanceof DerivedException)) {
+         return Collections.emptyMap();
+      }
+      Map<String, String> attributes = new LinkedHashMap<String, String>();
+      CoreException original = exception;
+      while (original instanceof DerivedException) {
+         original = ((DerivedException) original).getOriginal();
+      }
+      attributes.put(ORIGINAL, original.getClass().getName());
+      if (exception instanceof RepeatedException) {
+         attributes.put(OCCURRENCES, String.valueOf(((RepeatedException) exception).getOccurrences()));
+         attributes.put(SINCE, String.valueOf(((RepeatedException) exception).getSince()));
+      } else if (exception instanceof SampledException) {
+         attributes.put(WEIGHT, String.valueOf(((SampledException) exception).getWeight()));
+      }
+      return attributes;
+   }
+
+   private void putTraces(ByteBuffer out, Throwable throwable, boolean self) {
+
+      putVarint(out, causeCount(throwable));
+      int depth = 0;
+      for (Throwable t = throwable; t != null && depth < EventFormat.MAX_CAUSES; t = t.getCause(), depth++) {
+         if (depth > 0 || !self) {
+            putSymbol(out, t.getClass().getName());
+            putString(out, t.getMessage());
+         }
+         StackTraceElement[] stackTrace = t.getStackTrace();
+         putVarint(out, stackTrace.length);
+         for (StackTraceElement frame : stackTrace) {
+            putFrame(out, frame);
+         }
+      }
+   }
+
+   private void putTraces(ByteBuffer out, List<DecodedException.Trace> traces, boolean self) {
+
+      putVarint(out, traces.size());
+      for (int i = 0; i < traces.size(); i++) {
+         DecodedException.Trace trace = traces.get(i);
+         if (i > 0 || !self) {
+            putSymbol(out, trace.getClassName());
+            putString(out, trace.getMessage());
+         }
+         StackTraceElement[] stackTrace = trace.getFrames();
+         putVarint(out, stackTrace.length);
+         for (StackTraceElement frame : stackTrace) {
+            putFrame(out, frame);
+         }
+      }
+   }
+
+   private static int causeCount(Throwable throwable) {
+
+      int count = 0;
+      for (Throwable t = throwable; t != null && count < EventFormat.MAX_CAUSES; t = t.getCause()) {
+         count++;
+      }
+      return count;
+   }
+
+   private void putFrame(ByteBuffer out, StackTraceElement frame) {
+
+      int id = frames.indexOf(frame);
+      if (id >= 0) {
+         putVarint(out, EventFormat.FIRST_FRAME_REFERENCE + id);
+         return;
+      }
+      putVarint(out, EventFormat.NEW_FRAME);
+      String[] origin = StackFrames.getPrintedOrigin(frame);
+      for (String part : origin) {
+         putSymbol(out, part);
+      }
+      putSymbol(out, frame.getClassName());
+      putSymbol(out, frame.getMethodName());
+      putSymbol(out, frame.getFileName());
+      int line = frame.getLineNumber();
+      putVarint(out, (line << 1) ^ (line >> 31));
+      frames.add(frame);
+   }
+
+   private void putSymbol(ByteBuffer out, String value) {
+
+      if (value == null) {
+         putVarint(out, EventFormat.NULL);
+         return;
+      }
+      int id = symbols.indexOf(value);
+      if (id >= 0) {
+         putVarint(out, EventFormat.FIRST_SYMBOL_REFERENCE + id);
+         return;
+      }
+      putVarint(out, EventFormat.NEW_SYMBOL);
+      putString(out, value);
+      symbols.add(value);
+   }
+
+   private static void putString(ByteBuffer out, String value) {
+
+      if (value == null) {
+         putVarint(out, EventFormat.NULL);
+         return;
+      }
+      putVarint(out, utf8Length(value) + 1);
+      for (int i = 0; i < value.length(); i++) {
+         char c = value.charAt(i);
+         if (c < 0x80) {
+            out.put((byte) c);
+         } else if (c < 0x800) {
+            out.put((byte) (0xc0 | (c >> 6)));
+            out.put((byte) (0x80 | (c & 0x3f)));
+         } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(++i));
+            out.put((byte) (0xf0 | (codePoint >> 18)));
+            out.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+            out.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+            out.put((byte) (0x80 | (codePoint & 0x3f)));
+         } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+            out.put((byte) '?');
+         } else {
+            out.put((byte) (0xe0 | (c >> 12)));
+            out.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+            out.put((byte) (0x80 | (c & 0x3f)));
+         }
+      }
+   }
+
+   private static int utf8Length(String value) {
+
+      int length = 0;
+      for (int i = 0; i < value.length(); i++) {
+         char c = value.charAt(i);
+         if (c < 0x80) {
+            length += 1;
+         } else if (c < 0x800) {
+            length += 2;
+         } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+            length += 4;
+            i++;
+         } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+            length += 1;
+         } else {
+            length += 3;
+         }
+      }
+      return length;
+   }
+
+   private static void putVarint(ByteBuffer out, int value) {
+
+      while ((value & ~0x7f) != 0) {
+         out.put((byte) ((value & 0x7f) | 0x80));
+         value >>>= 7;
+      }
+      out.put((byte) value);
+   }
+}
@@ -0,0 +1,69 @@
+package ezbake.glitch.codec;
+
+/**
+ * <p>
+ * The constants of the binary event format, version 2. An event is written
+ * as:
+ * </p>
+ * <pre>
+ * byte     'G', 'E'          magic
+ * byte     version
+ * byte     flags             RESET, SELF
+ * int      length            of the body that follows
+ * long     timestamp         milliseconds since the epoch
+ * symbol   thread name
+ * symbol   exception class
+ * string   message
+ * varint   attribute count, then per attribute: symbol name, string value
+ * varint   throwable count, then per throwable, outermost first:
+ *             symbol class and string message, omitted for the first
+ *             throwable when SELF is set
+ *             varint frame count, then the frames
+ * </pre>
+ * <p>
+ * A <i>symbol</i> is a varint tag: 0 for null, 1 for a new symbol whose
+ * UTF-8 text follows as a <i>string</i>, or 2 plus the number of a symbol
+ * defined earlier in the stream. A <i>string</i> is a varint of its UTF-8
+ * length plus one, 0 for null, followed by the bytes. A frame is a varint
+ * tag: 0 for a new frame written as class loader, module and module version
+ * symbols, class, method and file symbols and a zigzag varint line number,
+ * or 1 plus the number of a frame defined earlier in the stream. The class
+ * loader, module and module version are written as the frame prints them,
+ * null for those it leaves out.
+ * </p>
+ * <p>
+ * Version 1 is still read; its frames have no class loader, module or
+ * module version.
+ * </p>
+ * <p>
+ * Symbols and frames are numbered in the order they are defined. The RESET
+ * flag clears both numberings before the event is read, so an event with the
+ * flag can be decoded without the events before it.
+ * </p>
+ */
+final class EventFormat {
+
+   static final byte MAGIC_0 = 'G';
+   static final byte MAGIC_1 = 'E';
+   static final byte VERSION = 2;
+   static final byte FIRST_VERSION = 1;
+   static final byte ORIGIN_VERSION = 2;
+
+   static final int FLAG_RESET = 0x01;
+   static final int FLAG_SELF = 0x02;
+
+   static final int HEADER_LENGTH = 8;
+
+   static final int NULL = 0;
+   static final int NEW_SYMBOL = 1;
+   static final int FIRST_SYMBOL_REFERENCE = 2;
+   static final int NEW_FRAME = 0;
+   static final int FIRST_FRAME_REFERENCE = 1;
+
+   static final int MAX_SYMBOLS = 1 << 16;
+   static final int MAX_FRAMES = 1 << 16;
+   static final int MAX_CAUSES = 32;
+
+   private EventFormat() {
+   }
+}
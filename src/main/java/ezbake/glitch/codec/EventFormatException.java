@@ -0,0 +1,24 @@
+package ezbake.glitch.codec;
+
+/**
+ * <p>
+ * Thrown by an {@link EventDecoder} when the bytes it reads are not an event
+ * of a known version or refer to names the stream has not defined.
+ * </p>
+ */
+public class EventFormatException extends RuntimeException {
+
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * <p>
+    * Constructs an instance of this exception.
+    * </p>
+    *
+    * @param message A message that describes the problem.
+    */
+   public EventFormatException(String message) {
+
+      super(message);
+   }
+}
@@ -0,0 +1,70 @@
+package ezbake.glitch.codec;
+
+/**
+ * <p>
+ * Receives the parts of an event, in the order they are written, from
+ * {@link EventDecoder#decode(java.nio.ByteBuffer, EventVisitor)}. The names
+ * and frames are shared by every event of a stream that refers to them. The
+ * messages and attribute values are decoded into buffers the decoder reuses,
+ * so a {@link CharSequence} is only valid until the method it is passed to
+ * returns and must be copied to be kept.
+ * </p>
+ * <p>
+ * If the event turns out not to be valid, the visitor may have received
+ * some of its parts; {@link #endEvent()} is only called for a valid event.
+ * </p>
+ */
+public interface EventVisitor {
+
+   /**
+    * <p>
+    * Starts an event.
+    * </p>
+    *
+    * @param timestamp The time of the exception in milliseconds since the
+    *       epoch.
+    * @param thread The name of the thread the exception occurred on.
+    * @param className The fully qualified class name of the exception.
+    * @param message The message of the exception or null.
+    * @param self true if the first trace is the exception itself.
+    */
+   void startEvent(long timestamp, String thread, String className, CharSequence message, boolean self);
+
+   /**
+    * <p>
+    * Receives a context attribute of the event.
+    * </p>
+    *
+    * @param name The name of the attribute.
+    * @param value The value of the attribute or null.
+    */
+   void attribute(String name, CharSequence value);
+
+   /**
+    * <p>
+    * Starts the trace of the next throwable in the cause chain, outermost
+    * first.
+    * </p>
+    *
+    * @param className The fully qualified class name of the throwable.
+    * @param message The message of the throwable or null.
+    * @param frameCount The number of frames that follow.
+    */
+   void startTrace(String className, CharSequence message, int frameCount);
+
+   /**
+    * <p>
+    * Receives the next frame of the current trace.
+    * </p>
+    *
+    * @param frame The frame.
+    */
+   void frame(StackTraceElement frame);
+
+   /**
+    * <p>
+    * Ends a valid event.
+    * </p>
+    */
+   void endEvent();
+}
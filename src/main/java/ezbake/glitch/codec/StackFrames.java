@@ -0,0 +1,112 @@
+package ezbake.glitch.codec;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * <p>
+ * Reads and recreates the class loader name, module name and module version
+ * that a {@link StackTraceElement} carries from Java 9 on. The framework runs
+ * on Java 6, so they are accessed reflectively; on an older Java a frame has
+ * none of them.
+ * </p>
+ * <p>
+ * A frame only prints some of them, for example the version of a JDK module
+ * is left out, and what it leaves out cannot be set on a recreated frame.
+ * The origin of a frame is therefore taken as it is printed, so that a
+ * recreated frame prints exactly as the original did.
+ * </p>
+ */
+final class StackFrames {
+
+   private static final String[] NO_ORIGIN = new String[3];
+   private static final Method GET_CLASS_LOADER_NAME = getMethod("getClassLoaderName");
+   private static final Method GET_MODULE_NAME = getMethod("getModuleName");
+   private static final Method GET_MODULE_VERSION = getMethod("getModuleVersion");
+   private static final Constructor<StackTraceElement> CONSTRUCTOR = getConstructor();
+
+   private StackFrames() {
+   }
+
+   /**
+    * <p>
+    * Returns the class loader name, module name and module version that a
+    * frame prints, each null if it is not printed. The array must not be
+    * modified.
+    * </p>
+    *
+    * @param frame The frame.
+    * @return The printed origin of the frame.
+    */
+   static String[] getPrintedOrigin(StackTraceElement frame) {
+
+      if (GET_CLASS_LOADER_NAME == null || GET_MODULE_NAME == null || GET_MODULE_VERSION == null) {
+         return NO_ORIGIN;
+      }
+      String classLoaderName = invoke(GET_CLASS_LOADER_NAME, frame);
+      String moduleName = invoke(GET_MODULE_NAME, frame);
+      String moduleVersion = invoke(GET_MODULE_VERSION, frame);
+      if (classLoaderName == null && moduleName == null) {
+         return NO_ORIGIN;
+      }
+
+      String text = frame.toString();
+      if (classLoaderName != null && (classLoaderName.length() == 0 || !text.startsWith(classLoaderName + "/"))) {
+         classLoaderName = null;
+      }
+      if (moduleName == null || moduleName.length() == 0) {
+         moduleName = null;
+         moduleVersion = null;
+      } else if (moduleVersion != null && !text.contains(moduleName + "@" + moduleVersion + "/")) {
+         moduleVersion = null;
+      }
+      return new String[] { classLoaderName, moduleName, moduleVersion };
+   }
+
+   /**
+    * <p>
+    * Creates a frame. The origin is left out on a Java without it.
+    * </p>
+    *
+    * @return The frame.
+    */
+   static StackTraceElement newFrame(String classLoaderName, String moduleName, String moduleVersion,
+         String declaringClass, String methodName, String fileName, int lineNumber) {
+
+      if (CONSTRUCTOR != null && (classLoaderName != null || moduleName != null || moduleVersion != null)) {
+         try {
+            return CONSTRUCTOR.newInstance(classLoaderName, moduleName, moduleVersion, declaringClass, methodName, fileName, Integer.valueOf(lineNumber));
+         } catch (Exception e) {
+            // the origin cannot be set; the frame is created without it.
+         }
+      }
+      return new StackTraceElement(declaringClass, methodName, fileName, lineNumber);
+   }
+
+   private static String invoke(Method method, StackTraceElement frame) {
+
+      try {
+         return (String) method.invoke(frame);
+      } catch (Exception e) {
+         return null;
+      }
+   }
+
+   private static Method getMethod(String name) {
+
+      try {
+         return StackTraceElement.class.getMethod(name);
+      } catch (NoSuchMethodException e) {
+         return null;
+      }
+   }
+
+   private static Constructor<StackTraceElement> getConstructor() {
+
+      try {
+         return StackTraceElement.class.getConstructor(String.class, String.class, String.class, String.class, String.class, String.class, int.class);
+      } catch (NoSuchMethodException e) {
+         return null;
+      }
+   }
+}
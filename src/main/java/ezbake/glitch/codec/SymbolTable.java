@@ -0,0 +1,122 @@
+package ezbake.glitch.codec;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Numbers the distinct values written by an {@link EventEncoder}, in the
+ * order they are added. Lookups hash with the values' own hash codes into
+ * open-addressed arrays, so that finding a value that is already numbered
+ * allocates nothing.
+ * </p>
+ */
+final class SymbolTable {
+
+   private final int capacity;
+   private Object[] keys;
+   private int[] ids;
+   private int size;
+
+   /**
+    * <p>
+    * Creates an empty table.
+    * </p>
+    *
+    * @param capacity The maximum number of values the table holds.
+    */
+   SymbolTable(int capacity) {
+
+      this.capacity = capacity;
+      this.keys = new Object[64];
+      this.ids = new int[64];
+   }
+
+   /**
+    * <p>
+    * Returns the number of a value.
+    * </p>
+    *
+    * @param value The value to look up.
+    * @return The value's number or -1 if it has none.
+    */
+   int indexOf(Object value) {
+
+      int mask = keys.length - 1;
+      for (int slot = spread(value.hashCode()) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+         if (keys[slot].equals(value)) {
+            return ids[slot];
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * <p>
+    * Numbers a value that is not yet in the table.
+    * </p>
+    *
+    * @param value The value to add.
+    * @return The value's number.
+    */
+   int add(Object value) {
+
+      if (size * 2 >= keys.length) {
+         grow();
+      }
+      insert(keys, ids, value, size);
+      return size++;
+   }
+
+   /**
+    * <p>
+    * Answers true if the table holds as many values as it may.
+    * </p>
+    *
+    * @return true if the table is full.
+    */
+   boolean isFull() {
+
+      return size >= capacity;
+   }
+
+   /**
+    * <p>
+    * Removes every value.
+    * </p>
+    */
+   void clear() {
+
+      Arrays.fill(keys, null);
+      size = 0;
+   }
+
+   private void grow() {
+
+      Object[] oldKeys = keys;
+      int[] oldIds = ids;
+      keys = new Object[oldKeys.length * 2];
+      ids = new int[oldKeys.length * 2];
+      for (int i = 0; i < oldKeys.length; i++) {
+         if (oldKeys[i] != null) {
+            insert(keys, ids, oldKeys[i], oldIds[i]);
+         }
+      }
+   }
+
+   private static void insert(Object[] keys, int[] ids, Object value, int id) {
+
+      int mask = keys.length - 1;
+      int slot = spread(value.hashCode()) & mask;
+      while (keys[slot] != null) {
+         slot = (slot + 1) & mask;
+      }
+      keys[slot] = value;
+      ids[slot] = id;
+   }
+
+   private static int spread(int hash) {
+
+      int mixed = hash * 0x9e3779b9;
+      return mixed ^ (mixed >>> 16);
+   }
+}
@@ -2,12 +2,16 @@ package ezbake.glitch.config;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
 
 /**
  * <p>
@@ -28,6 +32,13 @@ import com.google.common.collect.Multimap;
  * the exception manager but the exception does not have a specific handler
  * associated with it in the configuration.
  * </p>
+ * <p>
+ * A configuration is not thread safe while it is being built. The exception
+ * manager works on its own copy, see {@link #Configuration(Configuration)},
+ * and hands an immutable copy, see {@link #toImmutable()}, to the classes
+ * that read it, so a published configuration can be read by any thread and
+ * changed by none.
+ * </p>
  * @see {@link ezbake.glitch.CoreException} The exceptions that may be handled
  *       by the framework.
  * @see {@link ezbake.glitch.CoreExceptionHandler} The handlers that perform an
@@ -37,13 +48,81 @@ import com.google.common.collect.Multimap;
  */
 public class Configuration {
 
-   private Set<String> defaultHandlers;
-   private Multimap<String, String> handlerMap; 
+   private final Set<String> defaultHandlers;
+   private final Multimap<String, String> handlerMap; 
+   private final Map<String, String> properties;
+   private final Map<String, Map<String, String>> handlerAttributes;
+   private final Map<String, Map<String, String>> exceptionAttributes;
+   private final boolean immutable;
    
    public Configuration() {
       
       defaultHandlers = new TreeSet<String>();
       handlerMap = HashMultimap.create();
+      properties = new TreeMap<String, String>();
+      handlerAttributes = new TreeMap<String, Map<String, String>>();
+      exceptionAttributes = new TreeMap<String, Map<String, String>>();
+      immutable = false;
+   }
+   
+   /**
+    * <p>
+    * Creates a modifiable copy of a configuration. Later changes to either
+    * configuration do not affect the other.
+    * </p>
+    * 
+    * @param source The configuration that is copied.
+    */
+   public Configuration(Configuration source) {
+      
+      this();
+      defaultHandlers.addAll(source.defaultHandlers);
+      handlerMap.putAll(source.handlerMap);
+      properties.putAll(source.properties);
+      copyAttributes(source.handlerAttributes, handlerAttributes);
+      copyAttributes(source.exceptionAttributes, exceptionAttributes);
+   }
+   
+   /**
+    * <p>
+    * Creates an immutable copy of a configuration.
+    * </p>
+    */
+   private Configuration(Configuration source, boolean immutable) {
+      
+      Configuration copy = new Configuration(source);
+      defaultHandlers = Collections.unmodifiableSet(copy.defaultHandlers);
+      handlerMap = Multimaps.unmodifiableMultimap(copy.handlerMap);
+      properties = Collections.unmodifiableMap(copy.properties);
+      handlerAttributes = Collections.unmodifiableMap(copy.handlerAttributes);
+      exceptionAttributes = Collections.unmodifiableMap(copy.exceptionAttributes);
+      this.immutable = immutable;
+   }
+   
+   /**
+    * <p>
+    * Returns an immutable copy of this configuration. Every method that
+    * would change the copy throws an {@link UnsupportedOperationException},
+    * and the copy is safe to read from any thread once published.
+    * </p>
+    * 
+    * @return An immutable copy, or this configuration if it is immutable.
+    */
+   public Configuration toImmutable() {
+      
+      return immutable ? this : new Configuration(this, true);
+   }
+   
+   /**
+    * <p>
+    * Answers true if this configuration cannot be changed.
+    * </p>
+    * 
+    * @return true if this is an immutable copy.
+    */
+   public boolean isImmutable() {
+      
+      return immutable;
    }
    
    /**
@@ -75,6 +154,7 @@ public class Configuration {
     */
    public boolean addDefaultHandler(String defaultHandlerFqcn) {
       
+      checkMutable();
       if (isNothing(defaultHandlerFqcn)) {
          return false;
       }
@@ -102,6 +182,7 @@ public class Configuration {
     */
    public boolean addExceptionHandler(String exceptionFqcn, String handlerFqcn) {
       
+      checkMutable();
       if (isNothing(handlerFqcn) || 
             isNothing(exceptionFqcn)) {
          return false;
@@ -181,6 +262,19 @@ public class Configuration {
       return handlers;
    }
    
+   /**
+    * <p>
+    * Returns the set of fully qualified class names of the exceptions that
+    * have at least one explicit handler mapping.
+    * </p>
+    *
+    * @return A set of the exception class names that are mapped to handlers.
+    */
+   public Set<String> getMappedExceptions() {
+
+      return new HashSet<String>(handlerMap.keySet());
+   }
+
    /**
     * <p>
     * Returns a set of fully qualified class names of the handlers that are
@@ -198,17 +292,195 @@ public class Configuration {
       return handlers;
    }
    
+   /**
+    * <p>
+    * Returns the value of a named configuration property or null if the
+    * property has not been set. Properties tune the behavior of the exception
+    * manager, for example how handler mappings are resolved.
+    * </p>
+    * 
+    * @param name The name of the property.
+    * @return The value of the property or null if it has not been set.
+    */
+   public String getProperty(String name) {
+      
+      return properties.get(name);
+   }
+   
+   /**
+    * <p>
+    * Returns the value of a named configuration property or the given default
+    * value if the property has not been set.
+    * </p>
+    * 
+    * @param name The name of the property.
+    * @param defaultValue The value returned if the property has not been set.
+    * @return The value of the property or defaultValue if it has not been set.
+    */
+   public String getProperty(String name, String defaultValue) {
+      
+      String value = properties.get(name);
+      return value == null ? defaultValue : value;
+   }
+   
+   /**
+    * <p>
+    * Sets a named configuration property. The property is not set if either
+    * the name or value is null or empty.
+    * </p>
+    * 
+    * @param name The name of the property.
+    * @param value The value of the property.
+    * @return true if the property was set and false if not.
+    */
+   public boolean setProperty(String name, String value) {
+      
+      checkMutable();
+      if (isNothing(name) || isNothing(value)) {
+         return false;
+      }
+      properties.put(name.trim(), value.trim());
+      return true;
+   }
+   
+   /**
+    * <p>
+    * Returns the names of all the configuration properties that are set.
+    * </p>
+    * 
+    * @return The set of property names.
+    */
+   public Set<String> getPropertyNames() {
+      
+      return properties.keySet();
+   }
+   
+   /**
+    * <p>
+    * Returns the attributes of a handler. Attributes tune how the exception
+    * manager executes a specific handler, for example on which threads. An
+    * empty map is returned if the handler has no attributes.
+    * </p>
+    * 
+    * @param handlerFqcn The fully qualified class name of the handler.
+    * @return An unmodifiable map of the handler's attribute names and values.
+    */
+   public Map<String, String> getHandlerAttributes(String handlerFqcn) {
+      
+      return getAttributes(handlerAttributes, handlerFqcn);
+   }
+   
+   /**
+    * <p>
+    * Sets an attribute of a handler. The attribute is not set if the handler,
+    * name or value is null or empty.
+    * </p>
+    * 
+    * @param handlerFqcn The fully qualified class name of the handler.
+    * @param name The name of the attribute.
+    * @param value The value of the attribute.
+    * @return true if the attribute was set and false if not.
+    */
+   public boolean setHandlerAttribute(String handlerFqcn, String name, String value) {
+      
+      return setAttribute(handlerAttributes, handlerFqcn, name, value);
+   }
+   
+   /**
+    * <p>
+    * Returns the attributes of an exception. Attributes tune how the
+    * exception manager treats every occurrence of a specific exception class,
+    * whichever handlers it is mapped to. An empty map is returned if the
+    * exception has no attributes.
+    * </p>
+    * 
+    * @param exceptionFqcn The fully qualified class name of the exception.
+    * @return An unmodifiable map of the exception's attribute names and
+    *       values.
+    */
+   public Map<String, String> getExceptionAttributes(String exceptionFqcn) {
+      
+      return getAttributes(exceptionAttributes, exceptionFqcn);
+   }
+   
+   /**
+    * <p>
+    * Returns the fully qualified class names of the exceptions that have
+    * attributes.
+    * </p>
+    * 
+    * @return The set of exception class names with attributes.
+    */
+   public Set<String> getExceptionsWithAttributes() {
+      
+      return Collections.unmodifiableSet(exceptionAttributes.keySet());
+   }
+   
+   /**
+    * <p>
+    * Sets an attribute of an exception. The attribute is not set if the
+    * exception, name or value is null or empty.
+    * </p>
+    * 
+    * @param exceptionFqcn The fully qualified class name of the exception.
+    * @param name The name of the attribute.
+    * @param value The value of the attribute.
+    * @return true if the attribute was set and false if not.
+    */
+   public boolean setExceptionAttribute(String exceptionFqcn, String name, String value) {
+      
+      return setAttribute(exceptionAttributes, exceptionFqcn, name, value);
+   }
+   
    public boolean removeHandlerReferences(Collection<String> handlerFqcns) {
       
       if (handlerFqcns == null) {
          return false;
       }
+      checkMutable();
       
       boolean result = defaultHandlers.removeAll(handlerFqcns);
       // TODO: How to remove map entries that have a specific value???
       return result;
    }
    
+   private void copyAttributes(Map<String, Map<String, String>> from, Map<String, Map<String, String>> to) {
+      
+      for (Map.Entry<String, Map<String, String>> entry : from.entrySet()) {
+         to.put(entry.getKey(), new TreeMap<String, String>(entry.getValue()));
+      }
+   }
+   
+   private void checkMutable() {
+      
+      if (immutable) {
+         throw new UnsupportedOperationException("The configuration is immutable.");
+      }
+   }
+   
+   private Map<String, String> getAttributes(Map<String, Map<String, String>> attributesByClass, String fqcn) {
+      
+      Map<String, String> attributes = attributesByClass.get(fqcn);
+      return attributes == null ? 
+            Collections.<String, String>emptyMap() : 
+            Collections.unmodifiableMap(attributes);
+   }
+   
+   private boolean setAttribute(Map<String, Map<String, String>> attributesByClass, String fqcn, String name, String value) {
+      
+      checkMutable();
+      if (isNothing(fqcn) || isNothing(name) || isNothing(value)) {
+         return false;
+      }
+      Map<String, String> attributes = attributesByClass.get(fqcn);
+      if (attributes == null) {
+         attributes = new TreeMap<String, String>();
+         attributesByClass.put(fqcn, attributes);
+      }
+      attributes.put(name.trim(), value.trim());
+      return true;
+   }
+   
    /**
     * <p>
     * Answers true if the string is null or empty and false if not.
@@ -0,0 +1,493 @@
+package ezbake.glitch.config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Reads and writes a precompiled, binary copy of a configuration file, so
+ * that a short-lived JVM can load its configuration with one read instead of
+ * parsing the XML. The index is built at build time by running this class,
+ * see the <b>config-index</b> build profile, and is stored next to the
+ * configuration file with the name of the file followed by <b>.idx</b>.
+ * </p>
+ * <p>
+ * Every class name, property and attribute is stored once in a string table
+ * and the mappings refer to it by number. The index records the checksum of
+ * the configuration file it was built from; an index whose checksum does not
+ * match the configuration file on the classpath is stale and not used. A
+ * second checksum over the index itself guards against a truncated or
+ * corrupt file.
+ * </p>
+ * <p>
+ * Reading the whole configuration file to checksum it would cost much of
+ * what the index saves, so the file is only read when its freshness cannot
+ * be told otherwise. The index also records the size and modification time
+ * of the file; a configuration file on disk with the same size and time is
+ * taken to be the one the index was built from. A configuration file in a
+ * jar is compared by the checksum the jar records for it. An index built
+ * without the size and time, or a file whose size or time differ, falls
+ * back to reading and checksumming the file.
+ * </p>
+ * <pre>
+ * int magic, int version, long source checksum,
+ * long source size, long source modification time,
+ * int string count, (int length, UTF-8 bytes)...,
+ * int property count, (int name, int value)...,
+ * int default handler count, (int handler)...,
+ * int mapped exception count, (int exception, int handler count, (int handler)...)...,
+ * int handler attribute count, (int handler, int count, (int name, int value)...)...,
+ * int exception attribute count, (int exception, int count, (int name, int value)...)...,
+ * long index checksum
+ * </pre>
+ */
+public final class ConfigurationIndex {
+
+   public static final String SUFFIX = ".idx";
+
+   static final int MAGIC = 0x474C4358;
+   static final int VERSION = 2;
+
+   private static final int HEADER_SIZE = 36;
+
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+   private static Logger logger = LoggerFactory.getLogger(ConfigurationIndex.class);
+
+   private ConfigurationIndex() {
+
+   }
+
+   /**
+    * <p>
+    * Builds the index of a configuration file. The first argument is the
+    * resource name of the configuration file, which must be on the
+    * classpath, and the second is the directory the index is written to.
+    * </p>
+    *
+    * @param args The resource name and the output directory.
+    * @throws IOException If the index cannot be written.
+    */
+   public static void main(String[] args) throws IOException {
+
+      if (args == null || args.length != 2) {
+         throw new IllegalArgumentException("Usage: ConfigurationIndex <configuration resource name> <output directory>");
+      }
+      File file = build(args[0], new File(args[1]));
+      if (file == null) {
+         throw new IllegalStateException("The configuration file '" + args[0] + "' was not found on the classpath.");
+      }
+      logger.info("Wrote the configuration index " + file + ".");
+   }
+
+   /**
+    * <p>
+    * Parses a configuration file with the configured parser and writes its
+    * index to a directory. Class names that cannot be found on the classpath
+    * are logged, since they would fail when the handlers are instantiated.
+    * </p>
+    *
+    * @param resourceName The resource name of the configuration file.
+    * @param directory The directory the index is written to.
+    * @return The index file or null if the configuration file was not found.
+    * @throws IOException If the index cannot be written.
+    */
+   public static File build(String resourceName, File directory) throws IOException {
+
+      URL source = ConfigurationIndex.class.getClassLoader().getResource(resourceName);
+      if (source == null) {
+         return null;
+      }
+      long checksum = checksum(source);
+      File sourceFile = toFile(source);
+      Configuration configuration = ConfigurationParserFactory.getParser().getConfiguration(resourceName);
+      for (String fqcn : configuration.getAllHandlers()) {
+         checkClass(fqcn);
+      }
+      for (String fqcn : configuration.getMappedExceptions()) {
+         checkClass(fqcn);
+      }
+
+      File file = new File(directory, resourceName + SUFFIX);
+      file.getParentFile().mkdirs();
+      OutputStream out = new FileOutputStream(file);
+      try {
+         if (sourceFile == null) {
+            write(configuration, checksum, out);
+         } else {
+            write(configuration, checksum, sourceFile.length(), sourceFile.lastModified(), out);
+         }
+      } finally {
+         out.close();
+      }
+      return file;
+   }
+
+   /**
+    * <p>
+    * Loads the index of a configuration file if it is on the classpath and
+    * was built from the configuration file that is on the classpath. An
+    * index that is a file on disk is memory-mapped.
+    * </p>
+    *
+    * @param resourceName The resource name of the configuration file.
+    * @return The configuration or null if there is no index, it is stale or
+    *       it cannot be read.
+    */
+   public static Configuration load(String resourceName) {
+
+      URL url = ConfigurationIndex.class.getClassLoader().getResource(resourceName + SUFFIX);
+      if (url == null) {
+         return null;
+      }
+      try {
+         ByteBuffer buffer = map(url);
+         if (!isFresh(resourceName, buffer)) {
+            logger.info("The configuration index " + url + " is older than " + resourceName + " and is not used.");
+            return null;
+         }
+         return read(buffer);
+      } catch (IOException e) {
+         logger.warn("The configuration index " + url + " cannot be read; " + resourceName + " is parsed instead.", e);
+         return null;
+      } catch (IndexOutOfBoundsException e) {
+         logger.warn("The configuration index " + url + " is truncated; " + resourceName + " is parsed instead.");
+         return null;
+      }
+   }
+
+   /**
+    * <p>
+    * Writes the index of a configuration without the size and modification
+    * time of its file, so that its freshness is always told by the checksum.
+    * </p>
+    *
+    * @param configuration The configuration.
+    * @param sourceChecksum The checksum of the configuration file.
+    * @param out The stream the index is written to; it is not closed.
+    * @throws IOException If the index cannot be written.
+    */
+   public static void write(Configuration configuration, long sourceChecksum, OutputStream out) throws IOException {
+
+      write(configuration, sourceChecksum, -1, 0, out);
+   }
+
+   /**
+    * <p>
+    * Writes the index of a configuration.
+    * </p>
+    *
+    * @param configuration The configuration.
+    * @param sourceChecksum The checksum of the configuration file.
+    * @param sourceSize The size of the configuration file or -1 if it is
+    *       not a file on disk.
+    * @param sourceLastModified The modification time of the configuration
+    *       file.
+    * @param out The stream the index is written to; it is not closed.
+    * @throws IOException If the index cannot be written.
+    */
+   public static void write(Configuration configuration, long sourceChecksum, long sourceSize, long sourceLastModified, OutputStream out) throws IOException {
+
+      Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      DataOutputStream data = new DataOutputStream(body);
+
+      data.writeInt(configuration.getPropertyNames().size());
+      for (String name : configuration.getPropertyNames()) {
+         data.writeInt(symbol(strings, name));
+         data.writeInt(symbol(strings, configuration.getProperty(name)));
+      }
+      data.writeInt(configuration.getDefaultHandlers().size());
+      for (String handler : configuration.getDefaultHandlers()) {
+         data.writeInt(symbol(strings, handler));
+      }
+      data.writeInt(configuration.getMappedExceptions().size());
+      for (String exception : configuration.getMappedExceptions()) {
+         data.writeInt(symbol(strings, exception));
+         List<String> handlers = new ArrayList<String>(configuration.getExceptionHandlers(exception, false));
+         data.writeInt(handlers.size());
+         for (String handler : handlers) {
+            data.writeInt(symbol(strings, handler));
+         }
+      }
+      List<String> handlers = new ArrayList<String>();
+      for (String handler : configuration.getAllHandlers()) {
+         if (!configuration.getHandlerAttributes(handler).isEmpty()) {
+            handlers.add(handler);
+         }
+      }
+      data.writeInt(handlers.size());
+      for (String handler : handlers) {
+         writeAttributes(data, strings, handler, configuration.getHandlerAttributes(handler));
+      }
+      data.writeInt(configuration.getExceptionsWithAttributes().size());
+      for (String exception : configuration.getExceptionsWithAttributes()) {
+         writeAttributes(data, strings, exception, configuration.getExceptionAttributes(exception));
+      }
+      data.flush();
+
+      ByteArrayOutputStream index = new ByteArrayOutputStream(body.size() + 64 * strings.size());
+      DataOutputStream header = new DataOutputStream(index);
+      header.writeInt(MAGIC);
+      header.writeInt(VERSION);
+      header.writeLong(sourceChecksum);
+      header.writeLong(sourceSize);
+      header.writeLong(sourceLastModified);
+      header.writeInt(strings.size());
+      for (String string : strings.keySet()) {
+         byte[] bytes = string.getBytes(UTF_8);
+         header.writeInt(bytes.length);
+         header.write(bytes);
+      }
+      body.writeTo(header);
+      header.flush();
+
+      CRC32 crc = new CRC32();
+      byte[] bytes = index.toByteArray();
+      crc.update(bytes);
+      out.write(bytes);
+      DataOutputStream trailer = new DataOutputStream(out);
+      trailer.writeLong(crc.getValue());
+      trailer.flush();
+   }
+
+   /**
+    * <p>
+    * Reads the configuration held by an index.
+    * </p>
+    *
+    * @param buffer The index, positioned at its start.
+    * @return The configuration.
+    * @throws IOException If the buffer is not an index of this version or
+    *       fails its checksum.
+    */
+   public static Configuration read(ByteBuffer buffer) throws IOException {
+
+      int start = buffer.position();
+      int end = buffer.limit() - 8;
+      if (end - start < HEADER_SIZE || buffer.getInt(start) != MAGIC) {
+         throw new IOException("The data is not a configuration index.");
+      }
+      if (buffer.getInt(start + 4) != VERSION) {
+         throw new IOException("The configuration index has version " + buffer.getInt(start + 4) + " rather than " + VERSION + ".");
+      }
+      CRC32 crc = new CRC32();
+      byte[] scratch = new byte[4096];
+      ByteBuffer content = buffer.duplicate();
+      content.limit(end);
+      while (content.hasRemaining()) {
+         int length = Math.min(scratch.length, content.remaining());
+         content.get(scratch, 0, length);
+         crc.update(scratch, 0, length);
+      }
+      if (crc.getValue() != buffer.getLong(end)) {
+         throw new IOException("The configuration index fails its checksum.");
+      }
+
+      ByteBuffer in = buffer.duplicate();
+      in.position(start + HEADER_SIZE - 4);
+      in.limit(end);
+      try {
+         String[] strings = new String[in.getInt()];
+         for (int i = 0; i < strings.length; i++) {
+            int length = in.getInt();
+            if (length > scratch.length) {
+               scratch = new byte[length];
+            }
+            in.get(scratch, 0, length);
+            strings[i] = new String(scratch, 0, length, UTF_8).intern();
+         }
+
+         Configuration configuration = new Configuration();
+         for (int count = in.getInt(); count > 0; count--) {
+            configuration.setProperty(strings[in.getInt()], strings[in.getInt()]);
+         }
+         for (int count = in.getInt(); count > 0; count--) {
+            configuration.addDefaultHandler(strings[in.getInt()]);
+         }
+         for (int count = in.getInt(); count > 0; count--) {
+            String exception = strings[in.getInt()];
+            for (int handlers = in.getInt(); handlers > 0; handlers--) {
+               configuration.addExceptionHandler(exception, strings[in.getInt()]);
+            }
+         }
+         for (int count = in.getInt(); count > 0; count--) {
+            String handler = strings[in.getInt()];
+            for (int attributes = in.getInt(); attributes > 0; attributes--) {
+               configuration.setHandlerAttribute(handler, strings[in.getInt()], strings[in.getInt()]);
+            }
+         }
+         for (int count = in.getInt(); count > 0; count--) {
+            String exception = strings[in.getInt()];
+            for (int attributes = in.getInt(); attributes > 0; attributes--) {
+               configuration.setExceptionAttribute(exception, strings[in.getInt()], strings[in.getInt()]);
+            }
+         }
+         return configuration;
+      } catch (BufferUnderflowException e) {
+         throw new IOException("The configuration index is truncated.");
+      } catch (ArrayIndexOutOfBoundsException e) {
+         throw new IOException("The configuration index refers to a string it does not hold.");
+      }
+   }
+
+   /**
+    * <p>
+    * Tells whether an index was built from the configuration file on the
+    * classpath, reading the file only if its size and modification time, or
+    * the checksum its jar records, cannot tell. An index whose configuration
+    * file is not on the classpath is used as it is.
+    * </p>
+    *
+    * @param resourceName The resource name of the configuration file.
+    * @param buffer The index.
+    * @return true if the index is fresh.
+    * @throws IOException If the configuration file cannot be read.
+    */
+   private static boolean isFresh(String resourceName, ByteBuffer buffer) throws IOException {
+
+      URL source = ConfigurationIndex.class.getClassLoader().getResource(resourceName);
+      if (source == null) {
+         return true;
+      }
+      long expected = buffer.getLong(8);
+      if (buffer.getInt(4) == VERSION) {
+         File sourceFile = toFile(source);
+         if (sourceFile != null && buffer.getLong(16) >= 0
+               && sourceFile.length() == buffer.getLong(16) && sourceFile.lastModified() == buffer.getLong(24)) {
+            return true;
+         }
+      }
+      URLConnection connection = source.openConnection();
+      if (connection instanceof JarURLConnection) {
+         JarEntry entry = ((JarURLConnection) connection).getJarEntry();
+         if (entry != null && entry.getCrc() != -1) {
+            return entry.getCrc() == expected;
+         }
+      }
+      return checksum(source) == expected;
+   }
+
+   /**
+    * <p>
+    * Returns the CRC-32 checksum of a resource's content.
+    * </p>
+    *
+    * @param source The resource.
+    * @return The checksum.
+    * @throws IOException If the resource cannot be read.
+    */
+   static long checksum(URL source) throws IOException {
+
+      InputStream in = source.openStream();
+      try {
+         CRC32 crc = new CRC32();
+         byte[] buffer = new byte[8192];
+         int read;
+         while ((read = in.read(buffer)) != -1) {
+            crc.update(buffer, 0, read);
+         }
+         return crc.getValue();
+      } finally {
+         in.close();
+      }
+   }
+
+   /**
+    * <p>
+    * Returns the file a resource is, or null if it is not a file on disk.
+    * </p>
+    */
+   private static File toFile(URL url) {
+
+      if (!"file".equals(url.getProtocol())) {
+         return null;
+      }
+      try {
+         return new File(url.toURI());
+      } catch (URISyntaxException e) {
+         return null;
+      } catch (IllegalArgumentException e) {
+         return null;
+      }
+   }
+
+   private static ByteBuffer map(URL url) throws IOException {
+
+      File path = toFile(url);
+      if (path != null) {
+         RandomAccessFile file = new RandomAccessFile(path, "r");
+         try {
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+         } finally {
+            file.close();
+         }
+      }
+      InputStream in = url.openStream();
+      try {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         byte[] buffer = new byte[8192];
+         int read;
+         while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+         }
+         return ByteBuffer.wrap(bytes.toByteArray());
+      } finally {
+         in.close();
+      }
+   }
+
+   private static void writeAttributes(DataOutputStream data, Map<String, Integer> strings, String owner, Map<String, String> attributes) throws IOException {
+
+      data.writeInt(symbol(strings, owner));
+      data.writeInt(attributes.size());
+      for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+         data.writeInt(symbol(strings, attribute.getKey()));
+         data.writeInt(symbol(strings, attribute.getValue()));
+      }
+   }
+
+   private static int symbol(Map<String, Integer> strings, String string) {
+
+      Integer number = strings.get(string);
+      if (number == null) {
+         number = Integer.valueOf(strings.size());
+         strings.put(string, number);
+      }
+      return number.intValue();
+   }
+
+   private static void checkClass(String fqcn) {
+
+      try {
+         Class.forName(fqcn, false, ConfigurationIndex.class.getClassLoader());
+      } catch (ClassNotFoundException e) {
+         logger.warn("The class '" + fqcn + "' named in the configuration is not on the classpath.");
+      } catch (LinkageError e) {
+         logger.warn("The class '" + fqcn + "' named in the configuration cannot be loaded: " + e);
+      }
+   }
+}
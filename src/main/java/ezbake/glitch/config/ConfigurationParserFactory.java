@@ -1,5 +1,10 @@
 package ezbake.glitch.config;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.HandlerRegistries;
+
 /**
  * <p>
  * Returns the configuration parser that is used for parsing the configuration
@@ -13,18 +18,33 @@ package ezbake.glitch.config;
  * <p>
  * The system property name for specifying the configuration parser is <b>
  * glitch.configurationParser</b>. The value is a fully qualified class name of
- * a ConfigurationParser.
+ * a ConfigurationParser, such as {@link StaxConfigurationParser} for large
+ * configuration files. A class that cannot be instantiated is logged and the
+ * default parser is used.
  * </p>
  * <p>
  * The system property name for overriding the default configuration file name
- * associated with the parser is <b>glitch.configurationFile</b>.
+ * associated with the parser is <b>glitch.configurationFile</b>. The value is
+ * the name of a resource on the classpath.
+ * </p>
+ * <p>
+ * A precompiled {@link ConfigurationIndex} of the configuration file is
+ * preferred over parsing it when the index is on the classpath and was built
+ * from the same file.
  * </p>
  * <p>
- * TODO: The implementation of the system properties.
+ * The mappings of the {@link ezbake.glitch.HandlerRegistry} registries on
+ * the classpath, generated from handlers annotated with
+ * {@link ezbake.glitch.Handles}, are added to those of the file.
  * </p>
  */
 public final class ConfigurationParserFactory {
 
+   public static final String PARSER_PROPERTY = "glitch.configurationParser";
+   public static final String FILE_PROPERTY = "glitch.configurationFile";
+
+   private static Logger logger = LoggerFactory.getLogger(ConfigurationParserFactory.class);
+
    /**
     * <p>
     * Returns the configuration parser specified in the system properties. If
@@ -36,7 +56,52 @@ public final class ConfigurationParserFactory {
     */
    public static ConfigurationParser getParser() {
       
+      String parserFqcn = System.getProperty(PARSER_PROPERTY);
+      if (!Values.isNothing(parserFqcn)) {
+         try {
+            return (ConfigurationParser) Class.forName(parserFqcn.trim()).newInstance();
+         } catch (Exception e) {
+            logger.error("The configuration parser '" + parserFqcn + "' could not be instantiated; the XML configuration parser is used instead.", e);
+         }
+      }
       return new XmlConfigurationParser();
    }
 
+   /**
+    * <p>
+    * Returns the resource name of the configuration file specified in the
+    * system properties. If no system property exists then the default name,
+    * <b>glitch-config.xml</b>, is returned.
+    * </p>
+    * 
+    * @return The resource name of the configuration file.
+    */
+   public static String getResourceName() {
+      
+      String resourceName = System.getProperty(FILE_PROPERTY);
+      return Values.isNothing(resourceName) ? XmlConfigurationParser.DEFAULT_CONFIG_RESOURCE_NAME : resourceName.trim();
+   }
+
+   /**
+    * <p>
+    * Reads the configuration file named in the system properties from its
+    * index or, if there is no current index, with the parser named in the
+    * system properties, and adds the mappings of the handler registries.
+    * </p>
+    * 
+    * @return The configuration read from the file.
+    */
+   public static Configuration getConfiguration() {
+      
+      String resourceName = getResourceName();
+      Configuration configuration = ConfigurationIndex.load(resourceName);
+      if (configuration != null) {
+         logger.debug("The configuration was loaded from the index of " + resourceName + ".");
+      } else {
+         configuration = getParser().getConfiguration(resourceName);
+      }
+      HandlerRegistries.addMappings(configuration);
+      return configuration;
+   }
+
 }
@@ -0,0 +1,161 @@
+package ezbake.glitch.config;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.HandlerRegistries;
+
+/**
+ * <p>
+ * Watches the configuration file and passes a newly parsed configuration to
+ * a listener whenever the file changes. The file is checked on one daemon
+ * thread by comparing its modification time and length, which works on every
+ * file system, including network mounts that do not report changes.
+ * </p>
+ * <p>
+ * Watching is enabled with the <b>reload.interval</b> configuration property,
+ * the duration between checks such as <code>10s</code>. Only a configuration
+ * file that is a file on disk, rather than an entry of a jar, can be watched.
+ * A file that cannot be parsed is logged and the previous configuration stays
+ * in effect. The mappings of the handler registries are added to the
+ * reloaded configuration, as they are at startup.
+ * </p>
+ */
+public final class ConfigurationWatcher {
+
+   public static final String RELOAD_INTERVAL = "reload.interval";
+
+   /**
+    * <p>
+    * Receives the configurations parsed after the file changed.
+    * </p>
+    */
+   public interface Listener {
+
+      void reloaded(Configuration configuration);
+   }
+
+   private static Logger logger = LoggerFactory.getLogger(ConfigurationWatcher.class);
+
+   private final File file;
+   private final String resourceName;
+   private final Listener listener;
+   private final ScheduledExecutorService checker;
+   private long lastModified;
+   private long length;
+
+   /**
+    * <p>
+    * Starts watching a configuration file.
+    * </p>
+    *
+    * @param file The configuration file.
+    * @param resourceName The resource name under which the parser reads the
+    *       file.
+    * @param intervalMillis The time between checks.
+    * @param listener The listener that receives the reloaded configurations.
+    */
+   public ConfigurationWatcher(File file, String resourceName, long intervalMillis, Listener listener) {
+
+      this.file = file;
+      this.resourceName = resourceName;
+      this.listener = listener;
+      this.lastModified = file.lastModified();
+      this.length = file.length();
+      this.checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "glitch-config-watcher");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      checker.scheduleWithFixedDelay(new Runnable() {
+         public void run() {
+            try {
+               check();
+            } catch (RuntimeException e) {
+               logger.error("Reloading the configuration file '" + ConfigurationWatcher.this.file + "' failed.", e);
+            }
+         }
+      }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * <p>
+    * Starts watching the configuration file if the configuration that was
+    * read from it enables reloading.
+    * </p>
+    *
+    * @param configuration The configuration read from the file.
+    * @param listener The listener that receives the reloaded configurations.
+    * @return The watcher or null if reloading is not enabled or the file
+    *       cannot be watched.
+    */
+   public static ConfigurationWatcher create(Configuration configuration, Listener listener) {
+
+      long intervalMillis = Values.toMillis(configuration.getProperty(RELOAD_INTERVAL), 0);
+      if (intervalMillis <= 0) {
+         return null;
+      }
+
+      String resourceName = ConfigurationParserFactory.getResourceName();
+      URL url = ConfigurationWatcher.class.getClassLoader().getResource(resourceName);
+      if (url == null || !"file".equals(url.getProtocol())) {
+         logger.warn("The configuration file '" + resourceName + "' is not a file on disk and is not reloaded.");
+         return null;
+      }
+      try {
+         return new ConfigurationWatcher(new File(url.toURI()), resourceName, intervalMillis, listener);
+      } catch (URISyntaxException e) {
+         logger.warn("The configuration file '" + url + "' cannot be watched and is not reloaded.", e);
+         return null;
+      }
+   }
+
+   /**
+    * <p>
+    * Checks the file once and, if it changed since the previous check,
+    * parses it and passes the configuration to the listener.
+    * </p>
+    *
+    * @return true if the file changed and was reloaded.
+    */
+   public synchronized boolean check() {
+
+      long modified = file.lastModified();
+      long size = file.length();
+      if (modified == lastModified && size == length) {
+         return false;
+      }
+      lastModified = modified;
+      length = size;
+
+      Configuration configuration = ConfigurationParserFactory.getParser().getConfiguration(resourceName);
+      if (configuration.getAllHandlers().isEmpty() && size > 0) {
+         logger.warn("The changed configuration file '" + file + "' has no handlers and is not applied.");
+         return false;
+      }
+      HandlerRegistries.addMappings(configuration);
+      logger.info("The configuration file '" + file + "' changed and is reloaded.");
+      listener.reloaded(configuration);
+      return true;
+   }
+
+   /**
+    * <p>
+    * Stops watching the file.
+    * </p>
+    */
+   public void close() {
+
+      checker.shutdownNow();
+   }
+}
@@ -0,0 +1,354 @@
+package ezbake.glitch.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Parses the error handling framework's configuration file in the XML format
+ * as a stream, in a single pass, without building a document in memory. It
+ * reads the same file as {@link XmlConfigurationParser} and is meant for
+ * files with many thousands of mappings, where the document would slow the
+ * start and take up a lot of heap.
+ * </p>
+ * <p>
+ * An entry that is incomplete, such as a handler without a class name or a
+ * property without a value, is logged with its line number and skipped. A
+ * file that is not well-formed is logged with the line number of the error
+ * and results in an empty configuration, as with
+ * {@link XmlConfigurationParser}. Document type declarations and external
+ * entities are not processed.
+ * </p>
+ * <p>
+ * The default configuration file name is <b>glitch-config.xml</b>. Select
+ * this parser by setting the <b>glitch.configurationParser</b> system
+ * property to its class name; see {@link ConfigurationParserFactory}.
+ * </p>
+ */
+public class StaxConfigurationParser implements ConfigurationParser {
+
+   private static final String PROPERTY = "property";
+   private static final String DEFAULT_HANDLERS = "defaultHandlers";
+   private static final String HANDLER = "handler";
+   private static final String EXCEPTIONS = "exceptions";
+   private static final String CLASSNAME = "classname";
+
+   private Logger logger = LoggerFactory.getLogger(StaxConfigurationParser.class);
+
+   private String resourceName;
+   private final List<String> problems = new ArrayList<String>();
+
+   /**
+    * <p>
+    * Creates an instance of the streaming parser. It is expected that the
+    * configuration file is using the default name.
+    * </p>
+    */
+   public StaxConfigurationParser() {
+
+      this(XmlConfigurationParser.DEFAULT_CONFIG_RESOURCE_NAME);
+   }
+
+   /**
+    * <p>
+    * Creates an instance of the streaming parser for the resource name
+    * given. It is expected that the resource name is on the classpath.
+    * </p>
+    *
+    * @param configResourceName The name of the xml configuration file that
+    *       this instance will parse. If null or empty then the default
+    *       resource name is used.
+    */
+   public StaxConfigurationParser(String configResourceName) {
+
+      setResourceName(configResourceName);
+   }
+
+   /**
+    * <p>
+    * Returns the resource name of the XML configuration file that this
+    * instance will parse.
+    * </p>
+    *
+    * @return The resource name of the XML configuration file.
+    */
+   String getResourceName() {
+
+      return resourceName;
+   }
+
+   /**
+    * <p>
+    * Returns the problems found by the last parse, each with its line
+    * number.
+    * </p>
+    *
+    * @return An unmodifiable list of the problems.
+    */
+   List<String> getProblems() {
+
+      return Collections.unmodifiableList(problems);
+   }
+
+   public Configuration getConfiguration() {
+
+      problems.clear();
+      InputStream in = getClass().getClassLoader().getResourceAsStream(resourceName);
+      if (in == null) {
+         logger.warn("The exception handling configuration file," + resourceName + ", was not found.");
+         return new Configuration();
+      }
+      try {
+         return parse(in);
+      } catch (XMLStreamException e) {
+         Location location = e.getLocation();
+         String line = location == null ? "" : " at line " + location.getLineNumber() + ", column " + location.getColumnNumber();
+         problems.add(e.getMessage());
+         logger.error("An error occurred while parsing the " + resourceName + " configuration file" + line + ".", e);
+         return new Configuration();
+      } finally {
+         try {
+            in.close();
+         } catch (IOException e) {
+            logger.warn("The " + resourceName + " configuration file could not be closed.", e);
+         }
+      }
+   }
+
+   public Configuration getConfiguration(String configResourceName) {
+
+      setResourceName(configResourceName);
+      return getConfiguration();
+   }
+
+   private void setResourceName(String configResourceName) {
+
+      if (configResourceName == null || configResourceName.trim().length() == 0) {
+         this.resourceName = XmlConfigurationParser.DEFAULT_CONFIG_RESOURCE_NAME;
+      } else {
+         this.resourceName = configResourceName;
+      }
+   }
+
+   private Configuration parse(InputStream in) throws XMLStreamException {
+
+      XMLInputFactory factory = XMLInputFactory.newInstance();
+      factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+      factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+      factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+      XMLStreamReader reader = factory.createXMLStreamReader(in);
+
+      Configuration configuration = new Configuration();
+      boolean defaultsSeen = false;
+      try {
+         while (reader.hasNext()) {
+            if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+               continue;
+            }
+            String name = reader.getLocalName();
+            if (PROPERTY.equals(name)) {
+               parseProperty(reader, configuration);
+            } else if (DEFAULT_HANDLERS.equals(name)) {
+               if (defaultsSeen) {
+                  problem(reader, "a second <defaultHandlers> element is ignored");
+                  skipElement(reader);
+               } else {
+                  defaultsSeen = true;
+                  parseDefaultHandlers(reader, configuration);
+               }
+            } else if (HANDLER.equals(name)) {
+               parseHandler(reader, configuration);
+            }
+         }
+      } finally {
+         reader.close();
+      }
+      return configuration;
+   }
+
+   private void parseProperty(XMLStreamReader reader, Configuration configuration) {
+
+      String name = reader.getAttributeValue(null, "name");
+      String value = reader.getAttributeValue(null, "value");
+      if (Values.isNothing(name)) {
+         problem(reader, "a <property> has no name");
+      } else if (value == null) {
+         problem(reader, "the <property> '" + name + "' has no value");
+      } else {
+         configuration.setProperty(name, value);
+      }
+   }
+
+   /**
+    * <p>
+    * Reads the <code>classname</code> children of a
+    * <code>defaultHandlers</code> element, whose attributes are the default
+    * handlers' attributes. The reader is left on the end of the element.
+    * </p>
+    */
+   private void parseDefaultHandlers(XMLStreamReader reader, Configuration configuration) throws XMLStreamException {
+
+      while (nextChild(reader)) {
+         if (CLASSNAME.equals(reader.getLocalName())) {
+            int line = lineOf(reader);
+            String[][] attributes = readAttributes(reader);
+            String handler = readClassname(reader);
+            if (handler == null) {
+               problem(line, "a default handler <classname> is empty");
+            } else {
+               configuration.addDefaultHandler(handler);
+               for (String[] attribute : attributes) {
+                  configuration.setHandlerAttribute(handler, attribute[0], attribute[1]);
+               }
+            }
+         } else {
+            skipElement(reader);
+         }
+      }
+   }
+
+   /**
+    * <p>
+    * Reads a <code>handler</code> element: its attributes, its first
+    * <code>classname</code> child and the <code>classname</code> children of
+    * its <code>exceptions</code> element, whose attributes are the
+    * exceptions' attributes. The reader is left on the end of the element.
+    * </p>
+    */
+   private void parseHandler(XMLStreamReader reader, Configuration configuration) throws XMLStreamException {
+
+      int line = lineOf(reader);
+      String[][] handlerAttributes = readAttributes(reader);
+      String handler = null;
+      boolean named = false;
+      List<String> exceptions = new ArrayList<String>();
+
+      while (nextChild(reader)) {
+         String name = reader.getLocalName();
+         if (CLASSNAME.equals(name) && !named) {
+            named = true;
+            handler = readClassname(reader);
+         } else if (EXCEPTIONS.equals(name)) {
+            while (nextChild(reader)) {
+               if (CLASSNAME.equals(reader.getLocalName())) {
+                  int exceptionLine = lineOf(reader);
+                  String[][] attributes = readAttributes(reader);
+                  String exception = readClassname(reader);
+                  if (exception == null) {
+                     problem(exceptionLine, "an exception <classname> is empty");
+                  } else {
+                     exceptions.add(exception);
+                     for (String[] attribute : attributes) {
+                        configuration.setExceptionAttribute(exception, attribute[0], attribute[1]);
+                     }
+                  }
+               } else {
+                  skipElement(reader);
+               }
+            }
+         } else {
+            skipElement(reader);
+         }
+      }
+
+      if (handler == null) {
+         problem(line, "a <handler> has no <classname>; its " + exceptions.size() + " exception mappings are ignored");
+         return;
+      }
+      configuration.addHandlerExceptions(handler, exceptions);
+      for (String[] attribute : handlerAttributes) {
+         configuration.setHandlerAttribute(handler, attribute[0], attribute[1]);
+      }
+   }
+
+   /**
+    * <p>
+    * Moves the reader to the next child element of the current element and
+    * answers true, or to the end of the current element and answers false.
+    * </p>
+    */
+   private boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+
+      while (reader.hasNext()) {
+         int event = reader.next();
+         if (event == XMLStreamConstants.START_ELEMENT) {
+            return true;
+         }
+         if (event == XMLStreamConstants.END_ELEMENT) {
+            return false;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * <p>
+    * Moves the reader past the end of the current element.
+    * </p>
+    */
+   private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+
+      int depth = 1;
+      while (depth > 0 && reader.hasNext()) {
+         int event = reader.next();
+         if (event == XMLStreamConstants.START_ELEMENT) {
+            depth++;
+         } else if (event == XMLStreamConstants.END_ELEMENT) {
+            depth--;
+         }
+      }
+   }
+
+   /**
+    * <p>
+    * Reads the text of a <code>classname</code> element, leaving the reader
+    * on its end.
+    * </p>
+    *
+    * @return The trimmed class name or null if it is empty.
+    */
+   private String readClassname(XMLStreamReader reader) throws XMLStreamException {
+
+      String text = reader.getElementText().trim();
+      return text.length() == 0 ? null : text;
+   }
+
+   private String[][] readAttributes(XMLStreamReader reader) {
+
+      String[][] attributes = new String[reader.getAttributeCount()][];
+      for (int i = 0; i < attributes.length; i++) {
+         attributes[i] = new String[] { reader.getAttributeLocalName(i), reader.getAttributeValue(i) };
+      }
+      return attributes;
+   }
+
+   private int lineOf(XMLStreamReader reader) {
+
+      Location location = reader.getLocation();
+      return location == null ? -1 : location.getLineNumber();
+   }
+
+   private void problem(XMLStreamReader reader, String description) {
+
+      problem(lineOf(reader), description);
+   }
+
+   private void problem(int line, String description) {
+
+      String problem = "Line " + line + ": " + description + ".";
+      problems.add(problem);
+      logger.warn("The " + resourceName + " configuration file has a malformed entry. " + problem);
+   }
+}
@@ -0,0 +1,248 @@
+package ezbake.glitch.config;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Converts configuration values, which are always strings, into the numbers
+ * and durations used by the exception manager. A value that is null, empty
+ * or cannot be converted results in the given default; a value that cannot be
+ * converted is also logged so that the configuration can be corrected.
+ * </p>
+ * <p>
+ * Durations are a number followed by an optional unit: <b>ms</b>, <b>s</b>,
+ * <b>m</b>, <b>h</b> or <b>d</b>. A number without a unit is taken as
+ * milliseconds. For example, <code>250ms</code>, <code>5s</code> and
+ * <code>1m</code>.
+ * </p>
+ * <p>
+ * Ratios are a fraction between zero and one written as a number
+ * (<code>0.01</code>), a percentage (<code>1%</code>) or a quotient
+ * (<code>1/1000</code>).
+ * </p>
+ * <p>
+ * Sizes are a number of bytes followed by an optional unit: <b>KB</b>,
+ * <b>MB</b> or <b>GB</b>, each 1024 times the one before. For example,
+ * <code>512KB</code> and <code>64MB</code>.
+ * </p>
+ */
+public final class Values {
+
+   private static Logger logger = LoggerFactory.getLogger(Values.class);
+
+   private Values() {
+   }
+
+   /**
+    * <p>
+    * Converts a value to an int.
+    * </p>
+    *
+    * @param value The value to convert.
+    * @param defaultValue The value returned if value is nothing or invalid.
+    * @return The converted value or the default value.
+    */
+   public static int toInt(String value, int defaultValue) {
+
+      if (isNothing(value)) {
+         return defaultValue;
+      }
+      try {
+         return Integer.parseInt(value.trim());
+      } catch (NumberFormatException e) {
+         logger.warn("The configuration value '" + value + "' is not a valid integer; using " + defaultValue + " instead.");
+         return defaultValue;
+      }
+   }
+
+   /**
+    * <p>
+    * Converts a value to a long.
+    * </p>
+    *
+    * @param value The value to convert.
+    * @param defaultValue The value returned if value is nothing or invalid.
+    * @return The converted value or the default value.
+    */
+   public static long toLong(String value, long defaultValue) {
+
+      if (isNothing(value)) {
+         return defaultValue;
+      }
+      try {
+         return Long.parseLong(value.trim());
+      } catch (NumberFormatException e) {
+         logger.warn("The configuration value '" + value + "' is not a valid integer; using " + defaultValue + " instead.");
+         return defaultValue;
+      }
+   }
+
+   /**
+    * <p>
+    * Converts a value to a double.
+    * </p>
+    *
+    * @param value The value to convert.
+    * @param defaultValue The value returned if value is nothing or invalid.
+    * @return The converted value or the default value.
+    */
+   public static double toDouble(String value, double defaultValue) {
+
+      if (isNothing(value)) {
+         return defaultValue;
+      }
+      try {
+         return Double.parseDouble(value.trim());
+      } catch (NumberFormatException e) {
+         logger.warn("The configuration value '" + value + "' is not a valid number; using " + defaultValue + " instead.");
+         return defaultValue;
+      }
+   }
+
+   /**
+    * <p>
+    * Converts a ratio value to a fraction between zero and one.
+    * </p>
+    *
+    * @param value The ratio to convert, such as <code>1%</code>.
+    * @param defaultValue The value returned if value is nothing or invalid.
+    * @return The converted fraction or the default value.
+    */
+   public static double toRatio(String value, double defaultValue) {
+
+      if (isNothing(value)) {
+         return defaultValue;
+      }
+
+      String ratio = value.trim();
+      double result = -1;
+      try {
+         int slash = ratio.indexOf('/');
+         if (ratio.endsWith("%")) {
+            result = Double.parseDouble(ratio.substring(0, ratio.length() - 1).trim()) / 100;
+         } else if (slash > 0) {
+            double denominator = Double.parseDouble(ratio.substring(slash + 1).trim());
+            result = denominator > 0 ? Double.parseDouble(ratio.substring(0, slash).trim()) / denominator : -1;
+         } else {
+            result = Double.parseDouble(ratio);
+         }
+      } catch (NumberFormatException e) {
+         result = -1;
+      }
+
+      if (!(result >= 0 && result <= 1)) {
+         logger.warn("The configuration value '" + value + "' is not a valid ratio; using " + defaultValue + " instead.");
+         return defaultValue;
+      }
+      return result;
+   }
+
+   /**
+    * <p>
+    * Converts a duration value to milliseconds.
+    * </p>
+    *
+    * @param value The duration to convert, such as <code>5s</code>.
+    * @param defaultMillis The value returned if value is nothing or invalid.
+    * @return The duration in milliseconds or the default value.
+    */
+   public static long toMillis(String value, long defaultMillis) {
+
+      if (isNothing(value)) {
+         return defaultMillis;
+      }
+
+      String duration = value.trim().toLowerCase(Locale.ENGLISH);
+      int unitStart = duration.length();
+      while (unitStart > 0 && !Character.isDigit(duration.charAt(unitStart - 1))) {
+         unitStart--;
+      }
+
+      TimeUnit unit = toTimeUnit(duration.substring(unitStart).trim());
+      if (unit == null || unitStart == 0) {
+         logger.warn("The configuration value '" + value + "' is not a valid duration; using " + defaultMillis + "ms instead.");
+         return defaultMillis;
+      }
+      try {
+         return unit.toMillis(Long.parseLong(duration.substring(0, unitStart).trim()));
+      } catch (NumberFormatException e) {
+         logger.warn("The configuration value '" + value + "' is not a valid duration; using " + defaultMillis + "ms instead.");
+         return defaultMillis;
+      }
+   }
+
+   /**
+    * <p>
+    * Converts a size value to a number of bytes.
+    * </p>
+    *
+    * @param value The size to convert, such as <code>64MB</code>.
+    * @param defaultBytes The value returned if value is nothing or invalid.
+    * @return The size in bytes or the default value.
+    */
+   public static long toBytes(String value, long defaultBytes) {
+
+      if (isNothing(value)) {
+         return defaultBytes;
+      }
+
+      String size = value.trim().toUpperCase(Locale.ENGLISH);
+      long multiplier = 1;
+      if (size.endsWith("KB")) {
+         multiplier = 1024L;
+      } else if (size.endsWith("MB")) {
+         multiplier = 1024L * 1024;
+      } else if (size.endsWith("GB")) {
+         multiplier = 1024L * 1024 * 1024;
+      } else if (size.endsWith("B")) {
+         size = size.substring(0, size.length() - 1);
+      }
+      if (multiplier > 1) {
+         size = size.substring(0, size.length() - 2);
+      }
+      long bytes;
+      try {
+         bytes = Long.parseLong(size.trim());
+      } catch (NumberFormatException e) {
+         bytes = -1;
+      }
+      if (bytes < 0) {
+         logger.warn("The configuration value '" + value + "' is not a valid size; using " + defaultBytes + " bytes instead.");
+         return defaultBytes;
+      }
+      return bytes * multiplier;
+   }
+
+   /**
+    * <p>
+    * Answers true if the string is null or empty and false if not.
+    * </p>
+    *
+    * @param value A string that is checked for nothingness.
+    * @return true if the string is null or empty and false if not.
+    */
+   public static boolean isNothing(String value) {
+
+      return value == null || value.trim().isEmpty();
+   }
+
+   private static TimeUnit toTimeUnit(String unit) {
+
+      if (unit.isEmpty() || "ms".equals(unit)) {
+         return TimeUnit.MILLISECONDS;
+      } else if ("s".equals(unit)) {
+         return TimeUnit.SECONDS;
+      } else if ("m".equals(unit) || "min".equals(unit)) {
+         return TimeUnit.MINUTES;
+      } else if ("h".equals(unit)) {
+         return TimeUnit.HOURS;
+      } else if ("d".equals(unit)) {
+         return TimeUnit.DAYS;
+      }
+      return null;
+   }
+}
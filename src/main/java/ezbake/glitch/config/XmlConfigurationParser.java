@@ -9,6 +9,7 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
@@ -122,6 +123,7 @@ public class XmlConfigurationParser implements ConfigurationParser {
    public Configuration getConfiguration() {
       
       loadConfigurationFile();
+      configureProperties();
       configureDefaultHandlers();
       configureExceptionHandlers();
       return this.configuration;
@@ -164,6 +166,20 @@ public class XmlConfigurationParser implements ConfigurationParser {
       }
    }
    
+   private void configureProperties() {
+      
+      if (this.document == null) return;
+      
+      NodeList nodeList = this.document.getElementsByTagName("property");
+      
+      for (int i = 0; i < nodeList.getLength(); i++) {
+         Node node = nodeList.item(i);
+         this.configuration.setProperty(
+               parseAttribute(node, "name"), 
+               parseAttribute(node, "value"));
+      }
+   }
+   
    private void configureDefaultHandlers() {
       
       if (this.document == null) return;
@@ -180,6 +196,7 @@ public class XmlConfigurationParser implements ConfigurationParser {
             Node classnameNode = node.getFirstChild();
             if (classnameNode != null) {
                this.configuration.addDefaultHandler(classnameNode.getNodeValue());
+               configureHandlerAttributes(classnameNode.getNodeValue(), node);
             }
          }
       }
@@ -199,6 +216,29 @@ public class XmlConfigurationParser implements ConfigurationParser {
          String handler = parseHandlerClassname(handlerNode);
          Collection<String> exceptions = parseHandlerExceptions(handlerNode);
          configuration.addHandlerExceptions(handler, exceptions);
+         configureHandlerAttributes(handler, handlerNode);
+      }
+   }
+   
+   private void configureHandlerAttributes(String handler, Node node) {
+      
+      NamedNodeMap attributes = node.getAttributes();
+      if (handler == null || attributes == null) return;
+      
+      for (int i = 0; i < attributes.getLength(); i++) {
+         Node attribute = attributes.item(i);
+         configuration.setHandlerAttribute(handler, attribute.getNodeName(), attribute.getNodeValue());
+      }
+   }
+   
+   private void configureExceptionAttributes(String exception, Node node) {
+      
+      NamedNodeMap attributes = node.getAttributes();
+      if (attributes == null) return;
+      
+      for (int i = 0; i < attributes.getLength(); i++) {
+         Node attribute = attributes.item(i);
+         configuration.setExceptionAttribute(exception, attribute.getNodeName(), attribute.getNodeValue());
       }
    }
    
@@ -231,6 +271,7 @@ public class XmlConfigurationParser implements ConfigurationParser {
                   Node classnameNode = exceptionChildNode.getFirstChild();
                   if (classnameNode != null) {
                      exceptionList.add(classnameNode.getNodeValue());
+                     configureExceptionAttributes(classnameNode.getNodeValue(), exceptionChildNode);
                   }
                }
             }
@@ -239,4 +280,12 @@ public class XmlConfigurationParser implements ConfigurationParser {
       
       return exceptionList;
    }
+   
+   private String parseAttribute(Node node, String attributeName) {
+      
+      if (node.getAttributes() == null) return null;
+      
+      Node attributeNode = node.getAttributes().getNamedItem(attributeName);
+      return attributeNode == null ? null : attributeNode.getNodeValue();
+   }
 }
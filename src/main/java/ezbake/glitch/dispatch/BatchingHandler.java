@@ -0,0 +1,251 @@
+package ezbake.glitch.dispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.BatchingCoreExceptionHandler;
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.codec.DecodedException;
+
+/**
+ * <p>
+ * Accumulates the exceptions dispatched to a
+ * {@link BatchingCoreExceptionHandler} and passes them on as batches. A
+ * batch is flushed by the dispatching thread as soon as it reaches the batch
+ * size, or by {@link #flushIfLingered()} once its oldest exception has waited
+ * for the linger time. Every batch is numbered when it is taken and the
+ * batches are flushed in that order, one at a time, so the handler receives
+ * its batches one at a time and in order even when several threads flush.
+ * </p>
+ * <p>
+ * The failure of a flush is rethrown to the thread that flushed, so that the
+ * wrappers of the handler that receives the batches, such as a retry, a
+ * timeout or a circuit breaker, see it and treat the batch as one call. A
+ * failure that reaches the batching is final, so every exception of the
+ * failed batch is first passed to the given-up handler, if there is one. A
+ * given-up handler that fails is logged and does not stop the rest of the
+ * batch from being passed on or hide the failure of the flush.
+ * </p>
+ * <p>
+ * If a target flush latency is set, the batch size adapts to the time the
+ * handler takes per flush: it shrinks by half whenever a flush takes longer
+ * than the target and grows back step by step, up to the maximum batch size,
+ * while flushes are faster than the target.
+ * </p>
+ */
+public final class BatchingHandler implements CoreExceptionHandler {
+
+   private Logger logger = LoggerFactory.getLogger(BatchingHandler.class);
+
+   private final BatchingCoreExceptionHandler delegate;
+   private final int maxBatchSize;
+   private final long lingerNanos;
+   private final long targetLatencyNanos;
+   private final int growthStep;
+   private final CoreExceptionHandler givenUp;
+
+   private final Object pendingLock = new Object();
+   private final Object flushLock = new Object();
+   private List<CoreException> pending;
+   private long firstPendingNanos;
+   private long taken;
+   private long flushed;
+   private volatile int batchSize;
+
+   /**
+    * <p>
+    * Creates the batching wrapper.
+    * </p>
+    *
+    * @param delegate The handler, or its wrapper, that receives the batches.
+    * @param maxBatchSize The maximum number of exceptions in a batch.
+    * @param lingerMillis How long the oldest exception of a batch may wait
+    *       before the batch is flushed.
+    * @param targetLatencyMillis The target duration of a flush or zero to
+    *       keep the batch size fixed.
+    */
+   public BatchingHandler(BatchingCoreExceptionHandler delegate, int maxBatchSize, long lingerMillis, long targetLatencyMillis) {
+
+      this(delegate, maxBatchSize, lingerMillis, targetLatencyMillis, null);
+   }
+
+   /**
+    * <p>
+    * Creates the batching wrapper.
+    * </p>
+    *
+    * @param delegate The handler, or its wrapper, that receives the batches.
+    * @param maxBatchSize The maximum number of exceptions in a batch.
+    * @param lingerMillis How long the oldest exception of a batch may wait
+    *       before the batch is flushed.
+    * @param targetLatencyMillis The target duration of a flush or zero to
+    *       keep the batch size fixed.
+    * @param givenUp The handler that receives the exceptions of a failed
+    *       batch or null to ignore them.
+    */
+   public BatchingHandler(BatchingCoreExceptionHandler delegate, int maxBatchSize, long lingerMillis, long targetLatencyMillis, CoreExceptionHandler givenUp) {
+
+      this.delegate = delegate;
+      this.givenUp = givenUp;
+      this.maxBatchSize = Math.max(1, maxBatchSize);
+      this.lingerNanos = lingerMillis * 1000000L;
+      this.targetLatencyNanos = targetLatencyMillis * 1000000L;
+      this.growthStep = Math.max(1, this.maxBatchSize / 10);
+      this.batchSize = this.maxBatchSize;
+      this.pending = new ArrayList<CoreException>(this.maxBatchSize);
+   }
+
+   public void handle(CoreException e) {
+
+      List<CoreException> batch = null;
+      long sequence = 0;
+      synchronized (pendingLock) {
+         if (pending.isEmpty()) {
+            firstPendingNanos = System.nanoTime();
+         }
+         pending.add(e);
+         if (pending.size() >= batchSize) {
+            batch = takePending();
+            sequence = taken++;
+         }
+      }
+      if (batch != null) {
+         flush(batch, sequence);
+      }
+   }
+
+   /**
+    * <p>
+    * Flushes the pending batch if its oldest exception has waited for at
+    * least the linger time.
+    * </p>
+    */
+   public void flushIfLingered() {
+
+      List<CoreException> batch = null;
+      long sequence = 0;
+      synchronized (pendingLock) {
+         if (!pending.isEmpty() && System.nanoTime() - firstPendingNanos >= lingerNanos) {
+            batch = takePending();
+            sequence = taken++;
+         }
+      }
+      if (batch != null) {
+         flush(batch, sequence);
+      }
+   }
+
+   /**
+    * <p>
+    * Flushes the pending batch regardless of its size or age.
+    * </p>
+    */
+   public void flushPending() {
+
+      List<CoreException> batch = null;
+      long sequence = 0;
+      synchronized (pendingLock) {
+         if (!pending.isEmpty()) {
+            batch = takePending();
+            sequence = taken++;
+         }
+      }
+      if (batch != null) {
+         flush(batch, sequence);
+      }
+   }
+
+   /**
+    * <p>
+    * Returns the current batch size, which is the maximum batch size unless
+    * it has been adapted to the flush latency.
+    * </p>
+    *
+    * @return The number of exceptions at which a batch is flushed.
+    */
+   public int getBatchSize() {
+
+      return batchSize;
+   }
+
+   /**
+    * <p>
+    * Returns how long the oldest exception of a batch may wait.
+    * </p>
+    *
+    * @return The linger time in milliseconds.
+    */
+   public long getLingerMillis() {
+
+      return lingerNanos / 1000000L;
+   }
+
+   private List<CoreException> takePending() {
+
+      List<CoreException> batch = pending;
+      pending = new ArrayList<CoreException>(batchSize);
+      return batch;
+   }
+
+   /**
+    * <p>
+    * Flushes a batch once every batch taken before it has been flushed.
+    * </p>
+    */
+   private void flush(List<CoreException> batch, long sequence) {
+
+      synchronized (flushLock) {
+         boolean interrupted = false;
+         while (flushed != sequence) {
+            try {
+               flushLock.wait();
+            } catch (InterruptedException e) {
+               interrupted = true;
+            }
+         }
+         long start = System.nanoTime();
+         boolean returned = false;
+         try {
+            delegate.handleBatch(batch);
+            returned = true;
+         } finally {
+            adapt(System.nanoTime() - start);
+            if (!returned && givenUp != null) {
+               for (CoreException e : batch) {
+                  release(e);
+               }
+            }
+            flushed++;
+            flushLock.notifyAll();
+            if (interrupted) {
+               Thread.currentThread().interrupt();
+            }
+         }
+      }
+   }
+
+   private void release(CoreException e) {
+
+      try {
+         givenUp.handle(e);
+      } catch (Exception givenUpException) {
+         logger.error("Releasing exception type '" + DecodedException.getMappedClassName(e) + "' of a failed batch encountered errors.", givenUpException);
+      }
+   }
+
+   private void adapt(long latencyNanos) {
+
+      if (targetLatencyNanos <= 0) {
+         return;
+      }
+      if (latencyNanos > targetLatencyNanos) {
+         batchSize = Math.max(1, batchSize / 2);
+      } else if (batchSize < maxBatchSize) {
+         batchSize = Math.min(maxBatchSize, batchSize + growthStep);
+      }
+   }
+}
@@ -0,0 +1,248 @@
+package ezbake.glitch.dispatch;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * A dedicated set of threads, with its own bounded queue, on which one
+ * handler or a named group of handlers is executed. Handlers in different
+ * bulkheads cannot delay each other: a stalled handler only fills its own
+ * bulkhead's queue.
+ * </p>
+ * <p>
+ * When the queue is full the {@link OverflowPolicy} decides whether the
+ * submitting thread waits, the work is dropped or the submitting thread runs
+ * the work itself. Work that implements {@link Work} is told when it is
+ * dropped.
+ * </p>
+ */
+public final class Bulkhead {
+
+   /**
+    * <p>
+    * Work that is told when the bulkhead drops it, so that what it carries
+    * is not silently lost.
+    * </p>
+    */
+   public interface Work extends Runnable {
+
+      /**
+       * <p>
+       * Called, instead of {@link #run()}, on the submitting thread when the
+       * bulkhead drops the work.
+       * </p>
+       */
+      void dropped();
+   }
+
+   private final String name;
+   private final ThreadPoolExecutor executor;
+   private final AtomicLong dropped = new AtomicLong();
+   private final AtomicLong submitted = new AtomicLong();
+   private final AtomicLong completed = new AtomicLong();
+
+   /**
+    * <p>
+    * Creates the bulkhead. Its threads are daemon threads named after the
+    * bulkhead.
+    * </p>
+    *
+    * @param name The name of the bulkhead.
+    * @param threads The number of threads.
+    * @param queueSize The maximum number of waiting executions.
+    * @param overflowPolicy What to do when the queue is full.
+    */
+   public Bulkhead(final String name, int threads, int queueSize, OverflowPolicy overflowPolicy) {
+
+      this.name = name;
+      this.executor = new ThreadPoolExecutor(
+            Math.max(1, threads),
+            Math.max(1, threads),
+            0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+            new ThreadFactory() {
+               private final AtomicInteger count = new AtomicInteger();
+               public Thread newThread(Runnable runnable) {
+                  Thread thread = new Thread(runnable, "glitch-bulkhead-" + name + "-" + count.getAndIncrement());
+                  thread.setDaemon(true);
+                  return thread;
+               }
+            },
+            new OverflowHandler(overflowPolicy)) {
+         @Override
+         protected void afterExecute(Runnable work, Throwable t) {
+            completed.incrementAndGet();
+         }
+      };
+   }
+
+   /**
+    * <p>
+    * Executes the given work on this bulkhead's threads.
+    * </p>
+    *
+    * @param work The work to execute.
+    */
+   public void execute(Runnable work) {
+
+      submitted.incrementAndGet();
+      executor.execute(work);
+   }
+
+   /**
+    * <p>
+    * Executes the given work on this bulkhead's threads if there is room in
+    * the queue. The room is checked first, so the overflow policy only
+    * applies if other threads fill the queue at the same moment.
+    * </p>
+    *
+    * @param work The work to execute.
+    * @return true if the work was accepted and false if the queue was full.
+    */
+   public boolean executeIfRoom(Runnable work) {
+
+      if (executor.getQueue().remainingCapacity() == 0 || executor.isShutdown()) {
+         return false;
+      }
+      execute(work);
+      return true;
+   }
+
+   /**
+    * <p>
+    * Waits until all the work submitted so far has been executed or dropped.
+    * </p>
+    *
+    * @param timeout The maximum time to wait.
+    * @param unit The unit of the timeout.
+    * @return true if the submitted work was executed and false if the
+    *       timeout elapsed first.
+    * @throws InterruptedException if interrupted while waiting.
+    */
+   public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+
+      long target = submitted.get();
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      while (completed.get() < target) {
+         if (System.nanoTime() - deadline >= 0) {
+            return false;
+         }
+         if (Thread.interrupted()) {
+            throw new InterruptedException();
+         }
+         LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+      }
+      return true;
+   }
+
+   /**
+    * <p>
+    * Executes the pending work and then stops this bulkhead's threads.
+    * </p>
+    *
+    * @param timeout The maximum time to wait for pending work.
+    * @param unit The unit of the timeout.
+    * @return true if all pending work was executed and false if the timeout
+    *       elapsed first.
+    * @throws InterruptedException if interrupted while waiting.
+    */
+   public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+
+      executor.shutdown();
+      return executor.awaitTermination(timeout, unit);
+   }
+
+   /**
+    * <p>
+    * Returns the name of this bulkhead.
+    * </p>
+    *
+    * @return The name of this bulkhead.
+    */
+   public String getName() {
+
+      return name;
+   }
+
+   /**
+    * <p>
+    * Returns the number of executions waiting for a thread.
+    * </p>
+    *
+    * @return The number of queued executions.
+    */
+   public int getPendingCount() {
+
+      return executor.getQueue().size();
+   }
+
+   /**
+    * <p>
+    * Returns the number of executions that were discarded because the queue
+    * was full.
+    * </p>
+    *
+    * @return The number of dropped executions.
+    */
+   public long getDroppedCount() {
+
+      return dropped.get();
+   }
+
+   /**
+    * <p>
+    * Applies the overflow policy to work that does not fit in the queue.
+    * </p>
+    */
+   private class OverflowHandler implements RejectedExecutionHandler {
+
+      private final OverflowPolicy overflowPolicy;
+
+      OverflowHandler(OverflowPolicy overflowPolicy) {
+
+         this.overflowPolicy = overflowPolicy;
+      }
+
+      public void rejectedExecution(Runnable work, ThreadPoolExecutor rejectingExecutor) {
+
+         if (rejectingExecutor.isShutdown() || overflowPolicy == OverflowPolicy.CALLER_RUNS) {
+            try {
+               work.run();
+            } finally {
+               completed.incrementAndGet();
+            }
+         } else if (overflowPolicy == OverflowPolicy.BLOCK) {
+            try {
+               rejectingExecutor.getQueue().put(work);
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               drop(work);
+            }
+         } else if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            Runnable oldest = rejectingExecutor.getQueue().poll();
+            if (oldest != null) {
+               drop(oldest);
+            }
+            rejectingExecutor.execute(work);
+         } else {
+            drop(work);
+         }
+      }
+
+      private void drop(Runnable work) {
+
+         dropped.incrementAndGet();
+         completed.incrementAndGet();
+         if (work instanceof Work) {
+            ((Work) work).dropped();
+         }
+      }
+   }
+}
@@ -0,0 +1,97 @@
+package ezbake.glitch.dispatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.codec.DecodedException;
+
+/**
+ * <p>
+ * Executes a handler on the threads of its {@link Bulkhead} rather than on
+ * the dispatching thread. The dispatching thread returns as soon as the
+ * execution is queued.
+ * </p>
+ * <p>
+ * An exception whose execution is dropped by the bulkhead is passed to the
+ * dropped handler, if there is one. It is then passed, like an exception
+ * whose handling fails on the bulkhead's thread, to the given-up handler, if
+ * there is one.
+ * </p>
+ */
+public final class BulkheadHandler implements CoreExceptionHandler {
+
+   private Logger logger = LoggerFactory.getLogger(BulkheadHandler.class);
+
+   private final CoreExceptionHandler delegate;
+   private final Bulkhead bulkhead;
+   private final CoreExceptionHandler dropped;
+   private final CoreExceptionHandler givenUp;
+
+   public BulkheadHandler(CoreExceptionHandler delegate, Bulkhead bulkhead) {
+
+      this(delegate, bulkhead, null, null);
+   }
+
+   /**
+    * <p>
+    * Creates the wrapper.
+    * </p>
+    *
+    * @param delegate The handler that is executed on the bulkhead.
+    * @param bulkhead The bulkhead.
+    * @param dropped The handler that receives the exceptions that are
+    *       dropped or null to ignore them.
+    * @param givenUp The handler that receives the exceptions that are
+    *       dropped or fail or null to ignore them.
+    */
+   public BulkheadHandler(CoreExceptionHandler delegate, Bulkhead bulkhead, CoreExceptionHandler dropped, CoreExceptionHandler givenUp) {
+
+      this.delegate = delegate;
+      this.bulkhead = bulkhead;
+      this.dropped = dropped;
+      this.givenUp = givenUp;
+   }
+
+   public void handle(final CoreException e) {
+
+      bulkhead.execute(new Bulkhead.Work() {
+         public void run() {
+            try {
+               delegate.handle(e);
+            } catch (Exception handlerException) {
+               logger.error("Handler '" + delegate.getClass().getName() + "' encountered errors when executing handler processing for exception type '" + DecodedException.getMappedClassName(e) + "' in bulkhead '" + bulkhead.getName() + "'.", handlerException);
+               giveUp(e);
+            }
+         }
+
+         public void dropped() {
+
+            if (dropped != null) {
+               dropped.handle(e);
+            }
+            giveUp(e);
+         }
+      });
+   }
+
+   /**
+    * <p>
+    * Returns the bulkhead on which the handler is executed.
+    * </p>
+    *
+    * @return The handler's bulkhead.
+    */
+   public Bulkhead getBulkhead() {
+
+      return bulkhead;
+   }
+
+   private void giveUp(CoreException e) {
+
+      if (givenUp != null) {
+         givenUp.handle(e);
+      }
+   }
+}
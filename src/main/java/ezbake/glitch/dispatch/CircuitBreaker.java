@@ -0,0 +1,186 @@
+package ezbake.glitch.dispatch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * Tracks the outcome of the recent calls to a handler and stops calling it
+ * while too many of them fail. A call fails if it throws or, when a slow
+ * call threshold is set, if it takes longer than the threshold.
+ * </p>
+ * <p>
+ * The breaker starts <b>closed</b> and lets every call through. Once the
+ * failure rate of the last <i>window</i> calls reaches the threshold it
+ * <b>opens</b> and rejects every call. After the open time one trial call is
+ * let through in the <b>half-open</b> state: if it succeeds the breaker
+ * closes again, otherwise it reopens.
+ * </p>
+ * <p>
+ * Each call that is let through holds a {@link Permit} with which its
+ * outcome is recorded. Only the trial call decides the half-open state; the
+ * outcome of a call let through before the breaker opened is ignored once
+ * it has.
+ * </p>
+ * <p>
+ * Checking an open or closed breaker costs a volatile read; only recording
+ * an outcome takes the breaker's lock.
+ * </p>
+ */
+public final class CircuitBreaker {
+
+   /**
+    * <p>
+    * The states of a circuit breaker.
+    * </p>
+    */
+   public enum State {
+      CLOSED, OPEN, HALF_OPEN
+   }
+
+   /**
+    * <p>
+    * The decisions on whether a call may go through.
+    * </p>
+    */
+   public enum Permit {
+      /** The call is rejected. */
+      REJECTED,
+      /** The call goes through the closed breaker. */
+      CALL,
+      /** The call is the trial call of the half-open breaker. */
+      TRIAL
+   }
+
+   private final double failureRateThreshold;
+   private final long slowCallNanos;
+   private final long openNanos;
+
+   private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+   private volatile long openedAt;
+
+   private final boolean[] outcomes;
+   private int next;
+   private int calls;
+   private int failures;
+
+   /**
+    * <p>
+    * Creates a closed circuit breaker.
+    * </p>
+    *
+    * @param failureRateThreshold The share of failed calls, between zero and
+    *       one, at which the breaker opens.
+    * @param window The number of recent calls over which the failure rate
+    *       is measured.
+    * @param slowCallMillis The duration above which a call counts as failed
+    *       or zero to ignore durations.
+    * @param openMillis How long the breaker stays open before a trial call.
+    */
+   public CircuitBreaker(double failureRateThreshold, int window, long slowCallMillis, long openMillis) {
+
+      this.failureRateThreshold = failureRateThreshold;
+      this.outcomes = new boolean[Math.max(1, window)];
+      this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+      this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+   }
+
+   /**
+    * <p>
+    * Decides whether a call may go through. When the open time has passed,
+    * exactly one caller is let through as the trial call.
+    * </p>
+    *
+    * @return The permit with which the outcome of the call is recorded, or
+    *       {@link Permit#REJECTED} if the call is rejected.
+    */
+   public Permit acquire() {
+
+      State current = state.get();
+      if (current == State.CLOSED) {
+         return Permit.CALL;
+      }
+      if (current == State.OPEN &&
+            System.nanoTime() - openedAt >= openNanos &&
+            state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+         return Permit.TRIAL;
+      }
+      return Permit.REJECTED;
+   }
+
+   /**
+    * <p>
+    * Records the outcome of a call that was let through. The outcome of a
+    * call that went through the closed breaker is ignored unless the
+    * breaker is still closed.
+    * </p>
+    *
+    * @param permit The permit the call was let through with.
+    * @param succeeded Whether the call returned without throwing.
+    * @param durationNanos How long the call took.
+    */
+   public void record(Permit permit, boolean succeeded, long durationNanos) {
+
+      boolean failed = !succeeded || (slowCallNanos > 0 && durationNanos > slowCallNanos);
+
+      synchronized (outcomes) {
+         if (permit == Permit.TRIAL) {
+            if (state.get() == State.HALF_OPEN) {
+               if (failed) {
+                  open();
+               } else {
+                  reset();
+                  state.set(State.CLOSED);
+               }
+            }
+            return;
+         }
+         if (permit != Permit.CALL || state.get() != State.CLOSED) {
+            return;
+         }
+
+         if (calls == outcomes.length) {
+            if (outcomes[next]) {
+               failures--;
+            }
+         } else {
+            calls++;
+         }
+         outcomes[next] = failed;
+         next = (next + 1) % outcomes.length;
+         if (failed) {
+            failures++;
+         }
+
+         if (calls == outcomes.length && failures >= failureRateThreshold * calls) {
+            open();
+         }
+      }
+   }
+
+   /**
+    * <p>
+    * Returns the state of the breaker.
+    * </p>
+    *
+    * @return The current state.
+    */
+   public State getState() {
+
+      return state.get();
+   }
+
+   private void open() {
+
+      reset();
+      openedAt = System.nanoTime();
+      state.set(State.OPEN);
+   }
+
+   private void reset() {
+
+      next = 0;
+      calls = 0;
+      failures = 0;
+   }
+}
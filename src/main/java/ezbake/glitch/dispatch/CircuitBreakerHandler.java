@@ -0,0 +1,245 @@
+package ezbake.glitch.dispatch;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.BatchingCoreExceptionHandler;
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.codec.DecodedException;
+
+/**
+ * <p>
+ * Executes a handler through a {@link CircuitBreaker}. While the breaker is
+ * open the handler is skipped and the exception is passed to the fallback
+ * handler, if there is one. An exception whose handling fails is also passed
+ * to the fallback before the failure is rethrown to be logged. The skipped
+ * exceptions are then passed to the given-up handler, if there is one.
+ * </p>
+ * <p>
+ * A handler that is retried is wrapped with {@link #retried}, so that each
+ * exception reaches the fallback at most once: an open breaker throws a
+ * {@link CircuitOpenException} and a retryable failure is only rethrown, and
+ * the {@link RetryHandler} passes the exceptions it gives up on to the
+ * fallback.
+ * </p>
+ * <p>
+ * A handler that receives batches is wrapped by {@link Batching}, which
+ * records each batch as one call and passes every exception of a batch it
+ * does not handle to the fallback.
+ * </p>
+ */
+public class CircuitBreakerHandler implements CoreExceptionHandler {
+
+   private Logger logger = LoggerFactory.getLogger(CircuitBreakerHandler.class);
+
+   private final String name;
+   private final CoreExceptionHandler delegate;
+   private final CircuitBreaker breaker;
+   private final CoreExceptionHandler fallback;
+   private final RetryPolicy retryPolicy;
+   private final CoreExceptionHandler givenUp;
+   private final AtomicLong skipped = new AtomicLong();
+
+   /**
+    * <p>
+    * Creates the wrapper.
+    * </p>
+    *
+    * @param name The name of the handler, used for logging.
+    * @param delegate The handler that is protected by the breaker.
+    * @param breaker The circuit breaker.
+    * @param fallback The handler that receives the exceptions the delegate
+    *       does not handle or null to drop them.
+    */
+   public CircuitBreakerHandler(String name, CoreExceptionHandler delegate, CircuitBreaker breaker, CoreExceptionHandler fallback) {
+
+      this(name, delegate, breaker, fallback, null, null);
+   }
+
+   /**
+    * <p>
+    * Creates the wrapper of a handler that is not retried.
+    * </p>
+    *
+    * @param name The name of the handler, used for logging.
+    * @param delegate The handler that is protected by the breaker.
+    * @param breaker The circuit breaker.
+    * @param fallback The handler that receives the exceptions the delegate
+    *       does not handle or null to drop them.
+    * @param givenUp The handler that receives the skipped exceptions, after
+    *       the fallback, or null.
+    * @return The wrapper, which receives batches if the handler does.
+    */
+   public static CircuitBreakerHandler create(String name, CoreExceptionHandler delegate, CircuitBreaker breaker, CoreExceptionHandler fallback, CoreExceptionHandler givenUp) {
+
+      if (delegate instanceof BatchingCoreExceptionHandler) {
+         return new Batching(name, (BatchingCoreExceptionHandler) delegate, breaker, fallback, null, givenUp);
+      }
+      return new CircuitBreakerHandler(name, delegate, breaker, fallback, null, givenUp);
+   }
+
+   CircuitBreakerHandler(String name, CoreExceptionHandler delegate, CircuitBreaker breaker, CoreExceptionHandler fallback, RetryPolicy retryPolicy,
+         CoreExceptionHandler givenUp) {
+
+      this.name = name;
+      this.delegate = delegate;
+      this.breaker = breaker;
+      this.fallback = fallback;
+      this.retryPolicy = retryPolicy;
+      this.givenUp = givenUp;
+   }
+
+   /**
+    * <p>
+    * Creates the wrapper of a handler that is retried. The fallback only
+    * receives the exceptions whose failure is not retried; the retry passes
+    * the others to the fallback when it gives up on them.
+    * </p>
+    *
+    * @param name The name of the handler, used for logging.
+    * @param delegate The handler that is protected by the breaker.
+    * @param breaker The circuit breaker.
+    * @param fallback The handler that receives the exceptions whose failure
+    *       is not retried or null to drop them.
+    * @param retryPolicy The policy of the retry that wraps the breaker.
+    * @return The wrapper, which receives batches if the handler does.
+    */
+   public static CircuitBreakerHandler retried(String name, CoreExceptionHandler delegate, CircuitBreaker breaker, CoreExceptionHandler fallback, RetryPolicy retryPolicy) {
+
+      if (delegate instanceof BatchingCoreExceptionHandler) {
+         return new Batching(name, (BatchingCoreExceptionHandler) delegate, breaker, fallback, retryPolicy, null);
+      }
+      return new CircuitBreakerHandler(name, delegate, breaker, fallback, retryPolicy, null);
+   }
+
+   public void handle(final CoreException e) {
+
+      execute(Collections.singletonList(e), new Runnable() {
+         public void run() {
+            delegate.handle(e);
+         }
+      });
+   }
+
+   /**
+    * <p>
+    * Executes a call of the handler for the given exceptions if the breaker
+    * allows it and passes the exceptions to the fallback otherwise.
+    * </p>
+    */
+   void execute(List<CoreException> exceptions, Runnable call) {
+
+      CircuitBreaker.Permit permit = breaker.acquire();
+      if (permit == CircuitBreaker.Permit.REJECTED) {
+         skipped.addAndGet(exceptions.size());
+         if (retryPolicy != null) {
+            throw new CircuitOpenException("The circuit breaker of handler '" + name + "' is open.");
+         }
+         handleFallback(exceptions);
+         if (givenUp != null) {
+            for (CoreException e : exceptions) {
+               givenUp.handle(e);
+            }
+         }
+         return;
+      }
+
+      long start = System.nanoTime();
+      try {
+         call.run();
+      } catch (RuntimeException failure) {
+         record(permit, false, start);
+         if (retryPolicy == null || !retryPolicy.isRetryable(failure)) {
+            handleFallback(exceptions);
+         }
+         throw failure;
+      } catch (Error failure) {
+         record(permit, false, start);
+         handleFallback(exceptions);
+         throw failure;
+      }
+      record(permit, true, start);
+   }
+
+   /**
+    * <p>
+    * Returns the circuit breaker of the handler.
+    * </p>
+    *
+    * @return The handler's circuit breaker.
+    */
+   public CircuitBreaker getBreaker() {
+
+      return breaker;
+   }
+
+   /**
+    * <p>
+    * Returns the number of exceptions that skipped the handler because the
+    * breaker was open.
+    * </p>
+    *
+    * @return The number of skipped exceptions.
+    */
+   public long getSkippedCount() {
+
+      return skipped.get();
+   }
+
+   private void record(CircuitBreaker.Permit permit, boolean succeeded, long start) {
+
+      CircuitBreaker.State before = breaker.getState();
+      breaker.record(permit, succeeded, System.nanoTime() - start);
+      CircuitBreaker.State after = breaker.getState();
+
+      if (after == CircuitBreaker.State.OPEN && before != CircuitBreaker.State.OPEN) {
+         logger.warn("The circuit breaker of handler '" + name + "' opened; exceptions are " + (fallback == null ? "not handled by it" : "passed to its fallback") + " until it recovers.");
+      } else if (after == CircuitBreaker.State.CLOSED && before == CircuitBreaker.State.HALF_OPEN) {
+         logger.info("The circuit breaker of handler '" + name + "' closed after " + skipped.get() + " skipped exceptions.");
+      }
+   }
+
+   private void handleFallback(List<CoreException> exceptions) {
+
+      if (fallback == null) return;
+
+      for (CoreException e : exceptions) {
+         try {
+            fallback.handle(e);
+         } catch (Exception fallbackException) {
+            logger.error("The fallback of handler '" + name + "' encountered errors when executing handler processing for exception type '" + DecodedException.getMappedClassName(e) + "'.", fallbackException);
+         }
+      }
+   }
+
+   /**
+    * <p>
+    * Executes a handler that receives batches through the breaker.
+    * </p>
+    */
+   static final class Batching extends CircuitBreakerHandler implements BatchingCoreExceptionHandler {
+
+      private final BatchingCoreExceptionHandler delegate;
+
+      Batching(String name, BatchingCoreExceptionHandler delegate, CircuitBreaker breaker, CoreExceptionHandler fallback, RetryPolicy retryPolicy,
+            CoreExceptionHandler givenUp) {
+
+         super(name, delegate, breaker, fallback, retryPolicy, givenUp);
+         this.delegate = delegate;
+      }
+
+      public void handleBatch(final List<CoreException> exceptions) {
+
+         execute(exceptions, new Runnable() {
+            public void run() {
+               delegate.handleBatch(exceptions);
+            }
+         });
+      }
+   }
+}
@@ -0,0 +1,25 @@
+package ezbake.glitch.dispatch;
+
+/**
+ * <p>
+ * Thrown by a {@link CircuitBreakerHandler} that is retried when its breaker
+ * is open, so that the {@link RetryHandler} gives up on the exception rather
+ * than counting the skipped call as handled.
+ * </p>
+ */
+public class CircuitOpenException extends RuntimeException {
+
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * <p>
+    * Constructs an instance of this exception using the given message.
+    * </p>
+    *
+    * @param message A message that names the handler whose breaker is open.
+    */
+   public CircuitOpenException(String message) {
+
+      super(message);
+   }
+}
@@ -0,0 +1,780 @@
+package ezbake.glitch.dispatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.BatchingCoreExceptionHandler;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.config.Configuration;
+import ezbake.glitch.config.Values;
+import ezbake.glitch.metrics.HandlerMetrics;
+import ezbake.glitch.metrics.Metrics;
+import ezbake.glitch.spool.DeadLetterQueue;
+import ezbake.glitch.spool.Spool;
+
+/**
+ * <p>
+ * Wraps each configured handler according to its attributes in the
+ * configuration, so that the dispatch table executes the wrapped handlers in
+ * place of the plain handler instances.
+ * </p>
+ * <p>
+ * The following handler attributes are recognized:
+ * </p>
+ * <ul>
+ * <li><b>bulkhead</b> - the name of the {@link Bulkhead} the handler is
+ * executed on. Handlers naming the same bulkhead share its threads; the
+ * thread and queue settings are taken from the first handler that names it.
+ * </li>
+ * <li><b>threads</b> - the number of bulkhead threads. Setting this attribute
+ * without a bulkhead name gives the handler a bulkhead of its own. The
+ * default is 1.</li>
+ * <li><b>queueSize</b> - the maximum number of executions waiting in the
+ * bulkhead. The default is 256.</li>
+ * <li><b>overflow</b> - the {@link OverflowPolicy} applied when the bulkhead
+ * queue is full. The default is drop-newest.</li>
+ * </ul>
+ * <p>
+ * A handler that implements {@link BatchingCoreExceptionHandler} receives
+ * its exceptions in batches; see {@link BatchingHandler}. The batches are
+ * tuned with the following attributes:
+ * </p>
+ * <ul>
+ * <li><b>batchSize</b> - the maximum number of exceptions in a batch. The
+ * default is 100.</li>
+ * <li><b>batchLinger</b> - how long the oldest exception of a batch may wait
+ * before the batch is flushed. The default is 1s.</li>
+ * <li><b>batchLatency</b> - a target flush duration; when set, the batch
+ * size adapts to keep flushes within it.</li>
+ * </ul>
+ * <p>
+ * How often a handler is executed is limited with a {@link RateLimiter}:
+ * </p>
+ * <ul>
+ * <li><b>rateLimit</b> - the number of permits per duration, for example
+ * <code>5/min</code>. Exceptions over the limit are counted and not handled
+ * by the handler.</li>
+ * <li><b>rateBurst</b> - the number of exceptions that may be handled in a
+ * burst. The default is the number of permits.</li>
+ * </ul>
+ * <p>
+ * A handler that keeps failing is skipped by a {@link CircuitBreaker} while
+ * its exceptions are passed to a fallback handler:
+ * </p>
+ * <ul>
+ * <li><b>breakerFailureRate</b> - the share of failed calls at which the
+ * breaker opens, such as <code>50%</code>. The default is 50%.</li>
+ * <li><b>breakerWindow</b> - the number of recent calls over which the
+ * failure rate is measured. The default is 20.</li>
+ * <li><b>breakerSlowCall</b> - a duration above which a call counts as
+ * failed. By default durations are ignored.</li>
+ * <li><b>breakerOpenFor</b> - how long the breaker stays open before a trial
+ * call. The default is 30s.</li>
+ * <li><b>fallback</b> - the fully qualified class name of the handler that
+ * receives the exceptions while the breaker is open. The fallback is
+ * decorated according to its own attributes, so fallbacks may be chained.</li>
+ * </ul>
+ * <p>
+ * Any of these attributes puts the handler behind a breaker.
+ * </p>
+ * <p>
+ * How long a single execution of a handler may take is bounded with a
+ * {@link TimeoutHandler}:
+ * </p>
+ * <ul>
+ * <li><b>timeout</b> - the duration after which the handler is interrupted
+ * and abandoned.</li>
+ * <li><b>timeoutThreads</b> - the maximum number of threads on which the
+ * handler runs. The default is 2.</li>
+ * </ul>
+ * <p>
+ * A handler that fails is executed again after a backoff with a
+ * {@link RetryHandler}:
+ * </p>
+ * <ul>
+ * <li><b>retryAttempts</b> - the maximum number of executions, including
+ * the first. Setting this attribute enables retries.</li>
+ * <li><b>retryBackoff</b> - the delay before the first retry. The default is
+ * 100ms.</li>
+ * <li><b>retryMaxBackoff</b> - the maximum delay. The default is 30s.</li>
+ * <li><b>retryMultiplier</b> - the factor by which the delay grows per
+ * retry. The default is 2.</li>
+ * <li><b>retryJitter</b> - the largest share taken off a delay at random.
+ * The default is 50%.</li>
+ * <li><b>retryOn</b> - the comma-separated class names of the failures that
+ * are retried. By default every failure is.</li>
+ * <li><b>retryQueueSize</b> - the maximum number of exceptions waiting for a
+ * retry. The default is 1024.</li>
+ * </ul>
+ * <p>
+ * The retries of all handlers wait out their backoff on one scheduler
+ * thread and are then executed on the handler's bulkhead, or on a thread of
+ * the handler's own if it has no bulkhead. The exceptions a handler gave up
+ * on are passed to its fallback if it has one. Otherwise, if the
+ * <b>deadLetter.directory</b> property is set, they are stored in a
+ * {@link DeadLetterQueue} of that handler in the directory.
+ * </p>
+ * <p>
+ * A handler with both a breaker and retries receives each exception in its
+ * fallback at most once: the breaker passes on the exceptions whose failure
+ * is not retried, and the retry those it gave up on, including the ones the
+ * open breaker skipped.
+ * </p>
+ * <p>
+ * A handler that buffers its output, such as
+ * {@link ezbake.glitch.handler.AsyncConsoleHandler}, is flushed by
+ * {@link #drain(long, TimeUnit)} if it is {@link Flushable} and closed by
+ * {@link #shutdown(long, TimeUnit)} if it is {@link Closeable}.
+ * </p>
+ * <p>
+ * The handler attributes are applied in this order: the timeout wraps the
+ * handler; the circuit breaker wraps the timeout, so overruns count as
+ * failures; the retry wraps the breaker, so every attempt is measured; the
+ * batching wraps the retry, so a batch is timed out, measured and retried as
+ * one call; the bulkhead wraps the batching, so batches are flushed and
+ * breakers measure on the bulkhead's threads; and the rate limit wraps the
+ * bulkhead, so rejected exceptions never take up room in the bulkhead's
+ * queue. A batch that has waited for the linger time is also flushed on the
+ * bulkhead's threads, or on a shared scheduler thread if the handler has no
+ * bulkhead.
+ * </p>
+ * <p>
+ * With a {@link Spool}, each handler acknowledges the spooled exceptions it
+ * has handled. The acknowledgement wraps the plain handler, and the tracking
+ * of the exceptions in flight wraps the bulkhead, so an exception waiting in
+ * a bulkhead, batch or retry remains in flight. The exceptions a handler
+ * gives up on are released: those a breaker skips or a bulkhead drops,
+ * those of a failed batch, those a retry gives up on and those whose
+ * failure is not retried. Exceptions over the rate limit are not tracked.
+ * </p>
+ * <p>
+ * With {@link Metrics}, the plain handler is measured innermost, so its
+ * latency excludes the time spent in queues, batches and retries. The
+ * exceptions a handler's bulkhead or rate limit drops are counted as
+ * dropped for their class.
+ * </p>
+ */
+public final class DecoratedHandlers {
+
+   public static final String BULKHEAD = "bulkhead";
+   public static final String THREADS = "threads";
+   public static final String QUEUE_SIZE = "queueSize";
+   public static final String OVERFLOW = "overflow";
+   public static final String BATCH_SIZE = "batchSize";
+   public static final String BATCH_LINGER = "batchLinger";
+   public static final String BATCH_LATENCY = "batchLatency";
+   public static final String RATE_LIMIT = "rateLimit";
+   public static final String RATE_BURST = "rateBurst";
+   public static final String BREAKER_FAILURE_RATE = "breakerFailureRate";
+   public static final String BREAKER_WINDOW = "breakerWindow";
+   public static final String BREAKER_SLOW_CALL = "breakerSlowCall";
+   public static final String BREAKER_OPEN_FOR = "breakerOpenFor";
+   public static final String FALLBACK = "fallback";
+   public static final String TIMEOUT = "timeout";
+   public static final String TIMEOUT_THREADS = "timeoutThreads";
+   public static final String RETRY_ATTEMPTS = "retryAttempts";
+   public static final String RETRY_BACKOFF = "retryBackoff";
+   public static final String RETRY_MAX_BACKOFF = "retryMaxBackoff";
+   public static final String RETRY_MULTIPLIER = "retryMultiplier";
+   public static final String RETRY_JITTER = "retryJitter";
+   public static final String RETRY_ON = "retryOn";
+   public static final String RETRY_QUEUE_SIZE = "retryQueueSize";
+
+   private static final int DEFAULT_QUEUE_SIZE = 256;
+   private static final int DEFAULT_BATCH_SIZE = 100;
+   private static final long DEFAULT_BATCH_LINGER_MILLIS = 1000;
+   private static final double DEFAULT_BREAKER_FAILURE_RATE = 0.5;
+   private static final int DEFAULT_BREAKER_WINDOW = 20;
+   private static final long DEFAULT_BREAKER_OPEN_MILLIS = 30000;
+   private static final int DEFAULT_TIMEOUT_THREADS = 2;
+   private static final long DEFAULT_RETRY_BACKOFF_MILLIS = 100;
+   private static final long DEFAULT_RETRY_MAX_BACKOFF_MILLIS = 30000;
+   private static final double DEFAULT_RETRY_MULTIPLIER = 2;
+   private static final double DEFAULT_RETRY_JITTER = 0.5;
+   private static final int DEFAULT_RETRY_QUEUE_SIZE = 1024;
+
+   private Logger logger = LoggerFactory.getLogger(DecoratedHandlers.class);
+
+   private final Configuration configuration;
+   private final Map<String, CoreExceptionHandler> rawHandlers;
+   private final Map<String, CoreExceptionHandler> handlers;
+   private final Set<String> decorating;
+   private final Map<String, Bulkhead> bulkheads;
+   private final List<BatchingHandler> batchingHandlers;
+   private final List<TimeoutHandler> timeoutHandlers;
+   private final List<CoreExceptionHandler> bufferingHandlers;
+   private final List<RetryHandler> retryHandlers;
+   private final Map<String, DeadLetterQueue> deadLetterQueues;
+   private final Spool spool;
+   private final Metrics metrics;
+   private ScheduledExecutorService scheduler;
+   private ScheduledExecutorService retryScheduler;
+
+   /**
+    * <p>
+    * Wraps the given handlers according to their configured attributes.
+    * </p>
+    *
+    * @param configuration The configuration holding the handler attributes.
+    * @param handlers The plain handler instances keyed by their fully
+    *       qualified class names.
+    */
+   public DecoratedHandlers(Configuration configuration, Map<String, CoreExceptionHandler> handlers) {
+
+      this(configuration, handlers, null);
+   }
+
+   /**
+    * <p>
+    * Wraps the given handlers according to their configured attributes and
+    * makes them acknowledge the exceptions of a spool.
+    * </p>
+    *
+    * @param configuration The configuration holding the handler attributes.
+    * @param handlers The plain handler instances keyed by their fully
+    *       qualified class names.
+    * @param spool The spool whose exceptions the handlers acknowledge or
+    *       null if there is none.
+    */
+   public DecoratedHandlers(Configuration configuration, Map<String, CoreExceptionHandler> handlers, Spool spool) {
+
+      this(configuration, handlers, spool, null);
+   }
+
+   /**
+    * <p>
+    * Wraps the given handlers according to their configured attributes,
+    * makes them acknowledge the exceptions of a spool and measures them.
+    * </p>
+    *
+    * @param configuration The configuration holding the handler attributes.
+    * @param handlers The plain handler instances keyed by their fully
+    *       qualified class names.
+    * @param spool The spool whose exceptions the handlers acknowledge or
+    *       null if there is none.
+    * @param metrics The metrics in which the handlers are measured or null
+    *       if there are none.
+    */
+   public DecoratedHandlers(Configuration configuration, Map<String, CoreExceptionHandler> handlers, Spool spool, Metrics metrics) {
+
+      this.configuration = configuration;
+      this.rawHandlers = handlers;
+      this.handlers = new HashMap<String, CoreExceptionHandler>();
+      this.decorating = new HashSet<String>();
+      this.bulkheads = new LinkedHashMap<String, Bulkhead>();
+      this.batchingHandlers = new ArrayList<BatchingHandler>();
+      this.timeoutHandlers = new ArrayList<TimeoutHandler>();
+      this.bufferingHandlers = new ArrayList<CoreExceptionHandler>();
+      this.retryHandlers = new ArrayList<RetryHandler>();
+      this.deadLetterQueues = new LinkedHashMap<String, DeadLetterQueue>();
+      this.spool = spool;
+      this.metrics = metrics;
+
+      for (String handlerFqcn : handlers.keySet()) {
+         getDecorated(handlerFqcn);
+      }
+   }
+
+   /**
+    * <p>
+    * Returns the wrapped handlers keyed by the fully qualified class names of
+    * the handlers they wrap.
+    * </p>
+    *
+    * @return An unmodifiable map of the wrapped handlers.
+    */
+   public Map<String, CoreExceptionHandler> getHandlers() {
+
+      return Collections.unmodifiableMap(handlers);
+   }
+
+   /**
+    * <p>
+    * Returns the bulkheads created for the handlers.
+    * </p>
+    *
+    * @return The bulkheads.
+    */
+   public Collection<Bulkhead> getBulkheads() {
+
+      return Collections.unmodifiableCollection(bulkheads.values());
+   }
+
+   /**
+    * <p>
+    * Returns the retrying handlers.
+    * </p>
+    *
+    * @return The retrying handlers.
+    */
+   public Collection<RetryHandler> getRetryHandlers() {
+
+      return Collections.unmodifiableCollection(retryHandlers);
+   }
+
+   /**
+    * <p>
+    * Returns the dead-letter queues of the handlers that retry.
+    * </p>
+    *
+    * @return An unmodifiable map of the dead-letter queues keyed by the
+    *       fully qualified class names of their handlers.
+    */
+   public Map<String, DeadLetterQueue> getDeadLetterQueues() {
+
+      return Collections.unmodifiableMap(deadLetterQueues);
+   }
+
+   /**
+    * <p>
+    * Answers true if any wrapped handler holds threads that must be shut
+    * down.
+    * </p>
+    *
+    * @return true if {@link #shutdown(long, TimeUnit)} has work to do.
+    */
+   public boolean isAsynchronous() {
+
+      return !bulkheads.isEmpty() || scheduler != null || retryScheduler != null || !bufferingHandlers.isEmpty();
+   }
+
+   /**
+    * <p>
+    * Waits until the work submitted so far to the wrapped handlers' threads
+    * has been executed and then flushes the pending batches and the handlers
+    * that are {@link Flushable}.
+    * </p>
+    *
+    * @param timeout The maximum time to wait.
+    * @param unit The unit of the timeout.
+    * @return true if the submitted work was executed and false if the
+    *       timeout elapsed first.
+    * @throws InterruptedException if interrupted while waiting.
+    */
+   public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      boolean drained = true;
+      for (Bulkhead bulkhead : bulkheads.values()) {
+         drained &= bulkhead.drain(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      }
+      flushBatches();
+      for (CoreExceptionHandler handler : bufferingHandlers) {
+         if (handler instanceof Flushable) {
+            try {
+               ((Flushable) handler).flush();
+            } catch (IOException e) {
+               logger.error("Flushing handler '" + handler.getClass().getName() + "' failed.", e);
+               drained = false;
+            }
+         }
+      }
+      return drained;
+   }
+
+   /**
+    * <p>
+    * Executes the pending work of the wrapped handlers and releases their
+    * threads. The exceptions still waiting for a retry are given up on. The
+    * handlers that are {@link Closeable} and the dead-letter queues are
+    * closed last.
+    * </p>
+    *
+    * @param timeout The maximum time to wait for pending work.
+    * @param unit The unit of the timeout.
+    * @return true if all pending work was executed and false if the timeout
+    *       elapsed first.
+    * @throws InterruptedException if interrupted while waiting.
+    */
+   public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+
+      return retire(timeout, unit, Collections.<CoreExceptionHandler> emptySet());
+   }
+
+   /**
+    * <p>
+    * Shuts down the wrapped handlers as {@link #shutdown(long, TimeUnit)}
+    * does, except that the given plain handlers, which remain in use by the
+    * handlers of a reloaded configuration, are flushed rather than closed.
+    * </p>
+    *
+    * @param timeout The maximum time to wait for pending work.
+    * @param unit The unit of the timeout.
+    * @param retained The plain handlers that must stay open.
+    * @return true if all pending work was executed and false if the timeout
+    *       elapsed first.
+    * @throws InterruptedException if interrupted while waiting.
+    */
+   public boolean retire(long timeout, TimeUnit unit, Collection<CoreExceptionHandler> retained) throws InterruptedException {
+
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      boolean terminated = true;
+      for (Bulkhead bulkhead : bulkheads.values()) {
+         terminated &= bulkhead.shutdown(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      }
+      if (scheduler != null) {
+         scheduler.shutdownNow();
+      }
+      flushBatches();
+      if (retryScheduler != null) {
+         retryScheduler.shutdownNow();
+         retryScheduler.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      }
+      for (RetryHandler retryHandler : retryHandlers) {
+         terminated &= retryHandler.shutdown(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      }
+      for (TimeoutHandler timeoutHandler : timeoutHandlers) {
+         timeoutHandler.shutdown();
+      }
+      for (CoreExceptionHandler handler : bufferingHandlers) {
+         if (retained.contains(handler)) {
+            if (handler instanceof Flushable) {
+               try {
+                  ((Flushable) handler).flush();
+               } catch (IOException e) {
+                  logger.error("Flushing handler '" + handler.getClass().getName() + "' failed.", e);
+                  terminated = false;
+               }
+            }
+         } else if (handler instanceof Closeable) {
+            try {
+               ((Closeable) handler).close();
+            } catch (IOException e) {
+               logger.error("Closing handler '" + handler.getClass().getName() + "' failed.", e);
+               terminated = false;
+            }
+         }
+      }
+      for (DeadLetterQueue deadLetterQueue : deadLetterQueues.values()) {
+         try {
+            deadLetterQueue.close();
+         } catch (IOException e) {
+            logger.error("Closing the dead-letter file '" + deadLetterQueue.getFile() + "' failed.", e);
+            terminated = false;
+         }
+      }
+      return terminated;
+   }
+
+   /**
+    * <p>
+    * Returns the decorated handler of a class name, decorating it first if
+    * needed. A fallback that leads back to a handler being decorated is
+    * logged and ignored.
+    * </p>
+    */
+   private CoreExceptionHandler getDecorated(String handlerFqcn) {
+
+      CoreExceptionHandler handler = handlers.get(handlerFqcn);
+      if (handler != null || !rawHandlers.containsKey(handlerFqcn)) {
+         return handler;
+      }
+      if (!decorating.add(handlerFqcn)) {
+         logger.warn("The fallback chain of handler '" + handlerFqcn + "' leads back to itself; the fallback is ignored.");
+         return null;
+      }
+      handler = decorate(handlerFqcn, rawHandlers.get(handlerFqcn));
+      decorating.remove(handlerFqcn);
+      handlers.put(handlerFqcn, handler);
+      return handler;
+   }
+
+   private CoreExceptionHandler decorate(String handlerFqcn, CoreExceptionHandler handler) {
+
+      Map<String, String> attributes = configuration.getHandlerAttributes(handlerFqcn);
+
+      if (handler instanceof Flushable || handler instanceof Closeable) {
+         bufferingHandlers.add(handler);
+      }
+
+      if (metrics != null) {
+         handler = metrics.measure(handlerFqcn, handler);
+      }
+
+      if (spool != null) {
+         handler = spool.acknowledge(handlerFqcn, handler);
+      }
+
+      long timeoutMillis = Values.toMillis(attributes.get(TIMEOUT), 0);
+      if (timeoutMillis > 0) {
+         handler = createTimeoutHandler(handlerFqcn, handler, timeoutMillis, attributes);
+      }
+
+      Bulkhead bulkhead = getBulkhead(handlerFqcn, attributes);
+      CoreExceptionHandler fallback = getFallback(handlerFqcn, attributes);
+      RetryPolicy retryPolicy = attributes.containsKey(RETRY_ATTEMPTS) ? createRetryPolicy(attributes) : null;
+      CoreExceptionHandler givenUp = spool == null ? null : spool.release(handlerFqcn);
+      CoreExceptionHandler dropped = metrics == null ? null : metrics.counting(Metrics.Event.DROPPED);
+
+      if (attributes.containsKey(BREAKER_FAILURE_RATE) || attributes.containsKey(BREAKER_SLOW_CALL) || attributes.containsKey(FALLBACK)) {
+         handler = createCircuitBreakerHandler(handlerFqcn, handler, attributes, fallback, retryPolicy, givenUp);
+      }
+
+      if (retryPolicy != null) {
+         handler = createRetryHandler(handlerFqcn, handler, attributes, retryPolicy, bulkhead, fallback, givenUp);
+      }
+
+      if (handler instanceof BatchingCoreExceptionHandler) {
+         handler = createBatchingHandler((BatchingCoreExceptionHandler) handler, attributes, bulkhead, givenUp);
+      }
+
+      if (bulkhead != null) {
+         handler = new BulkheadHandler(handler, bulkhead, dropped, givenUp);
+      }
+
+      if (spool != null) {
+         handler = spool.track(handlerFqcn, handler);
+      }
+
+      RateLimiter limiter = RateLimiter.parse(attributes.get(RATE_LIMIT), Values.toInt(attributes.get(RATE_BURST), 0));
+      if (limiter != null) {
+         handler = new RateLimitedHandler(handlerFqcn, handler, limiter, dropped);
+      }
+      return handler;
+   }
+
+   private Bulkhead getBulkhead(String handlerFqcn, Map<String, String> attributes) {
+
+      String name = attributes.get(BULKHEAD);
+      if (name == null) {
+         if (!attributes.containsKey(THREADS)) {
+            return null;
+         }
+         name = handlerFqcn.substring(handlerFqcn.lastIndexOf('.') + 1);
+      }
+
+      Bulkhead bulkhead = bulkheads.get(name);
+      if (bulkhead == null) {
+         bulkhead = new Bulkhead(
+               name,
+               Values.toInt(attributes.get(THREADS), 1),
+               Values.toInt(attributes.get(QUEUE_SIZE), DEFAULT_QUEUE_SIZE),
+               OverflowPolicy.parse(attributes.get(OVERFLOW), OverflowPolicy.DROP_NEWEST));
+         bulkheads.put(name, bulkhead);
+      }
+      return bulkhead;
+   }
+
+   /**
+    * <p>
+    * Returns the decorated fallback of a handler or null if it has none.
+    * </p>
+    */
+   private CoreExceptionHandler getFallback(String handlerFqcn, Map<String, String> attributes) {
+
+      String fallbackFqcn = attributes.get(FALLBACK);
+      if (fallbackFqcn == null) {
+         return null;
+      }
+      CoreExceptionHandler fallback = getDecorated(fallbackFqcn);
+      if (fallback == null && !rawHandlers.containsKey(fallbackFqcn)) {
+         logger.warn("The fallback '" + fallbackFqcn + "' of handler '" + handlerFqcn + "' is not an available handler; the exceptions it would receive are not handled.");
+      }
+      return fallback;
+   }
+
+   /**
+    * <p>
+    * Creates the breaker of a handler. The breaker of a handler that is
+    * retried leaves the retryable failures and the skipped exceptions to the
+    * retry, so that the fallback receives each exception once.
+    * </p>
+    */
+   private CircuitBreakerHandler createCircuitBreakerHandler(String handlerFqcn, CoreExceptionHandler handler, Map<String, String> attributes,
+         CoreExceptionHandler fallback, RetryPolicy retryPolicy, CoreExceptionHandler givenUp) {
+
+      CircuitBreaker breaker = new CircuitBreaker(
+            Values.toRatio(attributes.get(BREAKER_FAILURE_RATE), DEFAULT_BREAKER_FAILURE_RATE),
+            Values.toInt(attributes.get(BREAKER_WINDOW), DEFAULT_BREAKER_WINDOW),
+            Values.toMillis(attributes.get(BREAKER_SLOW_CALL), 0),
+            Values.toMillis(attributes.get(BREAKER_OPEN_FOR), DEFAULT_BREAKER_OPEN_MILLIS));
+
+      if (retryPolicy != null) {
+         return CircuitBreakerHandler.retried(handlerFqcn, handler, breaker, fallback, retryPolicy);
+      }
+      return CircuitBreakerHandler.create(handlerFqcn, handler, breaker, fallback, givenUp);
+   }
+
+   private RetryPolicy createRetryPolicy(Map<String, String> attributes) {
+
+      return new RetryPolicy(
+            Values.toInt(attributes.get(RETRY_ATTEMPTS), 1),
+            Values.toMillis(attributes.get(RETRY_BACKOFF), DEFAULT_RETRY_BACKOFF_MILLIS),
+            Values.toMillis(attributes.get(RETRY_MAX_BACKOFF), DEFAULT_RETRY_MAX_BACKOFF_MILLIS),
+            Values.toDouble(attributes.get(RETRY_MULTIPLIER), DEFAULT_RETRY_MULTIPLIER),
+            Values.toRatio(attributes.get(RETRY_JITTER), DEFAULT_RETRY_JITTER),
+            RetryPolicy.parseTypes(attributes.get(RETRY_ON)));
+   }
+
+   /**
+    * <p>
+    * Creates the retry of a handler. The exceptions it gives up on are
+    * passed to the handler's fallback if it has one and otherwise to its
+    * dead-letter queue, if a directory is configured.
+    * </p>
+    */
+   private RetryHandler createRetryHandler(String handlerFqcn, CoreExceptionHandler handler, Map<String, String> attributes, RetryPolicy policy,
+         Bulkhead bulkhead, CoreExceptionHandler fallback, CoreExceptionHandler givenUp) {
+
+      CoreExceptionHandler deadLetter = fallback;
+      String directory = configuration.getProperty(DeadLetterQueue.DIRECTORY);
+      if (deadLetter == null && !Values.isNothing(directory)) {
+         DeadLetterQueue deadLetterQueue = new DeadLetterQueue(new File(directory.trim()), handlerFqcn);
+         deadLetterQueues.put(handlerFqcn, deadLetterQueue);
+         deadLetter = spool == null ? deadLetterQueue : spool.acknowledge(handlerFqcn, deadLetterQueue);
+      }
+
+      int maxPending = Values.toInt(attributes.get(RETRY_QUEUE_SIZE), DEFAULT_RETRY_QUEUE_SIZE);
+      RetryHandler retryHandler;
+      if (handler instanceof BatchingCoreExceptionHandler) {
+         retryHandler = new RetryHandler.Batching(handlerFqcn, (BatchingCoreExceptionHandler) handler, policy, getRetryScheduler(), bulkhead, deadLetter, givenUp, maxPending);
+      } else {
+         retryHandler = new RetryHandler(handlerFqcn, handler, policy, getRetryScheduler(), bulkhead, deadLetter, givenUp, maxPending);
+      }
+      retryHandlers.add(retryHandler);
+      return retryHandler;
+   }
+
+   private TimeoutHandler createTimeoutHandler(String handlerFqcn, CoreExceptionHandler handler, long timeoutMillis, Map<String, String> attributes) {
+
+      int threads = Values.toInt(attributes.get(TIMEOUT_THREADS), DEFAULT_TIMEOUT_THREADS);
+      HandlerMetrics handlerMetrics = metrics == null ? null : metrics.getHandlerMetrics(handlerFqcn);
+      TimeoutHandler timeoutHandler;
+      if (handler instanceof BatchingCoreExceptionHandler) {
+         timeoutHandler = new TimeoutHandler.Batching(handlerFqcn, (BatchingCoreExceptionHandler) handler, timeoutMillis, threads, handlerMetrics);
+      } else {
+         timeoutHandler = new TimeoutHandler(handlerFqcn, handler, timeoutMillis, threads, handlerMetrics);
+      }
+      timeoutHandlers.add(timeoutHandler);
+      return timeoutHandler;
+   }
+
+   private BatchingHandler createBatchingHandler(BatchingCoreExceptionHandler handler, Map<String, String> attributes, Bulkhead bulkhead, CoreExceptionHandler givenUp) {
+
+      BatchingHandler batchingHandler = new BatchingHandler(
+            handler,
+            Values.toInt(attributes.get(BATCH_SIZE), DEFAULT_BATCH_SIZE),
+            Values.toMillis(attributes.get(BATCH_LINGER), DEFAULT_BATCH_LINGER_MILLIS),
+            Values.toMillis(attributes.get(BATCH_LATENCY), 0),
+            givenUp);
+      batchingHandlers.add(batchingHandler);
+
+      long period = Math.max(1, batchingHandler.getLingerMillis() / 2);
+      getScheduler().scheduleAtFixedRate(new LingerFlush(batchingHandler, bulkhead), period, period, TimeUnit.MILLISECONDS);
+      return batchingHandler;
+   }
+
+   private void flushBatches() {
+
+      for (BatchingHandler batchingHandler : batchingHandlers) {
+         try {
+            batchingHandler.flushPending();
+         } catch (Exception e) {
+            logger.error("Flushing the pending batch of a batching handler failed.", e);
+         }
+      }
+   }
+
+   private ScheduledExecutorService getRetryScheduler() {
+
+      if (retryScheduler == null) {
+         retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+               Thread thread = new Thread(runnable, "glitch-retry");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      }
+      return retryScheduler;
+   }
+
+   private ScheduledExecutorService getScheduler() {
+
+      if (scheduler == null) {
+         scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+               Thread thread = new Thread(runnable, "glitch-scheduler");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      }
+      return scheduler;
+   }
+
+   /**
+    * <p>
+    * Flushes the batch of a handler once it has lingered. The flush is
+    * executed on the handler's bulkhead if it has one, and only while the
+    * bulkhead has room, so that a stalled bulkhead neither blocks the
+    * scheduler thread nor fills up with flushes; at most one flush waits in
+    * the bulkhead at a time.
+    * </p>
+    */
+   private final class LingerFlush implements Runnable {
+
+      private final BatchingHandler batchingHandler;
+      private final Bulkhead bulkhead;
+      private final long lingerNanos;
+      private volatile boolean queued;
+      private volatile long queuedNanos;
+
+      LingerFlush(BatchingHandler batchingHandler, Bulkhead bulkhead) {
+
+         this.batchingHandler = batchingHandler;
+         this.bulkhead = bulkhead;
+         this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(batchingHandler.getLingerMillis());
+      }
+
+      public void run() {
+
+         if (bulkhead == null) {
+            flush();
+            return;
+         }
+         // A queued flush that has not run within the linger time was
+         // dropped from the bulkhead's queue, so it is queued again.
+         if (queued && System.nanoTime() - queuedNanos < lingerNanos) {
+            return;
+         }
+         queued = true;
+         queuedNanos = System.nanoTime();
+         if (!bulkhead.executeIfRoom(new Runnable() {
+            public void run() {
+               queued = false;
+               flush();
+            }
+         })) {
+            queued = false;
+         }
+      }
+
+      private void flush() {
+
+         try {
+            batchingHandler.flushIfLingered();
+         } catch (Exception e) {
+            logger.error("Flushing a lingering batch failed.", e);
+         }
+      }
+   }
+}
@@ -0,0 +1,240 @@
+package ezbake.glitch.dispatch;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.config.Configuration;
+import ezbake.glitch.config.Values;
+import ezbake.glitch.exception.RepeatedException;
+
+/**
+ * <p>
+ * Suppresses repeats of an exception during a window so that a storm of
+ * identical exceptions costs the handlers one exception per window instead
+ * of one per occurrence. Exceptions are compared by their {@link Fingerprint}.
+ * The first occurrence of a fingerprint is handled as usual and opens the
+ * window; the repeats within the window are only counted. When the window
+ * closes, the count is handed on as a {@link RepeatedException}.
+ * </p>
+ * <p>
+ * Deduplication is enabled with the following configuration properties:
+ * </p>
+ * <ul>
+ * <li><b>dedup.window</b> - how long repeats are suppressed. The default of
+ * zero disables deduplication.</li>
+ * <li><b>dedup.frames</b> - the number of top stack frames that are part of
+ * the fingerprint. The default is 3. Comparing frames builds the stack trace
+ * of every exception, including the deferred one of a
+ * {@link ezbake.glitch.exception.LazyException}; zero compares none and
+ * leaves the stack trace alone.</li>
+ * <li><b>dedup.maxEntries</b> - the maximum number of fingerprints tracked at
+ * a time; exceptions with new fingerprints are not suppressed while the
+ * limit is reached. The default is 10000.</li>
+ * </ul>
+ */
+public final class Deduplicator {
+
+   public static final String WINDOW = "dedup.window";
+   public static final String FRAMES = "dedup.frames";
+   public static final String MAX_ENTRIES = "dedup.maxEntries";
+
+   private static final int DEFAULT_FRAMES = 3;
+   private static final int DEFAULT_MAX_ENTRIES = 10000;
+
+   private Logger logger = LoggerFactory.getLogger(Deduplicator.class);
+
+   private final Dispatcher rollups;
+   private final long windowMillis;
+   private final int frames;
+   private final int maxEntries;
+   private final ConcurrentMap<Long, Window> windows = new ConcurrentHashMap<Long, Window>();
+   private final ScheduledExecutorService scheduler;
+
+   /**
+    * <p>
+    * Creates the deduplicator and starts the thread that closes expired
+    * windows.
+    * </p>
+    *
+    * @param rollups Receives a {@link RepeatedException} for every window in
+    *       which repeats were suppressed.
+    * @param windowMillis How long repeats are suppressed.
+    * @param frames The number of top stack frames in the fingerprint.
+    * @param maxEntries The maximum number of fingerprints tracked.
+    */
+   public Deduplicator(Dispatcher rollups, long windowMillis, int frames, int maxEntries) {
+
+      this.rollups = rollups;
+      this.windowMillis = Math.max(1, windowMillis);
+      this.frames = frames;
+      this.maxEntries = maxEntries;
+      this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "glitch-dedup");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+
+      long period = Math.max(1, this.windowMillis / 2);
+      scheduler.scheduleAtFixedRate(new Runnable() {
+         public void run() {
+            closeWindows(false);
+         }
+      }, period, period, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * <p>
+    * Creates the deduplicator described by the configuration's properties.
+    * </p>
+    *
+    * @param configuration The configuration whose properties enable and tune
+    *       deduplication.
+    * @param rollups Receives the {@link RepeatedException} rollups.
+    * @return The deduplicator or null if deduplication is not enabled.
+    */
+   public static Deduplicator create(Configuration configuration, Dispatcher rollups) {
+
+      long windowMillis = Values.toMillis(configuration.getProperty(WINDOW), 0);
+      if (windowMillis <= 0) {
+         return null;
+      }
+      return new Deduplicator(
+            rollups,
+            windowMillis,
+            Values.toInt(configuration.getProperty(FRAMES), DEFAULT_FRAMES),
+            Values.toInt(configuration.getProperty(MAX_ENTRIES), DEFAULT_MAX_ENTRIES));
+   }
+
+   /**
+    * <p>
+    * Decides whether an exception is handled or suppressed as a repeat.
+    * </p>
+    *
+    * @param exception The exception requested for handling.
+    * @return true if the exception is to be handled and false if it was
+    *       counted as a repeat.
+    */
+   public boolean admit(CoreException exception) {
+
+      Long fingerprint = Long.valueOf(Fingerprint.of(exception, frames));
+
+      while (true) {
+         Window window = windows.get(fingerprint);
+         if (window == null) {
+            if (windows.size() >= maxEntries) {
+               return true;
+            }
+            if (windows.putIfAbsent(fingerprint, new Window(exception)) == null) {
+               return true;
+            }
+         } else if (window.suppress()) {
+            return false;
+         } else {
+            windows.remove(fingerprint, window);
+         }
+      }
+   }
+
+   /**
+    * <p>
+    * Returns the number of fingerprints currently tracked.
+    * </p>
+    *
+    * @return The number of open windows.
+    */
+   public int getWindowCount() {
+
+      return windows.size();
+   }
+
+   /**
+    * <p>
+    * Stops the window thread and hands on the counts of every open window,
+    * expired or not.
+    * </p>
+    */
+   public void shutdown() {
+
+      scheduler.shutdownNow();
+      closeWindows(true);
+   }
+
+   /**
+    * <p>
+    * Closes the windows that have expired, or every window if all is true,
+    * and hands on a rollup for each window that suppressed repeats.
+    * </p>
+    */
+   void closeWindows(boolean all) {
+
+      long now = System.currentTimeMillis();
+      for (Iterator<Map.Entry<Long, Window>> iterator = windows.entrySet().iterator(); iterator.hasNext();) {
+
+         Map.Entry<Long, Window> entry = iterator.next();
+         Window window = entry.getValue();
+         if ((all || now - window.opened >= windowMillis) && windows.remove(entry.getKey(), window)) {
+            int occurrences = window.close();
+            if (occurrences > 0) {
+               try {
+                  rollups.dispatch(new RepeatedException(window.first, occurrences, window.opened));
+               } catch (Exception e) {
+                  logger.error("Handing on the repeats of exception type '" + window.first.getClass().getName() + "' failed.", e);
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * <p>
+    * The suppression window of one fingerprint. The count becomes negative
+    * once the window is closed so that a repeat racing with the close opens
+    * a new window instead of being lost.
+    * </p>
+    */
+   private static class Window {
+
+      private static final int CLOSED = Integer.MIN_VALUE;
+
+      private final CoreException first;
+      private final long opened;
+      private final AtomicInteger suppressed = new AtomicInteger();
+
+      Window(CoreException first) {
+
+         this.first = first;
+         this.opened = System.currentTimeMillis();
+      }
+
+      boolean suppress() {
+
+         while (true) {
+            int count = suppressed.get();
+            if (count < 0) {
+               return false;
+            }
+            if (suppressed.compareAndSet(count, count + 1)) {
+               return true;
+            }
+         }
+      }
+
+      int close() {
+
+         return suppressed.getAndSet(CLOSED);
+      }
+   }
+}
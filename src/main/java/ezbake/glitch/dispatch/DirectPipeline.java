@@ -0,0 +1,42 @@
+package ezbake.glitch.dispatch;
+
+import java.util.concurrent.TimeUnit;
+
+import ezbake.glitch.CoreException;
+
+/**
+ * <p>
+ * A pipeline that executes the handlers of an exception on the publishing
+ * thread before {@link #publish(CoreException)} returns. This is the default
+ * pipeline.
+ * </p>
+ */
+public final class DirectPipeline implements DispatchPipeline {
+
+   private final Dispatcher dispatcher;
+   
+   public DirectPipeline(Dispatcher dispatcher) {
+      
+      this.dispatcher = dispatcher;
+   }
+   
+   public void publish(CoreException exception) {
+      
+      dispatcher.dispatch(exception);
+   }
+
+   public boolean drain(long timeout, TimeUnit unit) {
+      
+      return true;
+   }
+
+   public boolean shutdown(long timeout, TimeUnit unit) {
+      
+      return true;
+   }
+
+   public boolean isAsynchronous() {
+      
+      return false;
+   }
+}
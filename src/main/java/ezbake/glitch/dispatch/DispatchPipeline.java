@@ -0,0 +1,67 @@
+package ezbake.glitch.dispatch;
+
+import java.util.concurrent.TimeUnit;
+
+import ezbake.glitch.CoreException;
+
+/**
+ * <p>
+ * Carries exceptions from the thread that requests their handling to the
+ * {@link Dispatcher} that executes their handlers. A pipeline decides on
+ * which thread, and when, the handlers run.
+ * </p>
+ * 
+ * @see DispatchPipelines for creating the pipeline described by a
+ *       configuration.
+ */
+public interface DispatchPipeline {
+
+   /**
+    * <p>
+    * Requests the handling of the given exception.
+    * </p>
+    * 
+    * @param exception The exception instance that is to be handled; never
+    *       null.
+    */
+   void publish(CoreException exception);
+   
+   /**
+    * <p>
+    * Waits until every exception published so far has been handled. The
+    * pipeline remains open for further publishing.
+    * </p>
+    * 
+    * @param timeout The maximum time to wait.
+    * @param unit The unit of the timeout.
+    * @return true if all pending exceptions were handled and false if the
+    *       timeout elapsed first.
+    * @throws InterruptedException if interrupted while waiting.
+    */
+   boolean drain(long timeout, TimeUnit unit) throws InterruptedException;
+   
+   /**
+    * <p>
+    * Handles the exceptions that are still pending and then releases the
+    * pipeline's threads. Exceptions published after shutdown are handled on
+    * the publishing thread.
+    * </p>
+    * 
+    * @param timeout The maximum time to wait for pending exceptions.
+    * @param unit The unit of the timeout.
+    * @return true if all pending exceptions were handled and false if the
+    *       timeout elapsed first.
+    * @throws InterruptedException if interrupted while waiting.
+    */
+   boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException;
+   
+   /**
+    * <p>
+    * Answers true if handlers run on threads other than the publishing
+    * thread.
+    * </p>
+    * 
+    * @return true if this pipeline dispatches asynchronously.
+    */
+   boolean isAsynchronous();
+}
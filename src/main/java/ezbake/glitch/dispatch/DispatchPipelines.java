@@ -0,0 +1,116 @@
+package ezbake.glitch.dispatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.config.Configuration;
+import ezbake.glitch.config.Values;
+
+/**
+ * <p>
+ * Creates the {@link DispatchPipeline} described by the properties of a
+ * {@link Configuration}.
+ * </p>
+ * <p>
+ * The <b>dispatch</b> property selects the pipeline:
+ * </p>
+ * <ul>
+ * <li><b>sync</b> (default) - handlers run on the thread that requests the
+ * handling. See {@link DirectPipeline}.</li>
+ * <li><b>async</b> - handlers run on worker threads that drain a bounded
+ * queue. See {@link QueuePipeline}.</li>
+ * <li><b>ring</b> - handlers run on consumer threads that drain a lock-free
+ * ring buffer. See {@link RingBufferPipeline}.</li>
+ * </ul>
+ * <p>
+ * The asynchronous pipelines are tuned with the following properties:
+ * </p>
+ * <ul>
+ * <li><b>dispatch.queueSize</b> - the maximum number of queued exceptions.
+ * The ring buffer rounds this up to a power of two. The default is 1024.</li>
+ * <li><b>dispatch.maxBytes</b> - the maximum estimated size, in bytes, of the
+ * queued exceptions, estimated from their cause chains and messages when
+ * they are published. The default of zero means no byte bound. Not supported by the ring buffer.</li>
+ * <li><b>dispatch.workers</b> - the number of worker or consumer threads.
+ * The default is 1.</li>
+ * <li><b>dispatch.overflow</b> - the {@link OverflowPolicy} applied when the
+ * queue is full: block, drop-newest, drop-oldest or caller-runs. The default
+ * is block.</li>
+ * <li><b>dispatch.shutdownTimeout</b> - how long pending exceptions are given
+ * to be handled when the JVM exits. The default is 5s.</li>
+ * </ul>
+ */
+public final class DispatchPipelines {
+
+   public static final String DISPATCH = "dispatch";
+   public static final String QUEUE_SIZE = "dispatch.queueSize";
+   public static final String MAX_BYTES = "dispatch.maxBytes";
+   public static final String WORKERS = "dispatch.workers";
+   public static final String OVERFLOW = "dispatch.overflow";
+   public static final String SHUTDOWN_TIMEOUT = "dispatch.shutdownTimeout";
+
+   static final String SYNC = "sync";
+   static final String ASYNC = "async";
+   static final String RING = "ring";
+
+   private static final int DEFAULT_QUEUE_SIZE = 1024;
+   private static final long DEFAULT_SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+   private static Logger logger = LoggerFactory.getLogger(DispatchPipelines.class);
+
+   private DispatchPipelines() {
+   }
+
+   /**
+    * <p>
+    * Creates the pipeline selected by the configuration's properties. An
+    * unknown pipeline name is logged and the synchronous pipeline is used.
+    * </p>
+    *
+    * @param configuration The configuration whose properties select and tune
+    *       the pipeline.
+    * @param dispatcher The dispatcher that executes the handlers.
+    * @return The pipeline.
+    */
+   public static DispatchPipeline create(Configuration configuration, Dispatcher dispatcher) {
+
+      String dispatch = configuration.getProperty(DISPATCH, SYNC).trim();
+
+      if (ASYNC.equalsIgnoreCase(dispatch)) {
+         return new QueuePipeline(
+               dispatcher,
+               Values.toInt(configuration.getProperty(QUEUE_SIZE), DEFAULT_QUEUE_SIZE),
+               Values.toLong(configuration.getProperty(MAX_BYTES), 0),
+               Values.toInt(configuration.getProperty(WORKERS), 1),
+               OverflowPolicy.parse(configuration.getProperty(OVERFLOW), OverflowPolicy.BLOCK));
+      }
+
+      if (RING.equalsIgnoreCase(dispatch)) {
+         return new RingBufferPipeline(
+               dispatcher,
+               Values.toInt(configuration.getProperty(QUEUE_SIZE), DEFAULT_QUEUE_SIZE),
+               Values.toInt(configuration.getProperty(WORKERS), 1),
+               OverflowPolicy.parse(configuration.getProperty(OVERFLOW), OverflowPolicy.BLOCK));
+      }
+
+      if (!SYNC.equalsIgnoreCase(dispatch)) {
+         logger.warn("The dispatch pipeline '" + dispatch + "' is not known; using synchronous dispatch instead.");
+      }
+      return new DirectPipeline(dispatcher);
+   }
+
+   /**
+    * <p>
+    * Returns how long, in milliseconds, pending exceptions are given to be
+    * handled when the pipeline is shut down at JVM exit.
+    * </p>
+    *
+    * @param configuration The configuration whose properties tune the
+    *       pipeline.
+    * @return The shutdown timeout in milliseconds.
+    */
+   public static long getShutdownTimeoutMillis(Configuration configuration) {
+
+      return Values.toMillis(configuration.getProperty(SHUTDOWN_TIMEOUT), DEFAULT_SHUTDOWN_TIMEOUT_MILLIS);
+   }
+}
@@ -0,0 +1,229 @@
+package ezbake.glitch.dispatch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.MapMaker;
+
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.config.Configuration;
+
+/**
+ * <p>
+ * An immutable dispatch plan compiled from a {@link Configuration} and the
+ * handler instances created for it. The exception-to-handler mappings are
+ * resolved once, when the table is built, into arrays of
+ * {@link CoreExceptionHandler} instances so that the handlers for an
+ * exception can be found without building collections or looking up
+ * handlers by name.
+ * </p>
+ * <p>
+ * Lookups are keyed by the exception's {@link Class}. The first lookup for a
+ * class resolves its handler array from the compiled plan and caches it;
+ * every following lookup for that class is a single identity-hashed map read
+ * that returns the same array instance. Classes are weakly referenced so that
+ * the cache does not prevent exception classes from being unloaded.
+ * </p>
+ * <p>
+ * Depending on the configured {@link Resolution}, the first lookup may walk
+ * the superclasses and interfaces of the exception class so that a mapping of
+ * a base type applies to all of its subtypes. The walk is done once per
+ * concrete class; its result is cached like any other lookup. A handler
+ * mapped to several of the types is only included once.
+ * </p>
+ * <p>
+ * The arrays returned by this table are shared and must not be modified by
+ * callers. The handlers in them may be wrapped, for example by a retry or a
+ * bulkhead; {@link #getHandlerName(CoreExceptionHandler)} names the
+ * configured handler a wrapper stands for.
+ * </p>
+ */
+public final class DispatchTable {
+
+   private static final CoreExceptionHandler[] NO_HANDLERS = new CoreExceptionHandler[0];
+
+   private Logger logger = LoggerFactory.getLogger(DispatchTable.class);
+
+   private final Resolution resolution;
+   private final Map<String, CoreExceptionHandler[]> mappings;
+   private final CoreExceptionHandler[] defaultHandlers;
+   private final ConcurrentMap<Class<?>, CoreExceptionHandler[]> resolved;
+   private final Map<CoreExceptionHandler, String> names;
+
+   /**
+    * <p>
+    * Compiles the mappings of the given configuration into a dispatch table.
+    * Handler class names that do not have an instance in the handlers map are
+    * dropped from the plan. An exception whose mapped handlers are all dropped
+    * is treated as unmapped and, thus, is dispatched to the default handlers.
+    * </p>
+    * <p>
+    * The resolution is read from the configuration's
+    * {@link Resolution#PROPERTY_NAME} property.
+    * </p>
+    *
+    * @param configuration The configuration whose mappings are compiled.
+    * @param handlers The handler instances keyed by their fully qualified
+    *       class names.
+    */
+   public DispatchTable(Configuration configuration, Map<String, CoreExceptionHandler> handlers) {
+
+      this.resolution = Resolution.parse(configuration.getProperty(Resolution.PROPERTY_NAME));
+      this.defaultHandlers = toArray(configuration.getDefaultHandlers(), handlers);
+      this.mappings = new HashMap<String, CoreExceptionHandler[]>();
+      this.resolved = new MapMaker().weakKeys().makeMap();
+      this.names = new IdentityHashMap<CoreExceptionHandler, String>();
+      for (Map.Entry<String, CoreExceptionHandler> entry : handlers.entrySet()) {
+         names.put(entry.getValue(), entry.getKey());
+      }
+
+      for (String exceptionFqcn : configuration.getMappedExceptions()) {
+         CoreExceptionHandler[] mapped = toArray(configuration.getExceptionHandlers(exceptionFqcn, false), handlers);
+         if (mapped.length > 0) {
+            mappings.put(exceptionFqcn, mapped);
+         }
+      }
+   }
+
+   /**
+    * <p>
+    * Returns the handlers that are to be executed for the given exception
+    * class. If the class has no explicit handler mappings then the default
+    * handlers are returned. An empty array is returned if there are neither
+    * mapped nor default handlers.
+    * </p>
+    *
+    * @param exceptionClass The class of the exception being handled.
+    * @return The handlers for the exception class. The array is shared and
+    *       must not be modified.
+    */
+   public CoreExceptionHandler[] getHandlers(Class<?> exceptionClass) {
+
+      CoreExceptionHandler[] handlers = resolved.get(exceptionClass);
+      if (handlers == null) {
+         handlers = resolve(exceptionClass);
+         CoreExceptionHandler[] existing = resolved.putIfAbsent(exceptionClass, handlers);
+         if (existing != null) {
+            handlers = existing;
+         }
+      }
+      return handlers;
+   }
+
+   /**
+    * <p>
+    * Returns the handlers that are to be executed for an exception known
+    * only by its class name, such as one read back from disk. If the class
+    * can be loaded the handlers are resolved as for the class; otherwise
+    * only a mapping of the exact name applies.
+    * </p>
+    *
+    * @param exceptionFqcn The fully qualified class name of the exception.
+    * @return The handlers for the exception class. The array is shared and
+    *       must not be modified.
+    */
+   public CoreExceptionHandler[] getHandlers(String exceptionFqcn) {
+
+      try {
+         return getHandlers(Class.forName(exceptionFqcn, false, DispatchTable.class.getClassLoader()));
+      } catch (ClassNotFoundException e) {
+         CoreExceptionHandler[] handlers = mappings.get(exceptionFqcn);
+         return handlers == null ? defaultHandlers : handlers;
+      }
+   }
+
+   /**
+    * <p>
+    * Answers true if the handlers returned for an exception are the default
+    * handlers, that is if the exception is not mapped.
+    * </p>
+    *
+    * @param handlers The handlers returned by this table.
+    * @return true if the handlers are the default handlers.
+    */
+   public boolean isDefault(CoreExceptionHandler[] handlers) {
+
+      return handlers == defaultHandlers;
+   }
+
+   /**
+    * <p>
+    * Returns the fully qualified class name under which a handler returned
+    * by this table was configured, rather than the class of the wrapper that
+    * may stand for it.
+    * </p>
+    *
+    * @param handler A handler returned by this table.
+    * @return The configured class name of the handler.
+    */
+   public String getHandlerName(CoreExceptionHandler handler) {
+
+      String name = names.get(handler);
+      return name == null ? handler.getClass().getName() : name;
+   }
+
+   /**
+    * <p>
+    * Resolves the handlers for an exception class from the compiled plan
+    * according to this table's resolution.
+    * </p>
+    *
+    * @param exceptionClass The class of the exception being handled.
+    * @return The mapped handlers or the default handlers if there are none.
+    */
+   private CoreExceptionHandler[] resolve(Class<?> exceptionClass) {
+
+      List<String> mappedTypes = resolution.resolve(exceptionClass, mappings.keySet());
+      if (mappedTypes.isEmpty()) {
+         return defaultHandlers;
+      }
+      if (mappedTypes.size() == 1) {
+         return mappings.get(mappedTypes.get(0));
+      }
+
+      Set<CoreExceptionHandler> found = new LinkedHashSet<CoreExceptionHandler>();
+      for (String mappedType : mappedTypes) {
+         Collections.addAll(found, mappings.get(mappedType));
+      }
+      return found.toArray(new CoreExceptionHandler[found.size()]);
+   }
+
+   /**
+    * <p>
+    * Converts a collection of handler class names into an array of handler
+    * instances. Names without an instance are logged and skipped.
+    * </p>
+    *
+    * @param handlerFqcns The handler class names to convert.
+    * @param handlers The handler instances keyed by class name.
+    * @return The handler instances; never null.
+    */
+   private CoreExceptionHandler[] toArray(Collection<String> handlerFqcns, Map<String, CoreExceptionHandler> handlers) {
+
+      if (handlerFqcns.isEmpty()) {
+         return NO_HANDLERS;
+      }
+
+      List<CoreExceptionHandler> instances = new ArrayList<CoreExceptionHandler>(handlerFqcns.size());
+      for (String handlerFqcn : handlerFqcns) {
+         CoreExceptionHandler handler = handlers.get(handlerFqcn);
+         if (handler == null) {
+            logger.info("Handler '" + handlerFqcn + "' was not found; ignoring this handler's mappings. Verify that the handler's namespace/package is correct and that it is in the runtime classpath.");
+         } else {
+            instances.add(handler);
+         }
+      }
+      return instances.toArray(new CoreExceptionHandler[instances.size()]);
+   }
+}
@@ -0,0 +1,22 @@
+package ezbake.glitch.dispatch;
+
+import ezbake.glitch.CoreException;
+
+/**
+ * <p>
+ * Executes the handlers of an exception. A {@link DispatchPipeline} hands each
+ * published exception to a dispatcher, either on the publishing thread or on
+ * one of its own threads.
+ * </p>
+ */
+public interface Dispatcher {
+
+   /**
+    * <p>
+    * Executes the handlers associated with the given exception.
+    * </p>
+    * 
+    * @param exception The exception instance that is to be handled.
+    */
+   void dispatch(CoreException exception);
+}
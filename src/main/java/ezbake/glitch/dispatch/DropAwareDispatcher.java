@@ -0,0 +1,23 @@
+package ezbake.glitch.dispatch;
+
+import ezbake.glitch.CoreException;
+
+/**
+ * <p>
+ * A {@link Dispatcher} that is also told about the exceptions a
+ * {@link DispatchPipeline} drops because it is full, so that it can account
+ * for the exceptions it never dispatches. The pipeline may call it while
+ * holding its lock, so it must return quickly and must not publish.
+ * </p>
+ */
+public interface DropAwareDispatcher extends Dispatcher {
+
+   /**
+    * <p>
+    * Called for an exception that is dropped instead of being dispatched.
+    * </p>
+    *
+    * @param exception The dropped exception.
+    */
+   void dropped(CoreException exception);
+}
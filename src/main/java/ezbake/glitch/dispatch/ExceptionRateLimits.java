@@ -0,0 +1,210 @@
+package ezbake.glitch.dispatch;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.MapMaker;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.config.Configuration;
+import ezbake.glitch.config.Values;
+
+/**
+ * <p>
+ * Limits how often the exceptions of each class are handled, whichever
+ * handlers they are mapped to. Each exception class has a {@link RateLimiter}
+ * of its own; exceptions over the limit are counted and not handled at all.
+ * </p>
+ * <p>
+ * A limit for a specific exception is set with attributes on the exception's
+ * <code>classname</code> element:
+ * </p>
+ * <ul>
+ * <li><b>rateLimit</b> - the number of permits per duration, for example
+ * <code>10/s</code>.</li>
+ * <li><b>rateBurst</b> - the number of exceptions that may be handled in a
+ * burst. The default is the number of permits.</li>
+ * </ul>
+ * <p>
+ * The limits apply to the subclasses of an exception class according to the
+ * configured {@link Resolution}, as the handler mappings do: a limit set on a
+ * base type is shared by every subtype it applies to, and an exception to
+ * which several limits apply must be within each of them. The limits of an
+ * exception class are resolved on its first occurrence and cached.
+ * </p>
+ * <p>
+ * The <b>rateLimit.exceptions</b> configuration property sets a limit that
+ * applies to every other exception class separately, and
+ * <b>rateBurst.exceptions</b> its burst.
+ * </p>
+ */
+public final class ExceptionRateLimits {
+
+   public static final String RATE_LIMIT = "rateLimit";
+   public static final String RATE_BURST = "rateBurst";
+   public static final String DEFAULT_RATE_LIMIT = "rateLimit.exceptions";
+   public static final String DEFAULT_RATE_BURST = "rateBurst.exceptions";
+
+   private Logger logger = LoggerFactory.getLogger(ExceptionRateLimits.class);
+
+   private static final RateLimiter[] NO_LIMITERS = new RateLimiter[0];
+
+   private final Resolution resolution;
+   private final Map<String, RateLimiter> configured = new HashMap<String, RateLimiter>();
+   private final ConcurrentMap<String, RateLimiter> defaults = new ConcurrentHashMap<String, RateLimiter>();
+   private final ConcurrentMap<Class<?>, RateLimiter[]> resolved = new MapMaker().weakKeys().makeMap();
+   private final String defaultLimit;
+   private final int defaultBurst;
+
+   /**
+    * <p>
+    * Creates the limits described by the configuration's exception
+    * attributes and properties.
+    * </p>
+    *
+    * @param configuration The configuration.
+    */
+   public ExceptionRateLimits(Configuration configuration) {
+
+      this.resolution = Resolution.parse(configuration.getProperty(Resolution.PROPERTY_NAME));
+      for (String exceptionFqcn : configuration.getExceptionsWithAttributes()) {
+         RateLimiter limiter = RateLimiter.parse(
+               configuration.getExceptionAttributes(exceptionFqcn).get(RATE_LIMIT),
+               Values.toInt(configuration.getExceptionAttributes(exceptionFqcn).get(RATE_BURST), 0));
+         if (limiter != null) {
+            configured.put(exceptionFqcn, limiter);
+         }
+      }
+
+      String limit = configuration.getProperty(DEFAULT_RATE_LIMIT);
+      int burst = Values.toInt(configuration.getProperty(DEFAULT_RATE_BURST), 0);
+      this.defaultLimit = RateLimiter.parse(limit, burst) == null ? null : limit;
+      this.defaultBurst = burst;
+   }
+
+   /**
+    * <p>
+    * Creates the limits described by the configuration.
+    * </p>
+    *
+    * @param configuration The configuration.
+    * @return The limits or null if the configuration sets no exception limit.
+    */
+   public static ExceptionRateLimits create(Configuration configuration) {
+
+      ExceptionRateLimits limits = new ExceptionRateLimits(configuration);
+      return limits.configured.isEmpty() && limits.defaultLimit == null ? null : limits;
+   }
+
+   /**
+    * <p>
+    * Decides whether an exception is within the limits that apply to its
+    * class.
+    * </p>
+    *
+    * @param exception The exception requested for handling.
+    * @return true if the exception is to be handled and false if it was
+    *       rejected.
+    */
+   public boolean tryAcquire(CoreException exception) {
+
+      for (RateLimiter limiter : getLimiters(exception.getClass())) {
+         if (!limiter.tryAcquire()) {
+            if (limiter.getRejectedCount() == 1) {
+               logger.warn("Exception type '" + exception.getClass().getName() + "' reached its rate limit of " + limiter + "; further exceptions over the limit are counted but not handled.");
+            }
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * <p>
+    * Returns the limiters that apply to an exception class, resolving them
+    * on the first call for the class.
+    * </p>
+    *
+    * @param exceptionClass The class of the exception.
+    * @return The limiters, nearest type first, or an empty array if the
+    *       exception class is not limited. The array is shared and must not
+    *       be modified.
+    */
+   public RateLimiter[] getLimiters(Class<?> exceptionClass) {
+
+      RateLimiter[] limiters = resolved.get(exceptionClass);
+      if (limiters == null) {
+         limiters = resolve(exceptionClass);
+         RateLimiter[] existing = resolved.putIfAbsent(exceptionClass, limiters);
+         if (existing != null) {
+            limiters = existing;
+         }
+      }
+      return limiters;
+   }
+
+   /**
+    * <p>
+    * Returns the limiter configured for an exception class name, or the
+    * default limiter of that class if none is configured. The type
+    * hierarchy is not consulted.
+    * </p>
+    *
+    * @param exceptionFqcn The fully qualified class name of the exception.
+    * @return The limiter or null if the exception class is not limited.
+    */
+   public RateLimiter getLimiter(String exceptionFqcn) {
+
+      RateLimiter limiter = configured.get(exceptionFqcn);
+      if (limiter == null && defaultLimit != null) {
+         limiter = defaults.get(exceptionFqcn);
+         if (limiter == null) {
+            limiter = RateLimiter.parse(defaultLimit, defaultBurst);
+            RateLimiter existing = defaults.putIfAbsent(exceptionFqcn, limiter);
+            if (existing != null) {
+               limiter = existing;
+            }
+         }
+      }
+      return limiter;
+   }
+
+   private RateLimiter[] resolve(Class<?> exceptionClass) {
+
+      List<String> limitedTypes = resolution.resolve(exceptionClass, configured.keySet());
+      if (limitedTypes.isEmpty()) {
+         RateLimiter limiter = getLimiter(exceptionClass.getName());
+         return limiter == null ? NO_LIMITERS : new RateLimiter[] { limiter };
+      }
+      RateLimiter[] limiters = new RateLimiter[limitedTypes.size()];
+      for (int i = 0; i < limiters.length; i++) {
+         limiters[i] = configured.get(limitedTypes.get(i));
+      }
+      return limiters;
+   }
+
+   /**
+    * <p>
+    * Returns the number of exceptions rejected so far over all classes.
+    * </p>
+    *
+    * @return The number of rejected exceptions.
+    */
+   public long getRejectedCount() {
+
+      long rejected = 0;
+      for (RateLimiter limiter : configured.values()) {
+         rejected += limiter.getRejectedCount();
+      }
+      for (RateLimiter limiter : defaults.values()) {
+         rejected += limiter.getRejectedCount();
+      }
+      return rejected;
+   }
+}
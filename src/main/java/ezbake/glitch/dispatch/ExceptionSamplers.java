@@ -0,0 +1,170 @@
+package ezbake.glitch.dispatch;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.MapMaker;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.config.Configuration;
+import ezbake.glitch.config.Values;
+import ezbake.glitch.exception.SampledException;
+
+/**
+ * <p>
+ * Samples the occurrences of noisy exception classes so that their handlers
+ * see only a share of them. Each sampled exception class has a
+ * {@link Sampler} of its own. An occurrence that stands for more than itself
+ * is handed on as a {@link SampledException} that carries its weight.
+ * </p>
+ * <p>
+ * Sampling is set with attributes on the exception's <code>classname</code>
+ * element:
+ * </p>
+ * <ul>
+ * <li><b>sampleRate</b> - the share of occurrences handled, written as
+ * <code>0.01</code>, <code>1%</code> or <code>1/1000</code>.</li>
+ * <li><b>sampleFirst</b> - the number of occurrences per window that are
+ * always handled. The default is zero.</li>
+ * <li><b>sampleTarget</b> - a rate in occurrences per second above which the
+ * share adapts so that roughly this rate is handled. The default of zero
+ * keeps the share fixed.</li>
+ * <li><b>sampleWindow</b> - the length of a window. The default is 1s.</li>
+ * </ul>
+ * <p>
+ * Sampling applies to the subclasses of an exception class according to the
+ * configured {@link Resolution}, as the handler mappings do: the subclasses
+ * share the sampler of their base type. An exception to which several
+ * samplers apply is handled only if each of them keeps it, with the product
+ * of their weights. The samplers of an exception class are resolved on its
+ * first occurrence and cached.
+ * </p>
+ */
+public final class ExceptionSamplers {
+
+   public static final String SAMPLE_RATE = "sampleRate";
+   public static final String SAMPLE_FIRST = "sampleFirst";
+   public static final String SAMPLE_TARGET = "sampleTarget";
+   public static final String SAMPLE_WINDOW = "sampleWindow";
+
+   private static final long DEFAULT_WINDOW_MILLIS = 1000;
+
+   private static final Sampler[] NO_SAMPLERS = new Sampler[0];
+
+   private final Resolution resolution;
+   private final Map<String, Sampler> samplers = new HashMap<String, Sampler>();
+   private final ConcurrentMap<Class<?>, Sampler[]> resolved = new MapMaker().weakKeys().makeMap();
+
+   /**
+    * <p>
+    * Creates the samplers described by the configuration's exception
+    * attributes.
+    * </p>
+    *
+    * @param configuration The configuration.
+    */
+   public ExceptionSamplers(Configuration configuration) {
+
+      this.resolution = Resolution.parse(configuration.getProperty(Resolution.PROPERTY_NAME));
+      for (String exceptionFqcn : configuration.getExceptionsWithAttributes()) {
+         Map<String, String> attributes = configuration.getExceptionAttributes(exceptionFqcn);
+         if (attributes.containsKey(SAMPLE_RATE) || attributes.containsKey(SAMPLE_TARGET)) {
+            samplers.put(exceptionFqcn, new Sampler(
+                  Values.toRatio(attributes.get(SAMPLE_RATE), 1),
+                  Values.toInt(attributes.get(SAMPLE_FIRST), 0),
+                  Values.toDouble(attributes.get(SAMPLE_TARGET), 0),
+                  Values.toMillis(attributes.get(SAMPLE_WINDOW), DEFAULT_WINDOW_MILLIS)));
+         }
+      }
+   }
+
+   /**
+    * <p>
+    * Creates the samplers described by the configuration.
+    * </p>
+    *
+    * @param configuration The configuration.
+    * @return The samplers or null if the configuration samples no exception.
+    */
+   public static ExceptionSamplers create(Configuration configuration) {
+
+      ExceptionSamplers samplers = new ExceptionSamplers(configuration);
+      return samplers.samplers.isEmpty() ? null : samplers;
+   }
+
+   /**
+    * <p>
+    * Samples an exception.
+    * </p>
+    *
+    * @param exception The exception requested for handling.
+    * @return The exception itself if it is handled on its own account, a
+    *       {@link SampledException} if it stands for several occurrences, or
+    *       null if it is not handled.
+    */
+   public CoreException sample(CoreException exception) {
+
+      double weight = 1;
+      for (Sampler sampler : getSamplers(exception.getClass())) {
+         double sampled = sampler.sample();
+         if (sampled == 0) {
+            return null;
+         }
+         weight *= sampled;
+      }
+      return weight == 1 ? exception : new SampledException(exception, weight);
+   }
+
+   /**
+    * <p>
+    * Returns the samplers that apply to an exception class, resolving them
+    * on the first call for the class.
+    * </p>
+    *
+    * @param exceptionClass The class of the exception.
+    * @return The samplers, nearest type first, or an empty array if the
+    *       exception class is not sampled. The array is shared and must not
+    *       be modified.
+    */
+   public Sampler[] getSamplers(Class<?> exceptionClass) {
+
+      Sampler[] sampling = resolved.get(exceptionClass);
+      if (sampling == null) {
+         sampling = resolve(exceptionClass);
+         Sampler[] existing = resolved.putIfAbsent(exceptionClass, sampling);
+         if (existing != null) {
+            sampling = existing;
+         }
+      }
+      return sampling;
+   }
+
+   /**
+    * <p>
+    * Returns the sampler configured for an exception class name. The type
+    * hierarchy is not consulted.
+    * </p>
+    *
+    * @param exceptionFqcn The fully qualified class name of the exception.
+    * @return The sampler or null if the exception class is not sampled.
+    */
+   public Sampler getSampler(String exceptionFqcn) {
+
+      return samplers.get(exceptionFqcn);
+   }
+
+   private Sampler[] resolve(Class<?> exceptionClass) {
+
+      List<String> sampledTypes = resolution.resolve(exceptionClass, samplers.keySet());
+      if (sampledTypes.isEmpty()) {
+         return NO_SAMPLERS;
+      }
+      Sampler[] sampling = new Sampler[sampledTypes.size()];
+      for (int i = 0; i < sampling.length; i++) {
+         sampling[i] = samplers.get(sampledTypes.get(i));
+      }
+      return sampling;
+   }
+}
@@ -0,0 +1,177 @@
+package ezbake.glitch.dispatch;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.exception.LazyException;
+
+/**
+ * <p>
+ * Computes a 64-bit fingerprint that identifies the problem an exception
+ * reports rather than the individual occurrence. Two exceptions have the same
+ * fingerprint when they are of the same class, their messages are equal once
+ * every run of digits is ignored, and their top stack frames are the same.
+ * Ignoring the digits lets messages such as "timeout after 3012ms" and
+ * "timeout after 2998ms" count as one problem.
+ * </p>
+ * <p>
+ * The fingerprint is taken without forcing what a {@link LazyException}
+ * defers where it can: its message is compared by its format pattern, which
+ * is never formatted, so that the arguments are not part of the
+ * fingerprint. The stack frames, however, can only be read by building the
+ * whole stack trace, so a fingerprint that includes frames builds them for
+ * every exception; one of zero frames does not touch the stack trace.
+ * </p>
+ * <p>
+ * {@link #ofStackTrace(StackTraceElement[])} and {@link #ofTrace(Throwable)}
+ * identify a stack trace exactly instead, for caching what is derived from
+ * it.
+ * </p>
+ * <p>
+ * The fingerprints are FNV-1a hashes computed without building intermediate
+ * strings.
+ * </p>
+ */
+public final class Fingerprint {
+
+   private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+   private static final long PRIME = 0x100000001b3L;
+   private static final char DIGITS = '#';
+   private static final int MAX_CAUSES = 32;
+
+   private Fingerprint() {
+   }
+
+   /**
+    * <p>
+    * Returns the fingerprint of an exception.
+    * </p>
+    *
+    * @param exception The exception to fingerprint.
+    * @param frames The number of top stack frames included in the
+    *       fingerprint; zero ignores the stack trace.
+    * @return The fingerprint.
+    */
+   public static long of(CoreException exception, int frames) {
+
+      long hash = OFFSET_BASIS;
+      hash = hash(hash, exception.getClass().getName());
+      hash = hashTemplate(hash, exception instanceof LazyException ? ((LazyException) exception).getMessageFormat() : exception.getMessage());
+
+      Throwable throwable = exception.getException();
+      if (throwable != null && frames > 0) {
+         StackTraceElement[] stackTrace = throwable.getStackTrace();
+         for (int i = 0; i < stackTrace.length && i < frames; i++) {
+            hash = hash(hash, stackTrace[i].getClassName());
+            hash = hash(hash, stackTrace[i].getMethodName());
+            hash = mix(hash, stackTrace[i].getLineNumber());
+         }
+      }
+      return hash;
+   }
+
+   /**
+    * <p>
+    * Returns the fingerprint of a sequence of stack frames, including every
+    * frame's file name and line number.
+    * </p>
+    *
+    * @param stackTrace The stack frames.
+    * @return The fingerprint.
+    */
+   public static long ofStackTrace(StackTraceElement[] stackTrace) {
+
+      return hashFrames(OFFSET_BASIS, stackTrace);
+   }
+
+   /**
+    * <p>
+    * Returns the fingerprint of everything a throwable's printed stack trace
+    * is made of: the class, exact message and stack frames of the throwable
+    * and of each of its causes.
+    * </p>
+    *
+    * @param throwable The throwable.
+    * @return The fingerprint.
+    */
+   public static long ofTrace(Throwable throwable) {
+
+      long hash = OFFSET_BASIS;
+      int depth = 0;
+      for (Throwable t = throwable; t != null && depth < MAX_CAUSES; t = t.getCause(), depth++) {
+         hash = hashLink(hash, t.getClass().getName(), t.getMessage(), t.getStackTrace());
+      }
+      return hash;
+   }
+
+   /**
+    * <p>
+    * Returns the same fingerprint as {@link #ofTrace(Throwable)} from the
+    * parts of a trace that were already taken from the throwable and its
+    * causes, outermost first.
+    * </p>
+    *
+    * @param classNames The class name of each throwable.
+    * @param messages The message of each throwable.
+    * @param stackTraces The stack frames of each throwable.
+    * @return The fingerprint.
+    */
+   public static long ofTrace(String[] classNames, String[] messages, StackTraceElement[][] stackTraces) {
+
+      long hash = OFFSET_BASIS;
+      for (int i = 0; i < classNames.length && i < MAX_CAUSES; i++) {
+         hash = hashLink(hash, classNames[i], messages[i], stackTraces[i]);
+      }
+      return hash;
+   }
+
+   private static long hashLink(long hash, String className, String message, StackTraceElement[] stackTrace) {
+
+      hash = hash(hash, className);
+      hash = hash(hash, String.valueOf(message));
+      return hashFrames(hash, stackTrace);
+   }
+
+   private static long hashFrames(long hash, StackTraceElement[] stackTrace) {
+
+      for (StackTraceElement frame : stackTrace) {
+         hash = hash(hash, frame.getClassName());
+         hash = hash(hash, frame.getMethodName());
+         hash = hash(hash, String.valueOf(frame.getFileName()));
+         hash = mix(hash, frame.getLineNumber());
+      }
+      return mix(hash, stackTrace.length);
+   }
+
+   private static long hashTemplate(long hash, String message) {
+
+      if (message == null) {
+         return mix(hash, 0);
+      }
+      boolean inDigits = false;
+      for (int i = 0; i < message.length(); i++) {
+         char c = message.charAt(i);
+         if (c >= '0' && c <= '9') {
+            if (!inDigits) {
+               hash = mix(hash, DIGITS);
+               inDigits = true;
+            }
+         } else {
+            hash = mix(hash, c);
+            inDigits = false;
+         }
+      }
+      return hash;
+   }
+
+   private static long hash(long hash, String value) {
+
+      for (int i = 0; i < value.length(); i++) {
+         hash = mix(hash, value.charAt(i));
+      }
+      return mix(hash, 0);
+   }
+
+   private static long mix(long hash, int value) {
+
+      return (hash ^ value) * PRIME;
+   }
+}
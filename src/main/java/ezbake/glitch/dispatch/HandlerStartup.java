@@ -0,0 +1,296 @@
+package ezbake.glitch.dispatch;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.Configurable;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.HandlerRegistries;
+import ezbake.glitch.config.Configuration;
+import ezbake.glitch.config.Values;
+
+/**
+ * <p>
+ * Instantiates the handlers of a {@link Configuration} in the way selected
+ * by its <b>startup</b> property:
+ * </p>
+ * <ul>
+ * <li><b>eager</b> (default) - every handler is instantiated, one after the
+ * other, before the first exception can be handled.</li>
+ * <li><b>parallel</b> - the handlers are instantiated on several threads at
+ * once. A handler that is not ready when the startup budget is spent keeps
+ * starting in the background, and its exceptions wait for it.</li>
+ * <li><b>lazy</b> - only the handler classes are looked up at startup; each
+ * handler is instantiated when the first exception reaches it. See
+ * {@link LazyHandler}.</li>
+ * </ul>
+ * <p>
+ * The startup is tuned with the following properties:
+ * </p>
+ * <ul>
+ * <li><b>startup.threads</b> - the number of threads that instantiate the
+ * handlers in parallel. The default is the number of processors.</li>
+ * <li><b>startup.budget</b> - how long the parallel startup waits for the
+ * handlers. The default is 10s.</li>
+ * <li><b>startup.slow</b> - a duration above which the instantiation of a
+ * handler is logged as slow, in every mode. The default is 1s.</li>
+ * </ul>
+ * <p>
+ * A handler class that cannot be found is reported at startup in every mode,
+ * so that its mappings can be removed. A handler known to a
+ * {@link ezbake.glitch.HandlerRegistry} is created by the registry rather
+ * than by reflection.
+ * </p>
+ */
+public final class HandlerStartup {
+
+   public static final String STARTUP = "startup";
+   public static final String THREADS = "startup.threads";
+   public static final String BUDGET = "startup.budget";
+   public static final String SLOW = "startup.slow";
+
+   static final String EAGER = "eager";
+   static final String PARALLEL = "parallel";
+   static final String LAZY = "lazy";
+
+   private static final long DEFAULT_BUDGET_MILLIS = 10000;
+   private static final long DEFAULT_SLOW_MILLIS = 1000;
+
+   private static Logger logger = LoggerFactory.getLogger(HandlerStartup.class);
+
+   private final Configuration configuration;
+   private final String mode;
+   private final int threads;
+   private final long budgetMillis;
+   private final long slowMillis;
+
+   private HandlerStartup(Configuration configuration, String mode, int threads, long budgetMillis, long slowMillis) {
+
+      this.configuration = configuration;
+      this.mode = mode;
+      this.threads = threads;
+      this.budgetMillis = budgetMillis;
+      this.slowMillis = slowMillis;
+   }
+
+   /**
+    * <p>
+    * Creates the startup selected by the configuration's properties. An
+    * unknown mode is logged and the eager startup is used.
+    * </p>
+    *
+    * @param configuration The configuration whose properties select the
+    *       startup and whose attributes configure the handlers.
+    * @return The startup.
+    */
+   public static HandlerStartup create(Configuration configuration) {
+
+      String mode = configuration.getProperty(STARTUP, EAGER).trim().toLowerCase(Locale.ENGLISH);
+      if (!EAGER.equals(mode) && !PARALLEL.equals(mode) && !LAZY.equals(mode)) {
+         logger.warn("Unknown handler startup '" + mode + "'; the handlers are instantiated eagerly.");
+         mode = EAGER;
+      }
+      return new HandlerStartup(configuration, mode,
+            Math.max(1, Values.toInt(configuration.getProperty(THREADS), Runtime.getRuntime().availableProcessors())),
+            Values.toMillis(configuration.getProperty(BUDGET), DEFAULT_BUDGET_MILLIS),
+            Values.toMillis(configuration.getProperty(SLOW), DEFAULT_SLOW_MILLIS));
+   }
+
+   /**
+    * <p>
+    * Instantiates the handlers of the given class names. The handlers that
+    * cannot be instantiated are logged and left out of the result.
+    * </p>
+    *
+    * @param handlerFqcns The fully qualified class names of the handlers.
+    * @return The handlers keyed by their class names.
+    */
+   public Map<String, CoreExceptionHandler> instantiate(Collection<String> handlerFqcns) {
+
+      Map<String, CoreExceptionHandler> handlers = new TreeMap<String, CoreExceptionHandler>();
+      if (PARALLEL.equals(mode) && handlerFqcns.size() > 1) {
+         instantiateParallel(handlerFqcns, handlers);
+      } else {
+         for (String handlerFqcn : handlerFqcns) {
+            CoreExceptionHandler handler = instantiate(handlerFqcn);
+            if (handler != null) {
+               handlers.put(handlerFqcn, handler);
+            }
+         }
+      }
+      return handlers;
+   }
+
+   /**
+    * <p>
+    * Instantiates one handler, or in the lazy startup returns its
+    * {@link LazyHandler}.
+    * </p>
+    *
+    * @param handlerFqcn The fully qualified class name of the handler.
+    * @return The handler or null if it cannot be instantiated.
+    */
+   public CoreExceptionHandler instantiate(String handlerFqcn) {
+
+      if (Values.isNothing(handlerFqcn)) {
+         return null;
+      }
+      try {
+         if (LAZY.equals(mode)) {
+            return LazyHandler.create(handlerFqcn, handlerClass(handlerFqcn), factory(handlerFqcn));
+         }
+         return factory(handlerFqcn).call();
+      } catch (Exception e) {
+         logFailure(handlerFqcn, e);
+         return null;
+      } catch (LinkageError e) {
+         logFailure(handlerFqcn, e);
+         return null;
+      }
+   }
+
+   /**
+    * <p>
+    * Returns the mode of this startup: eager, parallel or lazy.
+    * </p>
+    *
+    * @return The startup mode.
+    */
+   public String getMode() {
+
+      return mode;
+   }
+
+   private void instantiateParallel(Collection<String> handlerFqcns, Map<String, CoreExceptionHandler> handlers) {
+
+      long start = System.nanoTime();
+      ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, handlerFqcns.size()), new ThreadFactory() {
+         private final AtomicInteger count = new AtomicInteger();
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "glitch-startup-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      Map<String, Future<CoreExceptionHandler>> futures = new LinkedHashMap<String, Future<CoreExceptionHandler>>();
+      try {
+         for (String handlerFqcn : handlerFqcns) {
+            if (!Values.isNothing(handlerFqcn)) {
+               futures.put(handlerFqcn, executor.submit(factory(handlerFqcn)));
+            }
+         }
+      } finally {
+         executor.shutdown();
+      }
+
+      long deadline = start + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+      int pending = 0;
+      for (Map.Entry<String, Future<CoreExceptionHandler>> entry : futures.entrySet()) {
+         final String handlerFqcn = entry.getKey();
+         final Future<CoreExceptionHandler> future = entry.getValue();
+         try {
+            handlers.put(handlerFqcn, future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+         } catch (ExecutionException e) {
+            logFailure(handlerFqcn, e.getCause());
+         } catch (TimeoutException e) {
+            pending += deferred(handlerFqcn, future, handlers);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending += deferred(handlerFqcn, future, handlers);
+         }
+      }
+      logger.info("Instantiated " + (futures.size() - pending) + " handlers on " + Math.min(threads, futures.size()) + " threads in "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms" + (pending > 0 ? "; " + pending + " are still starting." : "."));
+   }
+
+   /**
+    * <p>
+    * Puts a {@link LazyHandler} that waits for a handler still being
+    * instantiated in place of the handler.
+    * </p>
+    *
+    * @return 1 if the handler was deferred and 0 if its class is not valid.
+    */
+   private int deferred(String handlerFqcn, final Future<CoreExceptionHandler> future, Map<String, CoreExceptionHandler> handlers) {
+
+      try {
+         handlers.put(handlerFqcn, LazyHandler.create(handlerFqcn, handlerClass(handlerFqcn), new Callable<CoreExceptionHandler>() {
+            public CoreExceptionHandler call() throws Exception {
+               try {
+                  return future.get();
+               } catch (ExecutionException e) {
+                  throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+               }
+            }
+         }));
+         logger.warn("The handler '" + handlerFqcn + "' did not start within the startup budget of " + budgetMillis + "ms; its exceptions wait for it.");
+         return 1;
+      } catch (Exception e) {
+         future.cancel(true);
+         logFailure(handlerFqcn, e);
+         return 0;
+      }
+   }
+
+   private Class<?> handlerClass(String handlerFqcn) throws ClassNotFoundException {
+
+      Class<?> handlerClass = Class.forName(handlerFqcn, false, HandlerStartup.class.getClassLoader());
+      if (!CoreExceptionHandler.class.isAssignableFrom(handlerClass)) {
+         throw new ClassCastException(handlerFqcn + " is not a " + CoreExceptionHandler.class.getName());
+      }
+      return handlerClass;
+   }
+
+   /**
+    * <p>
+    * Returns a task that instantiates, with its registry if it has one, and
+    * configures a handler and logs it if that is slow. The handler's
+    * attributes are copied now, so the task may run on any thread at any
+    * time.
+    * </p>
+    */
+   private Callable<CoreExceptionHandler> factory(final String handlerFqcn) {
+
+      final Map<String, String> attributes = new HashMap<String, String>(configuration.getHandlerAttributes(handlerFqcn));
+      return new Callable<CoreExceptionHandler>() {
+         public CoreExceptionHandler call() throws Exception {
+            long start = System.nanoTime();
+            CoreExceptionHandler handler = HandlerRegistries.newHandler(handlerFqcn);
+            if (handler == null) {
+               handler = (CoreExceptionHandler) Class.forName(handlerFqcn).newInstance();
+            }
+            if (handler instanceof Configurable) {
+               ((Configurable) handler).configure(attributes);
+            }
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (elapsedMillis >= slowMillis) {
+               logger.warn("The handler '" + handlerFqcn + "' took " + elapsedMillis + "ms to instantiate.");
+            }
+            return handler;
+         }
+      };
+   }
+
+   private void logFailure(String handlerFqcn, Throwable e) {
+
+      logger.error(
+            "The handler '" + handlerFqcn + "' could not be found or could not be instantiated; ignoring all references and associations to this handler. Adjust the configuration to use a valid, locatable handler.",
+            e);
+   }
+}
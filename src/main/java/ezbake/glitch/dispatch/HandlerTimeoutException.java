@@ -0,0 +1,24 @@
+package ezbake.glitch.dispatch;
+
+/**
+ * <p>
+ * Thrown by a {@link TimeoutHandler} when the handler it wraps does not
+ * finish within its timeout or no thread is left to run it.
+ * </p>
+ */
+public class HandlerTimeoutException extends RuntimeException {
+
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * <p>
+    * Constructs an instance of this exception using the given message.
+    * </p>
+    *
+    * @param message A message that describes the overrun.
+    */
+   public HandlerTimeoutException(String message) {
+
+      super(message);
+   }
+}
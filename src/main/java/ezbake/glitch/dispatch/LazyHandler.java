@@ -0,0 +1,187 @@
+package ezbake.glitch.dispatch;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.BatchingCoreExceptionHandler;
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+
+/**
+ * <p>
+ * Stands in for a handler that is instantiated when the first exception
+ * reaches it. The handler is created exactly once, however many threads
+ * dispatch to it at the same time; the threads that arrive while it is
+ * being created wait for it. A handler that cannot be created, including one
+ * whose class fails to initialize, is logged once and is never tried again;
+ * from then on handling an exception throws an
+ * {@link IllegalStateException}, so that the failure is reported like any
+ * other failing handler's.
+ * </p>
+ * <p>
+ * Flushing and closing are passed on to the handler if it was created and
+ * supports them. A closed stand-in never creates its handler; if it had none,
+ * handling an exception throws an {@link IllegalStateException}.
+ * </p>
+ */
+public class LazyHandler implements CoreExceptionHandler, Flushable, Closeable {
+
+   private Logger logger = LoggerFactory.getLogger(LazyHandler.class);
+
+   private final String name;
+   private final Callable<CoreExceptionHandler> factory;
+   private volatile CoreExceptionHandler delegate;
+   private volatile boolean done;
+   private volatile boolean closed;
+
+   LazyHandler(String name, Callable<CoreExceptionHandler> factory) {
+
+      this.name = name;
+      this.factory = factory;
+   }
+
+   /**
+    * <p>
+    * Creates the stand-in for a handler class.
+    * </p>
+    *
+    * @param name The fully qualified class name of the handler.
+    * @param handlerClass The handler class, used to tell whether the handler
+    *       receives batches.
+    * @param factory Creates the handler. It is called at most once.
+    * @return The stand-in, which receives batches if the handler class does.
+    */
+   public static LazyHandler create(String name, Class<?> handlerClass, Callable<CoreExceptionHandler> factory) {
+
+      if (BatchingCoreExceptionHandler.class.isAssignableFrom(handlerClass)) {
+         return new Batching(name, factory);
+      }
+      return new LazyHandler(name, factory);
+   }
+
+   public void handle(CoreException e) {
+
+      requireDelegate().handle(e);
+   }
+
+   /**
+    * <p>
+    * Returns the handler, creating it on the first call.
+    * </p>
+    *
+    * @return The handler or null if it could not be created or this stand-in
+    *       is closed.
+    */
+   public CoreExceptionHandler getDelegate() {
+
+      if (!done) {
+         synchronized (this) {
+            if (!done) {
+               try {
+                  delegate = factory.call();
+               } catch (Exception e) {
+                  logger.error("The handler '" + name + "' could not be instantiated; its exceptions are rejected.", e);
+               } catch (LinkageError e) {
+                  logger.error("The handler '" + name + "' could not be instantiated; its exceptions are rejected.", e);
+               } finally {
+                  done = true;
+               }
+            }
+         }
+      }
+      return delegate;
+   }
+
+   /**
+    * <p>
+    * Returns the handler, creating it on the first call.
+    * </p>
+    *
+    * @return The handler.
+    * @throws IllegalStateException if the handler could not be created or
+    *       this stand-in was closed without it.
+    */
+   CoreExceptionHandler requireDelegate() {
+
+      CoreExceptionHandler handler = getDelegate();
+      if (handler == null) {
+         throw new IllegalStateException(closed ? "The handler '" + name + "' is closed." : "The handler '" + name + "' could not be instantiated.");
+      }
+      return handler;
+   }
+
+   /**
+    * <p>
+    * Answers true once the handler has been created.
+    * </p>
+    *
+    * @return true if the handler exists.
+    */
+   public boolean isInstantiated() {
+
+      return delegate != null;
+   }
+
+   /**
+    * <p>
+    * Returns the name of the handler.
+    * </p>
+    *
+    * @return The fully qualified class name of the handler.
+    */
+   public String getName() {
+
+      return name;
+   }
+
+   public void flush() throws IOException {
+
+      CoreExceptionHandler handler = delegate;
+      if (handler instanceof Flushable) {
+         ((Flushable) handler).flush();
+      }
+   }
+
+   public void close() throws IOException {
+
+      CoreExceptionHandler handler;
+      synchronized (this) {
+         done = true;
+         closed = true;
+         handler = delegate;
+      }
+      if (handler instanceof Closeable) {
+         ((Closeable) handler).close();
+      }
+   }
+
+   @Override
+   public String toString() {
+
+      return name;
+   }
+
+   /**
+    * <p>
+    * The stand-in for a handler that receives its exceptions in batches.
+    * </p>
+    */
+   static final class Batching extends LazyHandler implements BatchingCoreExceptionHandler {
+
+      Batching(String name, Callable<CoreExceptionHandler> factory) {
+
+         super(name, factory);
+      }
+
+      public void handleBatch(List<CoreException> exceptions) {
+
+         ((BatchingCoreExceptionHandler) requireDelegate()).handleBatch(exceptions);
+      }
+   }
+}
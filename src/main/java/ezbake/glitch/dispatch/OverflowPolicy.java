@@ -0,0 +1,59 @@
+package ezbake.glitch.dispatch;
+
+import java.util.Locale;
+
+/**
+ * <p>
+ * Describes what an asynchronous pipeline does with a published exception
+ * when its queue is full.
+ * </p>
+ */
+public enum OverflowPolicy {
+
+   /**
+    * The publishing thread waits until there is room in the queue.
+    */
+   BLOCK,
+   
+   /**
+    * The published exception is discarded and counted as dropped.
+    */
+   DROP_NEWEST,
+   
+   /**
+    * The oldest queued exceptions are discarded, and counted as dropped, to
+    * make room for the published exception.
+    */
+   DROP_OLDEST,
+   
+   /**
+    * The handlers of the published exception are executed on the publishing
+    * thread.
+    */
+   CALLER_RUNS;
+   
+   /**
+    * <p>
+    * Returns the policy named by the given value. Case, dashes and underscores
+    * are ignored so that <code>drop-oldest</code>, <code>dropOldest</code> and
+    * <code>DROP_OLDEST</code> are equivalent. If the value is null or not a
+    * known policy then the default policy is returned.
+    * </p>
+    * 
+    * @param value The name of the policy.
+    * @param defaultPolicy The policy returned if the value is not a policy.
+    * @return The policy named by the value or the default policy.
+    */
+   public static OverflowPolicy parse(String value, OverflowPolicy defaultPolicy) {
+      
+      if (value != null) {
+         String normalized = value.replace("-", "").replace("_", "").trim().toUpperCase(Locale.ENGLISH);
+         for (OverflowPolicy policy : values()) {
+            if (policy.name().replace("_", "").equals(normalized)) {
+               return policy;
+            }
+         }
+      }
+      return defaultPolicy;
+   }
+}
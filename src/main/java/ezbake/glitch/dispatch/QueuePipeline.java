@@ -0,0 +1,355 @@
+package ezbake.glitch.dispatch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.exception.LazyException;
+
+/**
+ * <p>
+ * An asynchronous pipeline that places published exceptions into a bounded
+ * queue that is drained by a fixed number of worker threads. The publishing
+ * thread only pays for the enqueue; the handlers run on the workers.
+ * </p>
+ * <p>
+ * The queue is bounded by a number of exceptions and, optionally, by an
+ * estimated number of bytes held by the queued exceptions. When either bound
+ * is reached the {@link OverflowPolicy} decides whether the publisher waits,
+ * an exception is dropped or the publisher executes the handlers itself. A
+ * single exception that alone exceeds the byte bound is still accepted into
+ * an empty queue so that it is not blocked forever. A dropped exception is
+ * reported to the dispatcher if it is a {@link DropAwareDispatcher}.
+ * </p>
+ * <p>
+ * The size of an exception is estimated when it is published and released
+ * when it is taken from the queue. The publishing thread never formats a
+ * message or fills in a stack trace just to size an exception, so the
+ * estimate charges each throwable of the cause chain a fixed size for the
+ * object and a stack trace of some 40 frames, plus its message:
+ * </p>
+ * <ul>
+ * <li>a {@link LazyException} is charged its message if it was formatted
+ * and otherwise its format pattern and arguments;</li>
+ * <li>any other {@link CoreException}, whose message may be built on
+ * demand, is charged a short message;</li>
+ * <li>any other throwable, such as a JDK exception given as a cause, is
+ * charged the message it holds.</li>
+ * </ul>
+ * <p>
+ * The queue is a preallocated ring of slots; enqueuing and dequeuing do not
+ * allocate.
+ * </p>
+ */
+public final class QueuePipeline implements DispatchPipeline {
+
+   static final int THROWABLE_BYTES = 1536;
+   static final int MESSAGE_BYTES = 128;
+   private static final int STRING_BYTES = 40;
+   private static final int MAX_CAUSES = 16;
+
+   private Logger logger = LoggerFactory.getLogger(QueuePipeline.class);
+
+   private final Dispatcher dispatcher;
+   private final OverflowPolicy overflowPolicy;
+   private final long maxBytes;
+   private final Thread[] workers;
+
+   private final CoreException[] events;
+   private final long[] sizes;
+   private int head;
+   private int count;
+   private long bytes;
+   private int active;
+   private boolean shutdown;
+
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition notEmpty = lock.newCondition();
+   private final Condition notFull = lock.newCondition();
+   private final Condition idle = lock.newCondition();
+
+   private final AtomicLong dropped = new AtomicLong();
+
+   /**
+    * <p>
+    * Creates the pipeline and starts its worker threads.
+    * </p>
+    *
+    * @param dispatcher The dispatcher that executes the handlers.
+    * @param capacity The maximum number of queued exceptions.
+    * @param maxBytes The maximum estimated size, in bytes, of the queued
+    *       exceptions or zero for no byte bound.
+    * @param workerCount The number of worker threads.
+    * @param overflowPolicy What to do when the queue is full.
+    */
+   public QueuePipeline(Dispatcher dispatcher, int capacity, long maxBytes, int workerCount, OverflowPolicy overflowPolicy) {
+
+      this.dispatcher = dispatcher;
+      this.overflowPolicy = overflowPolicy;
+      this.maxBytes = maxBytes;
+      this.events = new CoreException[Math.max(1, capacity)];
+      this.sizes = new long[events.length];
+      this.workers = new Thread[Math.max(1, workerCount)];
+
+      for (int i = 0; i < workers.length; i++) {
+         workers[i] = new Thread(new Worker(), "glitch-dispatch-" + i);
+         workers[i].setDaemon(true);
+         workers[i].start();
+      }
+   }
+
+   public void publish(CoreException exception) {
+
+      boolean callerRuns = false;
+      long size = maxBytes > 0 ? estimateBytes(exception) : 0;
+
+      lock.lock();
+      try {
+         while (!shutdown && !fits(size)) {
+            if (overflowPolicy == OverflowPolicy.BLOCK) {
+               notFull.await();
+            } else if (overflowPolicy == OverflowPolicy.DROP_OLDEST && count > 0) {
+               drop(dequeue());
+            } else if (overflowPolicy == OverflowPolicy.CALLER_RUNS) {
+               callerRuns = true;
+               break;
+            } else {
+               drop(exception);
+               return;
+            }
+         }
+         if (shutdown) {
+            callerRuns = true;
+         } else if (!callerRuns) {
+            enqueue(exception, size);
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         drop(exception);
+         return;
+      } finally {
+         lock.unlock();
+      }
+
+      if (callerRuns) {
+         dispatcher.dispatch(exception);
+      }
+   }
+
+   public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+
+      long nanos = unit.toNanos(timeout);
+      lock.lock();
+      try {
+         while (count > 0 || active > 0) {
+            if (nanos <= 0) {
+               return false;
+            }
+            nanos = idle.awaitNanos(nanos);
+         }
+         return true;
+      } finally {
+         lock.unlock();
+      }
+   }
+
+   public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+
+      lock.lock();
+      try {
+         shutdown = true;
+         notEmpty.signalAll();
+         notFull.signalAll();
+      } finally {
+         lock.unlock();
+      }
+
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      for (Thread worker : workers) {
+         long millis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+         if (millis > 0) {
+            worker.join(millis);
+         }
+      }
+
+      boolean terminated = true;
+      for (Thread worker : workers) {
+         if (worker.isAlive()) {
+            terminated = false;
+            worker.interrupt();
+         }
+      }
+      if (!terminated) {
+         logger.warn("The dispatch workers did not finish within " + unit.toMillis(timeout) + "ms; " + getPendingCount() + " exceptions were not handled.");
+      }
+      return terminated;
+   }
+
+   public boolean isAsynchronous() {
+
+      return true;
+   }
+
+   /**
+    * <p>
+    * Returns the number of exceptions waiting in the queue.
+    * </p>
+    *
+    * @return The number of queued exceptions.
+    */
+   public int getPendingCount() {
+
+      lock.lock();
+      try {
+         return count;
+      } finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * <p>
+    * Returns the number of exceptions that were discarded because the queue
+    * was full.
+    * </p>
+    *
+    * @return The number of dropped exceptions.
+    */
+   public long getDroppedCount() {
+
+      return dropped.get();
+   }
+
+   /**
+    * <p>
+    * Estimates the bytes an exception holds while it is queued without
+    * formatting its message or filling in its stack trace.
+    * </p>
+    *
+    * @param exception The exception.
+    * @return The estimated size in bytes.
+    */
+   static long estimateBytes(CoreException exception) {
+
+      Throwable link = exception.getException();
+      if (link == null) {
+         return THROWABLE_BYTES + MESSAGE_BYTES;
+      }
+      long size = 0;
+      for (int i = 0; link != null && i < MAX_CAUSES; i++) {
+         size += THROWABLE_BYTES + estimateMessageBytes(link);
+         link = link.getCause();
+      }
+      return size;
+   }
+
+   private static long estimateMessageBytes(Throwable link) {
+
+      int length;
+      if (link instanceof LazyException) {
+         length = ((LazyException) link).getEstimatedMessageLength();
+      } else if (link instanceof CoreException) {
+         return MESSAGE_BYTES;
+      } else {
+         String message = link.getMessage();
+         length = message == null ? -1 : message.length();
+      }
+      return length < 0 ? 0 : STRING_BYTES + 2L * length;
+   }
+
+   private boolean fits(long size) {
+
+      return count < events.length &&
+            (maxBytes <= 0 || count == 0 || bytes + size <= maxBytes);
+   }
+
+   private void enqueue(CoreException exception, long size) {
+
+      int tail = (head + count) % events.length;
+      events[tail] = exception;
+      sizes[tail] = size;
+      bytes += size;
+      count++;
+      notEmpty.signal();
+   }
+
+   /**
+    * <p>
+    * Counts a dropped exception and tells the dispatcher about it if it
+    * wants to know.
+    * </p>
+    */
+   private void drop(CoreException exception) {
+
+      dropped.incrementAndGet();
+      if (dispatcher instanceof DropAwareDispatcher) {
+         try {
+            ((DropAwareDispatcher) dispatcher).dropped(exception);
+         } catch (Throwable t) {
+            logger.error("Accounting for the dropped exception type '" + exception.getClass().getName() + "' failed.", t);
+         }
+      }
+   }
+
+   private CoreException dequeue() {
+
+      CoreException exception = events[head];
+      events[head] = null;
+      bytes -= sizes[head];
+      head = (head + 1) % events.length;
+      count--;
+      notFull.signal();
+      return exception;
+   }
+
+   /**
+    * <p>
+    * Takes exceptions from the queue and dispatches them until the pipeline
+    * is shut down and the queue is empty.
+    * </p>
+    */
+   private class Worker implements Runnable {
+
+      public void run() {
+
+         while (true) {
+
+            CoreException exception;
+            lock.lock();
+            try {
+               while (count == 0) {
+                  if (shutdown) {
+                     return;
+                  }
+                  notEmpty.awaitUninterruptibly();
+               }
+               exception = dequeue();
+               active++;
+            } finally {
+               lock.unlock();
+            }
+
+            try {
+               dispatcher.dispatch(exception);
+            } catch (Throwable t) {
+               logger.error("Dispatching exception type '" + exception.getClass().getName() + "' failed.", t);
+            } finally {
+               lock.lock();
+               try {
+                  active--;
+                  if (count == 0 && active == 0) {
+                     idle.signalAll();
+                  }
+               } finally {
+                  lock.unlock();
+               }
+            }
+         }
+      }
+   }
+}
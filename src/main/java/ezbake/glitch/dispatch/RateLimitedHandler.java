@@ -0,0 +1,75 @@
+package ezbake.glitch.dispatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+
+/**
+ * <p>
+ * Executes a handler only while its {@link RateLimiter} admits the
+ * exception. Rejected exceptions are counted by the limiter and passed to
+ * the dropped handler, if there is one; the first rejection is logged so
+ * that a handler that is being limited can be noticed.
+ * </p>
+ */
+public final class RateLimitedHandler implements CoreExceptionHandler {
+
+   private Logger logger = LoggerFactory.getLogger(RateLimitedHandler.class);
+
+   private final String name;
+   private final CoreExceptionHandler delegate;
+   private final RateLimiter limiter;
+   private final CoreExceptionHandler dropped;
+
+   public RateLimitedHandler(String name, CoreExceptionHandler delegate, RateLimiter limiter) {
+
+      this(name, delegate, limiter, null);
+   }
+
+   /**
+    * <p>
+    * Creates the wrapper.
+    * </p>
+    *
+    * @param name The name of the handler, used for logging.
+    * @param delegate The handler that is limited.
+    * @param limiter The rate limiter.
+    * @param dropped The handler that receives the rejected exceptions or
+    *       null to ignore them.
+    */
+   public RateLimitedHandler(String name, CoreExceptionHandler delegate, RateLimiter limiter, CoreExceptionHandler dropped) {
+
+      this.name = name;
+      this.delegate = delegate;
+      this.limiter = limiter;
+      this.dropped = dropped;
+   }
+
+   public void handle(CoreException e) {
+
+      if (limiter.tryAcquire()) {
+         delegate.handle(e);
+         return;
+      }
+      if (dropped != null) {
+         dropped.handle(e);
+      }
+      if (limiter.getRejectedCount() == 1) {
+         logger.warn("Handler '" + name + "' reached its rate limit of " + limiter + "; further exceptions over the limit are counted but not handled by it.");
+      }
+   }
+
+   /**
+    * <p>
+    * Returns the rate limiter of the handler.
+    * </p>
+    *
+    * @return The handler's rate limiter.
+    */
+   public RateLimiter getLimiter() {
+
+      return limiter;
+   }
+}
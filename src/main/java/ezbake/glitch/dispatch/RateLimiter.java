@@ -0,0 +1,131 @@
+package ezbake.glitch.dispatch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.config.Values;
+
+/**
+ * <p>
+ * A lock-free token bucket. The bucket holds up to <i>burst</i> tokens and
+ * refills at <i>permits</i> tokens per period; every admitted event takes a
+ * token and an event that finds the bucket empty is rejected and counted.
+ * </p>
+ * <p>
+ * Rather than storing a token count that must be refilled, the bucket keeps
+ * the time at which it will next be full, which is the same algorithm in the
+ * form of a generic cell rate. Admitting an event advances that time by one
+ * token's interval with a single compare-and-set, so concurrent callers never
+ * block one another.
+ * </p>
+ * <p>
+ * Limits are written as a number of permits per duration, for example
+ * <code>5/min</code>, <code>100/s</code> or <code>20/10s</code>.
+ * </p>
+ */
+public final class RateLimiter {
+
+   private static Logger logger = LoggerFactory.getLogger(RateLimiter.class);
+
+   private final int permits;
+   private final long periodMillis;
+   private final long intervalNanos;
+   private final long toleranceNanos;
+   private final AtomicLong fullAt;
+   private final AtomicLong rejected = new AtomicLong();
+
+   /**
+    * <p>
+    * Creates a full token bucket.
+    * </p>
+    *
+    * @param permits The number of tokens added per period.
+    * @param periodMillis The period in milliseconds.
+    * @param burst The capacity of the bucket.
+    */
+   public RateLimiter(int permits, long periodMillis, int burst) {
+
+      this.permits = Math.max(1, permits);
+      this.periodMillis = Math.max(1, periodMillis);
+      this.intervalNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(this.periodMillis) / this.permits);
+      this.toleranceNanos = (Math.max(1, burst) - 1) * intervalNanos;
+      this.fullAt = new AtomicLong(System.nanoTime());
+   }
+
+   /**
+    * <p>
+    * Creates the token bucket described by a limit such as
+    * <code>5/min</code>. An invalid limit is logged and ignored.
+    * </p>
+    *
+    * @param limit The number of permits per duration.
+    * @param burst The capacity of the bucket or zero to use the number of
+    *       permits.
+    * @return The token bucket or null if the limit is nothing or invalid.
+    */
+   public static RateLimiter parse(String limit, int burst) {
+
+      if (Values.isNothing(limit)) {
+         return null;
+      }
+
+      int slash = limit.indexOf('/');
+      if (slash > 0) {
+         int permits = Values.toInt(limit.substring(0, slash), -1);
+         String period = limit.substring(slash + 1).trim();
+         if (!period.isEmpty() && !Character.isDigit(period.charAt(0))) {
+            period = "1" + period;
+         }
+         long periodMillis = Values.toMillis(period, -1);
+         if (permits > 0 && periodMillis > 0) {
+            return new RateLimiter(permits, periodMillis, burst > 0 ? burst : permits);
+         }
+      }
+      logger.warn("The rate limit '" + limit + "' is not valid; it must be a number of permits per duration such as 5/min. No limit is applied.");
+      return null;
+   }
+
+   /**
+    * <p>
+    * Takes a token if one is available.
+    * </p>
+    *
+    * @return true if the event is admitted and false if it is rejected.
+    */
+   public boolean tryAcquire() {
+
+      long now = System.nanoTime();
+      while (true) {
+         long current = fullAt.get();
+         long start = current - now > 0 ? current : now;
+         if (start - now > toleranceNanos) {
+            rejected.incrementAndGet();
+            return false;
+         }
+         if (fullAt.compareAndSet(current, start + intervalNanos)) {
+            return true;
+         }
+      }
+   }
+
+   /**
+    * <p>
+    * Returns the number of events rejected so far.
+    * </p>
+    *
+    * @return The number of rejected events.
+    */
+   public long getRejectedCount() {
+
+      return rejected.get();
+   }
+
+   @Override
+   public String toString() {
+
+      return permits + "/" + periodMillis + "ms";
+   }
+}
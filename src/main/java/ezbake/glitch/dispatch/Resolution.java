@@ -0,0 +1,122 @@
+package ezbake.glitch.dispatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>
+ * Describes how the handlers of an exception class are resolved from the
+ * configured exception-to-handler mappings. The same resolution applies to
+ * the other settings that are configured per exception class, such as rate
+ * limits and sampling.
+ * </p>
+ * <p>
+ * The resolution is set with the <b>resolution</b> configuration property.
+ * If the property is not set then {@link #EXACT} is used.
+ * </p>
+ */
+public enum Resolution {
+
+   /**
+    * Only mappings of the exception's own fully qualified class name apply.
+    */
+   EXACT,
+
+   /**
+    * Mappings of the exception's class, superclasses and implemented
+    * interfaces apply. Only the mappings of the nearest mapped types are used,
+    * where distance is the number of superclass or interface steps from the
+    * exception's class. Types mapped at the same distance are combined.
+    */
+   NEAREST,
+
+   /**
+    * Mappings of the exception's class, superclasses and implemented
+    * interfaces apply. The handlers of every mapped type in the hierarchy are
+    * combined.
+    */
+   UNION;
+
+   /**
+    * The name of the configuration property that sets the resolution.
+    */
+   public static final String PROPERTY_NAME = "resolution";
+
+   /**
+    * <p>
+    * Returns the resolution named by the given value, ignoring case. If the
+    * value is null, empty or not a known resolution then {@link #EXACT} is
+    * returned.
+    * </p>
+    *
+    * @param value The name of the resolution.
+    * @return The resolution named by the value or EXACT.
+    */
+   public static Resolution parse(String value) {
+
+      if (value != null) {
+         for (Resolution resolution : values()) {
+            if (resolution.name().equalsIgnoreCase(value.trim())) {
+               return resolution;
+            }
+         }
+      }
+      return EXACT;
+   }
+
+   /**
+    * <p>
+    * Returns the configured types that apply to an exception class under
+    * this resolution. The type hierarchy is walked breadth first, one
+    * superclass or interface step at a time; a nearest resolution stops at
+    * the first distance that has a configured type and a union resolution
+    * walks the entire hierarchy.
+    * </p>
+    *
+    * @param exceptionClass The class of the exception.
+    * @param configured The fully qualified class names of the configured
+    *       types.
+    * @return The names of the applicable configured types, nearest first,
+    *       or an empty list if none applies.
+    */
+   List<String> resolve(Class<?> exceptionClass, Set<String> configured) {
+
+      if (this == EXACT) {
+         String name = exceptionClass.getName();
+         return configured.contains(name) ? Collections.singletonList(name) : Collections.<String> emptyList();
+      }
+
+      List<String> found = new ArrayList<String>();
+      Set<Class<?>> visited = new HashSet<Class<?>>();
+      List<Class<?>> level = new ArrayList<Class<?>>();
+      level.add(exceptionClass);
+
+      while (!level.isEmpty()) {
+
+         List<Class<?>> nextLevel = new ArrayList<Class<?>>();
+         for (Class<?> type : level) {
+            if (!visited.add(type)) {
+               continue;
+            }
+            if (configured.contains(type.getName())) {
+               found.add(type.getName());
+            }
+            if (type.getSuperclass() != null) {
+               nextLevel.add(type.getSuperclass());
+            }
+            for (Class<?> implemented : type.getInterfaces()) {
+               nextLevel.add(implemented);
+            }
+         }
+
+         if (this == NEAREST && !found.isEmpty()) {
+            break;
+         }
+         level = nextLevel;
+      }
+      return found;
+   }
+}
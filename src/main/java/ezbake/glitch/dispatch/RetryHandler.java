@@ -0,0 +1,408 @@
+package ezbake.glitch.dispatch;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.BatchingCoreExceptionHandler;
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.codec.DecodedException;
+
+/**
+ * <p>
+ * Executes a handler again when it fails, according to a
+ * {@link RetryPolicy}. The first execution runs on the dispatching thread.
+ * Each retry waits out the policy's backoff on a shared scheduler, so no
+ * thread sleeps while it waits, and is then executed on the handler's
+ * {@link Bulkhead}, or on a thread of the handler's own if it has none, so
+ * that a hung handler only delays its own retries. A retry that finds the
+ * bulkhead's queue full waits for another backoff. A failure that is not
+ * retryable is rethrown to be logged.
+ * </p>
+ * <p>
+ * An exception whose retries are exhausted is passed to the dead-letter
+ * handler, if there is one, and otherwise logged and dropped. So is an
+ * exception that fails while the maximum number of retries are already
+ * waiting, which keeps a handler that is down from piling up retries, an
+ * exception skipped by an open {@link CircuitBreakerHandler#retried circuit
+ * breaker}, a retry dropped by the bulkhead, and every exception still
+ * waiting for a retry when the handler is shut down. Every exception given
+ * up on is then passed to the given-up handler, if there is one.
+ * </p>
+ * <p>
+ * A handler that receives batches is wrapped by {@link Batching}, which
+ * retries a failed batch as a whole and gives up on all of its exceptions
+ * together.
+ * </p>
+ */
+public class RetryHandler implements CoreExceptionHandler {
+
+   private Logger logger = LoggerFactory.getLogger(RetryHandler.class);
+
+   private final String name;
+   private final CoreExceptionHandler delegate;
+   private final RetryPolicy policy;
+   private final ScheduledExecutorService scheduler;
+   private final Bulkhead bulkhead;
+   private final boolean ownBulkhead;
+   private final CoreExceptionHandler deadLetter;
+   private final CoreExceptionHandler givenUp;
+   private final int maxPending;
+   private final Set<Retry> pending = Collections.newSetFromMap(new ConcurrentHashMap<Retry, Boolean>());
+   private final AtomicLong retried = new AtomicLong();
+   private final AtomicLong deadLettered = new AtomicLong();
+
+   /**
+    * <p>
+    * Creates the wrapper of a handler without a bulkhead.
+    * </p>
+    *
+    * @param name The name of the handler, used for logging.
+    * @param delegate The handler that is retried.
+    * @param policy The retry policy.
+    * @param scheduler The scheduler on which the retries wait.
+    * @param deadLetter The handler that receives the exceptions that are not
+    *       handled after all retries or null to drop them.
+    * @param maxPending The maximum number of exceptions waiting for a retry.
+    */
+   public RetryHandler(String name, CoreExceptionHandler delegate, RetryPolicy policy, ScheduledExecutorService scheduler, CoreExceptionHandler deadLetter, int maxPending) {
+
+      this(name, delegate, policy, scheduler, null, deadLetter, maxPending);
+   }
+
+   /**
+    * <p>
+    * Creates the wrapper.
+    * </p>
+    *
+    * @param name The name of the handler, used for logging.
+    * @param delegate The handler that is retried.
+    * @param policy The retry policy.
+    * @param scheduler The scheduler on which the retries wait.
+    * @param bulkhead The bulkhead on which the retries are executed or null
+    *       to execute them on a thread of the handler's own.
+    * @param deadLetter The handler that receives the exceptions that are not
+    *       handled after all retries or null to drop them.
+    * @param maxPending The maximum number of exceptions waiting for a retry.
+    */
+   public RetryHandler(String name, CoreExceptionHandler delegate, RetryPolicy policy, ScheduledExecutorService scheduler, Bulkhead bulkhead, CoreExceptionHandler deadLetter, int maxPending) {
+
+      this(name, delegate, policy, scheduler, bulkhead, deadLetter, null, maxPending);
+   }
+
+   /**
+    * <p>
+    * Creates the wrapper.
+    * </p>
+    *
+    * @param name The name of the handler, used for logging.
+    * @param delegate The handler that is retried.
+    * @param policy The retry policy.
+    * @param scheduler The scheduler on which the retries wait.
+    * @param bulkhead The bulkhead on which the retries are executed or null
+    *       to execute them on a thread of the handler's own.
+    * @param deadLetter The handler that receives the exceptions that are not
+    *       handled after all retries or null to drop them.
+    * @param givenUp The handler that receives every exception given up on,
+    *       after the dead-letter handler, or null.
+    * @param maxPending The maximum number of exceptions waiting for a retry.
+    */
+   public RetryHandler(String name, CoreExceptionHandler delegate, RetryPolicy policy, ScheduledExecutorService scheduler, Bulkhead bulkhead,
+         CoreExceptionHandler deadLetter, CoreExceptionHandler givenUp, int maxPending) {
+
+      this.name = name;
+      this.delegate = delegate;
+      this.policy = policy;
+      this.scheduler = scheduler;
+      this.deadLetter = deadLetter;
+      this.givenUp = givenUp;
+      this.maxPending = Math.max(1, maxPending);
+      this.ownBulkhead = bulkhead == null;
+      this.bulkhead = bulkhead != null ? bulkhead : new Bulkhead(name.substring(name.lastIndexOf('.') + 1) + "-retry", 1, this.maxPending, OverflowPolicy.DROP_NEWEST);
+   }
+
+   public void handle(CoreException e) {
+
+      attempt(Collections.singletonList(e));
+   }
+
+   /**
+    * <p>
+    * Returns the number of retries executed.
+    * </p>
+    *
+    * @return The number of retries.
+    */
+   public long getRetryCount() {
+
+      return retried.get();
+   }
+
+   /**
+    * <p>
+    * Returns the number of exceptions given up on.
+    * </p>
+    *
+    * @return The number of exceptions passed to the dead-letter handler or
+    *       dropped.
+    */
+   public long getDeadLetterCount() {
+
+      return deadLettered.get();
+   }
+
+   /**
+    * <p>
+    * Returns the name of the handler.
+    * </p>
+    *
+    * @return The name.
+    */
+   public String getName() {
+
+      return name;
+   }
+
+   /**
+    * <p>
+    * Returns the number of exceptions waiting for a retry.
+    * </p>
+    *
+    * @return The number of pending retries.
+    */
+   public int getPendingCount() {
+
+      return pending.size();
+   }
+
+   /**
+    * <p>
+    * Gives up on the exceptions still waiting for a retry without waiting
+    * for the retries already running. Called once the scheduler has been
+    * shut down.
+    * </p>
+    */
+   public void shutdown() {
+
+      try {
+         shutdown(0, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * <p>
+    * Gives up on the exceptions still waiting for a retry and waits for the
+    * retries already running on the handler's own thread, so that every
+    * exception is handled or given up on when this returns in time. Called
+    * once the scheduler has been shut down.
+    * </p>
+    *
+    * @param timeout The maximum time to wait for the running retries.
+    * @param unit The unit of the timeout.
+    * @return true if the running retries finished and false if the timeout
+    *       elapsed first.
+    * @throws InterruptedException if interrupted while waiting.
+    */
+   public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+
+      for (Retry retry : pending) {
+         if (pending.remove(retry)) {
+            giveUp(retry.exceptions, "was still waiting for a retry at shutdown", null);
+         }
+      }
+      return !ownBulkhead || bulkhead.shutdown(timeout, unit);
+   }
+
+   /**
+    * <p>
+    * Executes the first call of the handler for the given exceptions and
+    * schedules a retry if it fails.
+    * </p>
+    */
+   void attempt(List<CoreException> exceptions) {
+
+      try {
+         call(exceptions);
+      } catch (CircuitOpenException open) {
+         skip(exceptions);
+      } catch (RuntimeException failure) {
+         if (!policy.isRetryable(failure)) {
+            throw failure;
+         }
+         retryOrGiveUp(exceptions, 1, failure);
+      }
+   }
+
+   /**
+    * <p>
+    * Executes one call of the handler for the given exceptions.
+    * </p>
+    */
+   void call(List<CoreException> exceptions) {
+
+      delegate.handle(exceptions.get(0));
+   }
+
+   private void retryOrGiveUp(List<CoreException> exceptions, int attempts, RuntimeException failure) {
+
+      if (attempts >= policy.getMaxAttempts() || pending.size() >= maxPending) {
+         giveUp(exceptions, "failed " + attempts + " times", failure);
+         return;
+      }
+
+      Retry retry = new Retry(exceptions, attempts + 1, failure);
+      pending.add(retry);
+      schedule(retry);
+   }
+
+   private void schedule(Retry retry) {
+
+      try {
+         scheduler.schedule(retry.waited, policy.getDelayMillis(retry.attempt - 1), TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException rejected) {
+         if (pending.remove(retry)) {
+            giveUp(retry.exceptions, "failed " + (retry.attempt - 1) + " times", retry.lastFailure);
+         }
+      }
+   }
+
+   /**
+    * <p>
+    * Passes exceptions that the open breaker skipped to the dead-letter
+    * handler. The breaker logs when it opens, so the exceptions are not
+    * logged one by one.
+    * </p>
+    */
+   private void skip(List<CoreException> exceptions) {
+
+      deadLettered.addAndGet(exceptions.size());
+      for (CoreException e : exceptions) {
+         if (deadLetter != null) {
+            passToDeadLetter(e);
+         }
+         release(e);
+      }
+   }
+
+   private void giveUp(List<CoreException> exceptions, String reason, RuntimeException failure) {
+
+      for (CoreException e : exceptions) {
+         deadLettered.incrementAndGet();
+         if (deadLetter == null) {
+            logger.error("Handler '" + name + "' " + reason + " for exception type '" + DecodedException.getMappedClassName(e) + "'; the exception is dropped.", failure);
+         } else {
+            logger.warn("Handler '" + name + "' " + reason + " for exception type '" + DecodedException.getMappedClassName(e) + "'; the exception is passed to the dead-letter handler.", failure);
+            passToDeadLetter(e);
+         }
+         release(e);
+      }
+   }
+
+   private void release(CoreException e) {
+
+      if (givenUp != null) {
+         givenUp.handle(e);
+      }
+   }
+
+   private void passToDeadLetter(CoreException e) {
+
+      try {
+         deadLetter.handle(e);
+      } catch (Exception deadLetterException) {
+         logger.error("The dead-letter handler of handler '" + name + "' encountered errors when storing exception type '" + DecodedException.getMappedClassName(e) + "'.", deadLetterException);
+      }
+   }
+
+   /**
+    * <p>
+    * Retries a handler that receives batches.
+    * </p>
+    */
+   static final class Batching extends RetryHandler implements BatchingCoreExceptionHandler {
+
+      private final BatchingCoreExceptionHandler delegate;
+
+      Batching(String name, BatchingCoreExceptionHandler delegate, RetryPolicy policy, ScheduledExecutorService scheduler, Bulkhead bulkhead,
+            CoreExceptionHandler deadLetter, CoreExceptionHandler givenUp, int maxPending) {
+
+         super(name, delegate, policy, scheduler, bulkhead, deadLetter, givenUp, maxPending);
+         this.delegate = delegate;
+      }
+
+      public void handleBatch(List<CoreException> exceptions) {
+
+         attempt(exceptions);
+      }
+
+      @Override
+      void call(List<CoreException> exceptions) {
+
+         delegate.handleBatch(exceptions);
+      }
+   }
+
+   /**
+    * <p>
+    * A retry of one exception or batch. Once its backoff has passed on the
+    * scheduler it is queued in the bulkhead, which executes it.
+    * </p>
+    */
+   private final class Retry implements Bulkhead.Work {
+
+      private final List<CoreException> exceptions;
+      private final int attempt;
+      private final RuntimeException lastFailure;
+      private final Runnable waited = new Runnable() {
+         public void run() {
+            if (pending.contains(Retry.this) && !bulkhead.executeIfRoom(Retry.this)) {
+               schedule(Retry.this);
+            }
+         }
+      };
+
+      Retry(List<CoreException> exceptions, int attempt, RuntimeException failure) {
+
+         this.exceptions = exceptions;
+         this.attempt = attempt;
+         this.lastFailure = failure;
+      }
+
+      public void run() {
+
+         if (!pending.remove(this)) {
+            return;
+         }
+         retried.incrementAndGet();
+         try {
+            call(exceptions);
+         } catch (CircuitOpenException open) {
+            skip(exceptions);
+         } catch (RuntimeException failure) {
+            if (policy.isRetryable(failure)) {
+               retryOrGiveUp(exceptions, attempt, failure);
+            } else {
+               giveUp(exceptions, "failed " + attempt + " times", failure);
+            }
+         }
+      }
+
+      public void dropped() {
+
+         if (pending.remove(this)) {
+            giveUp(exceptions, "could not queue a retry in bulkhead '" + bulkhead.getName() + "'", lastFailure);
+         }
+      }
+   }
+}
@@ -0,0 +1,137 @@
+package ezbake.glitch.dispatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.config.Values;
+
+/**
+ * <p>
+ * How often and how far apart the execution of a failed handler is
+ * retried. The delay before retry <i>n</i>, counting from one, is the
+ * initial backoff times the multiplier to the power <i>n - 1</i>, capped at
+ * the maximum backoff. The jitter then takes a random share of up to that
+ * ratio off the delay, so that the retries of many exceptions that failed
+ * together spread out instead of arriving together again.
+ * </p>
+ * <p>
+ * Only failures of the retryable types are retried; by default every
+ * {@link Exception} is. Retryable types are named by fully qualified class
+ * name and include their subclasses.
+ * </p>
+ */
+public final class RetryPolicy {
+
+   private static Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
+
+   private final int maxAttempts;
+   private final long backoffMillis;
+   private final long maxBackoffMillis;
+   private final double multiplier;
+   private final double jitter;
+   private final List<Class<?>> retryable;
+   private final Random random = new Random();
+
+   /**
+    * <p>
+    * Creates the policy.
+    * </p>
+    *
+    * @param maxAttempts The maximum number of executions, including the
+    *       first.
+    * @param backoffMillis The delay before the first retry in milliseconds.
+    * @param maxBackoffMillis The maximum delay in milliseconds.
+    * @param multiplier The factor by which the delay grows per retry.
+    * @param jitter The largest share, between 0 and 1, taken off a delay at
+    *       random.
+    * @param retryable The failure types that are retried or an empty list
+    *       to retry every {@link Exception}.
+    */
+   public RetryPolicy(int maxAttempts, long backoffMillis, long maxBackoffMillis, double multiplier, double jitter, List<Class<?>> retryable) {
+
+      this.maxAttempts = Math.max(1, maxAttempts);
+      this.backoffMillis = Math.max(1, backoffMillis);
+      this.maxBackoffMillis = Math.max(this.backoffMillis, maxBackoffMillis);
+      this.multiplier = Math.max(1, multiplier);
+      this.jitter = Math.min(1, Math.max(0, jitter));
+      this.retryable = retryable.isEmpty() ? Collections.<Class<?>> singletonList(Exception.class) : new ArrayList<Class<?>>(retryable);
+   }
+
+   /**
+    * <p>
+    * Resolves a comma-separated list of failure class names. Names that
+    * cannot be loaded are logged and ignored.
+    * </p>
+    *
+    * @param classNames The fully qualified class names or nothing.
+    * @return The failure types; empty if none were given or loaded.
+    */
+   public static List<Class<?>> parseTypes(String classNames) {
+
+      List<Class<?>> types = new ArrayList<Class<?>>();
+      if (Values.isNothing(classNames)) {
+         return types;
+      }
+      for (String className : classNames.split(",")) {
+         if (className.trim().isEmpty()) {
+            continue;
+         }
+         try {
+            types.add(Class.forName(className.trim(), false, RetryPolicy.class.getClassLoader()));
+         } catch (ClassNotFoundException e) {
+            logger.warn("The retryable type '" + className.trim() + "' was not found and is ignored.");
+         }
+      }
+      return types;
+   }
+
+   /**
+    * <p>
+    * Returns the maximum number of executions, including the first.
+    * </p>
+    *
+    * @return The maximum number of attempts.
+    */
+   public int getMaxAttempts() {
+
+      return maxAttempts;
+   }
+
+   /**
+    * <p>
+    * Answers true if a failure is of a retryable type.
+    * </p>
+    *
+    * @param failure The failure of the handler.
+    * @return true if the failure may be retried.
+    */
+   public boolean isRetryable(Throwable failure) {
+
+      for (Class<?> type : retryable) {
+         if (type.isInstance(failure)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * <p>
+    * Returns the delay before a retry.
+    * </p>
+    *
+    * @param retry The number of the retry, starting with one.
+    * @return The delay in milliseconds.
+    */
+   public long getDelayMillis(int retry) {
+
+      double delay = backoffMillis * Math.pow(multiplier, Math.max(0, retry - 1));
+      delay = Math.min(delay, maxBackoffMillis);
+      return Math.max(1, (long) (delay * (1 - jitter * random.nextDouble())));
+   }
+}
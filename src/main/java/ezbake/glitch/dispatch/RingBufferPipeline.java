@@ -0,0 +1,384 @@
+package ezbake.glitch.dispatch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.CoreException;
+
+/**
+ * <p>
+ * An asynchronous pipeline built on a preallocated ring of slots in the
+ * style of a disruptor. It is cheaper to publish to than the
+ * {@link QueuePipeline} because publishing takes no lock: a publisher claims
+ * the next sequence with a single compare-and-set, writes the exception into
+ * the sequence's slot and marks the slot as published.
+ * </p>
+ * <p>
+ * Each consumer thread drains every contiguous run of published sequences as
+ * one batch and dispatches the sequences it owns; sequences are shared out
+ * among the consumers round robin. A slot is reused once every consumer has
+ * moved past it. Neither publishing nor consuming allocates.
+ * </p>
+ * <p>
+ * When the ring is full the {@link OverflowPolicy} decides whether the
+ * publisher waits, the exception is dropped or the publisher executes the
+ * handlers itself. Dropping the oldest exception is not possible without
+ * locking the ring, so that policy waits like {@link OverflowPolicy#BLOCK}.
+ * A dropped exception is reported to the dispatcher if it is a
+ * {@link DropAwareDispatcher}.
+ * </p>
+ * <p>
+ * A publisher that finds the pipeline shut down, including one waiting for
+ * room, executes the handlers itself. A publisher checks again after
+ * publishing: if the pipeline was shut down meanwhile, it waits for the
+ * consumers to stop and then competes with the shutdown for its slot, so
+ * that the exception is dispatched exactly once without publishers being
+ * counted on every publish.
+ * </p>
+ */
+public final class RingBufferPipeline implements DispatchPipeline {
+
+   private static final long TAKEN = -2;
+   private static final int PADDING = 16;
+   private static final int SPIN_TRIES = 100;
+   private static final int YIELD_TRIES = 200;
+   private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+   private Logger logger = LoggerFactory.getLogger(RingBufferPipeline.class);
+
+   private final Dispatcher dispatcher;
+   private final OverflowPolicy overflowPolicy;
+   private final CoreException[] slots;
+   private final AtomicLongArray published;
+   private final int mask;
+   private final AtomicLong cursor = new AtomicLong(-1);
+   private final AtomicLongArray consumerSequences;
+   private final Thread[] consumers;
+   private final AtomicLong dropped = new AtomicLong();
+   private volatile long gatingSequence = -1;
+   private volatile boolean shutdown;
+   private volatile boolean consumersStopped;
+   private volatile boolean consumersDone;
+
+   /**
+    * <p>
+    * Creates the pipeline and starts its consumer threads.
+    * </p>
+    *
+    * @param dispatcher The dispatcher that executes the handlers.
+    * @param capacity The number of slots; rounded up to a power of two.
+    * @param consumerCount The number of consumer threads.
+    * @param overflowPolicy What to do when the ring is full.
+    */
+   public RingBufferPipeline(Dispatcher dispatcher, int capacity, int consumerCount, OverflowPolicy overflowPolicy) {
+
+      int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+      this.dispatcher = dispatcher;
+      this.overflowPolicy = overflowPolicy;
+      this.slots = new CoreException[size];
+      this.published = new AtomicLongArray(size);
+      this.mask = size - 1;
+      this.consumers = new Thread[Math.max(1, consumerCount)];
+      this.consumerSequences = new AtomicLongArray(consumers.length * PADDING);
+
+      for (int i = 0; i < size; i++) {
+         published.set(i, -1);
+      }
+      for (int i = 0; i < consumers.length; i++) {
+         consumerSequences.set(i * PADDING, -1);
+         consumers[i] = new Thread(new Consumer(i), "glitch-ring-" + i);
+         consumers[i].setDaemon(true);
+         consumers[i].start();
+      }
+   }
+
+   public void publish(CoreException exception) {
+
+      long sequence = shutdown ? -1 : claim(exception);
+      if (sequence == -1) {
+         dispatcher.dispatch(exception);
+      } else if (sequence >= 0 && shutdown) {
+         reclaim(exception, sequence);
+      }
+   }
+
+   /**
+    * <p>
+    * Takes back a slot published while the pipeline was shutting down once
+    * the consumers have stopped, unless the shutdown collected it first. If
+    * the consumers did not stop, they are left to handle it.
+    * </p>
+    */
+   private void reclaim(CoreException exception, long sequence) {
+
+      while (!consumersDone) {
+         LockSupport.parkNanos(PARK_NANOS);
+      }
+      int index = (int) sequence & mask;
+      if (consumersStopped && take(sequence) && slots[index] == exception) {
+         slots[index] = null;
+         dispatcher.dispatch(exception);
+      }
+   }
+
+   private boolean take(long sequence) {
+
+      return published.compareAndSet((int) sequence & mask, sequence, TAKEN);
+   }
+
+   /**
+    * <p>
+    * Claims the next sequence and publishes the exception in its slot,
+    * applying the overflow policy while the ring is full.
+    * </p>
+    *
+    * @return The sequence the exception was published at, -2 if it was
+    *       dropped, or -1 if the caller must execute the handlers itself.
+    */
+   private long claim(CoreException exception) {
+
+      long sequence;
+      while (true) {
+         long current = cursor.get();
+         long next = current + 1;
+         long wrapPoint = next - slots.length;
+
+         if (wrapPoint > gatingSequence) {
+            long minimum = getMinimumSequence();
+            gatingSequence = minimum;
+            if (wrapPoint > minimum) {
+               if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                  drop(exception);
+                  return -2;
+               } else if (overflowPolicy == OverflowPolicy.CALLER_RUNS || shutdown) {
+                  return -1;
+               }
+               LockSupport.parkNanos(1);
+               continue;
+            }
+         }
+
+         if (cursor.compareAndSet(current, next)) {
+            sequence = next;
+            break;
+         }
+      }
+
+      int index = (int) sequence & mask;
+      slots[index] = exception;
+      // a full store, so that the publisher's second look at the shutdown
+      // flag cannot be ordered before it.
+      published.set(index, sequence);
+      return sequence;
+   }
+
+   public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+
+      long target = cursor.get();
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      while (getMinimumSequence() < target) {
+         if (System.nanoTime() - deadline >= 0) {
+            return false;
+         }
+         if (Thread.interrupted()) {
+            throw new InterruptedException();
+         }
+         LockSupport.parkNanos(PARK_NANOS);
+      }
+      return true;
+   }
+
+   public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+
+      boolean drained = drain(timeout, unit);
+      shutdown = true;
+
+      for (Thread consumer : consumers) {
+         consumer.join(TimeUnit.SECONDS.toMillis(1));
+      }
+      boolean stopped = true;
+      for (Thread consumer : consumers) {
+         if (consumer.isAlive()) {
+            stopped = false;
+            consumer.interrupt();
+         }
+      }
+      consumersStopped = stopped;
+      consumersDone = true;
+      if (stopped) {
+         dispatchStragglers();
+      }
+      if (!drained) {
+         logger.warn("The ring buffer consumers did not finish within " + unit.toMillis(timeout) + "ms; " + getPendingCount() + " exceptions were not handled.");
+      }
+      return drained;
+   }
+
+   public boolean isAsynchronous() {
+
+      return true;
+   }
+
+   /**
+    * <p>
+    * Returns the number of slots in the ring.
+    * </p>
+    *
+    * @return The capacity of the ring.
+    */
+   public int getCapacity() {
+
+      return slots.length;
+   }
+
+   /**
+    * <p>
+    * Returns the number of published exceptions that are not yet handled.
+    * </p>
+    *
+    * @return The number of pending exceptions.
+    */
+   public long getPendingCount() {
+
+      return cursor.get() - getMinimumSequence();
+   }
+
+   /**
+    * <p>
+    * Returns the number of exceptions that were discarded because the ring
+    * was full.
+    * </p>
+    *
+    * @return The number of dropped exceptions.
+    */
+   public long getDroppedCount() {
+
+      return dropped.get();
+   }
+
+   /**
+    * <p>
+    * Dispatches, on the calling thread, exceptions that were published while
+    * the consumers were stopping; a slot a consumer already dispatched is
+    * empty. A slot that is not published yet belongs to a publisher that
+    * will find the pipeline shut down and take it back itself; a slot both
+    * see is dispatched by whichever takes it first.
+    * </p>
+    */
+   private void dispatchStragglers() {
+
+      for (long sequence = getMinimumSequence() + 1; sequence <= cursor.get(); sequence++) {
+         int index = (int) sequence & mask;
+         if (take(sequence)) {
+            CoreException exception = slots[index];
+            if (exception != null) {
+               slots[index] = null;
+               dispatcher.dispatch(exception);
+            }
+         }
+      }
+   }
+
+   /**
+    * <p>
+    * Counts a dropped exception and tells the dispatcher about it if it
+    * wants to know.
+    * </p>
+    */
+   private void drop(CoreException exception) {
+
+      dropped.incrementAndGet();
+      if (dispatcher instanceof DropAwareDispatcher) {
+         try {
+            ((DropAwareDispatcher) dispatcher).dropped(exception);
+         } catch (Throwable t) {
+            logger.error("Accounting for the dropped exception type '" + exception.getClass().getName() + "' failed.", t);
+         }
+      }
+   }
+
+   private long getMinimumSequence() {
+
+      long minimum = Long.MAX_VALUE;
+      for (int i = 0; i < consumers.length; i++) {
+         minimum = Math.min(minimum, consumerSequences.get(i * PADDING));
+      }
+      return minimum;
+   }
+
+   /**
+    * <p>
+    * Drains batches of published sequences and dispatches the sequences it
+    * owns. Waits by spinning, then yielding, then parking briefly so that an
+    * idle consumer does not occupy a core.
+    * </p>
+    */
+   private class Consumer implements Runnable {
+
+      private final int id;
+
+      Consumer(int id) {
+
+         this.id = id;
+      }
+
+      public void run() {
+
+         long next = 0;
+         int idle = 0;
+
+         while (true) {
+
+            long available = next;
+            while (published.get((int) available & mask) == available) {
+               available++;
+            }
+
+            if (available > next) {
+               for (long sequence = next; sequence < available; sequence++) {
+                  if (sequence % consumers.length == id) {
+                     int index = (int) sequence & mask;
+                     CoreException exception = slots[index];
+                     slots[index] = null;
+                     dispatch(exception);
+                  }
+               }
+               consumerSequences.lazySet(id * PADDING, available - 1);
+               next = available;
+               idle = 0;
+            } else if (shutdown) {
+               return;
+            } else {
+               idle = backOff(idle);
+            }
+         }
+      }
+
+      private void dispatch(CoreException exception) {
+
+         try {
+            dispatcher.dispatch(exception);
+         } catch (Throwable t) {
+            logger.error("Dispatching exception type '" + exception.getClass().getName() + "' failed.", t);
+         }
+      }
+
+      private int backOff(int idle) {
+
+         if (idle < SPIN_TRIES) {
+            return idle + 1;
+         } else if (idle < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+            return idle + 1;
+         }
+         LockSupport.parkNanos(PARK_NANOS);
+         return idle;
+      }
+   }
+}
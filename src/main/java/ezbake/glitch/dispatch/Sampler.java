@@ -0,0 +1,140 @@
+package ezbake.glitch.dispatch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Decides which occurrences of a high-volume exception are handled. Time is
+ * divided into windows; in each window the first occurrences are always
+ * handled and the remaining ones are handled with the sampling probability.
+ * </p>
+ * <p>
+ * If a target rate is set, the probability adapts at the end of every
+ * window: while the observed rate exceeds the target, the probability is
+ * lowered so that roughly the target rate is handled, and it returns to the
+ * configured probability once the rate drops.
+ * </p>
+ * <p>
+ * A decision takes no lock and allocates nothing. The random numbers are
+ * derived from an atomic sequence with the SplitMix64 function, which gives
+ * every caller an independent, well mixed value without a shared
+ * {@link java.util.Random}.
+ * </p>
+ */
+public final class Sampler {
+
+   private static final double UNIT = 1.0 / (1L << 53);
+
+   private final double rate;
+   private final int first;
+   private final double targetPerSecond;
+   private final long windowNanos;
+   private final long seed;
+
+   private final AtomicLong sequence = new AtomicLong();
+   private final AtomicLong windowStart;
+   private final AtomicLong windowCount = new AtomicLong();
+   private final AtomicLong dropped = new AtomicLong();
+   private volatile double probability;
+
+   /**
+    * <p>
+    * Creates the sampler.
+    * </p>
+    *
+    * @param rate The probability with which an occurrence beyond the first
+    *       ones of a window is handled.
+    * @param first The number of occurrences per window that are always
+    *       handled.
+    * @param targetPerSecond The rate above which the probability adapts or
+    *       zero to keep the probability fixed.
+    * @param windowMillis The length of a window.
+    */
+   public Sampler(double rate, int first, double targetPerSecond, long windowMillis) {
+
+      this.rate = Math.min(1, Math.max(0, rate));
+      this.first = Math.max(0, first);
+      this.targetPerSecond = targetPerSecond;
+      this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMillis));
+      this.seed = System.nanoTime();
+      this.windowStart = new AtomicLong(System.nanoTime());
+      this.probability = this.rate;
+   }
+
+   /**
+    * <p>
+    * Decides whether an occurrence is handled.
+    * </p>
+    *
+    * @return The number of occurrences the handled occurrence stands for, or
+    *       zero if it is not handled.
+    */
+   public double sample() {
+
+      long now = System.nanoTime();
+      long start = windowStart.get();
+      if (now - start >= windowNanos && windowStart.compareAndSet(start, now)) {
+         adapt(windowCount.getAndSet(0), now - start);
+      }
+
+      if (windowCount.incrementAndGet() <= first) {
+         return 1;
+      }
+
+      double p = probability;
+      if (p >= 1) {
+         return 1;
+      }
+      if (p > 0 && uniform(sequence.incrementAndGet()) < p) {
+         return 1 / p;
+      }
+      dropped.incrementAndGet();
+      return 0;
+   }
+
+   /**
+    * <p>
+    * Returns the current sampling probability, which is the configured rate
+    * unless it has been adapted to the observed rate.
+    * </p>
+    *
+    * @return The sampling probability.
+    */
+   public double getProbability() {
+
+      return probability;
+   }
+
+   /**
+    * <p>
+    * Returns the number of occurrences that were not handled.
+    * </p>
+    *
+    * @return The number of dropped occurrences.
+    */
+   public long getDroppedCount() {
+
+      return dropped.get();
+   }
+
+   private void adapt(long count, long elapsedNanos) {
+
+      if (targetPerSecond <= 0) {
+         return;
+      }
+      double observedPerSecond = count * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+      probability = observedPerSecond > targetPerSecond ?
+            Math.min(rate, targetPerSecond / observedPerSecond) :
+            rate;
+   }
+
+   private double uniform(long value) {
+
+      long z = (value + seed) * 0x9E3779B97F4A7C15L;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      z = z ^ (z >>> 31);
+      return (z >>> 11) * UNIT;
+   }
+}
@@ -0,0 +1,202 @@
+package ezbake.glitch.dispatch;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ezbake.glitch.BatchingCoreExceptionHandler;
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.metrics.HandlerMetrics;
+
+/**
+ * <p>
+ * Bounds how long the dispatching thread waits for a handler. The handler is
+ * executed on one of a few threads reserved for it while the dispatching
+ * thread waits up to the timeout. If the handler overruns, its thread is
+ * interrupted and abandoned, the overrun is counted, in the handler's
+ * {@link HandlerMetrics} too if it has them, and a
+ * {@link HandlerTimeoutException} is thrown, so the remaining handlers of
+ * the exception still run. A dispatching thread that is interrupted while it
+ * waits cancels the call and throws a {@link HandlerTimeoutException} as
+ * well, so the call is never taken for a success.
+ * </p>
+ * <p>
+ * A handler that ignores interruption keeps its thread until it returns.
+ * Once every reserved thread is held by such a handler, further calls are
+ * counted as overruns at once rather than starting more threads.
+ * </p>
+ * <p>
+ * A handler that receives batches is wrapped by {@link Batching}, which
+ * bounds each batch as one call.
+ * </p>
+ */
+public class TimeoutHandler implements CoreExceptionHandler {
+
+   private final String name;
+   private final CoreExceptionHandler delegate;
+   private final long timeoutMillis;
+   private final ThreadPoolExecutor executor;
+   private final HandlerMetrics handlerMetrics;
+   private final AtomicLong overruns = new AtomicLong();
+
+   /**
+    * <p>
+    * Creates the wrapper.
+    * </p>
+    *
+    * @param name The name of the handler, used for its threads and
+    *       messages.
+    * @param delegate The handler that is executed with a timeout.
+    * @param timeoutMillis The timeout in milliseconds.
+    * @param threads The maximum number of threads reserved for the handler.
+    */
+   public TimeoutHandler(String name, CoreExceptionHandler delegate, long timeoutMillis, int threads) {
+
+      this(name, delegate, timeoutMillis, threads, null);
+   }
+
+   /**
+    * <p>
+    * Creates the wrapper, counting the overruns in the handler's metrics.
+    * </p>
+    *
+    * @param name The name of the handler, used for its threads and
+    *       messages.
+    * @param delegate The handler that is executed with a timeout.
+    * @param timeoutMillis The timeout in milliseconds.
+    * @param threads The maximum number of threads reserved for the handler.
+    * @param handlerMetrics The metrics of the handler or null if there are
+    *       none.
+    */
+   public TimeoutHandler(final String name, CoreExceptionHandler delegate, long timeoutMillis, int threads, HandlerMetrics handlerMetrics) {
+
+      this.name = name;
+      this.handlerMetrics = handlerMetrics;
+      this.delegate = delegate;
+      this.timeoutMillis = timeoutMillis;
+      this.executor = new ThreadPoolExecutor(
+            0,
+            Math.max(1, threads),
+            60L, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(),
+            new ThreadFactory() {
+               private final AtomicInteger count = new AtomicInteger();
+               public Thread newThread(Runnable runnable) {
+                  Thread thread = new Thread(runnable, "glitch-timeout-" + name.substring(name.lastIndexOf('.') + 1) + "-" + count.getAndIncrement());
+                  thread.setDaemon(true);
+                  return thread;
+               }
+            });
+   }
+
+   public void handle(final CoreException e) {
+
+      execute(new Runnable() {
+         public void run() {
+            delegate.handle(e);
+         }
+      });
+   }
+
+   /**
+    * <p>
+    * Executes a call of the handler on one of its threads and waits for it
+    * up to the timeout.
+    * </p>
+    */
+   void execute(Runnable call) {
+
+      Future<?> future;
+      try {
+         future = executor.submit(call);
+      } catch (RejectedExecutionException rejected) {
+         overrun();
+         throw new HandlerTimeoutException("Handler '" + name + "' was not executed; all of its threads are still held by calls that overran their " + timeoutMillis + "ms timeout.");
+      }
+
+      try {
+         future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException timeout) {
+         future.cancel(true);
+         overrun();
+         throw new HandlerTimeoutException("Handler '" + name + "' did not finish within its " + timeoutMillis + "ms timeout and was interrupted.");
+      } catch (InterruptedException interrupted) {
+         future.cancel(true);
+         Thread.currentThread().interrupt();
+         throw new HandlerTimeoutException("Handler '" + name + "' was cancelled because the dispatching thread was interrupted while waiting for it.");
+      } catch (ExecutionException failure) {
+         Throwable cause = failure.getCause();
+         if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+         } else if (cause instanceof Error) {
+            throw (Error) cause;
+         }
+         throw new IllegalStateException(cause);
+      }
+   }
+
+   /**
+    * <p>
+    * Returns the number of calls that overran the timeout or could not be
+    * started.
+    * </p>
+    *
+    * @return The number of overruns.
+    */
+   public long getOverrunCount() {
+
+      return overruns.get();
+   }
+
+   private void overrun() {
+
+      overruns.incrementAndGet();
+      if (handlerMetrics != null) {
+         handlerMetrics.recordOverrun();
+      }
+   }
+
+   /**
+    * <p>
+    * Interrupts the calls still running and releases the threads.
+    * </p>
+    */
+   public void shutdown() {
+
+      executor.shutdownNow();
+   }
+
+   /**
+    * <p>
+    * Bounds how long the dispatching thread waits for a batch.
+    * </p>
+    */
+   static final class Batching extends TimeoutHandler implements BatchingCoreExceptionHandler {
+
+      private final BatchingCoreExceptionHandler delegate;
+
+      Batching(String name, BatchingCoreExceptionHandler delegate, long timeoutMillis, int threads, HandlerMetrics handlerMetrics) {
+
+         super(name, delegate, timeoutMillis, threads, handlerMetrics);
+         this.delegate = delegate;
+      }
+
+      public void handleBatch(final List<CoreException> exceptions) {
+
+         execute(new Runnable() {
+            public void run() {
+               delegate.handleBatch(exceptions);
+            }
+         });
+      }
+   }
+}
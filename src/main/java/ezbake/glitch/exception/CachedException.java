@@ -0,0 +1,86 @@
+package ezbake.glitch.exception;
+
+/**
+ * <p>
+ * A {@link StacklessException} meant to be created once and thrown or
+ * handled many times, for well-known conditions whose every occurrence is
+ * the same. For example:
+ * <br><br>
+ * <code>
+ * public static final CachedException QUEUE_FULL = <br>
+ * &nbsp;&nbsp;&nbsp;new CachedException("The request queue is full."); <br>
+ * </code>
+ * </p>
+ * <p>
+ * Because the instance is shared, it cannot be changed after it is created:
+ * its stack trace cannot be set and a cause cannot be added later.
+ * Suppressed exceptions cannot be refused on Java 6, so the ones added to the
+ * shared instance, for example by a try-with-resources statement, belong to
+ * other occurrences and are never printed; such a statement should not throw
+ * a shared instance, because it keeps every suppressed exception.
+ * </p>
+ */
+public class CachedException extends StacklessException {
+
+   private static final long serialVersionUID = 1L;
+   private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+   private transient volatile String description;
+
+   /**
+    * <p>
+    * Constructs the shared instance of a condition.
+    * </p>
+    *
+    * @param message A message that describes the condition.
+    */
+   public CachedException(String message) {
+
+      super(message);
+   }
+
+   /**
+    * <p>
+    * Ignored; a shared instance has no stack trace.
+    * </p>
+    *
+    * @param stackTrace The stack trace that is ignored.
+    */
+   @Override
+   public void setStackTrace(StackTraceElement[] stackTrace) {
+   }
+
+   /**
+    * <p>
+    * Not supported; a shared instance cannot be given a cause.
+    * </p>
+    *
+    * @param cause The cause that is rejected.
+    * @return Never returns.
+    * @throws UnsupportedOperationException always.
+    */
+   @Override
+   public synchronized Throwable initCause(Throwable cause) {
+
+      throw new UnsupportedOperationException("A cached exception is shared and cannot be given a cause.");
+   }
+
+   /**
+    * <p>
+    * Returns the description of the condition, which is all a shared
+    * instance prints; its suppressed exceptions are left out.
+    * </p>
+    *
+    * @return The rendered stack trace.
+    */
+   @Override
+   public String getStackTraceText() {
+
+      String text = description;
+      if (text == null) {
+         text = toString() + LINE_SEPARATOR;
+         description = text;
+      }
+      return text;
+   }
+}
@@ -0,0 +1,65 @@
+package ezbake.glitch.exception;
+
+import java.io.PrintStream;
+
+import ezbake.glitch.CoreException;
+
+/**
+ * <p>
+ * An exception created by the exception manager to stand for an exception
+ * that was requested for handling, for example to report that it was
+ * repeated or sampled. A derived exception is handled by the handlers of the
+ * original exception and, unless a subclass says otherwise, describes itself
+ * with the original exception's message and stack trace.
+ * </p>
+ */
+public abstract class DerivedException implements CoreException {
+
+   private final CoreException original;
+
+   /**
+    * <p>
+    * Constructs an instance of this exception.
+    * </p>
+    *
+    * @param original The exception requested for handling.
+    */
+   protected DerivedException(CoreException original) {
+
+      this.original = original;
+   }
+
+   /**
+    * <p>
+    * Returns the exception that was requested for handling.
+    * </p>
+    *
+    * @return The original exception.
+    */
+   public CoreException getOriginal() {
+
+      return original;
+   }
+
+   public String getMessage() {
+
+      return original.getMessage();
+   }
+
+   /**
+    * <p>
+    * Returns the exception instance of the original exception.
+    * </p>
+    *
+    * @return The exception instance of the original exception or null.
+    */
+   public Throwable getException() {
+
+      return original.getException();
+   }
+
+   public void printStackTrace(PrintStream out) {
+
+      original.printStackTrace(out);
+   }
+}
@@ -0,0 +1,222 @@
+package ezbake.glitch.exception;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.IllegalFormatException;
+
+import ezbake.glitch.CoreException;
+
+/**
+ * <p>
+ * A CoreException base class that defers the costly parts of an exception
+ * until a handler asks for them.
+ * </p>
+ * <p>
+ * The message is given as a {@link String#format(String, Object...)} pattern
+ * and arguments and is only formatted the first time {@link #getMessage()}
+ * is called. The arguments are kept with the exception, so they should be
+ * cheap, immutable values. A pattern that does not match its arguments is
+ * reported as it is.
+ * </p>
+ * <p>
+ * The stack trace is captured as the JVM's raw backtrace; the
+ * {@link StackTraceElement} objects are only created when the stack trace is
+ * requested, and the rendered text is created once and reused by every later
+ * {@link #printStackTrace(PrintStream)}. The text is rendered again once the
+ * stack trace is set or a cause is given, and is not reused while the
+ * exception has {@link Suppressed} exceptions, which may be added at any
+ * time.
+ * </p>
+ * <p>
+ * For exceptions that are signals rather than errors, see
+ * {@link StacklessException} and {@link CachedException}.
+ * </p>
+ */
+public class LazyException extends Exception implements CoreException {
+
+   private static final long serialVersionUID = 1L;
+
+   private transient Object[] arguments;
+   private String format;
+   private volatile String message;
+   private transient volatile String stackTraceText;
+
+   /**
+    * <p>
+    * Constructs an instance of this exception without a message.
+    * </p>
+    */
+   public LazyException() {
+
+      super();
+   }
+
+   /**
+    * <p>
+    * Constructs an instance of this exception whose message is formatted on
+    * demand.
+    * </p>
+    *
+    * @param format The message, or a format pattern if arguments are given.
+    * @param arguments The arguments of the format pattern.
+    */
+   public LazyException(String format, Object... arguments) {
+
+      super();
+      this.format = format;
+      this.arguments = arguments;
+   }
+
+   /**
+    * <p>
+    * Constructs an instance of this exception with a cause and a message
+    * that is formatted on demand.
+    * </p>
+    *
+    * @param cause The cause of this exception.
+    * @param format The message, or a format pattern if arguments are given.
+    * @param arguments The arguments of the format pattern.
+    */
+   public LazyException(Throwable cause, String format, Object... arguments) {
+
+      super(cause);
+      this.format = format;
+      this.arguments = arguments;
+   }
+
+   /**
+    * <p>
+    * Returns the message, formatting it on the first call.
+    * </p>
+    *
+    * @return The message or null if there is none.
+    */
+   @Override
+   public String getMessage() {
+
+      String result = message;
+      if (result == null && format != null) {
+         result = format;
+         if (arguments != null && arguments.length > 0) {
+            try {
+               result = String.format(format, arguments);
+            } catch (IllegalFormatException e) {
+               // the pattern does not match its arguments; report it as is.
+            }
+         }
+         message = result;
+      }
+      return result;
+   }
+
+   /**
+    * <p>
+    * Returns the message as it was given, which is the format pattern if
+    * there are arguments, without formatting it.
+    * </p>
+    *
+    * @return The message or format pattern or null if there is none.
+    */
+   public String getMessageFormat() {
+
+      return format;
+   }
+
+   /**
+    * <p>
+    * Returns the length of the message if it was formatted and otherwise
+    * that of the format pattern plus a few characters per argument, without
+    * formatting the message.
+    * </p>
+    *
+    * @return The estimated length of the message or -1 if there is none.
+    */
+   public int getEstimatedMessageLength() {
+
+      String result = message;
+      if (result != null) {
+         return result.length();
+      }
+      if (format == null) {
+         return -1;
+      }
+      return format.length() + (arguments == null ? 0 : 16 * arguments.length);
+   }
+
+   /**
+    * <p>
+    * Returns this exception.
+    * </p>
+    *
+    * @return This exception.
+    */
+   public Exception getException() {
+
+      return this;
+   }
+
+   /**
+    * <p>
+    * Writes the stack trace, rendering it on the first call.
+    * </p>
+    *
+    * @param out The output stream to which this stack trace is written.
+    */
+   @Override
+   public void printStackTrace(PrintStream out) {
+
+      out.print(getStackTraceText());
+   }
+
+   /**
+    * <p>
+    * Returns the stack trace as it is printed by
+    * {@link #printStackTrace(PrintStream)}, rendering it on the first call.
+    * </p>
+    *
+    * @return The rendered stack trace.
+    */
+   public String getStackTraceText() {
+
+      String text = stackTraceText;
+      if (text == null || Suppressed.count(this) != 0) {
+         boolean reusable = Suppressed.count(this) == 0;
+         StringWriter writer = new StringWriter();
+         super.printStackTrace(new PrintWriter(writer));
+         text = writer.toString();
+         stackTraceText = reusable ? text : null;
+      }
+      return text;
+   }
+
+   /**
+    * <p>
+    * Sets the stack trace and discards the rendered text.
+    * </p>
+    *
+    * @param stackTrace The new stack trace.
+    */
+   @Override
+   public void setStackTrace(StackTraceElement[] stackTrace) {
+
+      super.setStackTrace(stackTrace);
+      stackTraceText = null;
+   }
+
+   /**
+    * <p>
+    * Sets the cause and discards the rendered text.
+    * </p>
+    *
+    * @param cause The cause of this exception.
+    * @return This exception.
+    */
+   @Override
+   public synchronized Throwable initCause(Throwable cause) {
+
+      Throwable result = super.initCause(cause);
+      stackTraceText = null;
+      return result;
+   }
+}
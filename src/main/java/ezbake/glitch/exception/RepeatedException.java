@@ -0,0 +1,91 @@
+package ezbake.glitch.exception;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import ezbake.glitch.CoreException;
+
+/**
+ * <p>
+ * Reports that an exception was repeated while its duplicates were being
+ * suppressed. It stands for the occurrences that were not handled
+ * individually and is handled by the handlers of the original exception,
+ * which is the first occurrence.
+ * </p>
+ */
+public class RepeatedException extends DerivedException {
+
+   private final int occurrences;
+   private final long since;
+
+   /**
+    * <p>
+    * Constructs an instance of this exception.
+    * </p>
+    *
+    * @param original The first occurrence of the repeated exception.
+    * @param occurrences The number of suppressed occurrences.
+    * @param since The time, in milliseconds since the epoch, from which the
+    *       occurrences were counted.
+    */
+   public RepeatedException(CoreException original, int occurrences, long since) {
+
+      super(original);
+      this.occurrences = occurrences;
+      this.since = since;
+   }
+
+   /**
+    * <p>
+    * Returns a message of the form "N occurrences since T" followed by the
+    * message of the original exception.
+    * </p>
+    *
+    * @return A message describing the repeated exception.
+    */
+   public String getMessage() {
+
+      SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+      return occurrences + " occurrences since " + format.format(new Date(since)) +
+            ": " + getOriginal().getClass().getName() + ": " + getOriginal().getMessage();
+   }
+
+   /**
+    * <p>
+    * Writes this exception's message followed by the stack trace of the
+    * first occurrence.
+    * </p>
+    *
+    * @param out The output stream to which this stack trace is written.
+    */
+   public void printStackTrace(PrintStream out) {
+
+      out.println(getMessage());
+      super.printStackTrace(out);
+   }
+
+   /**
+    * <p>
+    * Returns the number of suppressed occurrences.
+    * </p>
+    *
+    * @return The number of occurrences.
+    */
+   public int getOccurrences() {
+
+      return occurrences;
+   }
+
+   /**
+    * <p>
+    * Returns the time from which the occurrences were counted.
+    * </p>
+    *
+    * @return The time in milliseconds since the epoch.
+    */
+   public long getSince() {
+
+      return since;
+   }
+}
@@ -0,0 +1,43 @@
+package ezbake.glitch.exception;
+
+import ezbake.glitch.CoreException;
+
+/**
+ * <p>
+ * An exception that was chosen by sampling to stand for a number of
+ * occurrences of its class. The weight is the number of occurrences it
+ * stands for, so a handler that counts exceptions adds the weight rather
+ * than one to scale the sample back up.
+ * </p>
+ */
+public class SampledException extends DerivedException {
+
+   private final double weight;
+
+   /**
+    * <p>
+    * Constructs an instance of this exception.
+    * </p>
+    *
+    * @param original The sampled exception.
+    * @param weight The number of occurrences the sample stands for.
+    */
+   public SampledException(CoreException original, double weight) {
+
+      super(original);
+      this.weight = weight;
+   }
+
+   /**
+    * <p>
+    * Returns the number of occurrences the sample stands for, which is the
+    * inverse of the probability with which it was sampled.
+    * </p>
+    *
+    * @return The sample weight.
+    */
+   public double getWeight() {
+
+      return weight;
+   }
+}
@@ -0,0 +1,60 @@
+package ezbake.glitch.exception;
+
+import ezbake.glitch.CoreException;
+
+/**
+ * <p>
+ * An exception that was written to the spool before it was dispatched. It
+ * carries the exception's position in the spool so that each handler can
+ * acknowledge it once handled. Handlers receive the original exception, not
+ * this one; see {@link ezbake.glitch.spool.Spool}.
+ * </p>
+ */
+public class SpooledException extends DerivedException {
+
+   private final long sequence;
+   private final boolean replayed;
+
+   /**
+    * <p>
+    * Constructs an instance of this exception.
+    * </p>
+    *
+    * @param original The spooled exception.
+    * @param sequence The position of the exception in the spool.
+    * @param replayed true if the exception was read back from the spool
+    *       after a restart.
+    */
+   public SpooledException(CoreException original, long sequence, boolean replayed) {
+
+      super(original);
+      this.sequence = sequence;
+      this.replayed = replayed;
+   }
+
+   /**
+    * <p>
+    * Returns the position of the exception in the spool.
+    * </p>
+    *
+    * @return The sequence number of the exception.
+    */
+   public long getSequence() {
+
+      return sequence;
+   }
+
+   /**
+    * <p>
+    * Answers true if the exception was read back from the spool after a
+    * restart, in which case the original is a
+    * {@link ezbake.glitch.codec.DecodedException}.
+    * </p>
+    *
+    * @return true if the exception is replayed.
+    */
+   public boolean isReplayed() {
+
+      return replayed;
+   }
+}
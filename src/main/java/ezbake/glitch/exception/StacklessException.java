@@ -0,0 +1,67 @@
+package ezbake.glitch.exception;
+
+/**
+ * <p>
+ * A {@link LazyException} that does not capture a stack trace. Creating one
+ * costs little more than any other object, which suits exceptions that
+ * report an expected condition rather than a programming error, such as a
+ * rejected request or an exhausted retry. Its printed stack trace is only
+ * the exception's description.
+ * </p>
+ */
+public class StacklessException extends LazyException {
+
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * <p>
+    * Constructs an instance of this exception without a message.
+    * </p>
+    */
+   public StacklessException() {
+
+      super();
+   }
+
+   /**
+    * <p>
+    * Constructs an instance of this exception whose message is formatted on
+    * demand.
+    * </p>
+    *
+    * @param format The message, or a format pattern if arguments are given.
+    * @param arguments The arguments of the format pattern.
+    */
+   public StacklessException(String format, Object... arguments) {
+
+      super(format, arguments);
+   }
+
+   /**
+    * <p>
+    * Constructs an instance of this exception with a cause and a message
+    * that is formatted on demand.
+    * </p>
+    *
+    * @param cause The cause of this exception.
+    * @param format The message, or a format pattern if arguments are given.
+    * @param arguments The arguments of the format pattern.
+    */
+   public StacklessException(Throwable cause, String format, Object... arguments) {
+
+      super(cause, format, arguments);
+   }
+
+   /**
+    * <p>
+    * Skips capturing the stack trace.
+    * </p>
+    *
+    * @return This exception.
+    */
+   @Override
+   public synchronized Throwable fillInStackTrace() {
+
+      return this;
+   }
+}
@@ -0,0 +1,50 @@
+package ezbake.glitch.exception;
+
+import java.lang.reflect.Method;
+
+/**
+ * <p>
+ * Reads the exceptions suppressed by a throwable, which are printed with its
+ * stack trace. Suppressed exceptions exist from Java 7 on and the framework
+ * runs on Java 6, so they are looked up reflectively; on Java 6 no throwable
+ * has any.
+ * </p>
+ */
+public final class Suppressed {
+
+   private static final Method GET_SUPPRESSED = getSuppressedMethod();
+
+   private Suppressed() {
+   }
+
+   /**
+    * <p>
+    * Returns the number of exceptions a throwable suppressed. The number only
+    * ever grows.
+    * </p>
+    *
+    * @param throwable The throwable.
+    * @return The number of suppressed exceptions, or -1 if it cannot be
+    *       read.
+    */
+   public static int count(Throwable throwable) {
+
+      if (GET_SUPPRESSED == null) {
+         return 0;
+      }
+      try {
+         return ((Object[]) GET_SUPPRESSED.invoke(throwable)).length;
+      } catch (Exception e) {
+         return -1;
+      }
+   }
+
+   private static Method getSuppressedMethod() {
+
+      try {
+         return Throwable.class.getMethod("getSuppressed");
+      } catch (NoSuchMethodException e) {
+         return null;
+      }
+   }
+}
@@ -0,0 +1,341 @@
+package ezbake.glitch.handler;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.Configurable;
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.config.Values;
+import ezbake.glitch.dispatch.OverflowPolicy;
+
+/**
+ * <p>
+ * A replacement for {@link DefaultExceptionHandler} that does not make the
+ * handling threads wait for the console. The stack trace is rendered through
+ * the shared {@link StackTraceCache} and queued; a single background thread
+ * takes everything that is queued and writes it to {@link System#out} in
+ * large writes, so only that thread takes the stream's lock. The queued
+ * traces are gathered in a heap buffer that is passed to the stream in a
+ * single {@link PrintStream#write(byte[], int, int)} per buffer, while a
+ * given channel is written from a direct buffer. The stream is looked up at
+ * every write, so a stream installed with {@link System#setOut(PrintStream)}
+ * receives the stack traces from then on.
+ * </p>
+ * <p>
+ * The handler is tuned with attributes on its configuration element:
+ * </p>
+ * <ul>
+ * <li><b>consoleQueueSize</b> - the maximum number of queued stack traces.
+ * The default is 4096.</li>
+ * <li><b>consoleBufferSize</b> - the size, in bytes, of the writer's
+ * buffer, which is the largest single write. The default is 64KB.</li>
+ * <li><b>consoleOverflow</b> - the {@link OverflowPolicy} applied when the
+ * queue is full. The default is drop-newest; caller-runs writes on the
+ * handling thread.</li>
+ * </ul>
+ * <p>
+ * The handler is flushed when the exception manager is drained and closed
+ * when it is shut down.
+ * </p>
+ */
+public class AsyncConsoleHandler implements CoreExceptionHandler, Configurable, Flushable, Closeable {
+
+   public static final String QUEUE_SIZE = "consoleQueueSize";
+   public static final String BUFFER_SIZE = "consoleBufferSize";
+   public static final String OVERFLOW = "consoleOverflow";
+
+   private static final int DEFAULT_QUEUE_SIZE = 4096;
+   private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+   private static final long FLUSH_TIMEOUT_MILLIS = 5000;
+   private static final long POLL_MILLIS = 100;
+
+   private Logger logger = LoggerFactory.getLogger(AsyncConsoleHandler.class);
+
+   private final WritableByteChannel channel;
+   private final Object channelLock = new Object();
+   private final AtomicLong submitted = new AtomicLong();
+   private final AtomicLong written = new AtomicLong();
+   private final AtomicLong dropped = new AtomicLong();
+
+   private int queueSize = DEFAULT_QUEUE_SIZE;
+   private int bufferSize = DEFAULT_BUFFER_SIZE;
+   private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+   private volatile BlockingQueue<byte[]> queue;
+   private volatile boolean closed;
+   private Thread writer;
+
+   /**
+    * <p>
+    * Creates a handler that writes to the standard output.
+    * </p>
+    */
+   public AsyncConsoleHandler() {
+
+      this(null);
+   }
+
+   /**
+    * <p>
+    * Creates a handler that writes to the given channel.
+    * </p>
+    *
+    * @param channel The channel to which the stack traces are written or
+    *       null for {@link System#out}.
+    */
+   public AsyncConsoleHandler(WritableByteChannel channel) {
+
+      this.channel = channel;
+   }
+
+   public synchronized void configure(Map<String, String> attributes) {
+
+      queueSize = Math.max(1, Values.toInt(attributes.get(QUEUE_SIZE), DEFAULT_QUEUE_SIZE));
+      bufferSize = Math.max(1024, (int) Math.min(Integer.MAX_VALUE, Values.toBytes(attributes.get(BUFFER_SIZE), DEFAULT_BUFFER_SIZE)));
+      overflowPolicy = OverflowPolicy.parse(attributes.get(OVERFLOW), OverflowPolicy.DROP_NEWEST);
+   }
+
+   public void handle(CoreException e) {
+
+      byte[] stackTrace = StackTraceCache.getShared().getRenderedBytes(e);
+      BlockingQueue<byte[]> pending = queue == null ? start() : queue;
+
+      if (closed) {
+         write(stackTrace);
+         return;
+      }
+
+      submitted.incrementAndGet();
+      if (pending.offer(stackTrace)) {
+         queued(pending, stackTrace);
+         return;
+      }
+
+      if (overflowPolicy == OverflowPolicy.BLOCK) {
+         try {
+            pending.put(stackTrace);
+            queued(pending, stackTrace);
+            return;
+         } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+         }
+      } else if (overflowPolicy == OverflowPolicy.CALLER_RUNS) {
+         write(stackTrace);
+         written.incrementAndGet();
+         return;
+      } else if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+         if (pending.poll() != null) {
+            dropped.incrementAndGet();
+            written.incrementAndGet();
+         }
+         if (pending.offer(stackTrace)) {
+            queued(pending, stackTrace);
+            return;
+         }
+      }
+      dropped.incrementAndGet();
+      written.incrementAndGet();
+   }
+
+   /**
+    * <p>
+    * Makes sure a stack trace queued while the handler was closing is
+    * written: the writer thread and {@link #close()} may both have taken
+    * their last look at the queue already, so the stack trace is taken back
+    * and written on the handling thread.
+    * </p>
+    */
+   private void queued(BlockingQueue<byte[]> pending, byte[] stackTrace) {
+
+      if (closed && pending.remove(stackTrace)) {
+         write(stackTrace);
+         written.incrementAndGet();
+      }
+   }
+
+   /**
+    * <p>
+    * Waits, for up to five seconds, until the stack traces queued so far
+    * have been written.
+    * </p>
+    */
+   public void flush() {
+
+      long target = submitted.get();
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_TIMEOUT_MILLIS);
+      while (written.get() < target && System.nanoTime() - deadline < 0) {
+         LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+      }
+   }
+
+   /**
+    * <p>
+    * Writes the queued stack traces and stops the writer thread. Stack
+    * traces handled afterwards are written on the handling thread. The
+    * channel itself is left open. The writer thread is never interrupted,
+    * because interrupting a write would close the standard output channel.
+    * </p>
+    */
+   public void close() {
+
+      flush();
+      closed = true;
+      Thread stopping;
+      synchronized (this) {
+         stopping = writer;
+      }
+      if (stopping != null) {
+         try {
+            stopping.join(FLUSH_TIMEOUT_MILLIS);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         byte[] stackTrace;
+         while ((stackTrace = queue.poll()) != null) {
+            write(stackTrace);
+            written.incrementAndGet();
+         }
+      }
+   }
+
+   /**
+    * <p>
+    * Returns the number of stack traces discarded because the queue was
+    * full.
+    * </p>
+    *
+    * @return The number of dropped stack traces.
+    */
+   public long getDroppedCount() {
+
+      return dropped.get();
+   }
+
+   private synchronized BlockingQueue<byte[]> start() {
+
+      if (queue == null) {
+         queue = new ArrayBlockingQueue<byte[]>(queueSize);
+         writer = new Thread(new Writer(queue), "glitch-console");
+         writer.setDaemon(true);
+         writer.start();
+      }
+      return queue;
+   }
+
+   private void write(byte[] stackTrace) {
+
+      try {
+         synchronized (channelLock) {
+            if (channel == null) {
+               PrintStream out = System.out;
+               out.write(stackTrace, 0, stackTrace.length);
+               out.flush();
+            } else {
+               ByteBuffer buffer = ByteBuffer.wrap(stackTrace);
+               while (buffer.hasRemaining()) {
+                  channel.write(buffer);
+               }
+            }
+         }
+      } catch (IOException e) {
+         logger.error("Writing a stack trace to the console failed.", e);
+      }
+   }
+
+   /**
+    * <p>
+    * Takes every queued stack trace at once and writes them through one
+    * buffer, so that many small traces cost few writes.
+    * </p>
+    */
+   private class Writer implements Runnable {
+
+      private final BlockingQueue<byte[]> pending;
+      private final List<byte[]> batch = new ArrayList<byte[]>();
+      private final ByteBuffer buffer = channel == null ? ByteBuffer.allocate(bufferSize) : ByteBuffer.allocateDirect(bufferSize);
+      private PrintStream out;
+
+      Writer(BlockingQueue<byte[]> pending) {
+
+         this.pending = pending;
+      }
+
+      public void run() {
+
+         while (true) {
+            byte[] first;
+            try {
+               first = pending.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+               first = null;
+            }
+            if (first == null) {
+               if (closed) {
+                  return;
+               }
+               continue;
+            }
+            batch.add(first);
+            pending.drainTo(batch);
+            try {
+               writeBatch();
+            } catch (IOException e) {
+               logger.error("Writing " + batch.size() + " stack traces to the console failed.", e);
+               buffer.clear();
+            }
+            written.addAndGet(batch.size());
+            batch.clear();
+         }
+      }
+
+      private void writeBatch() throws IOException {
+
+         synchronized (channelLock) {
+            out = System.out;
+            for (byte[] stackTrace : batch) {
+               int offset = 0;
+               while (offset < stackTrace.length) {
+                  int length = Math.min(buffer.remaining(), stackTrace.length - offset);
+                  buffer.put(stackTrace, offset, length);
+                  offset += length;
+                  if (!buffer.hasRemaining()) {
+                     writeBuffer();
+                  }
+               }
+            }
+            writeBuffer();
+            if (channel == null) {
+               out.flush();
+            }
+         }
+      }
+
+      private void writeBuffer() throws IOException {
+
+         buffer.flip();
+         if (channel == null) {
+            out.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+         } else {
+            while (buffer.hasRemaining()) {
+               channel.write(buffer);
+            }
+         }
+         buffer.clear();
+      }
+   }
+}
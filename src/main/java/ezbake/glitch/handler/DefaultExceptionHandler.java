@@ -8,7 +8,9 @@ import ezbake.glitch.CoreExceptionHandler;
  * The default class for exception handling. 
  * </p>
  * <p>
- * This handler will send the stack trace to System.out. 
+ * This handler will send the stack trace to System.out. Stack traces are
+ * rendered through the shared {@link StackTraceCache}, so a trace that
+ * repeats is written without being formatted again.
  * </p>
  */
 public class DefaultExceptionHandler implements CoreExceptionHandler {
@@ -23,7 +25,9 @@ public class DefaultExceptionHandler implements CoreExceptionHandler {
     */
    public void handle(CoreException e) {
 
-      e.printStackTrace(System.out);
+      byte[] stackTrace = StackTraceCache.getShared().getRenderedBytes(e);
+      System.out.write(stackTrace, 0, stackTrace.length);
+      System.out.flush();
    }
 
 }
@@ -0,0 +1,386 @@
+package ezbake.glitch.handler;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.BatchingCoreExceptionHandler;
+import ezbake.glitch.Configurable;
+import ezbake.glitch.CoreException;
+import ezbake.glitch.codec.EventEncoder;
+import ezbake.glitch.config.Values;
+
+/**
+ * <p>
+ * Appends stack traces to segment files that are mapped into memory, so that
+ * appending a record is a copy into the page cache with no system call. Each
+ * record is a timestamp followed by the stack trace rendered through the
+ * shared {@link StackTraceCache}. A segment is created at its full size and
+ * cut down to what was written when it is closed. Segment files are named
+ * after the prefix, the time they were started and a sequence number, so
+ * that they sort in the order they were written.
+ * </p>
+ * <p>
+ * The handler is tuned with attributes on its configuration element:
+ * </p>
+ * <ul>
+ * <li><b>fileDirectory</b> - the directory of the segment files. The default
+ * is <code>logs</code>.</li>
+ * <li><b>filePrefix</b> - the start of every segment file name. The default
+ * is <code>glitch</code>.</li>
+ * <li><b>fileSegmentSize</b> - the size at which a segment is closed and the
+ * next one started, such as <code>64MB</code>. The default is 64MB.</li>
+ * <li><b>fileRollInterval</b> - how long a segment is appended to before the
+ * next one is started; checked when a record is appended. By default
+ * segments are only rolled by size.</li>
+ * <li><b>fileCompress</b> - true to gzip closed segments on a background
+ * thread. The default is false.</li>
+ * <li><b>fileSync</b> - the {@link SyncPolicy}: <code>none</code>,
+ * <code>periodic</code> or <code>batch</code>. The default is none.</li>
+ * <li><b>fileSyncInterval</b> - the interval of the periodic policy. The
+ * default is 1s.</li>
+ * <li><b>fileFormat</b> - <code>text</code>, the default, or
+ * <code>binary</code> to write compact events with an
+ * {@link EventEncoder} into <code>.events</code> segments, which are read
+ * back with {@link ezbake.glitch.codec.EventDecoder}.</li>
+ * </ul>
+ * <p>
+ * The handler receives its exceptions in batches; the batch attributes of
+ * {@link ezbake.glitch.dispatch.DecoratedHandlers} therefore also bound how
+ * long a record waits before it is appended.
+ * </p>
+ */
+public class MappedFileHandler implements BatchingCoreExceptionHandler, Configurable, Flushable, Closeable {
+
+   public static final String DIRECTORY = "fileDirectory";
+   public static final String PREFIX = "filePrefix";
+   public static final String SEGMENT_SIZE = "fileSegmentSize";
+   public static final String ROLL_INTERVAL = "fileRollInterval";
+   public static final String COMPRESS = "fileCompress";
+   public static final String SYNC = "fileSync";
+   public static final String SYNC_INTERVAL = "fileSyncInterval";
+
+   public static final String FORMAT = "fileFormat";
+
+   static final String TEXT_SUFFIX = ".log";
+   static final String BINARY_SUFFIX = ".events";
+   static final String COMPRESSED_SUFFIX = ".gz";
+
+   private static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+   private static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1000;
+   private static final long COMPRESS_TIMEOUT_MILLIS = 60000;
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+   private Logger logger = LoggerFactory.getLogger(MappedFileHandler.class);
+
+   private final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ ");
+   private final SimpleDateFormat fileNameFormat = new SimpleDateFormat("yyyyMMdd-HHmmss");
+
+   private File directory = new File("logs");
+   private String prefix = "glitch";
+   private long segmentSize = DEFAULT_SEGMENT_SIZE;
+   private long rollIntervalMillis;
+   private boolean compress;
+   private SyncPolicy syncPolicy = SyncPolicy.NONE;
+   private long syncIntervalMillis = DEFAULT_SYNC_INTERVAL_MILLIS;
+   private EventEncoder encoder;
+
+   private Segment segment;
+   private ScheduledExecutorService syncer;
+   private ExecutorService compressor;
+
+   public synchronized void configure(Map<String, String> attributes) {
+
+      if (!Values.isNothing(attributes.get(DIRECTORY))) {
+         directory = new File(attributes.get(DIRECTORY).trim());
+      }
+      if (!Values.isNothing(attributes.get(PREFIX))) {
+         prefix = attributes.get(PREFIX).trim();
+      }
+      segmentSize = Math.min(Integer.MAX_VALUE, Math.max(1024, Values.toBytes(attributes.get(SEGMENT_SIZE), DEFAULT_SEGMENT_SIZE)));
+      rollIntervalMillis = Values.toMillis(attributes.get(ROLL_INTERVAL), 0);
+      compress = Boolean.parseBoolean(attributes.get(COMPRESS));
+      syncPolicy = SyncPolicy.parse(attributes.get(SYNC), SyncPolicy.NONE);
+      syncIntervalMillis = Math.max(1, Values.toMillis(attributes.get(SYNC_INTERVAL), DEFAULT_SYNC_INTERVAL_MILLIS));
+      encoder = "binary".equalsIgnoreCase(attributes.get(FORMAT)) ? new EventEncoder() : null;
+   }
+
+   public void handle(CoreException e) {
+
+      handleBatch(Collections.singletonList(e));
+   }
+
+   public synchronized void handleBatch(List<CoreException> exceptions) {
+
+      try {
+         for (CoreException exception : exceptions) {
+            if (encoder == null) {
+               byte[] timestamp = timestampFormat.format(new Date()).getBytes(UTF_8);
+               byte[] stackTrace = StackTraceCache.getShared().getRenderedBytes(exception);
+               append(timestamp, stackTrace);
+            } else {
+               appendEncoded(exception);
+            }
+         }
+         if (syncPolicy == SyncPolicy.BATCH && segment != null) {
+            segment.buffer.force();
+         }
+      } catch (IOException e) {
+         logger.error("Appending " + exceptions.size() + " stack traces to the segment files in '" + directory + "' failed.", e);
+      }
+   }
+
+   /**
+    * <p>
+    * Forces the records appended so far to storage, whatever the sync
+    * policy.
+    * </p>
+    */
+   public synchronized void flush() {
+
+      if (segment != null) {
+         segment.buffer.force();
+      }
+   }
+
+   /**
+    * <p>
+    * Closes the current segment and waits for the closed segments to be
+    * compressed. Exceptions handled afterwards start a new segment.
+    * </p>
+    */
+   public void close() {
+
+      ExecutorService compressing;
+      synchronized (this) {
+         closeSegment();
+         if (syncer != null) {
+            syncer.shutdownNow();
+            syncer = null;
+         }
+         compressing = compressor;
+         compressor = null;
+      }
+      if (compressing != null) {
+         compressing.shutdown();
+         try {
+            if (!compressing.awaitTermination(COMPRESS_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+               logger.warn("Compressing the closed segments in '" + directory + "' did not finish in time.");
+            }
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   /**
+    * <p>
+    * Returns the file of the segment being appended to.
+    * </p>
+    *
+    * @return The current segment file or null if there is none.
+    */
+   synchronized File getSegmentFile() {
+
+      return segment == null ? null : segment.file;
+   }
+
+   private void append(byte[] timestamp, byte[] stackTrace) throws IOException {
+
+      int length = timestamp.length + stackTrace.length;
+      if (segment != null && (segment.buffer.remaining() < length || isExpired(segment))) {
+         closeSegment();
+      }
+      if (segment == null) {
+         segment = openSegment(Math.max(segmentSize, length));
+      }
+      segment.buffer.put(timestamp);
+      segment.buffer.put(stackTrace);
+   }
+
+   /**
+    * <p>
+    * Encodes an exception straight into the segment. An event that does not
+    * fit starts the next segment; each segment begins a new stream of
+    * events, so that it can be decoded on its own.
+    * </p>
+    */
+   private void appendEncoded(CoreException exception) throws IOException {
+
+      if (segment != null && isExpired(segment)) {
+         closeSegment();
+      }
+      for (int attempt = 0; attempt < 2; attempt++) {
+         if (segment == null) {
+            segment = openSegment(segmentSize);
+            encoder.reset();
+         }
+         boolean empty = segment.buffer.position() == 0;
+         try {
+            encoder.encode(exception, segment.buffer);
+            return;
+         } catch (BufferOverflowException e) {
+            if (empty) {
+               break;
+            }
+            closeSegment();
+         }
+      }
+      logger.error("The event of exception type '" + exception.getClass().getName() + "' is larger than a segment and was not written.");
+   }
+
+   private boolean isExpired(Segment current) {
+
+      return rollIntervalMillis > 0 && System.currentTimeMillis() - current.opened >= rollIntervalMillis;
+   }
+
+   private Segment openSegment(long size) throws IOException {
+
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+         throw new IOException("The directory '" + directory + "' could not be created.");
+      }
+      String name = prefix + "-" + fileNameFormat.format(new Date()) + "-";
+      File file = null;
+      for (int sequence = 0; file == null || file.exists() || new File(file.getPath() + COMPRESSED_SUFFIX).exists(); sequence++) {
+         file = new File(directory, name + String.format("%03d", sequence) + (encoder == null ? TEXT_SUFFIX : BINARY_SUFFIX));
+      }
+
+      Segment opened = new Segment(file, size);
+      if (syncPolicy == SyncPolicy.PERIODIC && syncer == null) {
+         syncer = Executors.newSingleThreadScheduledExecutor(daemonThreads("glitch-file-sync"));
+         syncer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+               flush();
+            }
+         }, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+      }
+      return opened;
+   }
+
+   private void closeSegment() {
+
+      if (segment == null) {
+         return;
+      }
+      final File file = segment.file;
+      try {
+         segment.close(syncPolicy != SyncPolicy.NONE);
+      } catch (IOException e) {
+         logger.error("Closing the segment file '" + file + "' failed.", e);
+      }
+      segment = null;
+
+      if (compress) {
+         if (compressor == null) {
+            compressor = Executors.newSingleThreadExecutor(daemonThreads("glitch-file-compress"));
+         }
+         compressor.execute(new Runnable() {
+            public void run() {
+               compress(file);
+            }
+         });
+      }
+   }
+
+   private void compress(File file) {
+
+      File compressed = new File(file.getPath() + COMPRESSED_SUFFIX);
+      try {
+         InputStream in = new FileInputStream(file);
+         try {
+            OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed));
+            try {
+               byte[] buffer = new byte[64 * 1024];
+               for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                  out.write(buffer, 0, read);
+               }
+            } finally {
+               out.close();
+            }
+         } finally {
+            in.close();
+         }
+         if (!file.delete()) {
+            logger.warn("The segment file '" + file + "' was compressed but could not be deleted.");
+         }
+      } catch (IOException e) {
+         logger.error("Compressing the segment file '" + file + "' failed; it is kept uncompressed.", e);
+         compressed.delete();
+      }
+   }
+
+   private static ThreadFactory daemonThreads(final String name) {
+
+      return new ThreadFactory() {
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+         }
+      };
+   }
+
+   /**
+    * <p>
+    * An open segment file and its mapping. The mapping is released by the
+    * garbage collector once the segment is closed, as there is no other way
+    * to unmap a file.
+    * </p>
+    */
+   private static class Segment {
+
+      private final File file;
+      private final RandomAccessFile access;
+      private final MappedByteBuffer buffer;
+      private final long opened;
+
+      Segment(File file, long size) throws IOException {
+
+         this.file = file;
+         this.access = new RandomAccessFile(file, "rw");
+         try {
+            this.buffer = access.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+         } catch (IOException e) {
+            access.close();
+            throw e;
+         }
+         this.opened = System.currentTimeMillis();
+      }
+
+      void close(boolean force) throws IOException {
+
+         try {
+            if (force) {
+               buffer.force();
+            }
+            access.setLength(buffer.position());
+         } finally {
+            access.close();
+         }
+      }
+   }
+}
@@ -0,0 +1,382 @@
+package ezbake.glitch.handler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.dispatch.Fingerprint;
+import ezbake.glitch.exception.LazyException;
+import ezbake.glitch.exception.Suppressed;
+
+/**
+ * <p>
+ * A size-bounded cache of rendered stack traces and of interned stack
+ * frames, keyed by the exact {@link Fingerprint} of the trace. During a
+ * storm of identical exceptions a handler fetches the rendered bytes of the
+ * first occurrence rather than formatting the same trace again for every
+ * occurrence, and {@link #intern(Throwable)} lets the occurrences that are
+ * kept share one copy of their frames.
+ * </p>
+ * <p>
+ * Only traces that are made of nothing but the class, message and frames of
+ * the exception and its causes are cached. An exception that is not itself
+ * the thrown {@link Throwable}, that has suppressed exceptions, that has too
+ * many causes, or of which a class in the chain overrides how
+ * {@link Throwable} prints itself (its <code>printStackTrace</code>,
+ * <code>toString</code>, <code>getLocalizedMessage</code> or
+ * <code>getStackTrace</code>) is rendered each time. A {@link LazyException}
+ * prints the standard trace and is cached unless a subclass overrides its
+ * <code>getStackTraceText</code>.
+ * </p>
+ * <p>
+ * An occurrence that was already rendered, for example by another handler,
+ * is found by its identity, without taking its frames again; it is looked up
+ * by its trace again only once it has suppressed exceptions, so frames set on
+ * it after it was rendered are not noticed. Any other
+ * occurrence has its frames taken once, since Java offers the trace of a
+ * throwable only as its frames. A cached entry is checked against them
+ * before it is used, so a fingerprint collision renders afresh instead of
+ * returning another trace. The least recently used entries are evicted once
+ * the cache is full. Traces are rendered into a buffer kept per thread.
+ * </p>
+ */
+public final class StackTraceCache {
+
+   private static final int DEFAULT_MAXIMUM_SIZE = 1024;
+   private static final int MAXIMUM_DEPTH = 32;
+   private static final Cache<Class<?>, Boolean> STANDARD_PRINTING = CacheBuilder.newBuilder().weakKeys().<Class<?>, Boolean> build();
+   private static final StackTraceCache SHARED = new StackTraceCache(DEFAULT_MAXIMUM_SIZE);
+   private static final ThreadLocal<RenderBuffer> RENDER_BUFFERS = new ThreadLocal<RenderBuffer>() {
+      @Override
+      protected RenderBuffer initialValue() {
+         return new RenderBuffer();
+      }
+   };
+
+   private final Cache<Long, Rendered> rendered;
+   private final Cache<Throwable, Rendered> occurrences;
+   private final Cache<Long, StackTraceElement[]> frames;
+
+   /**
+    * <p>
+    * Creates a cache.
+    * </p>
+    *
+    * @param maximumSize The maximum number of traces kept, and separately
+    *       of recently rendered occurrences and of frame sequences kept.
+    */
+   public StackTraceCache(int maximumSize) {
+
+      this.rendered = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+      this.occurrences = CacheBuilder.newBuilder().weakKeys().maximumSize(maximumSize).build();
+      this.frames = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+   }
+
+   /**
+    * <p>
+    * Returns the cache shared by the framework's handlers.
+    * </p>
+    *
+    * @return The shared cache.
+    */
+   public static StackTraceCache getShared() {
+
+      return SHARED;
+   }
+
+   /**
+    * <p>
+    * Returns the bytes that {@link CoreException#printStackTrace(PrintStream)}
+    * writes to a stream in the platform's default encoding. The returned
+    * array is shared and must not be modified.
+    * </p>
+    *
+    * @param exception The exception whose stack trace is rendered.
+    * @return The rendered stack trace.
+    */
+   public byte[] getRenderedBytes(CoreException exception) {
+
+      Throwable throwable = exception.getException();
+      if (throwable != exception) {
+         return render(exception);
+      }
+      Rendered entry = occurrences.getIfPresent(throwable);
+      if (entry != null && rendered.getIfPresent(entry.key) == entry && !suppresses(throwable)) {
+         return entry.bytes;
+      }
+
+      Trace trace = Trace.of(throwable);
+      if (trace == null) {
+         return render(exception);
+      }
+      Long key = Long.valueOf(trace.fingerprint());
+      entry = rendered.getIfPresent(key);
+      if (entry == null || !entry.trace.equals(trace)) {
+         entry = new Rendered(key, trace.intern(this), render(exception));
+         rendered.put(key, entry);
+      }
+      occurrences.put(throwable, entry);
+      return entry.bytes;
+   }
+
+   /**
+    * <p>
+    * Returns the stack trace as {@link #getRenderedBytes(CoreException)}
+    * renders it, decoded with the platform's default encoding.
+    * </p>
+    *
+    * @param exception The exception whose stack trace is rendered.
+    * @return The rendered stack trace.
+    */
+   public String getRendered(CoreException exception) {
+
+      return new String(getRenderedBytes(exception));
+   }
+
+   /**
+    * <p>
+    * Replaces the frames of a throwable and of its causes with equal frames
+    * shared by every throwable with the same stack trace, so that exceptions
+    * that are kept, for example in a queue, do not each hold their own
+    * copies.
+    * </p>
+    *
+    * @param throwable The throwable whose frames are interned.
+    * @return The shared frames of the throwable.
+    */
+   public StackTraceElement[] intern(Throwable throwable) {
+
+      StackTraceElement[] shared = null;
+      int depth = 0;
+      for (Throwable t = throwable; t != null && depth < MAXIMUM_DEPTH; t = t.getCause(), depth++) {
+         StackTraceElement[] stackTrace = t.getStackTrace();
+         StackTraceElement[] interned = internFrames(stackTrace);
+         if (interned != stackTrace) {
+            t.setStackTrace(interned);
+         }
+         if (depth == 0) {
+            shared = interned;
+         }
+      }
+      return shared;
+   }
+
+   /**
+    * <p>
+    * Returns the hit and miss statistics of the rendered traces.
+    * </p>
+    *
+    * @return The cache statistics.
+    */
+   public CacheStats getStats() {
+
+      return rendered.stats();
+   }
+
+   private StackTraceElement[] internFrames(StackTraceElement[] stackTrace) {
+
+      Long key = Long.valueOf(Fingerprint.ofStackTrace(stackTrace));
+      StackTraceElement[] interned = frames.getIfPresent(key);
+      if (interned == null || !Arrays.equals(interned, stackTrace)) {
+         frames.put(key, stackTrace);
+         return stackTrace;
+      }
+      return interned;
+   }
+
+   private static boolean suppresses(Throwable throwable) {
+
+      int depth = 0;
+      for (Throwable t = throwable; t != null && depth < MAXIMUM_DEPTH; t = t.getCause(), depth++) {
+         if (Suppressed.count(t) != 0) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private static byte[] render(CoreException exception) {
+
+      RenderBuffer buffer = RENDER_BUFFERS.get();
+      buffer.reset();
+      exception.printStackTrace(buffer.out);
+      buffer.out.flush();
+      return buffer.toByteArray();
+   }
+
+   /**
+    * <p>
+    * A per-thread buffer into which traces are rendered, so that rendering
+    * reuses the same buffer and stream rather than allocating new ones.
+    * </p>
+    */
+   private static class RenderBuffer extends ByteArrayOutputStream {
+
+      private static final int MAXIMUM_KEPT_SIZE = 64 * 1024;
+
+      private final PrintStream out = new PrintStream(this);
+
+      RenderBuffer() {
+
+         super(1024);
+      }
+
+      @Override
+      public synchronized void reset() {
+
+         if (buf.length > MAXIMUM_KEPT_SIZE) {
+            buf = new byte[1024];
+         }
+         super.reset();
+      }
+   }
+
+   /**
+    * <p>
+    * Tells whether a class prints itself exactly as {@link Throwable} does,
+    * so that its printed trace is made of its class, message and frames.
+    * </p>
+    */
+   private static boolean printsStandard(Class<?> type) {
+
+      Boolean standard = STANDARD_PRINTING.getIfPresent(type);
+      if (standard == null) {
+         standard = Boolean.TRUE;
+         for (Class<?> c = type; c != null && c != Throwable.class && c != LazyException.class; c = c.getSuperclass()) {
+            if (declares(c, "printStackTrace", PrintStream.class) || declares(c, "printStackTrace", PrintWriter.class)
+                  || declares(c, "toString") || declares(c, "getLocalizedMessage") || declares(c, "getStackTrace")
+                  || declares(c, "getStackTraceText")) {
+               standard = Boolean.FALSE;
+               break;
+            }
+         }
+         STANDARD_PRINTING.put(type, standard);
+      }
+      return standard.booleanValue();
+   }
+
+   private static boolean declares(Class<?> type, String name, Class<?>... parameterTypes) {
+
+      try {
+         type.getDeclaredMethod(name, parameterTypes);
+         return true;
+      } catch (NoSuchMethodException e) {
+         return false;
+      } catch (SecurityException e) {
+         return true;
+      }
+   }
+
+   /**
+    * <p>
+    * The class names, messages and frames of a throwable and its causes,
+    * taken once, from which its fingerprint is computed and against which a
+    * cached entry is checked.
+    * </p>
+    */
+   private static class Trace {
+
+      private final String[] classNames;
+      private final String[] messages;
+      private final StackTraceElement[][] stackTraces;
+
+      private Trace(String[] classNames, String[] messages, StackTraceElement[][] stackTraces) {
+
+         this.classNames = classNames;
+         this.messages = messages;
+         this.stackTraces = stackTraces;
+      }
+
+      /**
+       * <p>
+       * Takes the trace of a throwable.
+       * </p>
+       *
+       * @return The trace or null if the throwable's printed trace is made
+       *       of more than its trace.
+       */
+      static Trace of(Throwable throwable) {
+
+         int depth = 0;
+         for (Throwable t = throwable; t != null; t = t.getCause()) {
+            if (++depth > MAXIMUM_DEPTH || !printsStandard(t.getClass()) || Suppressed.count(t) != 0) {
+               return null;
+            }
+         }
+
+         String[] classNames = new String[depth];
+         String[] messages = new String[depth];
+         StackTraceElement[][] stackTraces = new StackTraceElement[depth][];
+         Throwable t = throwable;
+         for (int i = 0; i < depth; i++, t = t.getCause()) {
+            classNames[i] = t.getClass().getName();
+            messages[i] = t.getMessage();
+            stackTraces[i] = t.getStackTrace();
+         }
+         return new Trace(classNames, messages, stackTraces);
+      }
+
+      long fingerprint() {
+
+         return Fingerprint.ofTrace(classNames, messages, stackTraces);
+      }
+
+      /**
+       * <p>
+       * Replaces the frames of this trace with the interned ones, so that
+       * a cached entry holds frames shared with the interned exceptions.
+       * </p>
+       *
+       * @return This trace.
+       */
+      Trace intern(StackTraceCache cache) {
+
+         for (int i = 0; i < stackTraces.length; i++) {
+            stackTraces[i] = cache.internFrames(stackTraces[i]);
+         }
+         return this;
+      }
+
+      @Override
+      public boolean equals(Object other) {
+
+         if (!(other instanceof Trace)) {
+            return false;
+         }
+         Trace trace = (Trace) other;
+         return Arrays.equals(classNames, trace.classNames) && Arrays.equals(messages, trace.messages)
+               && Arrays.deepEquals(stackTraces, trace.stackTraces);
+      }
+
+      @Override
+      public int hashCode() {
+
+         return (int) fingerprint();
+      }
+   }
+
+   /**
+    * <p>
+    * A rendered trace with the trace it was rendered from.
+    * </p>
+    */
+   private static class Rendered {
+
+      private final Long key;
+      private final Trace trace;
+      private final byte[] bytes;
+
+      Rendered(Long key, Trace trace, byte[] bytes) {
+
+         this.key = key;
+         this.trace = trace;
+         this.bytes = bytes;
+      }
+   }
+}
@@ -0,0 +1,51 @@
+package ezbake.glitch.handler;
+
+import java.util.Locale;
+
+/**
+ * <p>
+ * Describes when a file handler forces what it has written to the storage
+ * device.
+ * </p>
+ */
+public enum SyncPolicy {
+
+   /**
+    * Writing to storage is left to the operating system.
+    */
+   NONE,
+
+   /**
+    * Written data is forced to storage at a fixed interval.
+    */
+   PERIODIC,
+
+   /**
+    * Written data is forced to storage after every batch, before the handler
+    * returns.
+    */
+   BATCH;
+
+   /**
+    * <p>
+    * Returns the policy named by the given value, ignoring case. If the value
+    * is null or not a known policy then the default policy is returned.
+    * </p>
+    *
+    * @param value The name of the policy.
+    * @param defaultPolicy The policy returned if the value is not a policy.
+    * @return The policy named by the value or the default policy.
+    */
+   public static SyncPolicy parse(String value, SyncPolicy defaultPolicy) {
+
+      if (value != null) {
+         String normalized = value.trim().toUpperCase(Locale.ENGLISH);
+         for (SyncPolicy policy : values()) {
+            if (policy.name().equals(normalized)) {
+               return policy;
+            }
+         }
+      }
+      return defaultPolicy;
+   }
+}
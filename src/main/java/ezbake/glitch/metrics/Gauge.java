@@ -0,0 +1,19 @@
+package ezbake.glitch.metrics;
+
+/**
+ * <p>
+ * A value that is read when the metrics are reported, such as the number
+ * of exceptions waiting in a queue.
+ * </p>
+ */
+public interface Gauge {
+
+   /**
+    * <p>
+    * Returns the current value.
+    * </p>
+    *
+    * @return The value.
+    */
+   long getValue();
+}
@@ -0,0 +1,91 @@
+package ezbake.glitch.metrics;
+
+/**
+ * <p>
+ * The invocation count, failure count, timeout overrun count and latencies
+ * of one handler.
+ * </p>
+ */
+public final class HandlerMetrics {
+
+   private final StripedCounter invocations = new StripedCounter();
+   private final StripedCounter failures = new StripedCounter();
+   private final StripedCounter overruns = new StripedCounter();
+   private final LatencyHistogram latency = new LatencyHistogram();
+
+   /**
+    * <p>
+    * Records one invocation of the handler.
+    * </p>
+    *
+    * @param nanos How long the invocation took.
+    * @param failed true if the handler threw.
+    */
+   public void record(long nanos, boolean failed) {
+
+      invocations.increment();
+      if (failed) {
+         failures.increment();
+      }
+      latency.record(nanos);
+   }
+
+   /**
+    * <p>
+    * Records a call of the handler that overran its timeout or could not be
+    * started because its threads were held by calls that did.
+    * </p>
+    */
+   public void recordOverrun() {
+
+      overruns.increment();
+   }
+
+   /**
+    * <p>
+    * Returns the number of invocations.
+    * </p>
+    *
+    * @return The invocation count.
+    */
+   public long getInvocationCount() {
+
+      return invocations.sum();
+   }
+
+   /**
+    * <p>
+    * Returns the number of invocations that threw.
+    * </p>
+    *
+    * @return The failure count.
+    */
+   public long getFailureCount() {
+
+      return failures.sum();
+   }
+
+   /**
+    * <p>
+    * Returns the number of calls that overran the handler's timeout.
+    * </p>
+    *
+    * @return The overrun count.
+    */
+   public long getOverrunCount() {
+
+      return overruns.sum();
+   }
+
+   /**
+    * <p>
+    * Returns the latencies of the invocations.
+    * </p>
+    *
+    * @return The latency histogram.
+    */
+   public LatencyHistogram getLatency() {
+
+      return latency;
+   }
+}
@@ -0,0 +1,183 @@
+package ezbake.glitch.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A histogram of durations in nanoseconds that covers the whole range of a
+ * long with a bounded relative error. Each power of two is divided into 32
+ * equal buckets, so a recorded value is reported at most about 3% above its
+ * true value, whether it is a microsecond or an hour.
+ * </p>
+ * <p>
+ * The counts, the total and the maximum are striped like a
+ * {@link StripedCounter}: a thread records into the stripe its id hashes
+ * to, so threads that measure the same handler at once rarely write to the
+ * same cache line. There are as many stripes as a striped counter has, but
+ * at most 8, and each takes 15KB. Recording takes two atomic additions and
+ * rarely a compare-and-set of the maximum, and never allocates or locks.
+ * Percentiles are read from a {@link Snapshot}, which sums the stripes.
+ * </p>
+ */
+public final class LatencyHistogram {
+
+   private static final int SUB_BUCKET_BITS = 5;
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+   private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+   private static final int STRIPES = Math.min(8, StripedCounter.STRIPES);
+   /** The number of longs in a 64-byte cache line. */
+   private static final int PADDING = 8;
+
+   /** The buckets of each stripe, one stripe after the other. */
+   private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+   /** The total and the maximum of each stripe, on a cache line of its own. */
+   private final AtomicLongArray totals = new AtomicLongArray((STRIPES + 1) * PADDING);
+
+   /**
+    * <p>
+    * Records a duration. A negative duration is recorded as zero.
+    * </p>
+    *
+    * @param nanos The duration in nanoseconds.
+    */
+   public void record(long nanos) {
+
+      long value = Math.max(0, nanos);
+      int stripe = StripedCounter.stripe(STRIPES);
+      counts.getAndIncrement(stripe * BUCKETS + indexOf(value));
+      int total = (stripe + 1) * PADDING;
+      totals.getAndAdd(total, value);
+      long current = totals.get(total + 1);
+      while (value > current && !totals.compareAndSet(total + 1, current, value)) {
+         current = totals.get(total + 1);
+      }
+   }
+
+   /**
+    * <p>
+    * Copies the counts recorded so far.
+    * </p>
+    *
+    * @return The snapshot.
+    */
+   public Snapshot snapshot() {
+
+      long[] copy = new long[BUCKETS];
+      long count = 0;
+      for (int i = 0; i < counts.length(); i++) {
+         long bucket = counts.get(i);
+         copy[i % BUCKETS] += bucket;
+         count += bucket;
+      }
+      long sum = 0;
+      long max = 0;
+      for (int i = PADDING; i < totals.length(); i += PADDING) {
+         sum += totals.get(i);
+         max = Math.max(max, totals.get(i + 1));
+      }
+      return new Snapshot(copy, count, sum, max);
+   }
+
+   static int indexOf(long value) {
+
+      if (value < SUB_BUCKETS) {
+         return (int) value;
+      }
+      int magnitude = 63 - Long.numberOfLeadingZeros(value);
+      int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+   }
+
+   static long highestValueOf(int index) {
+
+      if (index < SUB_BUCKETS) {
+         return index;
+      }
+      int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+      long width = 1L << (magnitude - SUB_BUCKET_BITS);
+      long lowest = (1L << magnitude) + (index % SUB_BUCKETS) * width;
+      return lowest + width - 1;
+   }
+
+   /**
+    * <p>
+    * The counts of a histogram at one point in time.
+    * </p>
+    */
+   public static final class Snapshot {
+
+      private final long[] counts;
+      private final long count;
+      private final long sum;
+      private final long max;
+
+      Snapshot(long[] counts, long count, long sum, long max) {
+
+         this.counts = counts;
+         this.count = count;
+         this.sum = sum;
+         this.max = max;
+      }
+
+      /**
+       * <p>
+       * Returns the number of recorded durations.
+       * </p>
+       *
+       * @return The count.
+       */
+      public long getCount() {
+
+         return count;
+      }
+
+      /**
+       * <p>
+       * Returns the total of the recorded durations.
+       * </p>
+       *
+       * @return The sum in nanoseconds.
+       */
+      public long getSum() {
+
+         return sum;
+      }
+
+      /**
+       * <p>
+       * Returns the longest recorded duration.
+       * </p>
+       *
+       * @return The maximum in nanoseconds.
+       */
+      public long getMax() {
+
+         return max;
+      }
+
+      /**
+       * <p>
+       * Returns the duration that the given share of the recorded durations
+       * do not exceed.
+       * </p>
+       *
+       * @param percentile The share, from 0 to 100, such as 99.9.
+       * @return The duration in nanoseconds or zero if nothing was recorded.
+       */
+      public long getValueAtPercentile(double percentile) {
+
+         if (count == 0) {
+            return 0;
+         }
+         long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+         long seen = 0;
+         for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+               return Math.min(highestValueOf(i), max);
+            }
+         }
+         return max;
+      }
+   }
+}
@@ -0,0 +1,65 @@
+package ezbake.glitch.metrics;
+
+import java.util.List;
+
+import ezbake.glitch.BatchingCoreExceptionHandler;
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+
+/**
+ * <p>
+ * Records the invocations, failures and latency of a handler in its
+ * {@link HandlerMetrics}.
+ * </p>
+ */
+class MeasuredHandler implements CoreExceptionHandler {
+
+   private final CoreExceptionHandler delegate;
+   protected final HandlerMetrics metrics;
+
+   MeasuredHandler(CoreExceptionHandler delegate, HandlerMetrics metrics) {
+
+      this.delegate = delegate;
+      this.metrics = metrics;
+   }
+
+   public void handle(CoreException e) {
+
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+         delegate.handle(e);
+         failed = false;
+      } finally {
+         metrics.record(System.nanoTime() - start, failed);
+      }
+   }
+
+   /**
+    * <p>
+    * Records each batch as one invocation.
+    * </p>
+    */
+   static final class Batching extends MeasuredHandler implements BatchingCoreExceptionHandler {
+
+      private final BatchingCoreExceptionHandler delegate;
+
+      Batching(BatchingCoreExceptionHandler delegate, HandlerMetrics metrics) {
+
+         super(delegate, metrics);
+         this.delegate = delegate;
+      }
+
+      public void handleBatch(List<CoreException> exceptions) {
+
+         long start = System.nanoTime();
+         boolean failed = true;
+         try {
+            delegate.handleBatch(exceptions);
+            failed = false;
+         } finally {
+            metrics.record(System.nanoTime() - start, failed);
+         }
+      }
+   }
+}
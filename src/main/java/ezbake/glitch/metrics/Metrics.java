@@ -0,0 +1,422 @@
+package ezbake.glitch.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.BatchingCoreExceptionHandler;
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.codec.DecodedException;
+import ezbake.glitch.config.Configuration;
+import ezbake.glitch.config.Values;
+
+/**
+ * <p>
+ * Counts what the exception manager does with each exception class,
+ * measures each handler and reads the depth of the queues, and reports
+ * them through JMX and, optionally, over HTTP.
+ * </p>
+ * <p>
+ * Counts are kept in {@link StripedCounter} instances and latencies in
+ * {@link LatencyHistogram} instances, so recording on the dispatch path
+ * takes a map read and an uncontended atomic increment and never locks.
+ * Handler latencies are measured around the plain handler, so they exclude
+ * the time spent waiting in queues, batches and retries.
+ * </p>
+ * <p>
+ * The metrics are enabled with the following configuration properties:
+ * </p>
+ * <ul>
+ * <li><b>metrics</b> - <code>true</code> to record metrics. By default
+ * nothing is recorded.</li>
+ * <li><b>metrics.jmx</b> - <code>false</code> to not register the
+ * {@link MetricsMXBean}. By default it is registered as
+ * <code>ezbake.glitch:type=Metrics</code>.</li>
+ * <li><b>metrics.port</b> - the port on which the text exposition is served
+ * at <code>/metrics</code>. By default there is no HTTP server.</li>
+ * <li><b>metrics.address</b> - the address the HTTP server listens on. By
+ * default it listens on all addresses.</li>
+ * </ul>
+ */
+public final class Metrics implements MetricsMXBean {
+
+   public static final String ENABLED = "metrics";
+   public static final String JMX = "metrics.jmx";
+   public static final String PORT = "metrics.port";
+   public static final String ADDRESS = "metrics.address";
+
+   static final String OBJECT_NAME = "ezbake.glitch:type=Metrics";
+
+   private static final double[] PERCENTILES = { 50, 99, 99.9 };
+   private static final String[] QUANTILES = { "0.5", "0.99", "0.999" };
+   private static final String[] PERCENTILE_NAMES = { "p50", "p99", "p999" };
+
+   /**
+    * <p>
+    * What happened to an exception.
+    * </p>
+    */
+   public enum Event {
+
+      /** Requested for handling. */
+      RECEIVED,
+      /** Passed to its mapped handlers. */
+      DISPATCHED,
+      /** Passed to the default handlers as it is not mapped. */
+      DEFAULTED,
+      /** Not handled as a repeat or as not sampled. */
+      SUPPRESSED,
+      /**
+       * Not handled, by all of its handlers or by one of them, because a
+       * rate limit, a full dispatch queue or a full bulkhead dropped it.
+       * Counted once for each handler that dropped it.
+       */
+      DROPPED;
+
+      String getName() {
+
+         return name().toLowerCase(Locale.ENGLISH);
+      }
+   }
+
+   private static Logger logger = LoggerFactory.getLogger(Metrics.class);
+
+   private final ConcurrentMap<String, StripedCounter[]> exceptions = new ConcurrentHashMap<String, StripedCounter[]>();
+   private final ConcurrentMap<String, HandlerMetrics> handlers = new ConcurrentHashMap<String, HandlerMetrics>();
+   private final ConcurrentMap<String, Gauge> queues = new ConcurrentHashMap<String, Gauge>();
+   private ObjectName objectName;
+   private MetricsServer server;
+
+   /**
+    * <p>
+    * Creates the metrics described by the configuration's properties,
+    * registers them with the platform MBean server and starts the HTTP
+    * server. A registration or server that fails is logged and skipped.
+    * </p>
+    *
+    * @param configuration The configuration whose properties enable the
+    *       metrics.
+    * @return The metrics or null if they are not enabled.
+    */
+   public static Metrics create(Configuration configuration) {
+
+      if (!Boolean.parseBoolean(configuration.getProperty(ENABLED))) {
+         return null;
+      }
+
+      Metrics metrics = new Metrics();
+      if (!"false".equalsIgnoreCase(configuration.getProperty(JMX))) {
+         metrics.register();
+      }
+      int port = Values.toInt(configuration.getProperty(PORT), -1);
+      if (port >= 0) {
+         String address = configuration.getProperty(ADDRESS);
+         try {
+            metrics.server = new MetricsServer(metrics, Values.isNothing(address) ? null : address.trim(), port);
+         } catch (IOException e) {
+            logger.error("The metrics could not be served on port " + port + ".", e);
+         }
+      }
+      return metrics;
+   }
+
+   /**
+    * <p>
+    * Counts an event of an exception class.
+    * </p>
+    *
+    * @param exceptionFqcn The class name of the exception.
+    * @param event What happened to the exception.
+    */
+   public void record(String exceptionFqcn, Event event) {
+
+      StripedCounter[] counters = exceptions.get(exceptionFqcn);
+      if (counters == null) {
+         counters = new StripedCounter[Event.values().length];
+         for (int i = 0; i < counters.length; i++) {
+            counters[i] = new StripedCounter();
+         }
+         StripedCounter[] existing = exceptions.putIfAbsent(exceptionFqcn, counters);
+         if (existing != null) {
+            counters = existing;
+         }
+      }
+      counters[event.ordinal()].increment();
+   }
+
+   /**
+    * <p>
+    * Counts an event of an exception under the class it is dispatched by:
+    * that of its original if it is derived from another exception, and the
+    * original class name if it was decoded.
+    * </p>
+    *
+    * @param exception The exception.
+    * @param event What happened to the exception.
+    */
+   public void record(CoreException exception, Event event) {
+
+      record(DecodedException.getMappedClassName(exception), event);
+   }
+
+   /**
+    * <p>
+    * Returns a handler that counts an event of each exception passed to it.
+    * </p>
+    *
+    * @param event What happened to the exceptions.
+    * @return The counting handler.
+    */
+   public CoreExceptionHandler counting(final Event event) {
+
+      return new CoreExceptionHandler() {
+         public void handle(CoreException e) {
+            record(e, event);
+         }
+      };
+   }
+
+   /**
+    * <p>
+    * Returns the count of an event of an exception class.
+    * </p>
+    *
+    * @param exceptionFqcn The class name of the exception.
+    * @param event What happened to the exception.
+    * @return The count.
+    */
+   public long getCount(String exceptionFqcn, Event event) {
+
+      StripedCounter[] counters = exceptions.get(exceptionFqcn);
+      return counters == null ? 0 : counters[event.ordinal()].sum();
+   }
+
+   /**
+    * <p>
+    * Wraps a handler so that its invocations are measured.
+    * </p>
+    *
+    * @param handlerFqcn The class name of the handler.
+    * @param handler The plain handler.
+    * @return The wrapped handler, which is a
+    *       {@link BatchingCoreExceptionHandler} if the handler is.
+    */
+   public CoreExceptionHandler measure(String handlerFqcn, CoreExceptionHandler handler) {
+
+      HandlerMetrics handlerMetrics = getHandlerMetrics(handlerFqcn);
+      if (handler instanceof BatchingCoreExceptionHandler) {
+         return new MeasuredHandler.Batching((BatchingCoreExceptionHandler) handler, handlerMetrics);
+      }
+      return new MeasuredHandler(handler, handlerMetrics);
+   }
+
+   /**
+    * <p>
+    * Returns the metrics of a handler.
+    * </p>
+    *
+    * @param handlerFqcn The class name of the handler.
+    * @return The handler's metrics.
+    */
+   public HandlerMetrics getHandlerMetrics(String handlerFqcn) {
+
+      HandlerMetrics handlerMetrics = handlers.get(handlerFqcn);
+      if (handlerMetrics == null) {
+         handlers.putIfAbsent(handlerFqcn, new HandlerMetrics());
+         handlerMetrics = handlers.get(handlerFqcn);
+      }
+      return handlerMetrics;
+   }
+
+   /**
+    * <p>
+    * Adds a queue whose depth is reported.
+    * </p>
+    *
+    * @param name The name of the queue.
+    * @param depth Reads the number of items in the queue.
+    */
+   public void addQueue(String name, Gauge depth) {
+
+      queues.put(name, depth);
+   }
+
+   /**
+    * <p>
+    * Removes all queues, so that the queues of a reloaded configuration can
+    * be added.
+    * </p>
+    */
+   public void removeQueues() {
+
+      queues.clear();
+   }
+
+   /**
+    * <p>
+    * Returns the port of the HTTP server.
+    * </p>
+    *
+    * @return The port or -1 if there is no server.
+    */
+   public int getPort() {
+
+      return server == null ? -1 : server.getPort();
+   }
+
+   public Map<String, Long> getExceptionCounts() {
+
+      Map<String, Long> counts = new TreeMap<String, Long>();
+      for (Map.Entry<String, StripedCounter[]> entry : exceptions.entrySet()) {
+         for (Event event : Event.values()) {
+            counts.put(entry.getKey() + ":" + event.getName(), entry.getValue()[event.ordinal()].sum());
+         }
+      }
+      return counts;
+   }
+
+   public Map<String, Long> getHandlerCounts() {
+
+      Map<String, Long> counts = new TreeMap<String, Long>();
+      for (Map.Entry<String, HandlerMetrics> entry : handlers.entrySet()) {
+         counts.put(entry.getKey() + ":invocations", entry.getValue().getInvocationCount());
+         counts.put(entry.getKey() + ":failures", entry.getValue().getFailureCount());
+         counts.put(entry.getKey() + ":overruns", entry.getValue().getOverrunCount());
+      }
+      return counts;
+   }
+
+   public Map<String, Long> getHandlerLatencies() {
+
+      Map<String, Long> latencies = new TreeMap<String, Long>();
+      for (Map.Entry<String, HandlerMetrics> entry : handlers.entrySet()) {
+         LatencyHistogram.Snapshot snapshot = entry.getValue().getLatency().snapshot();
+         for (int i = 0; i < PERCENTILES.length; i++) {
+            latencies.put(entry.getKey() + ":" + PERCENTILE_NAMES[i], snapshot.getValueAtPercentile(PERCENTILES[i]));
+         }
+         latencies.put(entry.getKey() + ":max", snapshot.getMax());
+      }
+      return latencies;
+   }
+
+   public Map<String, Long> getQueueDepths() {
+
+      Map<String, Long> depths = new TreeMap<String, Long>();
+      for (Map.Entry<String, Gauge> entry : queues.entrySet()) {
+         depths.put(entry.getKey(), entry.getValue().getValue());
+      }
+      return depths;
+   }
+
+   public String getText() {
+
+      StringBuilder text = new StringBuilder(4096);
+
+      text.append("# TYPE glitch_exceptions_total counter\n");
+      for (Map.Entry<String, StripedCounter[]> entry : new TreeMap<String, StripedCounter[]>(exceptions).entrySet()) {
+         for (Event event : Event.values()) {
+            text.append("glitch_exceptions_total{class=\"").append(escape(entry.getKey()))
+                  .append("\",event=\"").append(event.getName()).append("\"} ")
+                  .append(entry.getValue()[event.ordinal()].sum()).append('\n');
+         }
+      }
+
+      Map<String, HandlerMetrics> sortedHandlers = new TreeMap<String, HandlerMetrics>(handlers);
+      text.append("# TYPE glitch_handler_invocations_total counter\n");
+      for (Map.Entry<String, HandlerMetrics> entry : sortedHandlers.entrySet()) {
+         text.append("glitch_handler_invocations_total{handler=\"").append(escape(entry.getKey())).append("\"} ")
+               .append(entry.getValue().getInvocationCount()).append('\n');
+      }
+      text.append("# TYPE glitch_handler_failures_total counter\n");
+      for (Map.Entry<String, HandlerMetrics> entry : sortedHandlers.entrySet()) {
+         text.append("glitch_handler_failures_total{handler=\"").append(escape(entry.getKey())).append("\"} ")
+               .append(entry.getValue().getFailureCount()).append('\n');
+      }
+      text.append("# TYPE glitch_handler_overruns_total counter\n");
+      for (Map.Entry<String, HandlerMetrics> entry : sortedHandlers.entrySet()) {
+         text.append("glitch_handler_overruns_total{handler=\"").append(escape(entry.getKey())).append("\"} ")
+               .append(entry.getValue().getOverrunCount()).append('\n');
+      }
+      text.append("# TYPE glitch_handler_latency_seconds summary\n");
+      for (Map.Entry<String, HandlerMetrics> entry : sortedHandlers.entrySet()) {
+         String handler = escape(entry.getKey());
+         LatencyHistogram.Snapshot snapshot = entry.getValue().getLatency().snapshot();
+         for (int i = 0; i < PERCENTILES.length; i++) {
+            text.append("glitch_handler_latency_seconds{handler=\"").append(handler).append("\",quantile=\"").append(QUANTILES[i]).append("\"} ")
+                  .append(toSeconds(snapshot.getValueAtPercentile(PERCENTILES[i]))).append('\n');
+         }
+         text.append("glitch_handler_latency_seconds_sum{handler=\"").append(handler).append("\"} ").append(toSeconds(snapshot.getSum())).append('\n');
+         text.append("glitch_handler_latency_seconds_count{handler=\"").append(handler).append("\"} ").append(snapshot.getCount()).append('\n');
+      }
+
+      text.append("# TYPE glitch_queue_depth gauge\n");
+      for (Map.Entry<String, Long> entry : getQueueDepths().entrySet()) {
+         text.append("glitch_queue_depth{queue=\"").append(escape(entry.getKey())).append("\"} ").append(entry.getValue()).append('\n');
+      }
+      return text.toString();
+   }
+
+   /**
+    * <p>
+    * Unregisters the MBean and stops the HTTP server.
+    * </p>
+    */
+   public synchronized void close() {
+
+      if (objectName != null) {
+         try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+         } catch (JMException e) {
+            logger.warn("The metrics MBean '" + objectName + "' could not be unregistered.", e);
+         }
+         objectName = null;
+      }
+      if (server != null) {
+         server.stop();
+         server = null;
+      }
+   }
+
+   /**
+    * <p>
+    * Registers this instance with the platform MBean server, replacing the
+    * metrics of an instance that was not closed.
+    * </p>
+    */
+   private synchronized void register() {
+
+      try {
+         MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(OBJECT_NAME);
+         if (mbeanServer.isRegistered(name)) {
+            mbeanServer.unregisterMBean(name);
+         }
+         mbeanServer.registerMBean(this, name);
+         objectName = name;
+      } catch (JMException e) {
+         logger.error("The metrics MBean '" + OBJECT_NAME + "' could not be registered.", e);
+      }
+   }
+
+   private static String toSeconds(long nanos) {
+
+      return String.valueOf(nanos / 1e9);
+   }
+
+   private static String escape(String label) {
+
+      return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+   }
+}
@@ -0,0 +1,62 @@
+package ezbake.glitch.metrics;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * The management interface of {@link Metrics}, registered as
+ * <code>ezbake.glitch:type=Metrics</code>. Keys name the exception class
+ * or handler class and the measure, separated by a colon, such as
+ * <code>com.example.TimeoutException:received</code>.
+ * </p>
+ */
+public interface MetricsMXBean {
+
+   /**
+    * <p>
+    * Returns the counts per exception class of the exceptions received,
+    * dispatched, dispatched to the default handlers, suppressed and dropped.
+    * </p>
+    *
+    * @return The counts keyed by class name and event.
+    */
+   Map<String, Long> getExceptionCounts();
+
+   /**
+    * <p>
+    * Returns the invocation, failure and timeout overrun counts per handler.
+    * </p>
+    *
+    * @return The counts keyed by handler class name and measure.
+    */
+   Map<String, Long> getHandlerCounts();
+
+   /**
+    * <p>
+    * Returns the 50th, 99th and 99.9th percentile and maximum latencies per
+    * handler in nanoseconds.
+    * </p>
+    *
+    * @return The latencies keyed by handler class name and percentile.
+    */
+   Map<String, Long> getHandlerLatencies();
+
+   /**
+    * <p>
+    * Returns the current depth of the dispatch queue, the bulkhead queues
+    * and the retry queues.
+    * </p>
+    *
+    * @return The depths keyed by queue name.
+    */
+   Map<String, Long> getQueueDepths();
+
+   /**
+    * <p>
+    * Returns all metrics in the text exposition format.
+    * </p>
+    *
+    * @return The metrics as text.
+    */
+   String getText();
+}
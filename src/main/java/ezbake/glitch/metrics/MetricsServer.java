@@ -0,0 +1,75 @@
+package ezbake.glitch.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>
+ * Serves the text exposition of {@link Metrics} at <code>/metrics</code>
+ * with the HTTP server built into the JDK, on one daemon thread.
+ * </p>
+ */
+final class MetricsServer {
+
+   static final String PATH = "/metrics";
+
+   private final HttpServer server;
+   private final ExecutorService executor;
+
+   /**
+    * <p>
+    * Starts the server.
+    * </p>
+    *
+    * @param metrics The metrics to serve.
+    * @param address The address to listen on or null for all addresses.
+    * @param port The port to listen on or 0 for any free port.
+    * @throws IOException if the server cannot listen on the port.
+    */
+   MetricsServer(final Metrics metrics, String address, int port) throws IOException {
+
+      this.server = HttpServer.create(address == null ? new InetSocketAddress(port) : new InetSocketAddress(address, port), 0);
+      this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "glitch-metrics");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      server.setExecutor(executor);
+      server.createContext(PATH, new HttpHandler() {
+         public void handle(HttpExchange exchange) throws IOException {
+            try {
+               byte[] body = metrics.getText().getBytes("UTF-8");
+               exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+               exchange.sendResponseHeaders(200, body.length);
+               OutputStream out = exchange.getResponseBody();
+               out.write(body);
+               out.close();
+            } finally {
+               exchange.close();
+            }
+         }
+      });
+      server.start();
+   }
+
+   int getPort() {
+
+      return server.getAddress().getPort();
+   }
+
+   void stop() {
+
+      server.stop(0);
+      executor.shutdownNow();
+   }
+}
@@ -0,0 +1,96 @@
+package ezbake.glitch.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A counter that many threads can increment without contending on one
+ * memory location. The count is spread over a few cells, each on a cache
+ * line of its own, and a thread always adds to the cell its id hashes to;
+ * reading the count sums the cells. Threads that share a cell still
+ * increment correctly, they only contend with each other.
+ * </p>
+ * <p>
+ * The sum is not a snapshot: increments made while it is computed may or
+ * may not be included.
+ * </p>
+ */
+public final class StripedCounter {
+
+   /** The number of longs in a 64-byte cache line. */
+   private static final int PADDING = 8;
+
+   static final int STRIPES = stripes();
+
+   private final AtomicLongArray cells = new AtomicLongArray((STRIPES + 1) * PADDING);
+
+   /**
+    * <p>
+    * Adds one to the count.
+    * </p>
+    */
+   public void increment() {
+
+      cells.getAndIncrement(index());
+   }
+
+   /**
+    * <p>
+    * Adds to the count.
+    * </p>
+    *
+    * @param amount The amount to add.
+    */
+   public void add(long amount) {
+
+      cells.getAndAdd(index(), amount);
+   }
+
+   /**
+    * <p>
+    * Returns the count.
+    * </p>
+    *
+    * @return The sum of the cells.
+    */
+   public long sum() {
+
+      long sum = 0;
+      for (int i = PADDING; i < cells.length(); i += PADDING) {
+         sum += cells.get(i);
+      }
+      return sum;
+   }
+
+   /**
+    * <p>
+    * Returns the cell of the current thread. The first cache line of the
+    * array is left unused, as it may be shared with the array's header.
+    * </p>
+    */
+   private static int index() {
+
+      return stripe(STRIPES) * PADDING + PADDING;
+   }
+
+   /**
+    * <p>
+    * Returns the stripe of the current thread among a power of two of
+    * stripes.
+    * </p>
+    */
+   static int stripe(int stripes) {
+
+      long hash = Thread.currentThread().getId() * 0x9e3779b97f4a7c15L;
+      return (int) (hash >>> 32) & (stripes - 1);
+   }
+
+   private static int stripes() {
+
+      int stripes = 1;
+      while (stripes < Runtime.getRuntime().availableProcessors() * 2 && stripes < 64) {
+         stripes <<= 1;
+      }
+      return stripes;
+   }
+}
@@ -0,0 +1,283 @@
+package ezbake.glitch.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * <p>
+ * Generates a {@link ezbake.glitch.HandlerRegistry} from the handlers of a
+ * compilation that are annotated with {@link ezbake.glitch.Handles}. The
+ * registry adds one mapping per handled exception and creates each handler
+ * with a plain <code>new</code>, selected by a switch on the hash of the
+ * class name, so that no handler is looked up or instantiated by
+ * reflection. The registry is listed in
+ * <code>META-INF/services/ezbake.glitch.HandlerRegistry</code>, where
+ * {@link ezbake.glitch.HandlerRegistries} finds it.
+ * </p>
+ * <p>
+ * The registry is named <code>GlitchHandlerRegistry</code> and placed in
+ * the package of the first annotated handler by name, unless the
+ * <b>glitch.registry</b> processor option gives another fully qualified
+ * name, for example <code>-Aglitch.registry=com.example.Handlers</code>.
+ * A handler that is not a public, non-abstract
+ * {@link ezbake.glitch.CoreExceptionHandler} with a public constructor
+ * without arguments is reported as a compilation error.
+ * </p>
+ * <p>
+ * The processor is registered as a service of the framework's jar, so it
+ * runs whenever a project that depends on the framework is compiled.
+ * </p>
+ */
+@SupportedAnnotationTypes(HandlesProcessor.HANDLES)
+@SupportedOptions(HandlesProcessor.REGISTRY_OPTION)
+public class HandlesProcessor extends AbstractProcessor {
+
+   public static final String REGISTRY_OPTION = "glitch.registry";
+
+   static final String HANDLES = "ezbake.glitch.Handles";
+   static final String DEFAULT_REGISTRY_NAME = "GlitchHandlerRegistry";
+   static final String SERVICE_FILE = "META-INF/services/ezbake.glitch.HandlerRegistry";
+
+   private static final String HANDLER = "ezbake.glitch.CoreExceptionHandler";
+
+   /** The mapped exceptions, by binary name, of each handler, by its canonical name. */
+   private final Map<String, Set<String>> mappings = new TreeMap<String, Set<String>>();
+   /** The binary name of each handler, by its canonical name. */
+   private final Map<String, String> binaryNames = new TreeMap<String, String>();
+   private boolean generated;
+
+   @Override
+   public SourceVersion getSupportedSourceVersion() {
+
+      return SourceVersion.latestSupported();
+   }
+
+   @Override
+   public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+
+      TypeElement handles = processingEnv.getElementUtils().getTypeElement(HANDLES);
+      if (handles == null || roundEnv.processingOver()) {
+         return false;
+      }
+
+      boolean found = false;
+      for (Element element : roundEnv.getElementsAnnotatedWith(handles)) {
+         found |= collect(element);
+      }
+      if (found) {
+         if (generated) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                  "@Handles on a class generated by another annotation processor is not supported; the handler registry is already written.");
+         } else {
+            generated = true;
+            generate();
+         }
+      }
+      return true;
+   }
+
+   /**
+    * <p>
+    * Validates an annotated handler and records its mappings.
+    * </p>
+    *
+    * @return true if the handler was recorded.
+    */
+   private boolean collect(Element element) {
+
+      Messager messager = processingEnv.getMessager();
+      Elements elements = processingEnv.getElementUtils();
+      Types types = processingEnv.getTypeUtils();
+
+      if (element.getKind() != ElementKind.CLASS) {
+         messager.printMessage(Diagnostic.Kind.ERROR, "@Handles may only annotate a handler class.", element);
+         return false;
+      }
+      TypeElement handler = (TypeElement) element;
+      Set<Modifier> modifiers = handler.getModifiers();
+      if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.ABSTRACT)
+            || (handler.getNestingKind() == NestingKind.MEMBER && !modifiers.contains(Modifier.STATIC))
+            || (handler.getNestingKind() != NestingKind.TOP_LEVEL && handler.getNestingKind() != NestingKind.MEMBER)) {
+         messager.printMessage(Diagnostic.Kind.ERROR, "A handler annotated with @Handles must be a public, non-abstract, top-level or static nested class.", element);
+         return false;
+      }
+      TypeElement handlerType = elements.getTypeElement(HANDLER);
+      if (!types.isAssignable(handler.asType(), types.erasure(handlerType.asType()))) {
+         messager.printMessage(Diagnostic.Kind.ERROR, "A handler annotated with @Handles must implement " + HANDLER + ".", element);
+         return false;
+      }
+      if (!hasPublicNoArgConstructor(handler)) {
+         messager.printMessage(Diagnostic.Kind.ERROR, "A handler annotated with @Handles must have a public constructor without arguments.", element);
+         return false;
+      }
+
+      Set<String> exceptions = new TreeSet<String>();
+      for (AnnotationMirror annotation : handler.getAnnotationMirrors()) {
+         if (!((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().contentEquals(HANDLES)) {
+            continue;
+         }
+         for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation.getElementValues().entrySet()) {
+            if (!entry.getKey().getSimpleName().contentEquals("value")) {
+               continue;
+            }
+            for (Object value : asList(entry.getValue().getValue())) {
+               TypeMirror exception = (TypeMirror) ((AnnotationValue) value).getValue();
+               exceptions.add(elements.getBinaryName((TypeElement) ((DeclaredType) exception).asElement()).toString());
+            }
+         }
+      }
+      if (exceptions.isEmpty()) {
+         messager.printMessage(Diagnostic.Kind.WARNING, "@Handles names no exceptions; the handler is not mapped.", element);
+      }
+
+      String canonicalName = handler.getQualifiedName().toString();
+      binaryNames.put(canonicalName, elements.getBinaryName(handler).toString());
+      mappings.put(canonicalName, exceptions);
+      return true;
+   }
+
+   private boolean hasPublicNoArgConstructor(TypeElement handler) {
+
+      for (ExecutableElement constructor : ElementFilter.constructorsIn(handler.getEnclosedElements())) {
+         if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private List<?> asList(Object value) {
+
+      return value instanceof List ? (List<?>) value : Collections.singletonList(value);
+   }
+
+   /**
+    * <p>
+    * Writes the registry source and its service file.
+    * </p>
+    */
+   private void generate() {
+
+      String registryName = processingEnv.getOptions().get(REGISTRY_OPTION);
+      if (registryName == null || registryName.trim().length() == 0) {
+         String first = mappings.keySet().iterator().next();
+         String binaryName = binaryNames.get(first);
+         int dot = binaryName.lastIndexOf('.');
+         registryName = (dot < 0 ? "" : binaryName.substring(0, dot + 1)) + DEFAULT_REGISTRY_NAME;
+      }
+      registryName = registryName.trim();
+      int dot = registryName.lastIndexOf('.');
+      String packageName = dot < 0 ? null : registryName.substring(0, dot);
+      String simpleName = registryName.substring(dot + 1);
+
+      Filer filer = processingEnv.getFiler();
+      try {
+         Writer writer = filer.createSourceFile(registryName).openWriter();
+         try {
+            writeRegistry(new PrintWriter(writer), packageName, simpleName);
+         } finally {
+            writer.close();
+         }
+         FileObject service = filer.createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+         writer = service.openWriter();
+         try {
+            writer.write(registryName + "\n");
+         } finally {
+            writer.close();
+         }
+      } catch (IOException e) {
+         processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "The handler registry " + registryName + " could not be written: " + e);
+      }
+   }
+
+   private void writeRegistry(PrintWriter out, String packageName, String simpleName) {
+
+      if (packageName != null) {
+         out.println("package " + packageName + ";");
+         out.println();
+      }
+      out.println("/**");
+      out.println(" * Generated by " + HandlesProcessor.class.getName() + " from the handlers annotated with @Handles.");
+      out.println(" */");
+      out.println("public final class " + simpleName + " implements ezbake.glitch.HandlerRegistry {");
+      out.println();
+      out.println("   public void addMappings(ezbake.glitch.config.Configuration configuration) {");
+      out.println();
+      for (Map.Entry<String, Set<String>> entry : mappings.entrySet()) {
+         for (String exception : entry.getValue()) {
+            out.println("      configuration.addExceptionHandler(" + literal(exception) + ", " + literal(binaryNames.get(entry.getKey())) + ");");
+         }
+      }
+      out.println("   }");
+      out.println();
+      out.println("   public ezbake.glitch.CoreExceptionHandler newHandler(String handlerFqcn) throws Exception {");
+      out.println();
+      out.println("      if (handlerFqcn == null) {");
+      out.println("         return null;");
+      out.println("      }");
+      out.println("      switch (handlerFqcn.hashCode()) {");
+      Map<Integer, List<String>> buckets = new TreeMap<Integer, List<String>>();
+      for (String canonicalName : mappings.keySet()) {
+         Integer hash = Integer.valueOf(binaryNames.get(canonicalName).hashCode());
+         List<String> bucket = buckets.get(hash);
+         if (bucket == null) {
+            bucket = new ArrayList<String>();
+            buckets.put(hash, bucket);
+         }
+         bucket.add(canonicalName);
+      }
+      for (Map.Entry<Integer, List<String>> bucket : buckets.entrySet()) {
+         out.println("      case " + bucket.getKey() + ":");
+         for (String canonicalName : bucket.getValue()) {
+            out.println("         if (" + literal(binaryNames.get(canonicalName)) + ".equals(handlerFqcn)) {");
+            out.println("            return new " + canonicalName + "();");
+            out.println("         }");
+         }
+         out.println("         break;");
+      }
+      out.println("      default:");
+      out.println("         break;");
+      out.println("      }");
+      out.println("      return null;");
+      out.println("   }");
+      out.println("}");
+      out.flush();
+   }
+
+   private String literal(String value) {
+
+      return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+   }
+}
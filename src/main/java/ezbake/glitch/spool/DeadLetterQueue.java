@@ -0,0 +1,219 @@
+package ezbake.glitch.spool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.codec.DecodedException;
+import ezbake.glitch.codec.EventDecoder;
+import ezbake.glitch.codec.EventEncoder;
+import ezbake.glitch.codec.EventFormatException;
+
+/**
+ * <p>
+ * A file of the exceptions a handler gave up on, kept so that they can be
+ * handled again later. Each exception is appended as a binary event that
+ * stands on its own, see {@link EventEncoder}, and forced to storage before
+ * {@link #handle(CoreException)} returns. The file can be printed with
+ * {@link EventDecoder}.
+ * </p>
+ * <p>
+ * {@link #reprocess(CoreExceptionHandler)} moves the file aside and passes
+ * its exceptions, as {@link DecodedException} instances, to a handler;
+ * exceptions that fail again are appended to a new file. A file that was
+ * moved aside and not finished, because the JVM stopped, is reprocessed
+ * first by the next call.
+ * </p>
+ * <p>
+ * The file is opened for appending, so the queues of a handler before and
+ * after the configuration is reloaded may write to it at the same time.
+ * </p>
+ */
+public final class DeadLetterQueue implements CoreExceptionHandler, Closeable {
+
+   public static final String DIRECTORY = "deadLetter.directory";
+
+   static final String SUFFIX = ".dlq";
+   static final String PROCESSING_SUFFIX = ".processing";
+
+   private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+   private static final int MAX_EVENT_SIZE = 16 * 1024 * 1024;
+
+   private Logger logger = LoggerFactory.getLogger(DeadLetterQueue.class);
+
+   private final File file;
+   private final File processing;
+   private final EventEncoder encoder = new EventEncoder();
+   private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+   private FileOutputStream out;
+   private FileChannel channel;
+
+   /**
+    * <p>
+    * Creates the dead-letter queue of a handler. The file is created when
+    * the first exception is stored.
+    * </p>
+    *
+    * @param directory The directory of the dead-letter files.
+    * @param handlerFqcn The class name of the handler, which names the file.
+    */
+   public DeadLetterQueue(File directory, String handlerFqcn) {
+
+      this.file = new File(directory, handlerFqcn + SUFFIX);
+      this.processing = new File(directory, handlerFqcn + SUFFIX + PROCESSING_SUFFIX);
+   }
+
+   /**
+    * <p>
+    * Returns the file to which exceptions are appended.
+    * </p>
+    *
+    * @return The dead-letter file.
+    */
+   public File getFile() {
+
+      return file;
+   }
+
+   /**
+    * <p>
+    * Appends an exception to the file and forces it to storage.
+    * </p>
+    *
+    * @param e The exception given up on.
+    * @throws IllegalStateException if the exception cannot be stored.
+    */
+   public synchronized void handle(CoreException e) {
+
+      while (true) {
+         buffer.clear();
+         encoder.reset();
+         try {
+            encoder.encode(e, buffer);
+            break;
+         } catch (BufferOverflowException overflow) {
+            if (buffer.capacity() >= MAX_EVENT_SIZE) {
+               throw new IllegalStateException("The event of exception type '" + e.getClass().getName() + "' is larger than " + MAX_EVENT_SIZE + " bytes.");
+            }
+            buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+         }
+      }
+      buffer.flip();
+
+      long size = -1;
+      try {
+         if (channel == null) {
+            File directory = file.getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+               throw new IOException("The dead-letter directory '" + directory + "' could not be created.");
+            }
+            out = new FileOutputStream(file, true);
+            channel = out.getChannel();
+         }
+         size = channel.size();
+         while (buffer.hasRemaining()) {
+            channel.write(buffer);
+         }
+         channel.force(false);
+      } catch (IOException failure) {
+         if (size >= 0) {
+            try {
+               channel.truncate(size);
+            } catch (IOException truncateFailure) {
+               logger.warn("The dead-letter file '" + file + "' could not be cut back after a failed write.", truncateFailure);
+            }
+         }
+         throw new IllegalStateException("The dead-letter file '" + file + "' could not be written.", failure);
+      }
+   }
+
+   /**
+    * <p>
+    * Passes the stored exceptions to a handler and removes them from the
+    * queue. A failure of the handler is logged; the handler is expected to
+    * store the exceptions it fails on again, as a decorated handler with a
+    * retry policy does.
+    * </p>
+    *
+    * @param target The handler that receives the stored exceptions.
+    * @return The number of exceptions passed to the handler.
+    * @throws IOException if the file cannot be read.
+    */
+   public int reprocess(CoreExceptionHandler target) throws IOException {
+
+      synchronized (this) {
+         close();
+         if (!processing.exists() && file.exists() && !file.renameTo(processing)) {
+            throw new IOException("The dead-letter file '" + file + "' could not be moved aside for reprocessing.");
+         }
+      }
+      if (!processing.exists()) {
+         return 0;
+      }
+
+      byte[] bytes;
+      RandomAccessFile in = new RandomAccessFile(processing, "r");
+      try {
+         bytes = new byte[(int) Math.min(Integer.MAX_VALUE, in.length())];
+         in.readFully(bytes);
+      } finally {
+         in.close();
+      }
+
+      ByteBuffer events = ByteBuffer.wrap(bytes);
+      EventDecoder decoder = new EventDecoder();
+      int count = 0;
+      while (true) {
+         DecodedException event;
+         try {
+            event = decoder.decode(events);
+         } catch (EventFormatException e) {
+            logger.warn("The dead-letter file '" + processing + "' ends with an event that cannot be read; the rest of the file is dropped.", e);
+            break;
+         }
+         if (event == null) {
+            break;
+         }
+         try {
+            target.handle(event);
+         } catch (Exception e) {
+            logger.error("Handler '" + target.getClass().getName() + "' encountered errors when reprocessing a dead letter of exception type '" + event.getClassName() + "'.", e);
+         }
+         count++;
+      }
+
+      if (!processing.delete()) {
+         throw new IOException("The reprocessed dead-letter file '" + processing + "' could not be deleted.");
+      }
+      return count;
+   }
+
+   /**
+    * <p>
+    * Closes the file. It is opened again when the next exception is stored.
+    * </p>
+    *
+    * @throws IOException if the file cannot be closed.
+    */
+   public synchronized void close() throws IOException {
+
+      if (out != null) {
+         try {
+            out.close();
+         } finally {
+            out = null;
+            channel = null;
+         }
+      }
+   }
+}
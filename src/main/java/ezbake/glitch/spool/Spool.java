@@ -0,0 +1,678 @@
+package ezbake.glitch.spool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.BatchingCoreExceptionHandler;
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.codec.DecodedException;
+import ezbake.glitch.config.Configuration;
+import ezbake.glitch.config.Values;
+import ezbake.glitch.dispatch.Dispatcher;
+import ezbake.glitch.exception.SpooledException;
+
+/**
+ * <p>
+ * A write-ahead log of the exceptions requested for handling. Every
+ * exception is written to the spool before it is dispatched, and every
+ * handler acknowledges the exceptions it has handled. When the exception
+ * manager starts, the exceptions a handler had not acknowledged because the
+ * JVM stopped first are dispatched to that handler again.
+ * </p>
+ * <p>
+ * An exception a handler gives up on is released rather than acknowledged,
+ * which moves the handler's offset past it just the same: one that fails
+ * and is not retried, whose retries run out, or that is dropped by a circuit
+ * breaker or a full bulkhead. So is an exception that a full dispatch
+ * pipeline drops before any handler sees it. Exceptions over a handler's
+ * rate limit are never tracked for that handler. None of these are
+ * replayed, so one lost exception does not hold back the deletion of the
+ * segments behind it.
+ * </p>
+ * <p>
+ * The spool is a directory of segment files; see {@link SpoolSegment}.
+ * Exceptions are numbered in the order they are written. Each handler's
+ * acknowledgement offset, the number of the oldest exception it has not
+ * acknowledged, is saved to the <code>offsets</code> file at every
+ * checkpoint, and segments that every handler has acknowledged are deleted.
+ * Replayed exceptions are {@link DecodedException} instances, which report
+ * the class names, messages and stack frames of the originals but are not
+ * themselves {@link Throwable}.
+ * </p>
+ * <p>
+ * The spool is enabled with the following configuration properties:
+ * </p>
+ * <ul>
+ * <li><b>spool.directory</b> - the directory of the spool. By default there
+ * is no spool.</li>
+ * <li><b>spool.segmentSize</b> - the size at which the next segment is
+ * started. The default is 64MB.</li>
+ * <li><b>spool.sync</b> - <code>commit</code>, the default, makes the
+ * requesting thread wait until its exception is on storage; threads that
+ * wait at the same time share one sync. <code>periodic</code> syncs in the
+ * background instead, so a crash may lose the last interval.</li>
+ * <li><b>spool.checkpointInterval</b> - how often offsets are saved,
+ * acknowledged segments are deleted and, with periodic sync, the spool is
+ * synced. The default is 1s.</li>
+ * </ul>
+ */
+public final class Spool {
+
+   public static final String DIRECTORY = "spool.directory";
+   public static final String SEGMENT_SIZE = "spool.segmentSize";
+   public static final String SYNC = "spool.sync";
+   public static final String CHECKPOINT_INTERVAL = "spool.checkpointInterval";
+
+   static final String OFFSETS_FILE = "offsets";
+
+   private static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+   private static final long DEFAULT_CHECKPOINT_MILLIS = 1000;
+   private static final String NEXT = "next";
+   private static final String HANDLER_PREFIX = "handler.";
+
+   private Logger logger = LoggerFactory.getLogger(Spool.class);
+
+   private final File directory;
+   private final long segmentSize;
+   private final boolean commit;
+   private final long startSequence;
+   private final ConcurrentMap<String, Offsets> offsets = new ConcurrentHashMap<String, Offsets>();
+   private final ConcurrentSkipListSet<Long> undispatched = new ConcurrentSkipListSet<Long>();
+   private final TreeMap<Long, File> segments = new TreeMap<Long, File>();
+   private final AtomicLong failures = new AtomicLong();
+   private final ScheduledExecutorService checkpointer;
+
+   private final Object writeLock = new Object();
+   private long nextSequence;
+   private volatile long written = -1;
+   private SpoolSegment current;
+   private boolean closed;
+
+   private final Object syncLock = new Object();
+   private long synced = -1;
+   private boolean syncing;
+
+   /**
+    * <p>
+    * Opens the spool in a directory, recovering the segments left by the
+    * previous run, and starts the checkpoint thread.
+    * </p>
+    *
+    * @param directory The directory of the spool.
+    * @param segmentSize The size at which the next segment is started.
+    * @param commit true to make appending wait until the exception is on
+    *       storage.
+    * @param checkpointMillis The interval between checkpoints.
+    * @param handlerFqcns The class names of the handlers that acknowledge
+    *       exceptions.
+    * @throws IOException if the spool cannot be opened.
+    */
+   public Spool(File directory, long segmentSize, boolean commit, long checkpointMillis, Collection<String> handlerFqcns) throws IOException {
+
+      this.directory = directory;
+      this.segmentSize = Math.max(1024, segmentSize);
+      this.commit = commit;
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+         throw new IOException("The spool directory '" + directory + "' could not be created.");
+      }
+
+      Properties saved = loadOffsets();
+      long last = -1;
+      File[] files = directory.listFiles();
+      for (File file : files == null ? new File[0] : files) {
+         long first = SpoolSegment.firstSequenceOf(file);
+         if (first >= 0) {
+            segments.put(first, file);
+         }
+      }
+      for (File file : segments.values()) {
+         last = Math.max(last, SpoolSegment.read(file, null));
+      }
+
+      this.startSequence = Math.max(last + 1, Values.toLong(saved.getProperty(NEXT), 0));
+      this.nextSequence = startSequence;
+      for (String handlerFqcn : handlerFqcns) {
+         long offset = Values.toLong(saved.getProperty(HANDLER_PREFIX + handlerFqcn), startSequence);
+         offsets.put(handlerFqcn, new Offsets(Math.min(offset, startSequence)));
+      }
+
+      this.checkpointer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "glitch-spool");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      long period = Math.max(1, checkpointMillis);
+      checkpointer.scheduleWithFixedDelay(new Runnable() {
+         public void run() {
+            if (!Spool.this.commit) {
+               sync(Long.MAX_VALUE);
+            }
+            checkpoint();
+         }
+      }, period, period, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * <p>
+    * Opens the spool described by the configuration's properties.
+    * </p>
+    *
+    * @param configuration The configuration whose properties enable the
+    *       spool.
+    * @param handlerFqcns The class names of the handlers that acknowledge
+    *       exceptions.
+    * @return The spool or null if the spool is not enabled or cannot be
+    *       opened.
+    */
+   public static Spool create(Configuration configuration, Collection<String> handlerFqcns) {
+
+      String directory = configuration.getProperty(DIRECTORY);
+      if (Values.isNothing(directory)) {
+         return null;
+      }
+      try {
+         return new Spool(
+               new File(directory.trim()),
+               Values.toBytes(configuration.getProperty(SEGMENT_SIZE), DEFAULT_SEGMENT_SIZE),
+               !"periodic".equalsIgnoreCase(configuration.getProperty(SYNC)),
+               Values.toMillis(configuration.getProperty(CHECKPOINT_INTERVAL), DEFAULT_CHECKPOINT_MILLIS),
+               handlerFqcns);
+      } catch (IOException e) {
+         LoggerFactory.getLogger(Spool.class).error("The spool in '" + directory + "' could not be opened; exceptions are dispatched without being spooled.", e);
+         return null;
+      }
+   }
+
+   /**
+    * <p>
+    * Writes an exception to the spool. With commit sync, waits until the
+    * exception is on storage.
+    * </p>
+    *
+    * @param exception The exception to write.
+    * @return The spooled exception to dispatch in its place or null if it
+    *       could not be written, in which case the exception is to be
+    *       dispatched as it is.
+    */
+   public SpooledException append(CoreException exception) {
+
+      long sequence;
+      synchronized (writeLock) {
+         if (closed) {
+            return null;
+         }
+         sequence = nextSequence;
+         try {
+            if (current != null && current.getSize() >= segmentSize) {
+               SpoolSegment full = current;
+               current = null;
+               full.close();
+            }
+            if (current == null) {
+               current = SpoolSegment.create(directory, sequence);
+               segments.put(sequence, current.getFile());
+            }
+            current.append(sequence, exception);
+         } catch (IOException e) {
+            if (failures.incrementAndGet() == 1) {
+               logger.error("Writing to the spool in '" + directory + "' failed; exceptions that cannot be spooled are dispatched without being spooled.", e);
+            }
+            return null;
+         }
+         nextSequence++;
+         written = sequence;
+         undispatched.add(sequence);
+      }
+
+      if (commit) {
+         sync(sequence);
+      }
+      return new SpooledException(exception, sequence, false);
+   }
+
+   /**
+    * <p>
+    * Dispatches again the spooled exceptions that a handler has not
+    * acknowledged. Each is dispatched to the handlers that have not
+    * acknowledged it only.
+    * </p>
+    *
+    * @param target Receives the replayed exceptions.
+    * @return The number of replayed exceptions.
+    */
+   public int replay(final Dispatcher target) {
+
+      long from = startSequence;
+      for (Offsets handlerOffsets : offsets.values()) {
+         from = Math.min(from, handlerOffsets.replayFrom);
+      }
+
+      final long replayFrom = from;
+      final int[] replayed = new int[1];
+      List<File> files;
+      synchronized (writeLock) {
+         files = new ArrayList<File>(segments.values());
+      }
+      for (File file : files) {
+         try {
+            SpoolSegment.read(file, new SpoolSegment.RecordVisitor() {
+               public boolean accepts(long sequence) {
+                  return sequence >= replayFrom && sequence < startSequence;
+               }
+               public void visit(long sequence, DecodedException event) {
+                  undispatched.add(sequence);
+                  target.dispatch(new SpooledException(event, sequence, true));
+                  replayed[0]++;
+               }
+            });
+         } catch (IOException e) {
+            logger.error("Replaying the spool segment '" + file + "' failed.", e);
+         }
+      }
+      if (replayed[0] > 0) {
+         logger.info("Replayed " + replayed[0] + " unacknowledged exceptions from the spool in '" + directory + "'.");
+      }
+      return replayed[0];
+   }
+
+   /**
+    * <p>
+    * Wraps a handler, outside of its bulkhead, so that the spooled
+    * exceptions it has already acknowledged are not handled again and the
+    * others are counted as in flight until acknowledged or released. An
+    * exception whose handling throws to the wrapper is released.
+    * </p>
+    *
+    * @param handlerFqcn The class name of the handler.
+    * @param handler The handler as decorated up to its bulkhead.
+    * @return The wrapped handler.
+    */
+   public CoreExceptionHandler track(String handlerFqcn, final CoreExceptionHandler handler) {
+
+      final Offsets handlerOffsets = getOffsets(handlerFqcn);
+      return new CoreExceptionHandler() {
+         public void handle(CoreException e) {
+            if (!(e instanceof SpooledException)) {
+               handler.handle(e);
+               return;
+            }
+            long sequence = ((SpooledException) e).getSequence();
+            if (sequence < handlerOffsets.replayFrom) {
+               return;
+            }
+            handlerOffsets.inFlight.add(sequence);
+            boolean returned = false;
+            try {
+               handler.handle(e);
+               returned = true;
+            } finally {
+               if (!returned) {
+                  handlerOffsets.inFlight.remove(sequence);
+               }
+            }
+         }
+      };
+   }
+
+   /**
+    * <p>
+    * Returns a handler that releases the spooled exceptions passed to it
+    * from a handler's exceptions in flight without acknowledging them. The
+    * decorations of the handler pass it the exceptions they give up on.
+    * </p>
+    *
+    * @param handlerFqcn The class name of the handler.
+    * @return The releasing handler.
+    */
+   public CoreExceptionHandler release(String handlerFqcn) {
+
+      final Offsets handlerOffsets = getOffsets(handlerFqcn);
+      return new CoreExceptionHandler() {
+         public void handle(CoreException e) {
+            if (e instanceof SpooledException) {
+               handlerOffsets.inFlight.remove(((SpooledException) e).getSequence());
+            }
+         }
+      };
+   }
+
+   /**
+    * <p>
+    * Wraps a handler, before it is decorated, so that it receives the
+    * original of a spooled exception and acknowledges the exception once it
+    * returns. A handler that throws does not acknowledge.
+    * </p>
+    *
+    * @param handlerFqcn The class name of the handler.
+    * @param handler The plain handler.
+    * @return The wrapped handler, which is a
+    *       {@link BatchingCoreExceptionHandler} if the handler is.
+    */
+   public CoreExceptionHandler acknowledge(String handlerFqcn, CoreExceptionHandler handler) {
+
+      Offsets handlerOffsets = getOffsets(handlerFqcn);
+      if (handler instanceof BatchingCoreExceptionHandler) {
+         return new AcknowledgingBatchHandler((BatchingCoreExceptionHandler) handler, handlerOffsets.inFlight);
+      }
+      return new AcknowledgingHandler(handler, handlerOffsets.inFlight);
+   }
+
+   /**
+    * <p>
+    * Records that a spooled exception has been passed to all of its
+    * handlers, or dropped before reaching them, so that it is only waited
+    * for by the handlers that track it.
+    * </p>
+    *
+    * @param exception The spooled exception.
+    */
+   public void dispatched(SpooledException exception) {
+
+      undispatched.remove(exception.getSequence());
+   }
+
+   /**
+    * <p>
+    * Returns the number of the oldest exception a handler has not
+    * acknowledged.
+    * </p>
+    *
+    * @param handlerFqcn The class name of the handler.
+    * @return The handler's acknowledgement offset.
+    */
+   public long getOffset(String handlerFqcn) {
+
+      synchronized (writeLock) {
+         return offsetOf(getOffsets(handlerFqcn));
+      }
+   }
+
+   /**
+    * <p>
+    * Returns the number of exceptions that could not be written to the
+    * spool.
+    * </p>
+    *
+    * @return The number of failed writes.
+    */
+   public long getFailureCount() {
+
+      return failures.get();
+   }
+
+   /**
+    * <p>
+    * Saves the handlers' offsets and deletes the segments every handler has
+    * acknowledged.
+    * </p>
+    */
+   public void checkpoint() {
+
+      Properties saved = new Properties();
+      long lowest;
+      List<File> acknowledged = new ArrayList<File>();
+      synchronized (writeLock) {
+         lowest = nextSequence;
+         saved.setProperty(NEXT, String.valueOf(nextSequence));
+         for (Map.Entry<String, Offsets> entry : offsets.entrySet()) {
+            long offset = offsetOf(entry.getValue());
+            saved.setProperty(HANDLER_PREFIX + entry.getKey(), String.valueOf(offset));
+            lowest = Math.min(lowest, offset);
+         }
+
+         Long first = segments.isEmpty() ? null : segments.firstKey();
+         while (first != null) {
+            Long next = segments.higherKey(first);
+            boolean isCurrent = current != null && current.getFirstSequence() == first.longValue();
+            if (isCurrent || next == null || next.longValue() > lowest) {
+               break;
+            }
+            acknowledged.add(segments.remove(first));
+            first = next;
+         }
+      }
+
+      try {
+         saveOffsets(saved);
+      } catch (IOException e) {
+         logger.error("Saving the spool offsets in '" + directory + "' failed.", e);
+         return;
+      }
+      for (File file : acknowledged) {
+         if (!file.delete()) {
+            logger.warn("The acknowledged spool segment '" + file + "' could not be deleted.");
+         }
+      }
+   }
+
+   /**
+    * <p>
+    * Stops the checkpoint thread, saves a final checkpoint and closes the
+    * current segment. Exceptions requested for handling afterwards are not
+    * spooled.
+    * </p>
+    */
+   public void close() {
+
+      checkpointer.shutdownNow();
+      synchronized (writeLock) {
+         if (closed) {
+            return;
+         }
+         closed = true;
+         if (current != null) {
+            try {
+               current.close();
+            } catch (IOException e) {
+               logger.error("Closing the spool segment '" + current.getFile() + "' failed.", e);
+            }
+            current = null;
+         }
+      }
+      checkpoint();
+   }
+
+   /**
+    * <p>
+    * Waits until the exceptions written up to the given number are on
+    * storage. The first waiting thread syncs on behalf of every thread that
+    * wrote before it started; the others wait for that sync.
+    * </p>
+    */
+   private void sync(long sequence) {
+
+      while (true) {
+         synchronized (syncLock) {
+            while (syncing && synced < sequence) {
+               try {
+                  syncLock.wait();
+               } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  return;
+               }
+            }
+            if (synced >= Math.min(sequence, written)) {
+               return;
+            }
+            syncing = true;
+         }
+
+         long target;
+         SpoolSegment segment;
+         synchronized (writeLock) {
+            target = written;
+            segment = current;
+         }
+         boolean forced = false;
+         try {
+            if (segment != null) {
+               segment.force();
+            }
+            forced = true;
+         } catch (ClosedChannelException e) {
+            forced = true;
+         } catch (IOException e) {
+            logger.error("Syncing the spool in '" + directory + "' failed.", e);
+         } finally {
+            synchronized (syncLock) {
+               syncing = false;
+               if (forced) {
+                  synced = Math.max(synced, target);
+               }
+               syncLock.notifyAll();
+            }
+         }
+         if (!forced) {
+            return;
+         }
+      }
+   }
+
+   private long offsetOf(Offsets handlerOffsets) {
+
+      long offset = nextSequence;
+      if (!handlerOffsets.inFlight.isEmpty()) {
+         offset = Math.min(offset, handlerOffsets.inFlight.first());
+      }
+      if (!undispatched.isEmpty()) {
+         offset = Math.min(offset, undispatched.first());
+      }
+      return offset;
+   }
+
+   private Offsets getOffsets(String handlerFqcn) {
+
+      Offsets handlerOffsets = offsets.get(handlerFqcn);
+      if (handlerOffsets == null) {
+         offsets.putIfAbsent(handlerFqcn, new Offsets(startSequence));
+         handlerOffsets = offsets.get(handlerFqcn);
+      }
+      return handlerOffsets;
+   }
+
+   private Properties loadOffsets() throws IOException {
+
+      Properties saved = new Properties();
+      File file = new File(directory, OFFSETS_FILE);
+      if (file.isFile()) {
+         InputStream in = new FileInputStream(file);
+         try {
+            saved.load(in);
+         } finally {
+            in.close();
+         }
+      }
+      return saved;
+   }
+
+   private void saveOffsets(Properties saved) throws IOException {
+
+      File file = new File(directory, OFFSETS_FILE);
+      File temporary = new File(directory, OFFSETS_FILE + ".tmp");
+      FileOutputStream out = new FileOutputStream(temporary);
+      try {
+         saved.store(out, "Acknowledgement offsets of the glitch spool");
+         out.getFD().sync();
+      } finally {
+         out.close();
+      }
+      if (!temporary.renameTo(file) && !(file.delete() && temporary.renameTo(file))) {
+         throw new IOException("The offsets file '" + file + "' could not be replaced.");
+      }
+   }
+
+   /**
+    * <p>
+    * The acknowledgement state of one handler: the offset saved by the
+    * previous run and the exceptions passed to it and not yet acknowledged.
+    * </p>
+    */
+   private static class Offsets {
+
+      private final long replayFrom;
+      private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<Long>();
+
+      Offsets(long replayFrom) {
+
+         this.replayFrom = replayFrom;
+      }
+   }
+
+   /**
+    * <p>
+    * Passes the original of a spooled exception to the handler and
+    * acknowledges it once the handler returns.
+    * </p>
+    */
+   private static class AcknowledgingHandler implements CoreExceptionHandler {
+
+      private final CoreExceptionHandler delegate;
+      protected final ConcurrentSkipListSet<Long> inFlight;
+
+      AcknowledgingHandler(CoreExceptionHandler delegate, ConcurrentSkipListSet<Long> inFlight) {
+
+         this.delegate = delegate;
+         this.inFlight = inFlight;
+      }
+
+      public void handle(CoreException e) {
+
+         if (e instanceof SpooledException) {
+            delegate.handle(((SpooledException) e).getOriginal());
+            inFlight.remove(((SpooledException) e).getSequence());
+         } else {
+            delegate.handle(e);
+         }
+      }
+   }
+
+   private static class AcknowledgingBatchHandler extends AcknowledgingHandler implements BatchingCoreExceptionHandler {
+
+      private final BatchingCoreExceptionHandler delegate;
+
+      AcknowledgingBatchHandler(BatchingCoreExceptionHandler delegate, ConcurrentSkipListSet<Long> inFlight) {
+
+         super(delegate, inFlight);
+         this.delegate = delegate;
+      }
+
+      public void handleBatch(List<CoreException> exceptions) {
+
+         List<CoreException> originals = new ArrayList<CoreException>(exceptions.size());
+         for (CoreException exception : exceptions) {
+            originals.add(exception instanceof SpooledException ? ((SpooledException) exception).getOriginal() : exception);
+         }
+         delegate.handleBatch(originals);
+         for (CoreException exception : exceptions) {
+            if (exception instanceof SpooledException) {
+               inFlight.remove(((SpooledException) exception).getSequence());
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,260 @@
+package ezbake.glitch.spool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.codec.DecodedException;
+import ezbake.glitch.codec.EventDecoder;
+import ezbake.glitch.codec.EventEncoder;
+import ezbake.glitch.codec.EventFormatException;
+
+/**
+ * <p>
+ * One file of the spool. A segment holds the records of consecutive
+ * sequence numbers, starting with the number in its file name. A record is:
+ * </p>
+ * <pre>
+ * int      length            of the event
+ * int      checksum          CRC-32 of the sequence number and the event
+ * long     sequence number
+ * byte[]   event             written by an {@link EventEncoder}
+ * </pre>
+ * <p>
+ * The events of a segment form one encoder stream, so a segment is always
+ * read from its start. A record whose length or checksum does not match, as
+ * left by a crash in the middle of a write, ends the segment; the file is
+ * cut back to the last whole record when it is recovered.
+ * </p>
+ */
+final class SpoolSegment {
+
+   static final String PREFIX = "spool-";
+   static final String SUFFIX = ".wal";
+
+   private static final int RECORD_HEADER_LENGTH = 16;
+   private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+   private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+   private static Logger logger = LoggerFactory.getLogger(SpoolSegment.class);
+
+   private final File file;
+   private final long firstSequence;
+   private final RandomAccessFile access;
+   private final FileChannel channel;
+   private final EventEncoder encoder = new EventEncoder();
+   private final CRC32 checksum = new CRC32();
+   private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+   private long size;
+
+   private SpoolSegment(File file, long firstSequence) throws IOException {
+
+      this.file = file;
+      this.firstSequence = firstSequence;
+      this.access = new RandomAccessFile(file, "rw");
+      this.channel = access.getChannel();
+   }
+
+   /**
+    * <p>
+    * Creates the segment file whose first record has the given sequence
+    * number.
+    * </p>
+    */
+   static SpoolSegment create(File directory, long firstSequence) throws IOException {
+
+      return new SpoolSegment(fileOf(directory, firstSequence), firstSequence);
+   }
+
+   static File fileOf(File directory, long firstSequence) {
+
+      return new File(directory, PREFIX + String.format("%020d", firstSequence) + SUFFIX);
+   }
+
+   /**
+    * <p>
+    * Returns the sequence number in a segment file name or -1 if the name is
+    * not that of a segment.
+    * </p>
+    */
+   static long firstSequenceOf(File file) {
+
+      String name = file.getName();
+      if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+         return -1;
+      }
+      try {
+         return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+      } catch (NumberFormatException e) {
+         return -1;
+      }
+   }
+
+   File getFile() {
+
+      return file;
+   }
+
+   long getFirstSequence() {
+
+      return firstSequence;
+   }
+
+   long getSize() {
+
+      return size;
+   }
+
+   /**
+    * <p>
+    * Writes the record of an exception at the end of the segment. The record
+    * is handed to the operating system but not forced to storage. A record
+    * that cannot be written in full is cut off again.
+    * </p>
+    */
+   void append(long sequence, CoreException exception) throws IOException {
+
+      while (true) {
+         buffer.clear();
+         buffer.position(RECORD_HEADER_LENGTH);
+         try {
+            encoder.encode(exception, buffer);
+            break;
+         } catch (BufferOverflowException e) {
+            if (buffer.capacity() >= MAX_RECORD_SIZE) {
+               throw new IOException("The event of exception type '" + exception.getClass().getName() + "' is larger than " + MAX_RECORD_SIZE + " bytes.");
+            }
+            buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+         }
+      }
+
+      int length = buffer.position() - RECORD_HEADER_LENGTH;
+      buffer.putInt(0, length);
+      buffer.putLong(8, sequence);
+      checksum.reset();
+      checksum.update(buffer.array(), 8, 8 + length);
+      buffer.putInt(4, (int) checksum.getValue());
+
+      buffer.flip();
+      try {
+         while (buffer.hasRemaining()) {
+            channel.write(buffer);
+         }
+      } catch (IOException e) {
+         encoder.reset();
+         channel.truncate(size);
+         channel.position(size);
+         throw e;
+      }
+      size += RECORD_HEADER_LENGTH + length;
+   }
+
+   void force() throws IOException {
+
+      channel.force(false);
+   }
+
+   void close() throws IOException {
+
+      try {
+         channel.force(false);
+      } finally {
+         access.close();
+      }
+   }
+
+   /**
+    * <p>
+    * Visits the records of a segment file in order. A torn or corrupt record
+    * and everything after it are cut from the file. The records the visitor
+    * does not accept, or all of them without a visitor, are only checked and
+    * read past, which allocates nothing per record.
+    * </p>
+    *
+    * @return The sequence number of the last whole record or -1 if there is
+    *       none.
+    */
+   static long read(File file, RecordVisitor visitor) throws IOException {
+
+      RandomAccessFile access = new RandomAccessFile(file, "rw");
+      try {
+         FileChannel channel = access.getChannel();
+         ByteBuffer records = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, channel.size()));
+         while (records.hasRemaining()) {
+            if (channel.read(records) < 0) {
+               break;
+            }
+         }
+         records.flip();
+
+         EventDecoder decoder = new EventDecoder();
+         CRC32 checksum = new CRC32();
+         long last = -1;
+         while (records.remaining() >= RECORD_HEADER_LENGTH) {
+            int start = records.position();
+            int length = records.getInt(start);
+            if (length < 0 || length > records.remaining() - RECORD_HEADER_LENGTH) {
+               break;
+            }
+            checksum.reset();
+            checksum.update(records.array(), start + 8, 8 + length);
+            if ((int) checksum.getValue() != records.getInt(start + 4)) {
+               break;
+            }
+            long sequence = records.getLong(start + 8);
+
+            ByteBuffer event = records.duplicate();
+            event.position(start + RECORD_HEADER_LENGTH);
+            event.limit(start + RECORD_HEADER_LENGTH + length);
+            try {
+               if (visitor == null || !visitor.accepts(sequence)) {
+                  decoder.skip(event);
+               } else {
+                  DecodedException decoded = decoder.decode(event);
+                  if (decoded != null) {
+                     visitor.visit(sequence, decoded);
+                  }
+               }
+            } catch (EventFormatException e) {
+               logger.error("The spooled event " + sequence + " in '" + file + "' cannot be decoded and is skipped.", e);
+            }
+            last = sequence;
+            records.position(start + RECORD_HEADER_LENGTH + length);
+         }
+
+         if (records.hasRemaining()) {
+            logger.warn("The spool segment '" + file + "' ends with " + records.remaining() + " bytes of an incomplete record, which are removed.");
+            access.setLength(records.position());
+         }
+         return last;
+      } finally {
+         access.close();
+      }
+   }
+
+   /**
+    * <p>
+    * Receives the records read from a segment.
+    * </p>
+    */
+   interface RecordVisitor {
+
+      /**
+       * <p>
+       * Answers true if the record with the given sequence number is to be
+       * decoded and visited; the others are only read past.
+       * </p>
+       */
+      boolean accepts(long sequence);
+
+      void visit(long sequence, DecodedException event);
+   }
+}
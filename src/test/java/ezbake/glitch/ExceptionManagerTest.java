@@ -1,18 +1,41 @@
 package ezbake.glitch;
 
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
 
 import org.junit.Assert;
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import ezbake.glitch.config.Configuration;
+import ezbake.glitch.dispatch.DecoratedHandlers;
+import ezbake.glitch.dispatch.Deduplicator;
+import ezbake.glitch.dispatch.DispatchPipelines;
+import ezbake.glitch.dispatch.ExceptionRateLimits;
+import ezbake.glitch.dispatch.ExceptionSamplers;
+import ezbake.glitch.dispatch.HandlerStartup;
+import ezbake.glitch.dispatch.LazyHandler;
+import ezbake.glitch.dispatch.Resolution;
+import ezbake.glitch.exception.ChildException;
 import ezbake.glitch.exception.DefaultException;
 import ezbake.glitch.handler.CounterHandler;
 import ezbake.glitch.handler.DefaultExceptionHandler;
+import ezbake.glitch.handler.FailingHandler;
+import ezbake.glitch.handler.SleepingHandler;
+import ezbake.glitch.metrics.Metrics;
+import ezbake.glitch.spool.Spool;
 
 public class ExceptionManagerTest {
 
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
    /**
     * getInstance
     * <p>
@@ -70,4 +93,372 @@ public class ExceptionManagerTest {
       Assert.assertTrue("Assert 003", handlerMap.containsKey(CounterHandler.class.getName()));
    }
    
+   /**
+    * handle
+    * <p>
+    * Verifies that a handled exception is executed by its mapped handler.
+    * </p>
+    */
+   @Test
+   public void handleExecutesMappedHandler() {
+      
+      Configuration config = new Configuration();
+      config.addDefaultHandler(DefaultExceptionHandler.class.getName());
+      config.addExceptionHandler(DefaultException.class.getName(), CounterHandler.class.getName());
+      
+      ExceptionManager manager = ExceptionManager.initialize(config);
+      manager.handle(new DefaultException("Message Goes Here"));
+      manager.handle(null);
+      
+      CounterHandler counter = (CounterHandler) manager.getHandlers().get(CounterHandler.class.getName());
+      Assert.assertEquals("Assert 001", 1, counter.getCount());
+   }
+   
+   /**
+    * handle
+    * <p>
+    * Verifies that with asynchronous dispatch configured the handlers are
+    * executed once the manager is drained.
+    * </p>
+    */
+   @Test
+   public void handleWithAsyncDispatch() throws InterruptedException {
+      
+      Configuration config = new Configuration();
+      config.setProperty(DispatchPipelines.DISPATCH, "async");
+      config.addExceptionHandler(DefaultException.class.getName(), CounterHandler.class.getName());
+      
+      ExceptionManager manager = ExceptionManager.initialize(config);
+      for (int i = 0; i < 100; i++) {
+         manager.handle(new DefaultException("Message Goes Here"));
+      }
+      
+      Assert.assertTrue("Assert 001", manager.drain(5, TimeUnit.SECONDS));
+      CounterHandler counter = (CounterHandler) manager.getHandlers().get(CounterHandler.class.getName());
+      Assert.assertEquals("Assert 002", 100, counter.getCount());
+      Assert.assertTrue("Assert 003", manager.shutdown(5, TimeUnit.SECONDS));
+   }
+   
+   /**
+    * handle
+    * <p>
+    * Verifies that with deduplication configured the repeats of an exception
+    * reach the handler as a single rollup.
+    * </p>
+    */
+   @Test
+   public void handleWithDeduplication() throws InterruptedException {
+      
+      Configuration config = new Configuration();
+      config.setProperty(Deduplicator.WINDOW, "1h");
+      config.addExceptionHandler(DefaultException.class.getName(), CounterHandler.class.getName());
+      
+      ExceptionManager manager = ExceptionManager.initialize(config);
+      for (int i = 0; i < 100; i++) {
+         manager.handle(new DefaultException("Request " + i + " timed out"));
+      }
+      
+      CounterHandler counter = (CounterHandler) manager.getHandlers().get(CounterHandler.class.getName());
+      Assert.assertEquals("Assert 001", 1, counter.getCount());
+      Assert.assertTrue("Assert 002", manager.shutdown(5, TimeUnit.SECONDS));
+      Assert.assertEquals("Assert 003", 2, counter.getCount());
+   }
+   
+   /**
+    * handle
+    * <p>
+    * Verifies that exceptions over the rate limit of their class are counted
+    * and not handled.
+    * </p>
+    */
+   @Test
+   public void handleWithExceptionRateLimit() {
+      
+      Configuration config = new Configuration();
+      config.addExceptionHandler(DefaultException.class.getName(), CounterHandler.class.getName());
+      config.setExceptionAttribute(DefaultException.class.getName(), ExceptionRateLimits.RATE_LIMIT, "10/h");
+      
+      ExceptionManager manager = ExceptionManager.initialize(config);
+      for (int i = 0; i < 25; i++) {
+         manager.handle(new DefaultException("Message Goes Here"));
+      }
+      
+      CounterHandler counter = (CounterHandler) manager.getHandlers().get(CounterHandler.class.getName());
+      Assert.assertEquals("Assert 001", 10, counter.getCount());
+      Assert.assertEquals("Assert 002", 15, manager.getRateLimits().getRejectedCount());
+   }
+   
+   /**
+    * handle
+    * <p>
+    * Verifies that a rate limit set on a base exception class is shared by
+    * its subclasses under nearest resolution.
+    * </p>
+    */
+   @Test
+   public void handleWithInheritedExceptionRateLimit() {
+      
+      Configuration config = new Configuration();
+      config.setProperty(Resolution.PROPERTY_NAME, "nearest");
+      config.addExceptionHandler(DefaultException.class.getName(), CounterHandler.class.getName());
+      config.setExceptionAttribute(DefaultException.class.getName(), ExceptionRateLimits.RATE_LIMIT, "10/h");
+      
+      ExceptionManager manager = ExceptionManager.initialize(config);
+      for (int i = 0; i < 10; i++) {
+         manager.handle(new DefaultException("Message Goes Here"));
+         manager.handle(new ChildException("Message Goes Here"));
+      }
+      
+      CounterHandler counter = (CounterHandler) manager.getHandlers().get(CounterHandler.class.getName());
+      Assert.assertEquals("Assert 001", 10, counter.getCount());
+      Assert.assertEquals("Assert 002", 10, manager.getRateLimits().getRejectedCount());
+      Assert.assertSame("Assert 003", manager.getRateLimits().getLimiter(DefaultException.class.getName()), manager.getRateLimits().getLimiters(ChildException.class)[0]);
+   }
+   
+   /**
+    * handle
+    * <p>
+    * Verifies that only the sampled occurrences of a sampled exception class
+    * are handled.
+    * </p>
+    */
+   @Test
+   public void handleWithSampling() {
+      
+      Configuration config = new Configuration();
+      config.addExceptionHandler(DefaultException.class.getName(), CounterHandler.class.getName());
+      config.setExceptionAttribute(DefaultException.class.getName(), ExceptionSamplers.SAMPLE_RATE, "0");
+      config.setExceptionAttribute(DefaultException.class.getName(), ExceptionSamplers.SAMPLE_FIRST, "10");
+      config.setExceptionAttribute(DefaultException.class.getName(), ExceptionSamplers.SAMPLE_WINDOW, "1h");
+      
+      ExceptionManager manager = ExceptionManager.initialize(config);
+      for (int i = 0; i < 50; i++) {
+         manager.handle(new DefaultException("Message Goes Here"));
+      }
+      
+      CounterHandler counter = (CounterHandler) manager.getHandlers().get(CounterHandler.class.getName());
+      Assert.assertEquals("Assert 001", 10, counter.getCount());
+      Assert.assertEquals("Assert 002", 40, manager.getSamplers().getSampler(DefaultException.class.getName()).getDroppedCount());
+   }
+   
+   /**
+    * handle
+    * <p>
+    * Verifies that the exceptions of a handler whose circuit breaker opened
+    * are passed to its fallback, which is instantiated although it is not
+    * mapped.
+    * </p>
+    */
+   @Test
+   public void handleWithCircuitBreakerFallback() {
+      
+      Configuration config = new Configuration();
+      config.addExceptionHandler(DefaultException.class.getName(), FailingHandler.class.getName());
+      config.setHandlerAttribute(FailingHandler.class.getName(), DecoratedHandlers.BREAKER_WINDOW, "2");
+      config.setHandlerAttribute(FailingHandler.class.getName(), DecoratedHandlers.FALLBACK, CounterHandler.class.getName());
+      
+      ExceptionManager manager = ExceptionManager.initialize(config);
+      for (int i = 0; i < 10; i++) {
+         manager.handle(new DefaultException("Message Goes Here"));
+      }
+      
+      FailingHandler failing = (FailingHandler) manager.getHandlers().get(FailingHandler.class.getName());
+      CounterHandler counter = (CounterHandler) manager.getHandlers().get(CounterHandler.class.getName());
+      Assert.assertEquals("Assert 001", 2, failing.getCount());
+      Assert.assertEquals("Assert 002", 10, counter.getCount());
+   }
+   
+   /**
+    * handle
+    * <p>
+    * Verifies that a handler that overruns its timeout is abandoned and the
+    * other handlers of the exception still run.
+    * </p>
+    */
+   @Test
+   public void handleWithHandlerTimeout() throws InterruptedException {
+      
+      Configuration config = new Configuration();
+      config.addExceptionHandler(DefaultException.class.getName(), SleepingHandler.class.getName());
+      config.addExceptionHandler(DefaultException.class.getName(), CounterHandler.class.getName());
+      config.setHandlerAttribute(SleepingHandler.class.getName(), DecoratedHandlers.TIMEOUT, "50ms");
+      
+      ExceptionManager manager = ExceptionManager.initialize(config);
+      long start = System.nanoTime();
+      manager.handle(new DefaultException("Message Goes Here"));
+      
+      Assert.assertTrue("Assert 001", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+      CounterHandler counter = (CounterHandler) manager.getHandlers().get(CounterHandler.class.getName());
+      Assert.assertEquals("Assert 002", 1, counter.getCount());
+      Assert.assertTrue("Assert 003", manager.shutdown(5, TimeUnit.SECONDS));
+   }
+   
+   /**
+    * initialize
+    * <p>
+    * Verifies that the spooled exceptions left unhandled when the previous
+    * instance stopped are handled by the next instance, and that the
+    * exceptions a handler failed on then are released rather than replayed
+    * again.
+    * </p>
+    */
+   @Test
+   public void initializeReplaysSpool() throws Exception {
+      
+      Configuration config = new Configuration();
+      config.addExceptionHandler(DefaultException.class.getName(), FailingHandler.class.getName());
+      config.addExceptionHandler(DefaultException.class.getName(), CounterHandler.class.getName());
+      config.setProperty(Spool.DIRECTORY, folder.getRoot().getPath());
+      
+      Spool stopped = new Spool(folder.getRoot(), 64 * 1024, true, 1000, Arrays.asList(FailingHandler.class.getName(), CounterHandler.class.getName()));
+      for (int i = 0; i < 3; i++) {
+         stopped.append(new DefaultException("Message Goes Here"));
+      }
+      stopped.close();
+      
+      ExceptionManager manager = ExceptionManager.initialize(config);
+      FailingHandler failing = (FailingHandler) manager.getHandlers().get(FailingHandler.class.getName());
+      CounterHandler counter = (CounterHandler) manager.getHandlers().get(CounterHandler.class.getName());
+      Assert.assertEquals("Assert 001", 3, failing.getCount());
+      Assert.assertEquals("Assert 002", 3, counter.getCount());
+      Assert.assertTrue("Assert 003", manager.shutdown(5, TimeUnit.SECONDS));
+      
+      manager = ExceptionManager.initialize(config);
+      failing = (FailingHandler) manager.getHandlers().get(FailingHandler.class.getName());
+      counter = (CounterHandler) manager.getHandlers().get(CounterHandler.class.getName());
+      Assert.assertEquals("Assert 004", 0, failing.getCount());
+      Assert.assertEquals("Assert 005", 0, counter.getCount());
+      Assert.assertTrue("Assert 006", manager.shutdown(5, TimeUnit.SECONDS));
+   }
+   
+   /**
+    * handle
+    * <p>
+    * Verifies that the exceptions and handlers are counted when metrics are
+    * enabled and that the metrics MBean is registered until shutdown.
+    * </p>
+    */
+   @Test
+   public void handleWithMetrics() throws Exception {
+      
+      Configuration config = new Configuration();
+      config.addExceptionHandler(DefaultException.class.getName(), FailingHandler.class.getName());
+      config.addExceptionHandler(DefaultException.class.getName(), CounterHandler.class.getName());
+      config.setProperty(Metrics.ENABLED, "true");
+      
+      ExceptionManager manager = ExceptionManager.initialize(config);
+      for (int i = 0; i < 5; i++) {
+         manager.handle(new DefaultException("Message Goes Here"));
+      }
+      
+      Metrics metrics = manager.getMetrics();
+      ObjectName name = new ObjectName("ezbake.glitch:type=Metrics");
+      Assert.assertEquals("Assert 001", 5, metrics.getCount(DefaultException.class.getName(), Metrics.Event.RECEIVED));
+      Assert.assertEquals("Assert 002", 5, metrics.getCount(DefaultException.class.getName(), Metrics.Event.DISPATCHED));
+      Assert.assertEquals("Assert 003", 0, metrics.getCount(DefaultException.class.getName(), Metrics.Event.DEFAULTED));
+      Assert.assertEquals("Assert 004", 5, metrics.getHandlerMetrics(FailingHandler.class.getName()).getFailureCount());
+      Assert.assertEquals("Assert 005", 5, metrics.getHandlerMetrics(CounterHandler.class.getName()).getInvocationCount());
+      Assert.assertTrue("Assert 006", ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+      Assert.assertTrue("Assert 007", manager.shutdown(5, TimeUnit.SECONDS));
+      Assert.assertFalse("Assert 008", ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+   }
+   
+   /**
+    * reload
+    * <p>
+    * Verifies that a reloaded configuration takes effect, that a handler
+    * whose attributes did not change is kept and that a changed handler is
+    * instantiated again.
+    * </p>
+    */
+   @Test
+   public void reloadSwapsHandlers() throws InterruptedException {
+      
+      Configuration config = new Configuration();
+      config.addExceptionHandler(DefaultException.class.getName(), CounterHandler.class.getName());
+      config.addExceptionHandler(DefaultException.class.getName(), FailingHandler.class.getName());
+      config.setHandlerAttribute(FailingHandler.class.getName(), DecoratedHandlers.BREAKER_WINDOW, "5");
+      
+      ExceptionManager manager = ExceptionManager.initialize(config);
+      manager.handle(new DefaultException("Message Goes Here"));
+      CounterHandler counter = (CounterHandler) manager.getHandlers().get(CounterHandler.class.getName());
+      FailingHandler failing = (FailingHandler) manager.getHandlers().get(FailingHandler.class.getName());
+      
+      Configuration reloaded = new Configuration();
+      reloaded.addExceptionHandler(DefaultException.class.getName(), CounterHandler.class.getName());
+      reloaded.addExceptionHandler(DefaultException.class.getName(), FailingHandler.class.getName());
+      reloaded.addDefaultHandler(SleepingHandler.class.getName());
+      reloaded.setHandlerAttribute(FailingHandler.class.getName(), DecoratedHandlers.BREAKER_WINDOW, "10");
+      manager.reload(reloaded);
+      manager.handle(new DefaultException("Message Goes Here"));
+      
+      Assert.assertSame("Assert 001", counter, manager.getHandlers().get(CounterHandler.class.getName()));
+      Assert.assertEquals("Assert 002", 2, counter.getCount());
+      Assert.assertNotSame("Assert 003", failing, manager.getHandlers().get(FailingHandler.class.getName()));
+      Assert.assertEquals("Assert 004", 1, failing.getCount());
+      Assert.assertTrue("Assert 005", manager.getHandlers().containsKey(SleepingHandler.class.getName()));
+      Assert.assertTrue("Assert 006", manager.shutdown(5, TimeUnit.SECONDS));
+   }
+   
+   /**
+    * initialize
+    * <p>
+    * Verifies that the manager does not change the configuration it is
+    * given and that concurrent calls to getInstance return one instance.
+    * </p>
+    */
+   @Test
+   public void initializeKeepsConfigurationAndPublishesOnce() throws InterruptedException {
+      
+      Configuration config = new Configuration();
+      config.addDefaultHandler("ezbake.glitch.handler.MissingHandler");
+      config.addDefaultHandler(CounterHandler.class.getName());
+      
+      final ExceptionManager manager = ExceptionManager.initialize(config);
+      Assert.assertEquals("Assert 001", 2, config.getDefaultHandlers().size());
+      Assert.assertFalse("Assert 002", manager.getHandlers().containsKey("ezbake.glitch.handler.MissingHandler"));
+      
+      final ExceptionManager[] seen = new ExceptionManager[8];
+      Thread[] threads = new Thread[seen.length];
+      for (int i = 0; i < threads.length; i++) {
+         final int index = i;
+         threads[i] = new Thread(new Runnable() {
+            public void run() {
+               seen[index] = ExceptionManager.getInstance();
+            }
+         });
+         threads[i].start();
+      }
+      for (Thread thread : threads) {
+         thread.join();
+      }
+      for (ExceptionManager instance : seen) {
+         Assert.assertSame("Assert 003", manager, instance);
+      }
+   }
+   
+   /**
+    * initialize
+    * <p>
+    * Verifies that with the lazy startup a handler is instantiated by the
+    * first exception that reaches it.
+    * </p>
+    */
+   @Test
+   public void initializeWithLazyStartup() throws InterruptedException {
+      
+      Configuration config = new Configuration();
+      config.setProperty(HandlerStartup.STARTUP, "lazy");
+      config.addExceptionHandler(DefaultException.class.getName(), CounterHandler.class.getName());
+      
+      ExceptionManager manager = ExceptionManager.initialize(config);
+      LazyHandler lazy = (LazyHandler) manager.getHandlers().get(CounterHandler.class.getName());
+      Assert.assertFalse("Assert 001", lazy.isInstantiated());
+      
+      manager.handle(new DefaultException("Message Goes Here"));
+      Assert.assertTrue("Assert 002", lazy.isInstantiated());
+      Assert.assertEquals("Assert 003", 1, ((CounterHandler) lazy.getDelegate()).getCount());
+      Assert.assertTrue("Assert 004", manager.shutdown(5, TimeUnit.SECONDS));
+   }
+   
 }
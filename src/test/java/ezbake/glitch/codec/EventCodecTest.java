@@ -0,0 +1,193 @@
+package ezbake.glitch.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.exception.DefaultException;
+import ezbake.glitch.exception.RepeatedException;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.codec.EventEncoder} and
+ * {@link ezbake.glitch.codec.EventDecoder} classes.
+ * </p>
+ */
+public class EventCodecTest {
+
+   /**
+    * encode
+    * <p>
+    * Validates that an exception and its causes are decoded as they were
+    * encoded and printed as the original printed itself.
+    * </p>
+    */
+   @Test
+   public void roundTrip() throws UnsupportedEncodingException {
+
+      DefaultException exception = new DefaultException("Message \u00e9\u4e2d\ud83d\ude00 Goes Here");
+      exception.initCause(new IllegalStateException("cause", new IllegalArgumentException()));
+
+      ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+      new EventEncoder().encode(exception, 1234L, "worker-1", Collections.singletonMap("host", "a"), buffer);
+      buffer.flip();
+      DecodedException decoded = new EventDecoder().decode(buffer);
+
+      Assert.assertEquals("Assert 001", 1234L, decoded.getTimestamp());
+      Assert.assertEquals("Assert 002", "worker-1", decoded.getThread());
+      Assert.assertEquals("Assert 003", DefaultException.class.getName(), decoded.getClassName());
+      Assert.assertEquals("Assert 004", exception.getMessage(), decoded.getMessage());
+      Assert.assertEquals("Assert 005", "{host=a}", decoded.getAttributes().toString());
+      Assert.assertEquals("Assert 006", 3, decoded.getTraces().size());
+      Assert.assertNull("Assert 007", decoded.getTraces().get(2).getMessage());
+      Assert.assertEquals("Assert 008", Arrays.toString(exception.getStackTrace()), Arrays.toString(decoded.getTraces().get(0).getFrames()));
+      Assert.assertFalse("Assert 009", buffer.hasRemaining());
+
+      String printed = print(decoded);
+      Assert.assertTrue("Assert 010", printed.startsWith(DefaultException.class.getName() + ": " + exception.getMessage() + "\n\tat "));
+      Assert.assertTrue("Assert 011", printed.contains("Caused by: java.lang.IllegalStateException: cause\n"));
+   }
+
+   /**
+    * decode
+    * <p>
+    * Validates that a visitor receives the parts of each event in order,
+    * with the names and frames shared across the stream, and that skipped
+    * events still define the names and frames of the events after them.
+    * </p>
+    */
+   @Test
+   public void visitorReceivesTheParts() {
+
+      EventEncoder encoder = new EventEncoder();
+      ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+      for (int i = 0; i < 3; i++) {
+         DefaultException exception = new DefaultException("Message " + i);
+         encoder.encode(exception, 1000L + i, "worker", Collections.singletonMap("attempt", String.valueOf(i)), buffer);
+      }
+      buffer.flip();
+
+      final StringBuilder parts = new StringBuilder();
+      final StackTraceElement[] firstFrame = new StackTraceElement[1];
+      final boolean[] shared = new boolean[1];
+      EventVisitor visitor = new EventVisitor() {
+         public void startEvent(long timestamp, String thread, String className, CharSequence message, boolean self) {
+            parts.append(timestamp).append(' ').append(thread).append(' ').append(message).append(self ? " self" : "");
+         }
+         public void attribute(String name, CharSequence value) {
+            parts.append(' ').append(name).append('=').append(value);
+         }
+         public void startTrace(String className, CharSequence message, int frameCount) {
+            parts.append(" trace ").append(message);
+         }
+         public void frame(StackTraceElement frame) {
+            if (firstFrame[0] == null) {
+               firstFrame[0] = frame;
+            } else if (frame == firstFrame[0]) {
+               shared[0] = true;
+            }
+         }
+         public void endEvent() {
+            parts.append(';');
+         }
+      };
+
+      EventDecoder decoder = new EventDecoder();
+      Assert.assertTrue("Assert 001", decoder.decode(buffer, visitor));
+      Assert.assertEquals("Assert 002", "1000 worker Message 0 self attempt=0 trace Message 0;", parts.toString());
+      Assert.assertTrue("Assert 003", decoder.skip(buffer));
+      Assert.assertTrue("Assert 004", decoder.decode(buffer, visitor));
+      Assert.assertTrue("Assert 005", parts.toString().endsWith(";1002 worker Message 2 self attempt=2 trace Message 2;"));
+      Assert.assertTrue("Assert 006", shared[0]);
+      Assert.assertFalse("Assert 007", decoder.decode(buffer, visitor));
+   }
+
+   /**
+    * encode
+    * <p>
+    * Validates that a repeated exception is written as references to the
+    * names and frames defined by its first occurrence.
+    * </p>
+    */
+   @Test
+   public void repeatsAreWrittenAsReferences() throws UnsupportedEncodingException {
+
+      DefaultException first = new DefaultException("timeout");
+      RepeatedException repeated = new RepeatedException(first, 5, 1000L);
+
+      EventEncoder encoder = new EventEncoder();
+      ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+      int firstLength = encoder.encode(first, buffer);
+      int secondLength = encoder.encode(first, buffer);
+      encoder.encode(repeated, buffer);
+      Assert.assertTrue("Assert 001", secondLength < firstLength / 4);
+
+      buffer.flip();
+      EventDecoder decoder = new EventDecoder();
+      Assert.assertEquals("Assert 002", "timeout", decoder.decode(buffer).getMessage());
+      Assert.assertEquals("Assert 003", "timeout", decoder.decode(buffer).getMessage());
+      DecodedException decoded = decoder.decode(buffer);
+      Assert.assertEquals("Assert 004", RepeatedException.class.getName(), decoded.getClassName());
+      Assert.assertEquals("Assert 005", "5", decoded.getAttributes().get(EventEncoder.OCCURRENCES));
+      Assert.assertTrue("Assert 006", print(decoded).startsWith(RepeatedException.class.getName() + ": " + repeated.getMessage() + "\n"));
+      Assert.assertTrue("Assert 007", print(decoded).endsWith(print(first)));
+      Assert.assertNull("Assert 008", decoder.decode(buffer));
+   }
+
+   /**
+    * encode
+    * <p>
+    * Validates that an event that does not fit leaves the buffer unchanged
+    * and that the next event can be decoded on its own.
+    * </p>
+    */
+   @Test
+   public void overflowResetsTheStream() {
+
+      EventEncoder encoder = new EventEncoder();
+      ByteBuffer large = ByteBuffer.allocate(16 * 1024);
+      encoder.encode(new DefaultException("defines the names"), large);
+
+      ByteBuffer small = ByteBuffer.allocate(32);
+      try {
+         encoder.encode(new DefaultException("does not fit"), small);
+         Assert.fail("Assert 001");
+      } catch (BufferOverflowException e) {
+         Assert.assertEquals("Assert 002", 0, small.position());
+      }
+
+      ByteBuffer next = ByteBuffer.allocate(16 * 1024);
+      encoder.encode(new DefaultException("stands alone"), next);
+      next.flip();
+      Assert.assertEquals("Assert 003", "stands alone", new EventDecoder().decode(next).getMessage());
+   }
+
+   /**
+    * decode
+    * <p>
+    * Validates that bytes that are not an event are rejected.
+    * </p>
+    */
+   @Test(expected = EventFormatException.class)
+   public void rejectsForeignBytes() {
+
+      new EventDecoder().decode(ByteBuffer.wrap("not an event".getBytes()));
+   }
+
+   private static String print(CoreException exception) throws UnsupportedEncodingException {
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      PrintStream out = new PrintStream(bytes, false, "UTF-8");
+      exception.printStackTrace(out);
+      out.flush();
+      return bytes.toString("UTF-8");
+   }
+}
@@ -0,0 +1,169 @@
+package ezbake.glitch.config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.config.ConfigurationIndex}
+ * class.
+ * </p>
+ */
+public class ConfigurationIndexTest {
+
+   private static final String RESOURCE_NAME = "glitch-config-index.xml";
+
+   private File classes;
+   private File file;
+
+   @Before
+   public void createFile() throws IOException, URISyntaxException {
+
+      classes = new File(getClass().getClassLoader().getResource("glitch-config-basic.xml").toURI()).getParentFile();
+      file = new File(classes, RESOURCE_NAME);
+      write("");
+   }
+
+   @After
+   public void deleteFiles() {
+
+      System.clearProperty(ConfigurationParserFactory.FILE_PROPERTY);
+      file.delete();
+      new File(classes, RESOURCE_NAME + ConfigurationIndex.SUFFIX).delete();
+   }
+
+   /**
+    * write, read
+    * <p>
+    * Validates that a configuration read back from its index has the same
+    * properties, mappings and attributes, and that its strings are shared.
+    * </p>
+    */
+   @Test
+   public void roundTrip() throws IOException {
+
+      Configuration config = new XmlConfigurationParser("glitch-config-attributes.xml").getConfiguration();
+      config.setProperty("resolution", "nearest");
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ConfigurationIndex.write(config, 42, out);
+      Configuration read = ConfigurationIndex.read(ByteBuffer.wrap(out.toByteArray()));
+
+      Assert.assertEquals("Assert 001", config.getDefaultHandlers(), read.getDefaultHandlers());
+      Assert.assertEquals("Assert 002", config.getMappedExceptions(), read.getMappedExceptions());
+      for (String exception : config.getMappedExceptions()) {
+         Assert.assertEquals("Assert 003", config.getExceptionHandlers(exception, false), read.getExceptionHandlers(exception, false));
+         Assert.assertEquals("Assert 004", config.getExceptionAttributes(exception), read.getExceptionAttributes(exception));
+      }
+      for (String handler : config.getAllHandlers()) {
+         Assert.assertEquals("Assert 005", config.getHandlerAttributes(handler), read.getHandlerAttributes(handler));
+      }
+      Assert.assertEquals("Assert 006", "nearest", read.getProperty("resolution"));
+      Assert.assertEquals("Assert 007", 42, ByteBuffer.wrap(out.toByteArray()).getLong(8));
+   }
+
+   /**
+    * read
+    * <p>
+    * Validates that a corrupt or truncated index is rejected.
+    * </p>
+    */
+   @Test
+   public void rejectsCorruptIndex() throws IOException {
+
+      Configuration config = new XmlConfigurationParser("glitch-config-basic.xml").getConfiguration();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ConfigurationIndex.write(config, 0, out);
+      byte[] bytes = out.toByteArray();
+
+      byte[] corrupt = bytes.clone();
+      corrupt[30] ^= 1;
+      try {
+         ConfigurationIndex.read(ByteBuffer.wrap(corrupt));
+         Assert.fail("Assert 001");
+      } catch (IOException e) {
+         Assert.assertTrue("Assert 002", e.getMessage().contains("checksum"));
+      }
+      try {
+         ConfigurationIndex.read(ByteBuffer.wrap(Arrays.copyOf(bytes, 12)));
+         Assert.fail("Assert 003");
+      } catch (IOException e) {
+         // expected
+      }
+   }
+
+   /**
+    * build, load, ConfigurationParserFactory.getConfiguration
+    * <p>
+    * Validates that an index built from the configuration file is used in
+    * place of the file, and that it is ignored once the file changes.
+    * </p>
+    */
+   @Test
+   public void loadsOnlyFreshIndex() throws IOException {
+
+      Assert.assertNull("Assert 001", ConfigurationIndex.load(RESOURCE_NAME));
+      File index = ConfigurationIndex.build(RESOURCE_NAME, classes);
+      Assert.assertTrue("Assert 002", index.isFile());
+
+      Configuration config = ConfigurationIndex.load(RESOURCE_NAME);
+      Assert.assertNotNull("Assert 003", config);
+      Assert.assertTrue("Assert 004", config.getExceptionHandlers("TestAException", false).contains("Test01ExceptionHandler"));
+      System.setProperty(ConfigurationParserFactory.FILE_PROPERTY, RESOURCE_NAME);
+      Assert.assertEquals("Assert 005", config.getMappedExceptions(), ConfigurationParserFactory.getConfiguration().getMappedExceptions());
+
+      write("<!-- changed -->");
+      Assert.assertNull("Assert 006", ConfigurationIndex.load(RESOURCE_NAME));
+      Assert.assertFalse("Assert 007", ConfigurationParserFactory.getConfiguration().getMappedExceptions().isEmpty());
+      Assert.assertNull("Assert 008", ConfigurationIndex.build("glitch-config-missing.xml", classes));
+   }
+
+   /**
+    * load
+    * <p>
+    * Validates that an index stays in use when its configuration file is
+    * rewritten with the same content, and that a change of the same size is
+    * told by the checksum once the modification time differs.
+    * </p>
+    */
+   @Test
+   public void checksumDecidesOnceFileTimeDiffers() throws IOException {
+
+      ConfigurationIndex.build(RESOURCE_NAME, classes);
+      long lastModified = file.lastModified();
+      Assert.assertNotNull("Assert 001", ConfigurationIndex.load(RESOURCE_NAME));
+
+      write("");
+      Assert.assertTrue("Assert 002", file.setLastModified(lastModified - 10000));
+      Assert.assertNotNull("Assert 003", ConfigurationIndex.load(RESOURCE_NAME));
+
+      write("<!-- a -->");
+      ConfigurationIndex.build(RESOURCE_NAME, classes);
+      write("<!-- b -->");
+      Assert.assertTrue("Assert 004", file.setLastModified(lastModified - 20000));
+      Assert.assertNull("Assert 005", ConfigurationIndex.load(RESOURCE_NAME));
+   }
+
+   private void write(String comment) throws IOException {
+
+      OutputStream out = new FileOutputStream(file);
+      try {
+         out.write(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<glitch>" + comment + "\n\t<handlers>\n\t\t<handler>\n"
+               + "\t\t\t<classname>Test01ExceptionHandler</classname>\n"
+               + "\t\t\t<exceptions>\n\t\t\t\t<classname>TestAException</classname>\n\t\t\t</exceptions>\n"
+               + "\t\t</handler>\n\t</handlers>\n</glitch>\n").getBytes("UTF-8"));
+      } finally {
+         out.close();
+      }
+   }
+}
@@ -392,4 +392,50 @@ public class ConfigurationTest {
       Assert.assertTrue("Expected " + handlerFqcn + " in the results.", handlers.contains(handlerFqcn));
    }
    
+   /**
+    * toImmutable
+    * <p>
+    * Validates that an immutable copy holds the same settings, rejects every
+    * change and is not affected by changes to the original.
+    * </p>
+    */
+   @Test
+   public void toImmutableCopiesAndRejectsChanges() {
+      
+      Configuration config = new Configuration();
+      config.addDefaultHandler("ezbake.glitch.handler.DefAExceptionHandler");
+      config.addExceptionHandler("ezbake.glitch.exception.DefaultException", "ezbake.glitch.handler.SomeExceptionHandler");
+      config.setProperty("dispatch", "async");
+      config.setHandlerAttribute("ezbake.glitch.handler.SomeExceptionHandler", "threads", "2");
+      
+      Configuration immutable = config.toImmutable();
+      config.setHandlerAttribute("ezbake.glitch.handler.SomeExceptionHandler", "threads", "4");
+      config.addDefaultHandler("ezbake.glitch.handler.DefBExceptionHandler");
+      
+      Assert.assertTrue("Assert 001", immutable.isImmutable());
+      Assert.assertSame("Assert 002", immutable, immutable.toImmutable());
+      Assert.assertEquals("Assert 003", "async", immutable.getProperty("dispatch"));
+      Assert.assertEquals("Assert 004", "2", immutable.getHandlerAttributes("ezbake.glitch.handler.SomeExceptionHandler").get("threads"));
+      Assert.assertEquals("Assert 005", 1, immutable.getDefaultHandlers().size());
+      Assert.assertTrue("Assert 006", immutable.getExceptionHandlers("ezbake.glitch.exception.DefaultException").contains("ezbake.glitch.handler.SomeExceptionHandler"));
+      
+      try {
+         immutable.setProperty("dispatch", "sync");
+         Assert.fail("Assert 007");
+      } catch (UnsupportedOperationException e) {
+         // expected.
+      }
+      try {
+         immutable.getDefaultHandlers().clear();
+         Assert.fail("Assert 008");
+      } catch (UnsupportedOperationException e) {
+         // expected.
+      }
+      
+      Configuration copy = new Configuration(immutable);
+      Assert.assertFalse("Assert 009", copy.isImmutable());
+      Assert.assertTrue("Assert 010", copy.setProperty("dispatch", "sync"));
+      Assert.assertEquals("Assert 011", "async", immutable.getProperty("dispatch"));
+   }
+   
 }
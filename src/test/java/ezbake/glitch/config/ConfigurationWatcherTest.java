@@ -0,0 +1,114 @@
+package ezbake.glitch.config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.config.ConfigurationWatcher}
+ * class.
+ * </p>
+ */
+public class ConfigurationWatcherTest {
+
+   private static final String RESOURCE_NAME = "glitch-config-reload.xml";
+
+   private File file;
+   private ConfigurationWatcher watcher;
+
+   @Before
+   public void createFile() throws IOException, URISyntaxException {
+
+      File classes = new File(getClass().getClassLoader().getResource("glitch-config-basic.xml").toURI()).getParentFile();
+      file = new File(classes, RESOURCE_NAME);
+      write("TestAException", "Test01ExceptionHandler");
+   }
+
+   @After
+   public void deleteFile() {
+
+      if (watcher != null) {
+         watcher.close();
+      }
+      file.delete();
+   }
+
+   /**
+    * check
+    * <p>
+    * Validates that a changed file is parsed again and passed to the
+    * listener, and that an unchanged file is not.
+    * </p>
+    */
+   @Test
+   public void reloadsChangedFile() throws IOException {
+
+      final List<Configuration> reloaded = new ArrayList<Configuration>();
+      watcher = new ConfigurationWatcher(file, RESOURCE_NAME, 60000, new ConfigurationWatcher.Listener() {
+         public void reloaded(Configuration configuration) {
+            reloaded.add(configuration);
+         }
+      });
+      Assert.assertFalse("Assert 001", watcher.check());
+
+      long modified = file.lastModified();
+      write("TestBException", "Test02ExceptionHandler");
+      file.setLastModified(modified + 2000);
+      Assert.assertTrue("Assert 002", watcher.check());
+      Assert.assertEquals("Assert 003", 1, reloaded.size());
+      Assert.assertTrue("Assert 004", reloaded.get(0).getExceptionHandlers("TestBException").contains("Test02ExceptionHandler"));
+      Assert.assertFalse("Assert 005", watcher.check());
+   }
+
+   /**
+    * check
+    * <p>
+    * Validates that a file that cannot be parsed does not replace the
+    * configuration.
+    * </p>
+    */
+   @Test
+   public void ignoresBrokenFile() throws IOException {
+
+      final List<Configuration> reloaded = new ArrayList<Configuration>();
+      watcher = new ConfigurationWatcher(file, RESOURCE_NAME, 60000, new ConfigurationWatcher.Listener() {
+         public void reloaded(Configuration configuration) {
+            reloaded.add(configuration);
+         }
+      });
+
+      long modified = file.lastModified();
+      OutputStream out = new FileOutputStream(file);
+      try {
+         out.write("<glitch><handlers>".getBytes("UTF-8"));
+      } finally {
+         out.close();
+      }
+      file.setLastModified(modified + 2000);
+      Assert.assertFalse("Assert 001", watcher.check());
+      Assert.assertTrue("Assert 002", reloaded.isEmpty());
+   }
+
+   private void write(String exceptionFqcn, String handlerFqcn) throws IOException {
+
+      OutputStream out = new FileOutputStream(file);
+      try {
+         out.write(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<glitch>\n\t<handlers>\n\t\t<handler>\n"
+               + "\t\t\t<classname>" + handlerFqcn + "</classname>\n"
+               + "\t\t\t<exceptions>\n\t\t\t\t<classname>" + exceptionFqcn + "</classname>\n\t\t\t</exceptions>\n"
+               + "\t\t</handler>\n\t</handlers>\n</glitch>\n").getBytes("UTF-8"));
+      } finally {
+         out.close();
+      }
+   }
+}
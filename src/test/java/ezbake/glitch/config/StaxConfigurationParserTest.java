@@ -0,0 +1,121 @@
+package ezbake.glitch.config;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.config.StaxConfigurationParser}
+ * and {@link ezbake.glitch.config.ConfigurationParserFactory} classes.
+ * </p>
+ */
+public class StaxConfigurationParserTest {
+
+   @After
+   public void clearProperties() {
+
+      System.clearProperty(ConfigurationParserFactory.PARSER_PROPERTY);
+      System.clearProperty(ConfigurationParserFactory.FILE_PROPERTY);
+   }
+
+   /**
+    * getConfiguration
+    * <p>
+    * Validates that the mappings, properties and attributes are read as the
+    * XML configuration parser reads them.
+    * </p>
+    */
+   @Test
+   public void readsSameConfigurationAsDomParser() {
+
+      Configuration config = new StaxConfigurationParser("glitch-config-basic.xml").getConfiguration();
+      Collection<String> handlers = config.getDefaultHandlers();
+      Assert.assertEquals("Assert 001", 2, handlers.size());
+      Assert.assertTrue("Assert 002", handlers.contains("Test02ExceptionHandler"));
+      handlers = config.getExceptionHandlers("TestAException", false);
+      Assert.assertEquals("Assert 003", 2, handlers.size());
+      Assert.assertTrue("Assert 004", config.getExceptionHandlers("TestCException", false).contains("Test04ExceptionHandler"));
+
+      config = new StaxConfigurationParser("glitch-config-properties.xml").getConfiguration();
+      Assert.assertEquals("Assert 005", "nearest", config.getProperty("resolution"));
+      Assert.assertNull("Assert 006", config.getProperty("unused"));
+
+      config = new StaxConfigurationParser("glitch-config-attributes.xml").getConfiguration();
+      Configuration dom = new XmlConfigurationParser("glitch-config-attributes.xml").getConfiguration();
+      Map<String, String> attributes = config.getHandlerAttributes("Test03ExceptionHandler");
+      Assert.assertEquals("Assert 007", dom.getHandlerAttributes("Test03ExceptionHandler"), attributes);
+      Assert.assertEquals("Assert 008", "1", config.getHandlerAttributes("Test01ExceptionHandler").get("threads"));
+      Assert.assertEquals("Assert 009", dom.getExceptionAttributes("TestAException"), config.getExceptionAttributes("TestAException"));
+   }
+
+   /**
+    * getConfiguration
+    * <p>
+    * Validates that malformed entries are skipped and reported with their
+    * line numbers while the rest of the file is read.
+    * </p>
+    */
+   @Test
+   public void reportsMalformedEntries() {
+
+      StaxConfigurationParser parser = new StaxConfigurationParser("glitch-config-malformed.xml");
+      Configuration config = parser.getConfiguration();
+
+      Assert.assertEquals("Assert 001", "nearest", config.getProperty("resolution"));
+      Assert.assertEquals("Assert 002", 1, config.getDefaultHandlers().size());
+      Assert.assertTrue("Assert 003", config.getExceptionHandlers("TestAException", false).isEmpty());
+      Assert.assertEquals("Assert 004", 1, config.getExceptionHandlers("TestBException", false).size());
+
+      List<String> problems = parser.getProblems();
+      Assert.assertEquals("Assert 005", 4, problems.size());
+      Assert.assertTrue("Assert 006", problems.get(0).startsWith("Line 5:"));
+      Assert.assertTrue("Assert 007", problems.get(1).startsWith("Line 9:"));
+      Assert.assertTrue("Assert 008", problems.get(2).startsWith("Line 12:"));
+      Assert.assertTrue("Assert 009", problems.get(3).startsWith("Line 21:"));
+   }
+
+   /**
+    * getConfiguration
+    * <p>
+    * Validates that a file that is not well-formed results in an empty
+    * configuration.
+    * </p>
+    */
+   @Test
+   public void brokenFileGivesEmptyConfiguration() {
+
+      StaxConfigurationParser parser = new StaxConfigurationParser("glitch-config-broken.xml");
+      Configuration config = parser.getConfiguration();
+
+      Assert.assertTrue("Assert 001", config.getAllHandlers().isEmpty());
+      Assert.assertEquals("Assert 002", 1, parser.getProblems().size());
+   }
+
+   /**
+    * getParser
+    * <p>
+    * Validates that the system properties select the parser and the
+    * configuration file, and that an unknown parser falls back to the XML
+    * configuration parser.
+    * </p>
+    */
+   @Test
+   public void factoryHonorsSystemProperties() {
+
+      Assert.assertTrue("Assert 001", ConfigurationParserFactory.getParser() instanceof XmlConfigurationParser);
+      Assert.assertEquals("Assert 002", XmlConfigurationParser.DEFAULT_CONFIG_RESOURCE_NAME, ConfigurationParserFactory.getResourceName());
+
+      System.setProperty(ConfigurationParserFactory.PARSER_PROPERTY, StaxConfigurationParser.class.getName());
+      System.setProperty(ConfigurationParserFactory.FILE_PROPERTY, "glitch-config-basic.xml");
+      Assert.assertTrue("Assert 003", ConfigurationParserFactory.getParser() instanceof StaxConfigurationParser);
+      Assert.assertEquals("Assert 004", 2, ConfigurationParserFactory.getConfiguration().getDefaultHandlers().size());
+
+      System.setProperty(ConfigurationParserFactory.PARSER_PROPERTY, "ezbake.glitch.config.MissingParser");
+      Assert.assertTrue("Assert 005", ConfigurationParserFactory.getParser() instanceof XmlConfigurationParser);
+   }
+}
@@ -1,6 +1,7 @@
 package ezbake.glitch.config;
 
 import java.util.Collection;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -170,4 +171,49 @@ public class XmlConfigurationParserTest {
       Assert.assertTrue("Assert 401", handlers.contains("Test04ExceptionHandler"));
    }
    
+   /**
+    * <p>
+    * Verifies that the entries under <properties> are set on the
+    * configuration and that a property with an empty value is ignored.
+    * </p>
+    */
+   @Test
+   public void propertiesConfig() {
+      
+      XmlConfigurationParser parser = new XmlConfigurationParser("glitch-config-properties.xml");
+      Configuration config = parser.getConfiguration();
+      
+      Assert.assertEquals("Assert 001", "nearest", config.getProperty("resolution"));
+      Assert.assertNull("Assert 002", config.getProperty("unused"));
+      Assert.assertEquals("Assert 003", 1, config.getDefaultHandlers().size());
+   }
+   
+   /**
+    * <p>
+    * Verifies that the attributes of <handler> elements and of default
+    * handler <classname> elements are set as handler attributes.
+    * </p>
+    */
+   @Test
+   public void handlerAttributesConfig() {
+      
+      XmlConfigurationParser parser = new XmlConfigurationParser("glitch-config-attributes.xml");
+      Configuration config = parser.getConfiguration();
+      
+      Map<String, String> attributes = config.getHandlerAttributes("Test03ExceptionHandler");
+      Assert.assertEquals("Assert 001", 3, attributes.size());
+      Assert.assertEquals("Assert 002", "sinks", attributes.get("bulkhead"));
+      Assert.assertEquals("Assert 003", "2", attributes.get("threads"));
+      Assert.assertEquals("Assert 004", "64", attributes.get("queueSize"));
+      
+      attributes = config.getHandlerAttributes("Test01ExceptionHandler");
+      Assert.assertEquals("Assert 005", "1", attributes.get("threads"));
+      Assert.assertTrue("Assert 006", config.getHandlerAttributes("Test99ExceptionHandler").isEmpty());
+      
+      attributes = config.getExceptionAttributes("TestAException");
+      Assert.assertEquals("Assert 007", "10/s", attributes.get("rateLimit"));
+      Assert.assertEquals("Assert 008", "20", attributes.get("rateBurst"));
+      Assert.assertEquals("Assert 009", 1, config.getExceptionsWithAttributes().size());
+   }
+   
 }
@@ -0,0 +1,252 @@
+package ezbake.glitch.dispatch;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ezbake.glitch.BatchingCoreExceptionHandler;
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.config.Configuration;
+import ezbake.glitch.exception.DefaultException;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.dispatch.BatchingHandler}
+ * class.
+ * </p>
+ */
+public class BatchingHandlerTest {
+
+   /**
+    * handle
+    * <p>
+    * Validates that a batch is flushed as soon as it reaches the batch size.
+    * </p>
+    */
+   @Test
+   public void flushesWhenBatchIsFull() {
+
+      BatchRecorder recorder = new BatchRecorder(0);
+      BatchingHandler handler = new BatchingHandler(recorder, 3, 60000, 0);
+
+      for (int i = 0; i < 7; i++) {
+         handler.handle(new DefaultException());
+      }
+      Assert.assertEquals("Assert 001", "[3, 3]", recorder.getBatchSizes().toString());
+
+      handler.flushPending();
+      Assert.assertEquals("Assert 002", "[3, 3, 1]", recorder.getBatchSizes().toString());
+   }
+
+   /**
+    * flushIfLingered
+    * <p>
+    * Validates that a partial batch is only flushed once its oldest exception
+    * has waited for the linger time.
+    * </p>
+    */
+   @Test
+   public void flushesWhenBatchHasLingered() throws InterruptedException {
+
+      BatchRecorder recorder = new BatchRecorder(0);
+      BatchingHandler handler = new BatchingHandler(recorder, 100, 50, 0);
+
+      handler.handle(new DefaultException());
+      handler.handle(new DefaultException());
+      handler.flushIfLingered();
+      Assert.assertTrue("Assert 001", recorder.getBatchSizes().isEmpty());
+
+      Thread.sleep(100);
+      handler.flushIfLingered();
+      Assert.assertEquals("Assert 002", "[2]", recorder.getBatchSizes().toString());
+   }
+
+   /**
+    * handle
+    * <p>
+    * Validates that the batch size shrinks while flushes exceed the target
+    * latency.
+    * </p>
+    */
+   @Test
+   public void batchSizeAdaptsToLatency() {
+
+      BatchRecorder recorder = new BatchRecorder(20);
+      BatchingHandler handler = new BatchingHandler(recorder, 8, 60000, 5);
+
+      for (int i = 0; i < 8; i++) {
+         handler.handle(new DefaultException());
+      }
+      Assert.assertEquals("Assert 001", 4, handler.getBatchSize());
+
+      for (int i = 0; i < 4; i++) {
+         handler.handle(new DefaultException());
+      }
+      Assert.assertEquals("Assert 002", 2, handler.getBatchSize());
+      Assert.assertEquals("Assert 003", "[8, 4]", recorder.getBatchSizes().toString());
+   }
+
+   /**
+    * DecoratedHandlers
+    * <p>
+    * Validates that a batching handler is wrapped by the decorated handlers
+    * and that its pending batch is flushed on shutdown.
+    * </p>
+    */
+   @Test
+   public void pendingBatchIsFlushedOnShutdown() throws InterruptedException {
+
+      BatchRecorder recorder = new BatchRecorder(0);
+      Configuration config = new Configuration();
+      config.setHandlerAttribute("Batch", DecoratedHandlers.BATCH_SIZE, "10");
+      config.setHandlerAttribute("Batch", DecoratedHandlers.BATCH_LINGER, "1h");
+
+      Map<String, CoreExceptionHandler> handlers = new HashMap<String, CoreExceptionHandler>();
+      handlers.put("Batch", recorder);
+      DecoratedHandlers decorated = new DecoratedHandlers(config, handlers);
+      Assert.assertTrue("Assert 001", decorated.getHandlers().get("Batch") instanceof BatchingHandler);
+      Assert.assertTrue("Assert 002", decorated.isAsynchronous());
+
+      decorated.getHandlers().get("Batch").handle(new DefaultException());
+      decorated.getHandlers().get("Batch").handle(new DefaultException());
+      Assert.assertTrue("Assert 003", recorder.getBatchSizes().isEmpty());
+
+      Assert.assertTrue("Assert 004", decorated.shutdown(5, TimeUnit.SECONDS));
+      Assert.assertEquals("Assert 005", "[2]", recorder.getBatchSizes().toString());
+   }
+
+   /**
+    * handle
+    * <p>
+    * Validates that a failed flush is rethrown rather than swallowed, so
+    * that the wrappers of the handler see it.
+    * </p>
+    */
+   @Test
+   public void failedFlushIsRethrown() {
+
+      BatchRecorder recorder = new BatchRecorder(0);
+      recorder.failures = 1;
+      BatchingHandler handler = new BatchingHandler(recorder, 2, 60000, 0);
+
+      handler.handle(new DefaultException());
+      try {
+         handler.handle(new DefaultException());
+         Assert.fail("Assert 001");
+      } catch (IllegalStateException expected) {
+         Assert.assertEquals("Assert 002", "[2]", recorder.getBatchSizes().toString());
+      }
+   }
+
+   /**
+    * handle
+    * <p>
+    * Validates that a given-up handler that fails neither hides the failure
+    * of the flush nor keeps the rest of the batch from being given up.
+    * </p>
+    */
+   @Test
+   public void failingGivenUpKeepsFlushFailure() {
+
+      BatchRecorder recorder = new BatchRecorder(0);
+      recorder.failures = 1;
+      final List<CoreException> released = new CopyOnWriteArrayList<CoreException>();
+      BatchingHandler handler = new BatchingHandler(recorder, 2, 60000, 0, new CoreExceptionHandler() {
+         public void handle(CoreException e) {
+            released.add(e);
+            throw new IllegalArgumentException("The exception could not be released.");
+         }
+      });
+
+      handler.handle(new DefaultException());
+      try {
+         handler.handle(new DefaultException());
+         Assert.fail("Assert 001");
+      } catch (IllegalStateException expected) {
+         Assert.assertEquals("Assert 002", "The batch could not be stored.", expected.getMessage());
+      }
+      Assert.assertEquals("Assert 003", 2, released.size());
+   }
+
+   /**
+    * DecoratedHandlers
+    * <p>
+    * Validates that a failed batch is retried as a whole and that a
+    * lingering batch is flushed on the handler's bulkhead.
+    * </p>
+    */
+   @Test
+   public void failedBatchIsRetriedOnBulkhead() throws InterruptedException {
+
+      BatchRecorder recorder = new BatchRecorder(0);
+      recorder.failures = 1;
+      Configuration config = new Configuration();
+      config.setHandlerAttribute("Batch", DecoratedHandlers.BATCH_SIZE, "10");
+      config.setHandlerAttribute("Batch", DecoratedHandlers.BATCH_LINGER, "20ms");
+      config.setHandlerAttribute("Batch", DecoratedHandlers.THREADS, "1");
+      config.setHandlerAttribute("Batch", DecoratedHandlers.RETRY_ATTEMPTS, "2");
+      config.setHandlerAttribute("Batch", DecoratedHandlers.RETRY_BACKOFF, "10ms");
+
+      Map<String, CoreExceptionHandler> handlers = new HashMap<String, CoreExceptionHandler>();
+      handlers.put("Batch", recorder);
+      DecoratedHandlers decorated = new DecoratedHandlers(config, handlers);
+      decorated.getHandlers().get("Batch").handle(new DefaultException());
+      decorated.getHandlers().get("Batch").handle(new DefaultException());
+
+      long deadline = System.currentTimeMillis() + 5000;
+      while (recorder.getBatchSizes().size() < 2 && System.currentTimeMillis() < deadline) {
+         Thread.sleep(10);
+      }
+      Assert.assertEquals("Assert 001", "[2, 2]", recorder.getBatchSizes().toString());
+      Assert.assertTrue("Assert 002", recorder.threadNames.get(0).startsWith("glitch-bulkhead-"));
+      Assert.assertEquals("Assert 003", 1, decorated.getRetryHandlers().iterator().next().getRetryCount());
+      Assert.assertTrue("Assert 004", decorated.shutdown(5, TimeUnit.SECONDS));
+   }
+
+   private static class BatchRecorder implements BatchingCoreExceptionHandler {
+
+      private final List<Integer> batchSizes = new CopyOnWriteArrayList<Integer>();
+      private final List<String> threadNames = new CopyOnWriteArrayList<String>();
+      private final long delayMillis;
+      private volatile int failures;
+
+      BatchRecorder(long delayMillis) {
+
+         this.delayMillis = delayMillis;
+      }
+
+      public void handle(CoreException e) {
+
+         handleBatch(Collections.singletonList(e));
+      }
+
+      public void handleBatch(List<CoreException> exceptions) {
+
+         batchSizes.add(exceptions.size());
+         threadNames.add(Thread.currentThread().getName());
+         if (failures > 0) {
+            failures--;
+            throw new IllegalStateException("The batch could not be stored.");
+         }
+         if (delayMillis > 0) {
+            try {
+               Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+         }
+      }
+
+      List<Integer> getBatchSizes() {
+
+         return batchSizes;
+      }
+   }
+}
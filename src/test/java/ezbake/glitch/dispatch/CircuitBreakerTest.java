@@ -0,0 +1,142 @@
+package ezbake.glitch.dispatch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.exception.DefaultException;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.dispatch.CircuitBreaker} class.
+ * </p>
+ */
+public class CircuitBreakerTest {
+
+   /**
+    * record
+    * <p>
+    * Validates that the breaker opens once the failure rate of a full window
+    * reaches the threshold and then rejects calls.
+    * </p>
+    */
+   @Test
+   public void opensAtFailureRate() {
+
+      CircuitBreaker breaker = new CircuitBreaker(0.5, 4, 0, 60000);
+
+      breaker.record(CircuitBreaker.Permit.CALL, true, 0);
+      breaker.record(CircuitBreaker.Permit.CALL, false, 0);
+      breaker.record(CircuitBreaker.Permit.CALL, true, 0);
+      Assert.assertEquals("Assert 001", CircuitBreaker.State.CLOSED, breaker.getState());
+
+      breaker.record(CircuitBreaker.Permit.CALL, false, 0);
+      Assert.assertEquals("Assert 002", CircuitBreaker.State.OPEN, breaker.getState());
+      Assert.assertEquals("Assert 003", CircuitBreaker.Permit.REJECTED, breaker.acquire());
+   }
+
+   /**
+    * record
+    * <p>
+    * Validates that calls slower than the threshold count as failures.
+    * </p>
+    */
+   @Test
+   public void slowCallsCountAsFailures() {
+
+      CircuitBreaker breaker = new CircuitBreaker(1, 2, 100, 60000);
+
+      breaker.record(CircuitBreaker.Permit.CALL, true, TimeUnit.MILLISECONDS.toNanos(500));
+      breaker.record(CircuitBreaker.Permit.CALL, true, TimeUnit.MILLISECONDS.toNanos(10));
+      Assert.assertEquals("Assert 001", CircuitBreaker.State.CLOSED, breaker.getState());
+
+      breaker.record(CircuitBreaker.Permit.CALL, true, TimeUnit.MILLISECONDS.toNanos(500));
+      breaker.record(CircuitBreaker.Permit.CALL, true, TimeUnit.MILLISECONDS.toNanos(500));
+      Assert.assertEquals("Assert 002", CircuitBreaker.State.OPEN, breaker.getState());
+   }
+
+   /**
+    * acquire
+    * <p>
+    * Validates that after the open time a single trial call is let through,
+    * that a failed trial reopens the breaker and a successful one closes it.
+    * </p>
+    */
+   @Test
+   public void halfOpenTrial() throws InterruptedException {
+
+      CircuitBreaker breaker = new CircuitBreaker(1, 1, 0, 20);
+      breaker.record(CircuitBreaker.Permit.CALL, false, 0);
+      Assert.assertEquals("Assert 001", CircuitBreaker.Permit.REJECTED, breaker.acquire());
+
+      Thread.sleep(40);
+      Assert.assertEquals("Assert 002", CircuitBreaker.Permit.TRIAL, breaker.acquire());
+      Assert.assertEquals("Assert 003", CircuitBreaker.State.HALF_OPEN, breaker.getState());
+      Assert.assertEquals("Assert 004", CircuitBreaker.Permit.REJECTED, breaker.acquire());
+      breaker.record(CircuitBreaker.Permit.TRIAL, false, 0);
+      Assert.assertEquals("Assert 005", CircuitBreaker.State.OPEN, breaker.getState());
+
+      Thread.sleep(40);
+      Assert.assertEquals("Assert 006", CircuitBreaker.Permit.TRIAL, breaker.acquire());
+      breaker.record(CircuitBreaker.Permit.TRIAL, true, 0);
+      Assert.assertEquals("Assert 007", CircuitBreaker.State.CLOSED, breaker.getState());
+      Assert.assertEquals("Assert 008", CircuitBreaker.Permit.CALL, breaker.acquire());
+   }
+
+   /**
+    * record
+    * <p>
+    * Validates that the late outcome of a call let through while the breaker
+    * was closed does not decide the trial of the half-open breaker.
+    * </p>
+    */
+   @Test
+   public void lateCallDoesNotDecideTrial() throws InterruptedException {
+
+      CircuitBreaker breaker = new CircuitBreaker(1, 1, 0, 20);
+      CircuitBreaker.Permit late = breaker.acquire();
+      breaker.record(breaker.acquire(), false, 0);
+      Assert.assertEquals("Assert 001", CircuitBreaker.State.OPEN, breaker.getState());
+
+      Thread.sleep(40);
+      Assert.assertEquals("Assert 002", CircuitBreaker.Permit.TRIAL, breaker.acquire());
+      breaker.record(late, true, 0);
+      Assert.assertEquals("Assert 003", CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+      breaker.record(CircuitBreaker.Permit.TRIAL, false, 0);
+      Assert.assertEquals("Assert 004", CircuitBreaker.State.OPEN, breaker.getState());
+   }
+
+   /**
+    * CircuitBreakerHandler
+    * <p>
+    * Validates that an error thrown by the trial call is recorded, so that
+    * the breaker reopens rather than rejecting calls for good.
+    * </p>
+    */
+   @Test
+   public void errorInTrialIsRecorded() throws InterruptedException {
+
+      CircuitBreaker breaker = new CircuitBreaker(1, 1, 0, 20);
+      breaker.record(CircuitBreaker.Permit.CALL, false, 0);
+      CircuitBreakerHandler handler = new CircuitBreakerHandler("Failing", new CoreExceptionHandler() {
+         public void handle(CoreException e) {
+            throw new LinkageError("The handler class broke.");
+         }
+      }, breaker, null);
+
+      Thread.sleep(40);
+      try {
+         handler.handle(new DefaultException());
+         Assert.fail("Assert 001");
+      } catch (LinkageError expected) {
+         Assert.assertEquals("Assert 002", CircuitBreaker.State.OPEN, breaker.getState());
+      }
+
+      Thread.sleep(40);
+      Assert.assertEquals("Assert 003", CircuitBreaker.Permit.TRIAL, breaker.acquire());
+   }
+}
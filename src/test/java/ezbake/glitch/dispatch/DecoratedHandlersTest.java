@@ -0,0 +1,245 @@
+package ezbake.glitch.dispatch;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.config.Configuration;
+import ezbake.glitch.exception.DefaultException;
+import ezbake.glitch.handler.CounterHandler;
+import ezbake.glitch.handler.FailingHandler;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.dispatch.DecoratedHandlers}
+ * class.
+ * </p>
+ */
+public class DecoratedHandlersTest {
+
+   /**
+    * getHandlers
+    * <p>
+    * Validates that a handler without attributes is not wrapped.
+    * </p>
+    */
+   @Test
+   public void handlerWithoutAttributesIsNotWrapped() {
+
+      CounterHandler counter = new CounterHandler();
+      DecoratedHandlers decorated = new DecoratedHandlers(new Configuration(), handlers("Counter", counter));
+      Assert.assertSame("Assert 001", counter, decorated.getHandlers().get("Counter"));
+      Assert.assertFalse("Assert 002", decorated.isAsynchronous());
+   }
+
+   /**
+    * getHandlers
+    * <p>
+    * Validates that a stalled handler in its own bulkhead does not delay the
+    * dispatching thread nor a handler in a different bulkhead.
+    * </p>
+    */
+   @Test
+   public void stalledBulkheadDoesNotDelayOthers() throws InterruptedException {
+
+      final CountDownLatch release = new CountDownLatch(1);
+      CoreExceptionHandler stalled = new CoreExceptionHandler() {
+         public void handle(CoreException e) {
+            try {
+               release.await();
+            } catch (InterruptedException interrupted) {
+               Thread.currentThread().interrupt();
+            }
+         }
+      };
+      CounterHandler counter = new CounterHandler();
+
+      Configuration config = new Configuration();
+      config.setHandlerAttribute("Stalled", DecoratedHandlers.THREADS, "1");
+      config.setHandlerAttribute("Stalled", DecoratedHandlers.QUEUE_SIZE, "2");
+      config.setHandlerAttribute("Counter", DecoratedHandlers.BULKHEAD, "fast");
+
+      Map<String, CoreExceptionHandler> instances = handlers("Counter", counter);
+      instances.put("Stalled", stalled);
+      DecoratedHandlers decorated = new DecoratedHandlers(config, instances);
+      Assert.assertEquals("Assert 001", 2, decorated.getBulkheads().size());
+
+      for (int i = 0; i < 10; i++) {
+         decorated.getHandlers().get("Stalled").handle(new DefaultException());
+         decorated.getHandlers().get("Counter").handle(new DefaultException());
+      }
+
+      Bulkhead fast = ((BulkheadHandler) decorated.getHandlers().get("Counter")).getBulkhead();
+      Assert.assertTrue("Assert 002", fast.drain(5, TimeUnit.SECONDS));
+      Assert.assertEquals("Assert 003", 10, counter.getCount());
+      Assert.assertFalse("Assert 004", decorated.drain(100, TimeUnit.MILLISECONDS));
+
+      release.countDown();
+      Assert.assertTrue("Assert 005", decorated.shutdown(5, TimeUnit.SECONDS));
+
+      long dropped = 0;
+      for (Bulkhead bulkhead : decorated.getBulkheads()) {
+         dropped += bulkhead.getDroppedCount();
+      }
+      Assert.assertEquals("Assert 006", 7, dropped);
+   }
+
+   /**
+    * getHandlers
+    * <p>
+    * Validates that a handler with a rate limit is only executed within the
+    * limit and that the rejected exceptions are counted.
+    * </p>
+    */
+   @Test
+   public void rateLimitedHandler() {
+
+      CounterHandler counter = new CounterHandler();
+      Configuration config = new Configuration();
+      config.setHandlerAttribute("Counter", DecoratedHandlers.RATE_LIMIT, "5/min");
+
+      DecoratedHandlers decorated = new DecoratedHandlers(config, handlers("Counter", counter));
+      for (int i = 0; i < 20; i++) {
+         decorated.getHandlers().get("Counter").handle(new DefaultException());
+      }
+
+      Assert.assertEquals("Assert 001", 5, counter.getCount());
+      RateLimitedHandler limited = (RateLimitedHandler) decorated.getHandlers().get("Counter");
+      Assert.assertEquals("Assert 002", 15, limited.getLimiter().getRejectedCount());
+   }
+
+   /**
+    * getHandlers
+    * <p>
+    * Validates that a failing handler's breaker opens and that its
+    * exceptions are passed along a chain of fallbacks.
+    * </p>
+    */
+   @Test
+   public void circuitBreakerWithFallbackChain() {
+
+      FailingHandler primary = new FailingHandler();
+      FailingHandler secondary = new FailingHandler();
+      CounterHandler counter = new CounterHandler();
+
+      Configuration config = new Configuration();
+      config.setHandlerAttribute("Primary", DecoratedHandlers.BREAKER_WINDOW, "2");
+      config.setHandlerAttribute("Primary", DecoratedHandlers.FALLBACK, "Secondary");
+      config.setHandlerAttribute("Secondary", DecoratedHandlers.BREAKER_FAILURE_RATE, "100%");
+      config.setHandlerAttribute("Secondary", DecoratedHandlers.BREAKER_WINDOW, "1");
+      config.setHandlerAttribute("Secondary", DecoratedHandlers.FALLBACK, "Counter");
+
+      Map<String, CoreExceptionHandler> instances = handlers("Primary", primary);
+      instances.put("Secondary", secondary);
+      instances.put("Counter", counter);
+      DecoratedHandlers decorated = new DecoratedHandlers(config, instances);
+
+      CoreExceptionHandler handler = decorated.getHandlers().get("Primary");
+      int failures = 0;
+      for (int i = 0; i < 10; i++) {
+         try {
+            handler.handle(new DefaultException());
+         } catch (IllegalStateException e) {
+            failures++;
+         }
+      }
+
+      Assert.assertEquals("Assert 001", 2, failures);
+      Assert.assertEquals("Assert 002", 2, primary.getCount());
+      Assert.assertEquals("Assert 003", 1, secondary.getCount());
+      Assert.assertEquals("Assert 004", 10, counter.getCount());
+      Assert.assertEquals("Assert 005", 8, ((CircuitBreakerHandler) handler).getSkippedCount());
+   }
+
+   /**
+    * getHandlers
+    * <p>
+    * Validates that a fallback chain that leads back to itself is ignored.
+    * </p>
+    */
+   @Test
+   public void fallbackCycleIsIgnored() {
+
+      FailingHandler first = new FailingHandler();
+      CounterHandler second = new CounterHandler();
+
+      Configuration config = new Configuration();
+      config.setHandlerAttribute("First", DecoratedHandlers.FALLBACK, "Second");
+      config.setHandlerAttribute("Second", DecoratedHandlers.FALLBACK, "First");
+
+      Map<String, CoreExceptionHandler> instances = handlers("First", first);
+      instances.put("Second", second);
+      DecoratedHandlers decorated = new DecoratedHandlers(config, instances);
+
+      Assert.assertTrue("Assert 001", decorated.getHandlers().get("First") instanceof CircuitBreakerHandler);
+      Assert.assertTrue("Assert 002", decorated.getHandlers().get("Second") instanceof CircuitBreakerHandler);
+      decorated.getHandlers().get("Second").handle(new DefaultException());
+      Assert.assertEquals("Assert 003", 1, second.getCount());
+   }
+
+   /**
+    * getHandlers
+    * <p>
+    * Validates that a handler with both a breaker and retries passes each
+    * exception to its fallback once, after its retries, and that the
+    * exceptions skipped by the open breaker reach the fallback rather than
+    * counting as handled.
+    * </p>
+    */
+   @Test
+   public void circuitBreakerWithRetries() throws InterruptedException {
+
+      FailingHandler primary = new FailingHandler();
+      CounterHandler counter = new CounterHandler();
+
+      Configuration config = new Configuration();
+      config.setHandlerAttribute("Primary", DecoratedHandlers.BREAKER_FAILURE_RATE, "100%");
+      config.setHandlerAttribute("Primary", DecoratedHandlers.BREAKER_WINDOW, "4");
+      config.setHandlerAttribute("Primary", DecoratedHandlers.FALLBACK, "Counter");
+      config.setHandlerAttribute("Primary", DecoratedHandlers.RETRY_ATTEMPTS, "3");
+      config.setHandlerAttribute("Primary", DecoratedHandlers.RETRY_BACKOFF, "1ms");
+
+      Map<String, CoreExceptionHandler> instances = handlers("Primary", primary);
+      instances.put("Counter", counter);
+      DecoratedHandlers decorated = new DecoratedHandlers(config, instances);
+      CoreExceptionHandler handler = decorated.getHandlers().get("Primary");
+      Assert.assertTrue("Assert 001", handler instanceof RetryHandler);
+
+      handler.handle(new DefaultException());
+      awaitCount(counter, 1);
+      Assert.assertEquals("Assert 002", 3, primary.getCount());
+      Assert.assertEquals("Assert 003", 1, counter.getCount());
+
+      handler.handle(new DefaultException());
+      awaitCount(counter, 2);
+      Assert.assertEquals("Assert 004", 4, primary.getCount());
+
+      handler.handle(new DefaultException());
+      Assert.assertEquals("Assert 005", 3, counter.getCount());
+      Assert.assertEquals("Assert 006", 4, primary.getCount());
+      Assert.assertTrue("Assert 007", decorated.shutdown(5, TimeUnit.SECONDS));
+      Assert.assertEquals("Assert 008", 3, counter.getCount());
+      Assert.assertEquals("Assert 009", 3, ((RetryHandler) handler).getDeadLetterCount());
+   }
+
+   private void awaitCount(CounterHandler counter, int count) throws InterruptedException {
+
+      long deadline = System.currentTimeMillis() + 5000;
+      while (counter.getCount() < count && System.currentTimeMillis() < deadline) {
+         Thread.sleep(5);
+      }
+   }
+
+   private Map<String, CoreExceptionHandler> handlers(String name, CoreExceptionHandler handler) {
+
+      Map<String, CoreExceptionHandler> handlers = new HashMap<String, CoreExceptionHandler>();
+      handlers.put(name, handler);
+      return handlers;
+   }
+}
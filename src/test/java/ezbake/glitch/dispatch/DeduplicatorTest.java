@@ -0,0 +1,151 @@
+package ezbake.glitch.dispatch;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.exception.DefaultException;
+import ezbake.glitch.exception.LazyException;
+import ezbake.glitch.exception.RepeatedException;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.dispatch.Deduplicator} and
+ * {@link ezbake.glitch.dispatch.Fingerprint} classes.
+ * </p>
+ */
+public class DeduplicatorTest {
+
+   private final List<CoreException> rollups = new CopyOnWriteArrayList<CoreException>();
+   private Deduplicator deduplicator;
+
+   @After
+   public void shutdown() {
+
+      if (deduplicator != null) {
+         deduplicator.shutdown();
+      }
+   }
+
+   /**
+    * Fingerprint.of
+    * <p>
+    * Validates that messages differing only in their numbers share a
+    * fingerprint while other messages do not.
+    * </p>
+    */
+   @Test
+   public void fingerprintIgnoresNumbers() {
+
+      DefaultException[] exceptions = new DefaultException[3];
+      String[] messages = { "timeout after 3012ms", "timeout after 98ms", "refused after 98ms" };
+      for (int i = 0; i < exceptions.length; i++) {
+         exceptions[i] = new DefaultException(messages[i]);
+      }
+
+      Assert.assertEquals("Assert 001", Fingerprint.of(exceptions[0], 3), Fingerprint.of(exceptions[1], 3));
+      Assert.assertFalse("Assert 002", Fingerprint.of(exceptions[0], 3) == Fingerprint.of(exceptions[2], 3));
+      Assert.assertFalse("Assert 003", Fingerprint.of(exceptions[0], 3) == Fingerprint.of(new DefaultException("timeout after 1ms"), 3));
+   }
+
+   /**
+    * Fingerprint.of
+    * <p>
+    * Validates that lazy exceptions are fingerprinted by their message
+    * pattern without formatting the message and, with zero frames, without
+    * building the stack trace.
+    * </p>
+    */
+   @Test
+   public void fingerprintKeepsLazyPartsDeferred() {
+
+      final List<String> forced = new CopyOnWriteArrayList<String>();
+      Object argument = new Object() {
+         @Override
+         public String toString() {
+            forced.add("message");
+            return "argument";
+         }
+      };
+      LazyException[] exceptions = new LazyException[2];
+      for (int i = 0; i < exceptions.length; i++) {
+         exceptions[i] = new LazyException("refused by %s", argument) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            public StackTraceElement[] getStackTrace() {
+               forced.add("stack trace");
+               return super.getStackTrace();
+            }
+         };
+      }
+
+      Assert.assertEquals("Assert 001", Fingerprint.of(exceptions[0], 0), Fingerprint.of(exceptions[1], 0));
+      Assert.assertFalse("Assert 002", Fingerprint.of(exceptions[0], 0) == Fingerprint.of(new LazyException("timeout from %s", argument), 0));
+      Assert.assertTrue("Assert 003", forced.isEmpty());
+   }
+
+   /**
+    * admit
+    * <p>
+    * Validates that the repeats within a window are suppressed and reported
+    * as one rollup when the window closes.
+    * </p>
+    */
+   @Test
+   public void repeatsRollUp() {
+
+      deduplicator = new Deduplicator(new Recorder(), 3600000, 3, 100);
+
+      int admitted = 0;
+      for (int i = 0; i < 50; i++) {
+         if (deduplicator.admit(new DefaultException("failure " + i))) {
+            admitted++;
+         }
+      }
+      Assert.assertEquals("Assert 001", 1, admitted);
+      Assert.assertTrue("Assert 002", rollups.isEmpty());
+
+      deduplicator.closeWindows(true);
+      Assert.assertEquals("Assert 003", 1, rollups.size());
+      RepeatedException rollup = (RepeatedException) rollups.get(0);
+      Assert.assertEquals("Assert 004", 49, rollup.getOccurrences());
+      Assert.assertEquals("Assert 005", "failure 0", rollup.getOriginal().getMessage());
+      Assert.assertTrue("Assert 006", rollup.getMessage().startsWith("49 occurrences since "));
+
+      Assert.assertTrue("Assert 007", deduplicator.admit(new DefaultException("failure")));
+   }
+
+   /**
+    * admit
+    * <p>
+    * Validates that a window without repeats closes without a rollup and
+    * that new fingerprints are admitted once the tracking limit is reached.
+    * </p>
+    */
+   @Test
+   public void distinctExceptionsAreAdmitted() {
+
+      deduplicator = new Deduplicator(new Recorder(), 3600000, 3, 1);
+
+      Assert.assertTrue("Assert 001", deduplicator.admit(new DefaultException("first")));
+      Assert.assertTrue("Assert 002", deduplicator.admit(new DefaultException("second")));
+      Assert.assertTrue("Assert 003", deduplicator.admit(new DefaultException("second")));
+      Assert.assertEquals("Assert 004", 1, deduplicator.getWindowCount());
+
+      deduplicator.closeWindows(true);
+      Assert.assertTrue("Assert 005", rollups.isEmpty());
+      Assert.assertEquals("Assert 006", 0, deduplicator.getWindowCount());
+   }
+
+   private class Recorder implements Dispatcher {
+
+      public void dispatch(CoreException exception) {
+
+         rollups.add(exception);
+      }
+   }
+}
@@ -0,0 +1,227 @@
+package ezbake.glitch.dispatch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.config.Configuration;
+import ezbake.glitch.exception.ChildException;
+import ezbake.glitch.exception.DefaultException;
+import ezbake.glitch.exception.GrandchildException;
+import ezbake.glitch.handler.CounterHandler;
+import ezbake.glitch.handler.DefaultExceptionHandler;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.dispatch.DispatchTable} class.
+ * </p>
+ */
+public class DispatchTableTest {
+
+   /**
+    * getHandlers
+    * <p>
+    * Validates that an explicitly mapped exception class resolves to its
+    * mapped handler instances and not the default handlers.
+    * </p>
+    */
+   @Test
+   public void mappedExceptionResolvesToMappedHandlers() {
+
+      CounterHandler counter = new CounterHandler();
+      Configuration config = new Configuration();
+      config.addDefaultHandler(DefaultExceptionHandler.class.getName());
+      config.addExceptionHandler(DefaultException.class.getName(), CounterHandler.class.getName());
+
+      DispatchTable table = new DispatchTable(config, handlers(counter, new DefaultExceptionHandler()));
+      CoreExceptionHandler[] handlers = table.getHandlers(DefaultException.class);
+      Assert.assertEquals("Assert 001", 1, handlers.length);
+      Assert.assertSame("Assert 002", counter, handlers[0]);
+   }
+
+   /**
+    * getHandlers
+    * <p>
+    * Validates that an unmapped exception class resolves to the default
+    * handlers.
+    * </p>
+    */
+   @Test
+   public void unmappedExceptionResolvesToDefaultHandlers() {
+
+      DefaultExceptionHandler defaultHandler = new DefaultExceptionHandler();
+      Configuration config = new Configuration();
+      config.addDefaultHandler(DefaultExceptionHandler.class.getName());
+
+      DispatchTable table = new DispatchTable(config, handlers(defaultHandler));
+      CoreExceptionHandler[] handlers = table.getHandlers(DefaultException.class);
+      Assert.assertEquals("Assert 001", 1, handlers.length);
+      Assert.assertSame("Assert 002", defaultHandler, handlers[0]);
+   }
+
+   /**
+    * getHandlers
+    * <p>
+    * Validates that repeated lookups for a class return the same cached array
+    * instance rather than building a new collection per call.
+    * </p>
+    */
+   @Test
+   public void repeatedLookupsReturnSameArray() {
+
+      Configuration config = new Configuration();
+      config.addExceptionHandler(DefaultException.class.getName(), CounterHandler.class.getName());
+
+      DispatchTable table = new DispatchTable(config, handlers(new CounterHandler()));
+      Assert.assertSame("Assert 001", table.getHandlers(DefaultException.class), table.getHandlers(DefaultException.class));
+   }
+
+   /**
+    * getHandlers
+    * <p>
+    * Validates that a mapping whose handlers could not be instantiated is
+    * thrown out so that the default handlers are used instead.
+    * </p>
+    */
+   @Test
+   public void mappingWithMissingHandlerFallsBackToDefaults() {
+
+      DefaultExceptionHandler defaultHandler = new DefaultExceptionHandler();
+      Configuration config = new Configuration();
+      config.addDefaultHandler(DefaultExceptionHandler.class.getName());
+      config.addExceptionHandler(DefaultException.class.getName(), "ezbake.glitch.handler.BogusHandler");
+
+      DispatchTable table = new DispatchTable(config, handlers(defaultHandler));
+      CoreExceptionHandler[] handlers = table.getHandlers(DefaultException.class);
+      Assert.assertEquals("Assert 001", 1, handlers.length);
+      Assert.assertSame("Assert 002", defaultHandler, handlers[0]);
+   }
+
+   /**
+    * getHandlers
+    * <p>
+    * Validates that an empty configuration results in no handlers.
+    * </p>
+    */
+   @Test
+   public void emptyConfigurationResolvesToNoHandlers() {
+
+      DispatchTable table = new DispatchTable(new Configuration(), new HashMap<String, CoreExceptionHandler>());
+      Assert.assertEquals("Assert 001", 0, table.getHandlers(DefaultException.class).length);
+   }
+
+   /**
+    * getHandlers
+    * <p>
+    * Validates that the exact resolution does not apply a superclass mapping
+    * to a subclass.
+    * </p>
+    */
+   @Test
+   public void exactResolutionIgnoresSuperclassMappings() {
+
+      DefaultExceptionHandler defaultHandler = new DefaultExceptionHandler();
+      Configuration config = new Configuration();
+      config.addDefaultHandler(DefaultExceptionHandler.class.getName());
+      config.addExceptionHandler(DefaultException.class.getName(), CounterHandler.class.getName());
+
+      DispatchTable table = new DispatchTable(config, handlers(defaultHandler, new CounterHandler()));
+      CoreExceptionHandler[] handlers = table.getHandlers(GrandchildException.class);
+      Assert.assertEquals("Assert 001", 1, handlers.length);
+      Assert.assertSame("Assert 002", defaultHandler, handlers[0]);
+   }
+
+   /**
+    * getHandlers
+    * <p>
+    * Validates that the nearest resolution uses the mapping of the closest
+    * mapped superclass only.
+    * </p>
+    */
+   @Test
+   public void nearestResolutionUsesClosestMappedType() {
+
+      CounterHandler baseHandler = new CounterHandler();
+      CounterHandler childHandler = new CounterHandler();
+      Configuration config = new Configuration();
+      config.setProperty(Resolution.PROPERTY_NAME, "nearest");
+      config.addExceptionHandler(DefaultException.class.getName(), "BaseHandler");
+      config.addExceptionHandler(ChildException.class.getName(), "ChildHandler");
+
+      Map<String, CoreExceptionHandler> instances = new HashMap<String, CoreExceptionHandler>();
+      instances.put("BaseHandler", baseHandler);
+      instances.put("ChildHandler", childHandler);
+
+      DispatchTable table = new DispatchTable(config, instances);
+      CoreExceptionHandler[] handlers = table.getHandlers(GrandchildException.class);
+      Assert.assertEquals("Assert 001", 1, handlers.length);
+      Assert.assertSame("Assert 002", childHandler, handlers[0]);
+
+      handlers = table.getHandlers(DefaultException.class);
+      Assert.assertEquals("Assert 003", 1, handlers.length);
+      Assert.assertSame("Assert 004", baseHandler, handlers[0]);
+   }
+
+   /**
+    * getHandlers
+    * <p>
+    * Validates that the union resolution combines the handlers of every mapped
+    * type in the hierarchy, including interfaces, without duplicates.
+    * </p>
+    */
+   @Test
+   public void unionResolutionCombinesHierarchyMappings() {
+
+      CounterHandler baseHandler = new CounterHandler();
+      CounterHandler childHandler = new CounterHandler();
+      Configuration config = new Configuration();
+      config.setProperty(Resolution.PROPERTY_NAME, "union");
+      config.addExceptionHandler(CoreException.class.getName(), "BaseHandler");
+      config.addExceptionHandler(DefaultException.class.getName(), "BaseHandler");
+      config.addExceptionHandler(ChildException.class.getName(), "ChildHandler");
+
+      Map<String, CoreExceptionHandler> instances = new HashMap<String, CoreExceptionHandler>();
+      instances.put("BaseHandler", baseHandler);
+      instances.put("ChildHandler", childHandler);
+
+      DispatchTable table = new DispatchTable(config, instances);
+      CoreExceptionHandler[] handlers = table.getHandlers(GrandchildException.class);
+      Assert.assertEquals("Assert 001", 2, handlers.length);
+      Assert.assertSame("Assert 002", childHandler, handlers[0]);
+      Assert.assertSame("Assert 003", baseHandler, handlers[1]);
+   }
+
+   /**
+    * getHandlerName
+    * <p>
+    * Validates that a handler is named by the class name it was configured
+    * under, not by the class of the instance that stands for it.
+    * </p>
+    */
+   @Test
+   public void handlerIsNamedAsConfigured() {
+
+      Configuration config = new Configuration();
+      config.addExceptionHandler(DefaultException.class.getName(), "ezbake.glitch.handler.WrappedHandler");
+      Map<String, CoreExceptionHandler> handlers = new HashMap<String, CoreExceptionHandler>();
+      handlers.put("ezbake.glitch.handler.WrappedHandler", new CounterHandler());
+
+      DispatchTable table = new DispatchTable(config, handlers);
+      CoreExceptionHandler[] resolved = table.getHandlers(DefaultException.class);
+      Assert.assertEquals("Assert 001", "ezbake.glitch.handler.WrappedHandler", table.getHandlerName(resolved[0]));
+      Assert.assertEquals("Assert 002", CounterHandler.class.getName(), table.getHandlerName(new CounterHandler()));
+   }
+
+   private Map<String, CoreExceptionHandler> handlers(CoreExceptionHandler... instances) {
+
+      Map<String, CoreExceptionHandler> handlers = new HashMap<String, CoreExceptionHandler>();
+      for (CoreExceptionHandler instance : instances) {
+         handlers.put(instance.getClass().getName(), instance);
+      }
+      return handlers;
+   }
+}
@@ -0,0 +1,173 @@
+package ezbake.glitch.dispatch;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.config.Configuration;
+import ezbake.glitch.exception.DefaultException;
+import ezbake.glitch.handler.BrokenInitializerHandler;
+import ezbake.glitch.handler.CounterHandler;
+import ezbake.glitch.handler.SlowStartHandler;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.dispatch.HandlerStartup} and
+ * {@link ezbake.glitch.dispatch.LazyHandler} classes.
+ * </p>
+ */
+public class HandlerStartupTest {
+
+   private static final String MISSING = "ezbake.glitch.handler.MissingHandler";
+
+   @Before
+   public void resetInstances() {
+
+      SlowStartHandler.reset();
+   }
+
+   /**
+    * instantiate
+    * <p>
+    * Validates that the lazy startup only looks up the handler classes and
+    * that a handler is instantiated once, by the first of several threads
+    * that dispatch to it at the same time.
+    * </p>
+    */
+   @Test
+   public void lazyInstantiatesOnFirstExceptionOnce() throws InterruptedException {
+
+      Configuration config = new Configuration();
+      config.setProperty(HandlerStartup.STARTUP, "lazy");
+      Map<String, CoreExceptionHandler> handlers = HandlerStartup.create(config).instantiate(
+            Arrays.asList(SlowStartHandler.class.getName(), CounterHandler.class.getName(), MISSING));
+
+      Assert.assertEquals("Assert 001", 2, handlers.size());
+      Assert.assertEquals("Assert 002", 0, SlowStartHandler.getInstances());
+      final LazyHandler lazy = (LazyHandler) handlers.get(SlowStartHandler.class.getName());
+      Assert.assertFalse("Assert 003", lazy.isInstantiated());
+
+      Thread[] threads = new Thread[8];
+      for (int i = 0; i < threads.length; i++) {
+         threads[i] = new Thread(new Runnable() {
+            public void run() {
+               lazy.handle(new DefaultException("Message Goes Here"));
+            }
+         });
+         threads[i].start();
+      }
+      for (Thread thread : threads) {
+         thread.join();
+      }
+      Assert.assertTrue("Assert 004", lazy.isInstantiated());
+      Assert.assertEquals("Assert 005", 1, SlowStartHandler.getInstances());
+   }
+
+   /**
+    * instantiate
+    * <p>
+    * Validates that the parallel startup returns the handlers that were
+    * ready within the budget and a stand-in that waits for the handler
+    * still starting, without instantiating it a second time.
+    * </p>
+    */
+   @Test
+   public void parallelDefersHandlersOverBudget() {
+
+      Configuration config = new Configuration();
+      config.setProperty(HandlerStartup.STARTUP, "parallel");
+      config.setProperty(HandlerStartup.THREADS, "2");
+      config.setProperty(HandlerStartup.BUDGET, "50ms");
+      Map<String, CoreExceptionHandler> handlers = HandlerStartup.create(config).instantiate(
+            Arrays.asList(SlowStartHandler.class.getName(), CounterHandler.class.getName(), MISSING));
+
+      Assert.assertEquals("Assert 001", 2, handlers.size());
+      Assert.assertTrue("Assert 002", handlers.get(CounterHandler.class.getName()) instanceof CounterHandler);
+      LazyHandler lazy = (LazyHandler) handlers.get(SlowStartHandler.class.getName());
+      Assert.assertTrue("Assert 003", lazy.getDelegate() instanceof SlowStartHandler);
+      Assert.assertEquals("Assert 004", 1, SlowStartHandler.getInstances());
+   }
+
+   /**
+    * close
+    * <p>
+    * Validates that a stand-in that is closed before its first exception
+    * never instantiates its handler and rejects the exception.
+    * </p>
+    */
+   @Test
+   public void closedLazyHandlerStaysEmpty() throws Exception {
+
+      Configuration config = new Configuration();
+      config.setProperty(HandlerStartup.STARTUP, "lazy");
+      LazyHandler lazy = (LazyHandler) HandlerStartup.create(config).instantiate(SlowStartHandler.class.getName());
+
+      lazy.close();
+      try {
+         lazy.handle(new DefaultException("Message Goes Here"));
+         Assert.fail("Assert 001");
+      } catch (IllegalStateException e) {
+         Assert.assertTrue("Assert 002", e.getMessage().contains("closed"));
+      }
+      Assert.assertNull("Assert 003", lazy.getDelegate());
+      Assert.assertEquals("Assert 004", 0, SlowStartHandler.getInstances());
+   }
+
+   /**
+    * handle
+    * <p>
+    * Validates that a stand-in whose handler could not be created rejects
+    * every exception instead of dropping it.
+    * </p>
+    */
+   @Test
+   public void failedLazyHandlerRejectsExceptions() {
+
+      LazyHandler lazy = new LazyHandler("ezbake.glitch.handler.FailingHandler", new Callable<CoreExceptionHandler>() {
+         public CoreExceptionHandler call() throws Exception {
+            throw new InstantiationException("Message Goes Here");
+         }
+      });
+      for (int i = 0; i < 2; i++) {
+         try {
+            lazy.handle(new DefaultException("Message Goes Here"));
+            Assert.fail("Assert 001");
+         } catch (IllegalStateException e) {
+            Assert.assertTrue("Assert 002", e.getMessage().contains("could not be instantiated"));
+         }
+      }
+      Assert.assertFalse("Assert 003", lazy.isInstantiated());
+   }
+
+   /**
+    * handle
+    * <p>
+    * Validates that a stand-in whose handler class fails to initialize tries
+    * to create it only once and rejects every exception with an
+    * {@link IllegalStateException} instead of the initializer's error.
+    * </p>
+    */
+   @Test
+   public void brokenInitializerRejectsExceptions() {
+
+      Configuration config = new Configuration();
+      config.setProperty(HandlerStartup.STARTUP, "lazy");
+      LazyHandler lazy = (LazyHandler) HandlerStartup.create(config).instantiate(BrokenInitializerHandler.class.getName());
+
+      for (int i = 0; i < 2; i++) {
+         try {
+            lazy.handle(new DefaultException("Message Goes Here"));
+            Assert.fail("Assert 001");
+         } catch (IllegalStateException e) {
+            Assert.assertTrue("Assert 002", e.getMessage().contains("could not be instantiated"));
+         }
+      }
+      Assert.assertFalse("Assert 003", lazy.isInstantiated());
+      Assert.assertEquals("Assert 004", 1, BrokenInitializerHandler.Attempts.get());
+   }
+}
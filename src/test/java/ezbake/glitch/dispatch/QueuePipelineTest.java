@@ -0,0 +1,282 @@
+package ezbake.glitch.dispatch;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.exception.DefaultException;
+import ezbake.glitch.exception.LazyException;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.dispatch.QueuePipeline} class.
+ * </p>
+ */
+public class QueuePipelineTest {
+
+   private CountDownLatch started = new CountDownLatch(1);
+   private CountDownLatch release = new CountDownLatch(1);
+   private List<String> handled = new CopyOnWriteArrayList<String>();
+   private List<String> threads = new CopyOnWriteArrayList<String>();
+   private QueuePipeline pipeline;
+
+   @After
+   public void shutdown() throws InterruptedException {
+
+      release.countDown();
+      if (pipeline != null) {
+         pipeline.shutdown(5, TimeUnit.SECONDS);
+      }
+   }
+
+   /**
+    * publish
+    * <p>
+    * Validates that published exceptions are handled on a worker thread and
+    * that drain waits for all of them.
+    * </p>
+    */
+   @Test
+   public void publishHandlesOnWorkerThread() throws InterruptedException {
+
+      release.countDown();
+      pipeline = new QueuePipeline(new RecordingDispatcher(), 16, 0, 1, OverflowPolicy.BLOCK);
+      for (int i = 0; i < 10; i++) {
+         pipeline.publish(new DefaultException("e" + i));
+      }
+
+      Assert.assertTrue("Assert 001", pipeline.drain(5, TimeUnit.SECONDS));
+      Assert.assertEquals("Assert 002", 10, handled.size());
+      Assert.assertFalse("Assert 003", threads.contains(Thread.currentThread().getName()));
+   }
+
+   /**
+    * publish
+    * <p>
+    * Validates that the drop-newest policy discards the published exception
+    * when the queue is full.
+    * </p>
+    */
+   @Test
+   public void dropNewestDiscardsPublished() throws InterruptedException {
+
+      fillQueue(OverflowPolicy.DROP_NEWEST);
+      pipeline.publish(new DefaultException("e3"));
+      release.countDown();
+
+      Assert.assertTrue("Assert 001", pipeline.drain(5, TimeUnit.SECONDS));
+      Assert.assertEquals("Assert 002", "[e1, e2]", handled.toString());
+      Assert.assertEquals("Assert 003", 1, pipeline.getDroppedCount());
+   }
+
+   /**
+    * publish
+    * <p>
+    * Validates that the drop-oldest policy discards the oldest queued
+    * exception to make room for the published exception.
+    * </p>
+    */
+   @Test
+   public void dropOldestDiscardsQueued() throws InterruptedException {
+
+      fillQueue(OverflowPolicy.DROP_OLDEST);
+      pipeline.publish(new DefaultException("e3"));
+      release.countDown();
+
+      Assert.assertTrue("Assert 001", pipeline.drain(5, TimeUnit.SECONDS));
+      Assert.assertEquals("Assert 002", "[e1, e3]", handled.toString());
+      Assert.assertEquals("Assert 003", 1, pipeline.getDroppedCount());
+   }
+
+   /**
+    * publish
+    * <p>
+    * Validates that the caller-runs policy handles the published exception on
+    * the publishing thread when the queue is full.
+    * </p>
+    */
+   @Test
+   public void callerRunsHandlesOnPublisher() throws InterruptedException {
+
+      fillQueue(OverflowPolicy.CALLER_RUNS);
+      pipeline.publish(new DefaultException("e3"));
+      Assert.assertEquals("Assert 001", "[e1, e3]", handled.toString());
+      Assert.assertTrue("Assert 002", threads.contains(Thread.currentThread().getName()));
+      release.countDown();
+
+      Assert.assertTrue("Assert 003", pipeline.drain(5, TimeUnit.SECONDS));
+      Assert.assertEquals("Assert 004", 3, handled.size());
+      Assert.assertEquals("Assert 005", 0, pipeline.getDroppedCount());
+   }
+
+   /**
+    * publish
+    * <p>
+    * Validates that the byte bound limits the queue even when there is room
+    * for more exceptions.
+    * </p>
+    */
+   @Test
+   public void byteBoundLimitsQueue() throws InterruptedException {
+
+      pipeline = new QueuePipeline(new RecordingDispatcher(), 16, 1, 1, OverflowPolicy.DROP_NEWEST);
+      pipeline.publish(new DefaultException("e1"));
+      Assert.assertTrue("Assert 001", started.await(5, TimeUnit.SECONDS));
+
+      pipeline.publish(new DefaultException("e2"));
+      pipeline.publish(new DefaultException("e3"));
+      release.countDown();
+
+      Assert.assertTrue("Assert 002", pipeline.drain(5, TimeUnit.SECONDS));
+      Assert.assertEquals("Assert 003", "[e1, e2]", handled.toString());
+      Assert.assertEquals("Assert 004", 1, pipeline.getDroppedCount());
+   }
+
+   /**
+    * publish
+    * <p>
+    * Validates that the byte bound does not read the message or the stack
+    * trace of an exception on the publishing thread.
+    * </p>
+    */
+   @Test
+   public void byteBoundDoesNotInspectException() throws InterruptedException {
+
+      release.countDown();
+      pipeline = new QueuePipeline(new Dispatcher() {
+         public void dispatch(CoreException exception) {
+         }
+      }, 16, 4 * QueuePipeline.THROWABLE_BYTES, 1, OverflowPolicy.BLOCK);
+      final List<String> readers = new CopyOnWriteArrayList<String>();
+      pipeline.publish(new DefaultException("e1") {
+         @Override
+         public String getMessage() {
+            readers.add(Thread.currentThread().getName());
+            return super.getMessage();
+         }
+         @Override
+         public StackTraceElement[] getStackTrace() {
+            readers.add(Thread.currentThread().getName());
+            return super.getStackTrace();
+         }
+      });
+
+      Assert.assertTrue("Assert 001", pipeline.drain(5, TimeUnit.SECONDS));
+      Assert.assertFalse("Assert 002", readers.contains(Thread.currentThread().getName()));
+   }
+
+   /**
+    * publish
+    * <p>
+    * Validates that the byte bound charges an exception by its cause chain
+    * and messages, so that a large exception is dropped while smaller ones
+    * still fit.
+    * </p>
+    */
+   @Test
+   public void byteBoundChargesEstimatedSize() throws InterruptedException {
+
+      DefaultException small = new DefaultException("e2");
+      CoreException large = new LazyException(new IllegalStateException(new RuntimeException()), "large");
+      Assert.assertTrue("Assert 001", QueuePipeline.estimateBytes(large) > 2 * QueuePipeline.estimateBytes(small));
+
+      pipeline = new QueuePipeline(new RecordingDispatcher(), 16, 2 * QueuePipeline.estimateBytes(small), 1, OverflowPolicy.DROP_NEWEST);
+      pipeline.publish(new DefaultException("e1"));
+      Assert.assertTrue("Assert 002", started.await(5, TimeUnit.SECONDS));
+      pipeline.publish(small);
+      pipeline.publish(large);
+      pipeline.publish(new DefaultException("e3"));
+      release.countDown();
+
+      Assert.assertTrue("Assert 003", pipeline.drain(5, TimeUnit.SECONDS));
+      Assert.assertEquals("Assert 004", "[e1, e2, e3]", handled.toString());
+      Assert.assertEquals("Assert 005", 1, pipeline.getDroppedCount());
+   }
+
+   /**
+    * publish
+    * <p>
+    * Validates that a lazy message is estimated from its pattern without
+    * being formatted.
+    * </p>
+    */
+   @Test
+   public void lazyMessageEstimatedWithoutFormatting() {
+
+      final List<String> formatted = new CopyOnWriteArrayList<String>();
+      Object argument = new Object() {
+         @Override
+         public String toString() {
+            formatted.add("formatted");
+            return "argument";
+         }
+      };
+      LazyException exception = new LazyException("failed on %s", argument);
+
+      Assert.assertTrue("Assert 001", QueuePipeline.estimateBytes(exception) > QueuePipeline.THROWABLE_BYTES);
+      Assert.assertTrue("Assert 002", formatted.isEmpty());
+   }
+
+   /**
+    * shutdown
+    * <p>
+    * Validates that shutdown handles the pending exceptions and that
+    * exceptions published afterwards are handled on the publishing thread.
+    * </p>
+    */
+   @Test
+   public void shutdownFlushesPending() throws InterruptedException {
+
+      fillQueue(OverflowPolicy.BLOCK);
+      release.countDown();
+
+      Assert.assertTrue("Assert 001", pipeline.shutdown(5, TimeUnit.SECONDS));
+      Assert.assertEquals("Assert 002", "[e1, e2]", handled.toString());
+
+      pipeline.publish(new DefaultException("e3"));
+      Assert.assertEquals("Assert 003", "[e1, e2, e3]", handled.toString());
+   }
+
+   /**
+    * <p>
+    * Creates a single worker pipeline with room for one exception, publishes
+    * an exception that blocks the worker and then one that fills the queue.
+    * </p>
+    */
+   private void fillQueue(OverflowPolicy policy) throws InterruptedException {
+
+      pipeline = new QueuePipeline(new RecordingDispatcher(), 1, 0, 1, policy);
+      pipeline.publish(new DefaultException("e1"));
+      Assert.assertTrue("The worker did not start.", started.await(5, TimeUnit.SECONDS));
+      pipeline.publish(new DefaultException("e2"));
+   }
+
+   /**
+    * <p>
+    * Records the handled exceptions; the one named e1 blocks until released.
+    * </p>
+    */
+   private class RecordingDispatcher implements Dispatcher {
+
+      public void dispatch(CoreException exception) {
+
+         handled.add(exception.getMessage());
+         threads.add(Thread.currentThread().getName());
+         if (!"e1".equals(exception.getMessage())) {
+            return;
+         }
+         started.countDown();
+         try {
+            release.await();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+}
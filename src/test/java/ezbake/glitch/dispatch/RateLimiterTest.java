@@ -0,0 +1,88 @@
+package ezbake.glitch.dispatch;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.dispatch.RateLimiter} class.
+ * </p>
+ */
+public class RateLimiterTest {
+
+   /**
+    * parse
+    * <p>
+    * Validates that valid limits are parsed and invalid ones are ignored.
+    * </p>
+    */
+   @Test
+   public void parseLimits() {
+
+      Assert.assertEquals("Assert 001", "5/60000ms", RateLimiter.parse("5/min", 0).toString());
+      Assert.assertEquals("Assert 002", "20/10000ms", RateLimiter.parse("20/10s", 0).toString());
+      Assert.assertEquals("Assert 003", "100/1000ms", RateLimiter.parse(" 100/s ", 0).toString());
+      Assert.assertNull("Assert 004", RateLimiter.parse(null, 0));
+      Assert.assertNull("Assert 005", RateLimiter.parse("5", 0));
+      Assert.assertNull("Assert 006", RateLimiter.parse("five/min", 0));
+      Assert.assertNull("Assert 007", RateLimiter.parse("5/fortnight", 0));
+   }
+
+   /**
+    * tryAcquire
+    * <p>
+    * Validates that a full bucket admits a burst, rejects and counts the
+    * events over it, and refills over time.
+    * </p>
+    */
+   @Test
+   public void burstThenReject() throws InterruptedException {
+
+      RateLimiter limiter = new RateLimiter(10, 1000, 3);
+
+      Assert.assertTrue("Assert 001", limiter.tryAcquire());
+      Assert.assertTrue("Assert 002", limiter.tryAcquire());
+      Assert.assertTrue("Assert 003", limiter.tryAcquire());
+      Assert.assertFalse("Assert 004", limiter.tryAcquire());
+      Assert.assertFalse("Assert 005", limiter.tryAcquire());
+      Assert.assertEquals("Assert 006", 2, limiter.getRejectedCount());
+
+      Thread.sleep(150);
+      Assert.assertTrue("Assert 007", limiter.tryAcquire());
+   }
+
+   /**
+    * tryAcquire
+    * <p>
+    * Validates that concurrent callers are admitted no more than the burst.
+    * </p>
+    */
+   @Test
+   public void concurrentCallersShareTheBucket() throws InterruptedException {
+
+      final RateLimiter limiter = new RateLimiter(50, 3600000, 50);
+      final AtomicInteger admitted = new AtomicInteger();
+
+      Thread[] callers = new Thread[4];
+      for (int i = 0; i < callers.length; i++) {
+         callers[i] = new Thread(new Runnable() {
+            public void run() {
+               for (int j = 0; j < 1000; j++) {
+                  if (limiter.tryAcquire()) {
+                     admitted.incrementAndGet();
+                  }
+               }
+            }
+         });
+         callers[i].start();
+      }
+      for (Thread caller : callers) {
+         caller.join();
+      }
+
+      Assert.assertEquals("Assert 001", 50, admitted.get());
+      Assert.assertEquals("Assert 002", 3950, limiter.getRejectedCount());
+   }
+}
@@ -0,0 +1,198 @@
+package ezbake.glitch.dispatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.exception.DefaultException;
+import ezbake.glitch.handler.FailingHandler;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.dispatch.RetryHandler} and
+ * {@link ezbake.glitch.dispatch.RetryPolicy} classes.
+ * </p>
+ */
+public class RetryHandlerTest {
+
+   private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+   @After
+   public void shutdown() {
+
+      scheduler.shutdownNow();
+   }
+
+   /**
+    * getDelayMillis
+    * <p>
+    * Validates that the backoff grows by the multiplier up to its maximum
+    * and that the jitter only shortens it.
+    * </p>
+    */
+   @Test
+   public void backoffGrowsExponentially() {
+
+      RetryPolicy policy = new RetryPolicy(10, 100, 1000, 2, 0, Collections.<Class<?>> emptyList());
+      Assert.assertEquals("Assert 001", 100, policy.getDelayMillis(1));
+      Assert.assertEquals("Assert 002", 400, policy.getDelayMillis(3));
+      Assert.assertEquals("Assert 003", 1000, policy.getDelayMillis(8));
+
+      policy = new RetryPolicy(10, 100, 1000, 2, 0.5, Collections.<Class<?>> emptyList());
+      for (int i = 0; i < 100; i++) {
+         long delay = policy.getDelayMillis(2);
+         Assert.assertTrue("Assert 004", delay >= 100 && delay <= 200);
+      }
+   }
+
+   /**
+    * handle
+    * <p>
+    * Validates that a handler that fails for a while is retried on the
+    * scheduler until it succeeds.
+    * </p>
+    */
+   @Test
+   public void retriesUntilSuccess() throws InterruptedException {
+
+      final AtomicInteger failures = new AtomicInteger(2);
+      final CountDownLatch handled = new CountDownLatch(1);
+      CoreExceptionHandler flaky = new CoreExceptionHandler() {
+         public void handle(CoreException e) {
+            if (failures.getAndDecrement() > 0) {
+               throw new IllegalStateException("The handler failed.");
+            }
+            handled.countDown();
+         }
+      };
+      RecordingHandler deadLetter = new RecordingHandler();
+      RetryHandler handler = new RetryHandler("Flaky", flaky, new RetryPolicy(5, 1, 10, 2, 0.5, Collections.<Class<?>> emptyList()), scheduler, deadLetter, 10);
+
+      handler.handle(new DefaultException("Message Goes Here"));
+      Assert.assertTrue("Assert 001", handled.await(5, TimeUnit.SECONDS));
+      Assert.assertEquals("Assert 002", 2, handler.getRetryCount());
+      Assert.assertEquals("Assert 003", 0, handler.getDeadLetterCount());
+      Assert.assertTrue("Assert 004", deadLetter.exceptions.isEmpty());
+   }
+
+   /**
+    * handle
+    * <p>
+    * Validates that an exception is passed to the dead-letter handler once
+    * its attempts are exhausted and that a failure that is not retryable is
+    * rethrown at once.
+    * </p>
+    */
+   @Test
+   public void givesUpAfterMaxAttempts() throws InterruptedException {
+
+      FailingHandler failing = new FailingHandler();
+      RecordingHandler deadLetter = new RecordingHandler();
+      RetryHandler handler = new RetryHandler("Failing", failing, new RetryPolicy(3, 1, 10, 2, 0, Collections.<Class<?>> emptyList()), scheduler, deadLetter, 10);
+
+      DefaultException exception = new DefaultException("Message Goes Here");
+      handler.handle(exception);
+      Assert.assertTrue("Assert 001", deadLetter.received.await(5, TimeUnit.SECONDS));
+      Assert.assertEquals("Assert 002", 3, failing.getCount());
+      Assert.assertSame("Assert 003", exception, deadLetter.exceptions.get(0));
+
+      List<Class<?>> retryable = new ArrayList<Class<?>>();
+      retryable.add(IllegalArgumentException.class);
+      handler = new RetryHandler("Failing", failing, new RetryPolicy(3, 1, 10, 2, 0, retryable), scheduler, deadLetter, 10);
+      try {
+         handler.handle(exception);
+         Assert.fail("Assert 004");
+      } catch (IllegalStateException e) {
+         Assert.assertEquals("Assert 005", 4, failing.getCount());
+      }
+   }
+
+   /**
+    * shutdown
+    * <p>
+    * Validates that the exceptions still waiting for a retry, or over the
+    * retry queue size, are passed to the dead-letter handler.
+    * </p>
+    */
+   @Test
+   public void givesUpOnPendingRetries() {
+
+      RecordingHandler deadLetter = new RecordingHandler();
+      RetryHandler handler = new RetryHandler("Failing", new FailingHandler(), new RetryPolicy(3, 3600000, 3600000, 2, 0, Collections.<Class<?>> emptyList()), scheduler, deadLetter, 2);
+
+      for (int i = 0; i < 3; i++) {
+         handler.handle(new DefaultException("Message Goes Here"));
+      }
+      Assert.assertEquals("Assert 001", 2, handler.getPendingCount());
+      Assert.assertEquals("Assert 002", 1, deadLetter.exceptions.size());
+
+      scheduler.shutdownNow();
+      handler.shutdown();
+      Assert.assertEquals("Assert 003", 0, handler.getPendingCount());
+      Assert.assertEquals("Assert 004", 3, deadLetter.exceptions.size());
+   }
+
+   /**
+    * handle
+    * <p>
+    * Validates that the scheduler only waits out the backoff and that the
+    * retry itself is executed on the handler's bulkhead.
+    * </p>
+    */
+   @Test
+   public void retriesRunOnBulkhead() throws InterruptedException {
+
+      final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+      final CountDownLatch handled = new CountDownLatch(1);
+      CoreExceptionHandler flaky = new CoreExceptionHandler() {
+         public void handle(CoreException e) {
+            threads.add(Thread.currentThread().getName());
+            if (threads.size() == 1) {
+               throw new IllegalStateException("The handler failed.");
+            }
+            handled.countDown();
+         }
+      };
+      Bulkhead bulkhead = new Bulkhead("Sink", 1, 10, OverflowPolicy.DROP_NEWEST);
+      RetryHandler handler = new RetryHandler("Flaky", flaky, new RetryPolicy(3, 1, 10, 2, 0, Collections.<Class<?>> emptyList()), scheduler, bulkhead, null, 10);
+
+      handler.handle(new DefaultException("Message Goes Here"));
+      Assert.assertTrue("Assert 001", handled.await(5, TimeUnit.SECONDS));
+      Assert.assertEquals("Assert 002", Thread.currentThread().getName(), threads.get(0));
+      Assert.assertTrue("Assert 003", threads.get(1).startsWith("glitch-bulkhead-Sink-"));
+
+      threads.clear();
+      handler = new RetryHandler("ezbake.Flaky", flaky, new RetryPolicy(3, 1, 10, 2, 0, Collections.<Class<?>> emptyList()), scheduler, null, 10);
+      handler.handle(new DefaultException("Message Goes Here"));
+      long deadline = System.currentTimeMillis() + 5000;
+      while (threads.size() < 2 && System.currentTimeMillis() < deadline) {
+         Thread.sleep(5);
+      }
+      Assert.assertTrue("Assert 004", threads.get(1).startsWith("glitch-bulkhead-Flaky-retry-"));
+      handler.shutdown();
+      bulkhead.shutdown(1, TimeUnit.SECONDS);
+   }
+
+   private static class RecordingHandler implements CoreExceptionHandler {
+
+      private final List<CoreException> exceptions = Collections.synchronizedList(new ArrayList<CoreException>());
+      private final CountDownLatch received = new CountDownLatch(1);
+
+      public void handle(CoreException e) {
+
+         exceptions.add(e);
+         received.countDown();
+      }
+   }
+}
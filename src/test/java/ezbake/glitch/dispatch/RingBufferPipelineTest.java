@@ -0,0 +1,234 @@
+package ezbake.glitch.dispatch;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.exception.DefaultException;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.dispatch.RingBufferPipeline}
+ * class.
+ * </p>
+ */
+public class RingBufferPipelineTest {
+
+   private RingBufferPipeline pipeline;
+
+   @After
+   public void shutdown() throws InterruptedException {
+
+      if (pipeline != null) {
+         pipeline.shutdown(5, TimeUnit.SECONDS);
+      }
+   }
+
+   /**
+    * constructor
+    * <p>
+    * Validates that the capacity is rounded up to a power of two.
+    * </p>
+    */
+   @Test
+   public void capacityIsPowerOfTwo() throws InterruptedException {
+
+      pipeline = new RingBufferPipeline(new CountingDispatcher(new AtomicInteger()), 1000, 1, OverflowPolicy.BLOCK);
+      Assert.assertEquals("Assert 001", 1024, pipeline.getCapacity());
+   }
+
+   /**
+    * publish
+    * <p>
+    * Validates that every exception published by several threads through a
+    * ring smaller than the number of exceptions is handled exactly once by
+    * several consumers.
+    * </p>
+    */
+   @Test
+   public void concurrentPublishersAreAllHandled() throws InterruptedException {
+
+      final AtomicInteger count = new AtomicInteger();
+      pipeline = new RingBufferPipeline(new CountingDispatcher(count), 64, 2, OverflowPolicy.BLOCK);
+
+      Thread[] publishers = new Thread[4];
+      for (int i = 0; i < publishers.length; i++) {
+         publishers[i] = new Thread(new Runnable() {
+            public void run() {
+               DefaultException exception = new DefaultException();
+               for (int j = 0; j < 10000; j++) {
+                  pipeline.publish(exception);
+               }
+            }
+         });
+         publishers[i].start();
+      }
+      for (Thread publisher : publishers) {
+         publisher.join();
+      }
+
+      Assert.assertTrue("Assert 001", pipeline.drain(5, TimeUnit.SECONDS));
+      Assert.assertEquals("Assert 002", 40000, count.get());
+      Assert.assertEquals("Assert 003", 0, pipeline.getPendingCount());
+   }
+
+   /**
+    * publish
+    * <p>
+    * Validates that the drop-newest policy discards the published exception
+    * when the ring is full.
+    * </p>
+    */
+   @Test
+   public void dropNewestWhenFull() throws InterruptedException {
+
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      final List<String> handled = new CopyOnWriteArrayList<String>();
+
+      pipeline = new RingBufferPipeline(new Dispatcher() {
+         public void dispatch(CoreException exception) {
+            handled.add(exception.getMessage());
+            started.countDown();
+            try {
+               release.await();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+         }
+      }, 2, 1, OverflowPolicy.DROP_NEWEST);
+
+      pipeline.publish(new DefaultException("e1"));
+      Assert.assertTrue("Assert 001", started.await(5, TimeUnit.SECONDS));
+      pipeline.publish(new DefaultException("e2"));
+      pipeline.publish(new DefaultException("e3"));
+      release.countDown();
+
+      Assert.assertTrue("Assert 002", pipeline.drain(5, TimeUnit.SECONDS));
+      Assert.assertEquals("Assert 003", "[e1, e2]", handled.toString());
+      Assert.assertEquals("Assert 004", 1, pipeline.getDroppedCount());
+   }
+
+   /**
+    * shutdown
+    * <p>
+    * Validates that exceptions published after shutdown are handled on the
+    * publishing thread.
+    * </p>
+    */
+   @Test
+   public void publishAfterShutdownRunsOnCaller() throws InterruptedException {
+
+      AtomicInteger count = new AtomicInteger();
+      pipeline = new RingBufferPipeline(new CountingDispatcher(count), 8, 1, OverflowPolicy.BLOCK);
+      pipeline.publish(new DefaultException());
+      Assert.assertTrue("Assert 001", pipeline.shutdown(5, TimeUnit.SECONDS));
+      Assert.assertEquals("Assert 002", 1, count.get());
+
+      pipeline.publish(new DefaultException());
+      Assert.assertEquals("Assert 003", 2, count.get());
+   }
+
+   /**
+    * shutdown
+    * <p>
+    * Validates that no exception is lost when threads keep publishing while
+    * the pipeline shuts down.
+    * </p>
+    */
+   @Test
+   public void publishDuringShutdownIsNotLost() throws InterruptedException {
+
+      final AtomicInteger count = new AtomicInteger();
+      pipeline = new RingBufferPipeline(new CountingDispatcher(count), 16, 2, OverflowPolicy.BLOCK);
+
+      Thread[] publishers = new Thread[4];
+      for (int i = 0; i < publishers.length; i++) {
+         publishers[i] = new Thread(new Runnable() {
+            public void run() {
+               DefaultException exception = new DefaultException();
+               for (int j = 0; j < 20000; j++) {
+                  pipeline.publish(exception);
+               }
+            }
+         });
+         publishers[i].start();
+      }
+      Thread.sleep(5);
+      pipeline.shutdown(5, TimeUnit.SECONDS);
+      for (Thread publisher : publishers) {
+         publisher.join();
+      }
+
+      Assert.assertEquals("Assert 001", 80000, count.get());
+   }
+
+   /**
+    * shutdown
+    * <p>
+    * Validates that a publisher waiting for room in a full ring executes the
+    * handlers itself once the pipeline shuts down.
+    * </p>
+    */
+   @Test
+   public void blockedPublisherRunsOnShutdown() throws InterruptedException {
+
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      final List<String> handled = new CopyOnWriteArrayList<String>();
+      pipeline = new RingBufferPipeline(new Dispatcher() {
+         public void dispatch(CoreException exception) {
+            handled.add(exception.getMessage());
+            if ("e1".equals(exception.getMessage())) {
+               started.countDown();
+               try {
+                  release.await();
+               } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+               }
+            } else if ("e3".equals(exception.getMessage())) {
+               release.countDown();
+            }
+         }
+      }, 2, 1, OverflowPolicy.BLOCK);
+
+      pipeline.publish(new DefaultException("e1"));
+      Assert.assertTrue("Assert 001", started.await(5, TimeUnit.SECONDS));
+      pipeline.publish(new DefaultException("e2"));
+      Thread publisher = new Thread(new Runnable() {
+         public void run() {
+            pipeline.publish(new DefaultException("e3"));
+         }
+      });
+      publisher.start();
+      Thread.sleep(50);
+      Assert.assertTrue("Assert 002", publisher.isAlive());
+
+      pipeline.shutdown(100, TimeUnit.MILLISECONDS);
+      publisher.join(5000);
+      Assert.assertFalse("Assert 003", publisher.isAlive());
+      Assert.assertEquals("Assert 004", 3, handled.size());
+   }
+
+   private static class CountingDispatcher implements Dispatcher {
+
+      private final AtomicInteger count;
+
+      CountingDispatcher(AtomicInteger count) {
+
+         this.count = count;
+      }
+
+      public void dispatch(CoreException exception) {
+
+         count.incrementAndGet();
+      }
+   }
+}
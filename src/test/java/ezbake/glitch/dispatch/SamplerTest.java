@@ -0,0 +1,146 @@
+package ezbake.glitch.dispatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.config.Configuration;
+import ezbake.glitch.config.Values;
+import ezbake.glitch.exception.ChildException;
+import ezbake.glitch.exception.DefaultException;
+import ezbake.glitch.exception.SampledException;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.dispatch.Sampler} and
+ * {@link ezbake.glitch.dispatch.ExceptionSamplers} classes.
+ * </p>
+ */
+public class SamplerTest {
+
+   /**
+    * Values.toRatio
+    * <p>
+    * Validates the number, percentage and quotient forms of a rate.
+    * </p>
+    */
+   @Test
+   public void parseRates() {
+
+      Assert.assertEquals("Assert 001", 0.01, Values.toRatio("0.01", 1), 1e-9);
+      Assert.assertEquals("Assert 002", 0.01, Values.toRatio("1%", 1), 1e-9);
+      Assert.assertEquals("Assert 003", 0.001, Values.toRatio("1/1000", 1), 1e-9);
+      Assert.assertEquals("Assert 004", 1, Values.toRatio(null, 1), 1e-9);
+      Assert.assertEquals("Assert 005", 1, Values.toRatio("2", 1), 1e-9);
+      Assert.assertEquals("Assert 006", 1, Values.toRatio("one/10", 1), 1e-9);
+   }
+
+   /**
+    * sample
+    * <p>
+    * Validates that the first occurrences of a window are always handled
+    * and that the remaining ones are sampled at roughly the rate with the
+    * inverse of the rate as their weight.
+    * </p>
+    */
+   @Test
+   public void firstThenSampled() {
+
+      Sampler sampler = new Sampler(0.1, 100, 0, 3600000);
+
+      for (int i = 0; i < 100; i++) {
+         Assert.assertEquals("Assert 001", 1, sampler.sample(), 0);
+      }
+
+      int handled = 0;
+      for (int i = 0; i < 100000; i++) {
+         double weight = sampler.sample();
+         if (weight > 0) {
+            Assert.assertEquals("Assert 002", 10, weight, 1e-9);
+            handled++;
+         }
+      }
+      Assert.assertTrue("Assert 003", handled > 9000 && handled < 11000);
+      Assert.assertEquals("Assert 004", 100000 - handled, sampler.getDroppedCount());
+   }
+
+   /**
+    * sample
+    * <p>
+    * Validates that the probability drops while the observed rate exceeds
+    * the target and recovers once it falls below.
+    * </p>
+    */
+   @Test
+   public void probabilityAdaptsToTarget() throws InterruptedException {
+
+      Sampler sampler = new Sampler(0.5, 0, 100, 50);
+
+      for (int i = 0; i < 10000; i++) {
+         sampler.sample();
+      }
+      Thread.sleep(60);
+      sampler.sample();
+      Assert.assertTrue("Assert 001", sampler.getProbability() < 0.5);
+
+      Thread.sleep(60);
+      sampler.sample();
+      Assert.assertEquals("Assert 002", 0.5, sampler.getProbability(), 1e-9);
+   }
+
+   /**
+    * sample
+    * <p>
+    * Validates that only exceptions of sampled classes are sampled and that
+    * a sampled exception carries its weight.
+    * </p>
+    */
+   @Test
+   public void exceptionSamplersWrapSampledExceptions() {
+
+      Configuration config = new Configuration();
+      config.setExceptionAttribute(DefaultException.class.getName(), ExceptionSamplers.SAMPLE_RATE, "1");
+      config.setExceptionAttribute("some.OtherException", "rateLimit", "1/s");
+      ExceptionSamplers samplers = ExceptionSamplers.create(config);
+      Assert.assertNull("Assert 001", samplers.getSampler("some.OtherException"));
+
+      DefaultException exception = new DefaultException();
+      Assert.assertSame("Assert 002", exception, samplers.sample(exception));
+
+      config.setExceptionAttribute(DefaultException.class.getName(), ExceptionSamplers.SAMPLE_RATE, "50%");
+      samplers = ExceptionSamplers.create(config);
+      CoreException sampled = null;
+      while (sampled == null) {
+         sampled = samplers.sample(exception);
+      }
+      Assert.assertEquals("Assert 003", 2, ((SampledException) sampled).getWeight(), 1e-9);
+      Assert.assertSame("Assert 004", exception, ((SampledException) sampled).getOriginal());
+
+      Assert.assertNull("Assert 005", ExceptionSamplers.create(new Configuration()));
+   }
+
+   /**
+    * sample
+    * <p>
+    * Validates that a subclass shares the sampler of its base class under
+    * nearest resolution and is not sampled under exact resolution.
+    * </p>
+    */
+   @Test
+   public void subclassSharesBaseSampler() {
+
+      Configuration config = new Configuration();
+      config.setProperty(Resolution.PROPERTY_NAME, "nearest");
+      config.setExceptionAttribute(DefaultException.class.getName(), ExceptionSamplers.SAMPLE_RATE, "0");
+      config.setExceptionAttribute(DefaultException.class.getName(), ExceptionSamplers.SAMPLE_FIRST, "1");
+      config.setExceptionAttribute(DefaultException.class.getName(), ExceptionSamplers.SAMPLE_WINDOW, "1h");
+      ExceptionSamplers samplers = ExceptionSamplers.create(config);
+      Assert.assertSame("Assert 001", samplers.getSampler(DefaultException.class.getName()), samplers.getSamplers(ChildException.class)[0]);
+      Assert.assertNotNull("Assert 002", samplers.sample(new DefaultException()));
+      Assert.assertNull("Assert 003", samplers.sample(new ChildException("Message Goes Here")));
+
+      config.setProperty(Resolution.PROPERTY_NAME, "exact");
+      samplers = ExceptionSamplers.create(config);
+      Assert.assertEquals("Assert 004", 0, samplers.getSamplers(ChildException.class).length);
+   }
+}
@@ -0,0 +1,152 @@
+package ezbake.glitch.dispatch;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.exception.DefaultException;
+import ezbake.glitch.handler.CounterHandler;
+import ezbake.glitch.handler.FailingHandler;
+import ezbake.glitch.handler.SleepingHandler;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.dispatch.TimeoutHandler} class.
+ * </p>
+ */
+public class TimeoutHandlerTest {
+
+   private TimeoutHandler handler;
+
+   @After
+   public void shutdown() {
+
+      if (handler != null) {
+         handler.shutdown();
+      }
+   }
+
+   /**
+    * handle
+    * <p>
+    * Validates that a handler that finishes in time is executed and that a
+    * failure of the handler is passed on unchanged.
+    * </p>
+    */
+   @Test
+   public void handlerWithinTimeout() {
+
+      CounterHandler counter = new CounterHandler();
+      handler = new TimeoutHandler("Counter", counter, 5000, 1);
+      handler.handle(new DefaultException());
+      Assert.assertEquals("Assert 001", 1, counter.getCount());
+
+      handler.shutdown();
+      handler = new TimeoutHandler("Failing", new FailingHandler(), 5000, 1);
+      try {
+         handler.handle(new DefaultException());
+         Assert.fail("Assert 002");
+      } catch (IllegalStateException e) {
+         Assert.assertEquals("Assert 003", 0, handler.getOverrunCount());
+      }
+   }
+
+   /**
+    * handle
+    * <p>
+    * Validates that an overrunning handler is interrupted, the overrun is
+    * counted and the caller returns after the timeout.
+    * </p>
+    */
+   @Test
+   public void overrunIsInterrupted() throws InterruptedException {
+
+      SleepingHandler sleeping = new SleepingHandler();
+      handler = new TimeoutHandler("Sleeping", sleeping, 50, 1);
+
+      long start = System.nanoTime();
+      try {
+         handler.handle(new DefaultException());
+         Assert.fail("Assert 001");
+      } catch (HandlerTimeoutException e) {
+         Assert.assertTrue("Assert 002", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+      }
+      Assert.assertEquals("Assert 003", 1, handler.getOverrunCount());
+
+      long deadline = System.currentTimeMillis() + 5000;
+      while (!sleeping.wasInterrupted() && System.currentTimeMillis() < deadline) {
+         Thread.sleep(10);
+      }
+      Assert.assertTrue("Assert 004", sleeping.wasInterrupted());
+   }
+
+   /**
+    * handle
+    * <p>
+    * Validates that a dispatching thread interrupted while it waits cancels
+    * the call, keeps its interrupt and reports the call as failed.
+    * </p>
+    */
+   @Test
+   public void interruptedWaitFails() {
+
+      SleepingHandler sleeping = new SleepingHandler();
+      handler = new TimeoutHandler("Sleeping", sleeping, 5000, 1);
+
+      Thread.currentThread().interrupt();
+      try {
+         handler.handle(new DefaultException());
+         Assert.fail("Assert 001");
+      } catch (HandlerTimeoutException e) {
+         Assert.assertTrue("Assert 002", Thread.interrupted());
+      }
+      Assert.assertEquals("Assert 003", 0, handler.getOverrunCount());
+   }
+
+   /**
+    * handle
+    * <p>
+    * Validates that once every thread is held by a handler that ignores
+    * interruption, further calls are counted as overruns without waiting.
+    * </p>
+    */
+   @Test
+   public void hungThreadsAreNotReplaced() {
+
+      final CountDownLatch release = new CountDownLatch(1);
+      CoreExceptionHandler hung = new CoreExceptionHandler() {
+         public void handle(CoreException e) {
+            while (true) {
+               try {
+                  release.await();
+                  return;
+               } catch (InterruptedException ignored) {
+                  // keeps waiting like a handler stuck in uninterruptible I/O.
+               }
+            }
+         }
+      };
+      handler = new TimeoutHandler("Hung", hung, 200, 1);
+
+      try {
+         handler.handle(new DefaultException());
+         Assert.fail("Assert 001");
+      } catch (HandlerTimeoutException e) {
+         // expected
+      }
+      long start = System.nanoTime();
+      try {
+         handler.handle(new DefaultException());
+         Assert.fail("Assert 002");
+      } catch (HandlerTimeoutException e) {
+         Assert.assertTrue("Assert 003", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+      }
+      Assert.assertEquals("Assert 004", 2, handler.getOverrunCount());
+      release.countDown();
+   }
+}
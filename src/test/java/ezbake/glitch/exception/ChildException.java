@@ -0,0 +1,18 @@
+package ezbake.glitch.exception;
+
+
+/**
+ * <p>
+ * A subclass of {@link DefaultException} used specifically for unit testing
+ * type-hierarchy handler resolution.
+ * </p>
+ */
+public class ChildException extends DefaultException {
+
+   private static final long serialVersionUID = 1L;
+
+   public ChildException(String message) {
+      
+      super(message);
+   }
+}
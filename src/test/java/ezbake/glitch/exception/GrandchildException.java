@@ -0,0 +1,18 @@
+package ezbake.glitch.exception;
+
+
+/**
+ * <p>
+ * A subclass of {@link ChildException} used specifically for unit testing
+ * type-hierarchy handler resolution.
+ * </p>
+ */
+public class GrandchildException extends ChildException {
+
+   private static final long serialVersionUID = 1L;
+
+   public GrandchildException(String message) {
+      
+      super(message);
+   }
+}
@@ -0,0 +1,123 @@
+package ezbake.glitch.exception;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.exception.LazyException},
+ * {@link ezbake.glitch.exception.StacklessException} and
+ * {@link ezbake.glitch.exception.CachedException} classes.
+ * </p>
+ */
+public class LazyExceptionTest {
+
+   /**
+    * getMessage
+    * <p>
+    * Validates that the message is formatted from its pattern and arguments
+    * and that a mismatched pattern is reported as it is.
+    * </p>
+    */
+   @Test
+   public void messageIsFormattedOnDemand() {
+
+      Assert.assertEquals("Assert 001", "Request 42 failed", new LazyException("Request %d failed", 42).getMessage());
+      Assert.assertEquals("Assert 002", "100% done", new LazyException("100% done").getMessage());
+      Assert.assertEquals("Assert 003", "Request %d failed", new LazyException("Request %d failed", "x").getMessage());
+      Assert.assertNull("Assert 004", new LazyException().getMessage());
+   }
+
+   /**
+    * printStackTrace
+    * <p>
+    * Validates that the stack trace is rendered once and includes the
+    * capturing frame.
+    * </p>
+    */
+   @Test
+   public void stackTraceIsRenderedOnce() {
+
+      LazyException exception = new LazyException("Request %d failed", 42);
+      String text = exception.getStackTraceText();
+      Assert.assertTrue("Assert 001", text.startsWith(LazyException.class.getName() + ": Request 42 failed"));
+      Assert.assertTrue("Assert 002", text.contains("stackTraceIsRenderedOnce"));
+      Assert.assertSame("Assert 003", text, exception.getStackTraceText());
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      exception.printStackTrace(new PrintStream(out));
+      Assert.assertEquals("Assert 004", text, out.toString());
+   }
+
+   /**
+    * getStackTraceText
+    * <p>
+    * Validates that the rendered stack trace follows a new stack trace, a
+    * cause given later and suppressed exceptions.
+    * </p>
+    */
+   @Test
+   public void stackTraceTextFollowsChanges() throws Exception {
+
+      LazyException exception = new LazyException("Request %d failed", 42);
+      exception.getStackTraceText();
+      exception.setStackTrace(new StackTraceElement[] { new StackTraceElement("Example", "replaced", "Example.java", 7) });
+      Assert.assertTrue("Assert 001", exception.getStackTraceText().contains("Example.replaced"));
+      exception.initCause(new IllegalStateException("The cause"));
+      Assert.assertTrue("Assert 002", exception.getStackTraceText().contains("Caused by: java.lang.IllegalStateException: The cause"));
+
+      Method addSuppressed;
+      try {
+         addSuppressed = Throwable.class.getMethod("addSuppressed", Throwable.class);
+      } catch (NoSuchMethodException e) {
+         return;
+      }
+      addSuppressed.invoke(exception, new IllegalArgumentException("The suppressed"));
+      Assert.assertTrue("Assert 003", exception.getStackTraceText().contains("The suppressed"));
+      addSuppressed.invoke(exception, new IllegalArgumentException("Another suppressed"));
+      Assert.assertTrue("Assert 004", exception.getStackTraceText().contains("Another suppressed"));
+
+      CachedException cached = new CachedException("The queue is full.");
+      addSuppressed.invoke(cached, new IllegalArgumentException("The suppressed"));
+      Assert.assertEquals("Assert 005", CachedException.class.getName() + ": The queue is full.", cached.getStackTraceText().trim());
+   }
+
+   /**
+    * fillInStackTrace
+    * <p>
+    * Validates that a stackless exception has no stack trace.
+    * </p>
+    */
+   @Test
+   public void stacklessHasNoStackTrace() {
+
+      StacklessException exception = new StacklessException("Rejected %s", "request");
+      Assert.assertEquals("Assert 001", 0, exception.getStackTrace().length);
+      Assert.assertEquals("Assert 002", StacklessException.class.getName() + ": Rejected request", exception.getStackTraceText().trim());
+      Assert.assertSame("Assert 003", exception, exception.getException());
+   }
+
+   /**
+    * initCause
+    * <p>
+    * Validates that a cached exception cannot be changed.
+    * </p>
+    */
+   @Test
+   public void cachedIsImmutable() {
+
+      CachedException exception = new CachedException("The queue is full.");
+      exception.setStackTrace(new Throwable().getStackTrace());
+      Assert.assertEquals("Assert 001", 0, exception.getStackTrace().length);
+      try {
+         exception.initCause(new IllegalStateException());
+         Assert.fail("Assert 002");
+      } catch (UnsupportedOperationException e) {
+         Assert.assertNull("Assert 003", exception.getCause());
+      }
+   }
+}
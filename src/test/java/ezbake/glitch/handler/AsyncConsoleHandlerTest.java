@@ -0,0 +1,225 @@
+package ezbake.glitch.handler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ezbake.glitch.exception.DefaultException;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.handler.AsyncConsoleHandler}
+ * class.
+ * </p>
+ */
+public class AsyncConsoleHandlerTest {
+
+   /**
+    * handle
+    * <p>
+    * Validates that the queued stack traces are written in order by the time
+    * the handler is flushed.
+    * </p>
+    */
+   @Test
+   public void flushWritesQueuedStackTraces() {
+
+      RecordingChannel channel = new RecordingChannel(null);
+      AsyncConsoleHandler handler = new AsyncConsoleHandler(channel);
+
+      DefaultException first = new DefaultException("first");
+      DefaultException second = new DefaultException("second");
+      handler.handle(first);
+      handler.handle(second);
+      handler.flush();
+
+      String expected = StackTraceCache.getShared().getRendered(first) + StackTraceCache.getShared().getRendered(second);
+      Assert.assertEquals("Assert 001", expected, channel.getText());
+      Assert.assertEquals("Assert 002", 0, handler.getDroppedCount());
+      handler.close();
+   }
+
+   /**
+    * handle
+    * <p>
+    * Validates that the stack traces queued while the standard output is
+    * busy reach the stream in a single write larger than the 8KB pieces of
+    * a stream channel.
+    * </p>
+    */
+   @Test
+   public void batchReachesSystemOutInOneWrite() throws IOException, InterruptedException {
+
+      PrintStream original = System.out;
+      final CountDownLatch writing = new CountDownLatch(1);
+      final CountDownLatch queued = new CountDownLatch(1);
+      final List<Integer> writes = new CopyOnWriteArrayList<Integer>();
+      AsyncConsoleHandler handler = new AsyncConsoleHandler();
+      System.setOut(new PrintStream(new ByteArrayOutputStream(), false, "UTF-8") {
+         @Override
+         public void write(byte[] buffer, int offset, int length) {
+            writes.add(Integer.valueOf(length));
+            writing.countDown();
+            try {
+               queued.await();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+            super.write(buffer, offset, length);
+         }
+      });
+      try {
+         DefaultException e = new DefaultException("batched");
+         int length = StackTraceCache.getShared().getRenderedBytes(e).length;
+         int count = 8192 / length + 2;
+         handler.handle(e);
+         writing.await();
+         for (int i = 1; i < count; i++) {
+            handler.handle(e);
+         }
+         queued.countDown();
+         handler.flush();
+         Assert.assertEquals("Assert 001", 2, writes.size());
+         Assert.assertEquals("Assert 002", (count - 1) * length, writes.get(1).intValue());
+      } finally {
+         handler.close();
+         System.setOut(original);
+      }
+   }
+
+   /**
+    * handle
+    * <p>
+    * Validates that the handler of the standard output writes to the stream
+    * installed with System.setOut.
+    * </p>
+    */
+   @Test
+   public void writesToReplacedSystemOut() throws IOException {
+
+      PrintStream original = System.out;
+      ByteArrayOutputStream captured = new ByteArrayOutputStream();
+      AsyncConsoleHandler handler = new AsyncConsoleHandler();
+      System.setOut(new PrintStream(captured, false, "UTF-8"));
+      try {
+         DefaultException e = new DefaultException("captured");
+         handler.handle(e);
+         handler.flush();
+         Assert.assertEquals("Assert 001", StackTraceCache.getShared().getRendered(e), captured.toString("UTF-8"));
+      } finally {
+         handler.close();
+         System.setOut(original);
+      }
+   }
+
+   /**
+    * handle
+    * <p>
+    * Validates that stack traces are dropped and counted while the queue is
+    * full and that close writes what was queued.
+    * </p>
+    */
+   @Test
+   public void fullQueueDropsNewest() throws InterruptedException {
+
+      CountDownLatch release = new CountDownLatch(1);
+      RecordingChannel channel = new RecordingChannel(release);
+      AsyncConsoleHandler handler = new AsyncConsoleHandler(channel);
+      Map<String, String> attributes = new HashMap<String, String>();
+      attributes.put(AsyncConsoleHandler.QUEUE_SIZE, "2");
+      handler.configure(attributes);
+
+      handler.handle(new DefaultException("written"));
+      channel.awaitWriting();
+      for (int i = 0; i < 5; i++) {
+         handler.handle(new DefaultException("queued " + i));
+      }
+      Assert.assertEquals("Assert 001", 3, handler.getDroppedCount());
+
+      release.countDown();
+      handler.close();
+      String text = channel.getText();
+      Assert.assertTrue("Assert 002", text.contains("written"));
+      Assert.assertTrue("Assert 003", text.contains("queued 0"));
+      Assert.assertTrue("Assert 004", text.contains("queued 1"));
+      Assert.assertFalse("Assert 005", text.contains("queued 2"));
+   }
+
+   /**
+    * close
+    * <p>
+    * Validates that stack traces handled after close are written directly.
+    * </p>
+    */
+   @Test
+   public void handlesAfterClose() {
+
+      RecordingChannel channel = new RecordingChannel(null);
+      AsyncConsoleHandler handler = new AsyncConsoleHandler(channel);
+      handler.close();
+
+      handler.handle(new DefaultException("late"));
+      Assert.assertTrue("Assert 001", channel.getText().contains("late"));
+   }
+
+   private static class RecordingChannel implements WritableByteChannel {
+
+      private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      private final CountDownLatch release;
+      private final CountDownLatch writing = new CountDownLatch(1);
+
+      RecordingChannel(CountDownLatch release) {
+
+         this.release = release;
+      }
+
+      public int write(ByteBuffer buffer) throws IOException {
+
+         writing.countDown();
+         if (release != null) {
+            try {
+               release.await();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+         }
+         int length = buffer.remaining();
+         byte[] chunk = new byte[length];
+         buffer.get(chunk);
+         synchronized (bytes) {
+            bytes.write(chunk, 0, length);
+         }
+         return length;
+      }
+
+      void awaitWriting() throws InterruptedException {
+
+         writing.await();
+      }
+
+      String getText() {
+
+         synchronized (bytes) {
+            return bytes.toString();
+         }
+      }
+
+      public boolean isOpen() {
+
+         return true;
+      }
+
+      public void close() {
+      }
+   }
+}
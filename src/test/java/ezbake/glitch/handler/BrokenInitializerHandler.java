@@ -0,0 +1,45 @@
+package ezbake.glitch.handler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+
+
+/**
+ * <p>
+ * An exception handler used specifically for unit testing whose class fails
+ * to initialize, like a handler whose static configuration is missing. The
+ * attempts to initialize it are counted in {@link Attempts}, which can be
+ * read without initializing the handler class.
+ * </p>
+ */
+public class BrokenInitializerHandler implements CoreExceptionHandler {
+
+   private static final String NAME = fail();
+   
+   public void handle(CoreException e) {
+      
+   }
+   
+   private static String fail() {
+      
+      Attempts.count.incrementAndGet();
+      throw new IllegalStateException("Message Goes Here");
+   }
+   
+   /**
+    * <p>
+    * Counts the attempts to initialize the handler class.
+    * </p>
+    */
+   public static final class Attempts {
+      
+      private static final AtomicInteger count = new AtomicInteger();
+      
+      public static int get() {
+         
+         return count.get();
+      }
+   }
+}
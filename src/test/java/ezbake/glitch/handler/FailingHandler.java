@@ -0,0 +1,27 @@
+package ezbake.glitch.handler;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+
+
+/**
+ * <p>
+ * An exception handler used specifically for unit testing that always
+ * fails.
+ * </p>
+ */
+public class FailingHandler implements CoreExceptionHandler {
+
+   private int counter = 0;
+   
+   public void handle(CoreException e) {
+      
+      counter++;
+      throw new IllegalStateException("The handler failed.");
+   }
+   
+   public int getCount() {
+      
+      return counter;
+   }
+}
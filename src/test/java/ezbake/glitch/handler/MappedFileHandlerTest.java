@@ -0,0 +1,190 @@
+package ezbake.glitch.handler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.codec.DecodedException;
+import ezbake.glitch.codec.EventDecoder;
+import ezbake.glitch.exception.DefaultException;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.handler.MappedFileHandler}
+ * class.
+ * </p>
+ */
+public class MappedFileHandlerTest {
+
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   /**
+    * handleBatch
+    * <p>
+    * Validates that the records are appended in order and that the segment
+    * is cut down to its records when closed.
+    * </p>
+    */
+   @Test
+   public void appendsRecordsToSegment() throws IOException {
+
+      MappedFileHandler handler = createHandler(MappedFileHandler.SYNC, "batch");
+
+      DefaultException first = new DefaultException("first");
+      DefaultException second = new DefaultException("second");
+      handler.handleBatch(Arrays.<CoreException> asList(first, second));
+      File segment = handler.getSegmentFile();
+      Assert.assertEquals("Assert 001", 64 * 1024, segment.length());
+
+      handler.close();
+      String text = read(segment);
+      Assert.assertEquals("Assert 002", text.length(), segment.length());
+      int firstAt = text.indexOf(StackTraceCache.getShared().getRendered(first));
+      int secondAt = text.indexOf(StackTraceCache.getShared().getRendered(second));
+      Assert.assertTrue("Assert 003", firstAt > 0 && secondAt > firstAt);
+      Assert.assertEquals("Assert 004", 1, folder.getRoot().listFiles().length);
+   }
+
+   /**
+    * handleBatch
+    * <p>
+    * Validates that a new segment is started once the current one is full
+    * and that no record is split between segments.
+    * </p>
+    */
+   @Test
+   public void rollsSegmentsBySize() throws IOException {
+
+      MappedFileHandler handler = createHandler(MappedFileHandler.SEGMENT_SIZE, "4KB");
+      for (int i = 0; i < 20; i++) {
+         handler.handle(new DefaultException("record " + i));
+      }
+      handler.close();
+
+      File[] segments = sortedSegments();
+      Assert.assertTrue("Assert 001", segments.length > 1);
+      StringBuilder text = new StringBuilder();
+      for (File segment : segments) {
+         Assert.assertTrue("Assert 002", segment.length() <= 4096);
+         text.append(read(segment));
+      }
+      for (int i = 0; i < 20; i++) {
+         Assert.assertTrue("Assert 003", text.indexOf("record " + i + "\n") >= 0);
+      }
+   }
+
+   /**
+    * close
+    * <p>
+    * Validates that closed segments are replaced by their gzip compression.
+    * </p>
+    */
+   @Test
+   public void compressesClosedSegments() throws IOException, InterruptedException {
+
+      Map<String, String> attributes = new HashMap<String, String>();
+      attributes.put(MappedFileHandler.DIRECTORY, folder.getRoot().getPath());
+      attributes.put(MappedFileHandler.COMPRESS, "true");
+      attributes.put(MappedFileHandler.ROLL_INTERVAL, "50ms");
+      MappedFileHandler handler = new MappedFileHandler();
+      handler.configure(attributes);
+
+      handler.handle(new DefaultException("before"));
+      Thread.sleep(100);
+      handler.handle(new DefaultException("after"));
+      handler.close();
+
+      File[] segments = sortedSegments();
+      Assert.assertEquals("Assert 001", 2, segments.length);
+      Assert.assertTrue("Assert 002", segments[0].getName().endsWith(MappedFileHandler.TEXT_SUFFIX + MappedFileHandler.COMPRESSED_SUFFIX));
+      Assert.assertTrue("Assert 003", read(segments[0]).contains("before"));
+      Assert.assertTrue("Assert 004", read(segments[1]).contains("after"));
+   }
+
+   /**
+    * handleBatch
+    * <p>
+    * Validates that the binary format writes events that decode back to the
+    * handled exceptions, with every segment decodable on its own.
+    * </p>
+    */
+   @Test
+   public void writesBinaryEvents() throws IOException {
+
+      Map<String, String> attributes = new HashMap<String, String>();
+      attributes.put(MappedFileHandler.DIRECTORY, folder.getRoot().getPath());
+      attributes.put(MappedFileHandler.SEGMENT_SIZE, "8KB");
+      attributes.put(MappedFileHandler.FORMAT, "binary");
+      MappedFileHandler handler = new MappedFileHandler();
+      handler.configure(attributes);
+
+      for (int i = 0; i < 500; i++) {
+         handler.handle(new DefaultException("event " + i));
+      }
+      handler.close();
+
+      File[] segments = sortedSegments();
+      Assert.assertTrue("Assert 001", segments.length > 1);
+      int count = 0;
+      for (File segment : segments) {
+         Assert.assertTrue("Assert 002", segment.getName().endsWith(MappedFileHandler.BINARY_SUFFIX));
+         ByteBuffer events = ByteBuffer.wrap(read(segment).getBytes("ISO-8859-1"));
+         EventDecoder decoder = new EventDecoder();
+         for (DecodedException event = decoder.decode(events); event != null; event = decoder.decode(events)) {
+            Assert.assertEquals("Assert 003", "event " + count++, event.getMessage());
+         }
+      }
+      Assert.assertEquals("Assert 004", 500, count);
+   }
+
+   private MappedFileHandler createHandler(String name, String value) {
+
+      Map<String, String> attributes = new HashMap<String, String>();
+      attributes.put(MappedFileHandler.DIRECTORY, folder.getRoot().getPath());
+      attributes.put(MappedFileHandler.SEGMENT_SIZE, "64KB");
+      attributes.put(name, value);
+
+      MappedFileHandler handler = new MappedFileHandler();
+      handler.configure(attributes);
+      return handler;
+   }
+
+   private File[] sortedSegments() {
+
+      File[] segments = folder.getRoot().listFiles();
+      Arrays.sort(segments);
+      return segments;
+   }
+
+   private static String read(File file) throws IOException {
+
+      InputStream in = new FileInputStream(file);
+      if (file.getName().endsWith(MappedFileHandler.COMPRESSED_SUFFIX)) {
+         in = new GZIPInputStream(in);
+      }
+      try {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         byte[] buffer = new byte[4096];
+         for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            bytes.write(buffer, 0, read);
+         }
+         return bytes.toString(file.getName().contains(MappedFileHandler.BINARY_SUFFIX) ? "ISO-8859-1" : "UTF-8");
+      } finally {
+         in.close();
+      }
+   }
+}
@@ -0,0 +1,30 @@
+package ezbake.glitch.handler;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+
+
+/**
+ * <p>
+ * An exception handler used specifically for unit testing that sleeps for
+ * a minute or until it is interrupted.
+ * </p>
+ */
+public class SleepingHandler implements CoreExceptionHandler {
+
+   private volatile boolean interrupted = false;
+   
+   public void handle(CoreException e) {
+      
+      try {
+         Thread.sleep(60000);
+      } catch (InterruptedException interruptedException) {
+         interrupted = true;
+      }
+   }
+   
+   public boolean wasInterrupted() {
+      
+      return interrupted;
+   }
+}
@@ -0,0 +1,39 @@
+package ezbake.glitch.handler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+
+
+/**
+ * <p>
+ * An exception handler used specifically for unit testing that takes a
+ * while to instantiate, like a handler that opens a connection pool, and
+ * counts its instances.
+ * </p>
+ */
+public class SlowStartHandler implements CoreExceptionHandler {
+
+   private static final AtomicInteger instances = new AtomicInteger();
+   
+   public SlowStartHandler() throws InterruptedException {
+      
+      Thread.sleep(300);
+      instances.incrementAndGet();
+   }
+   
+   public void handle(CoreException e) {
+      
+   }
+   
+   public static int getInstances() {
+      
+      return instances.get();
+   }
+   
+   public static void reset() {
+      
+      instances.set(0);
+   }
+}
@@ -0,0 +1,166 @@
+package ezbake.glitch.handler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ezbake.glitch.exception.DefaultException;
+import ezbake.glitch.exception.RepeatedException;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.handler.StackTraceCache} class.
+ * </p>
+ */
+public class StackTraceCacheTest {
+
+   /**
+    * getRenderedBytes
+    * <p>
+    * Validates that identical traces are rendered once and that the cached
+    * rendering matches printStackTrace.
+    * </p>
+    */
+   @Test
+   public void identicalTracesAreRenderedOnce() {
+
+      StackTraceCache cache = new StackTraceCache(16);
+      DefaultException[] exceptions = new DefaultException[3];
+      for (int i = 0; i < exceptions.length; i++) {
+         exceptions[i] = new DefaultException("Message Goes Here");
+      }
+
+      byte[] first = cache.getRenderedBytes(exceptions[0]);
+      Assert.assertSame("Assert 001", first, cache.getRenderedBytes(exceptions[1]));
+      Assert.assertSame("Assert 002", first, cache.getRenderedBytes(exceptions[2]));
+      Assert.assertEquals("Assert 003", 2, cache.getStats().hitCount());
+
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      exceptions[0].printStackTrace(new PrintStream(expected));
+      Assert.assertEquals("Assert 004", expected.toString(), cache.getRendered(exceptions[0]));
+   }
+
+   /**
+    * getRenderedBytes
+    * <p>
+    * Validates that traces differing in message or frames are rendered
+    * separately and that derived exceptions are not cached.
+    * </p>
+    */
+   @Test
+   public void differentTracesAreRenderedSeparately() {
+
+      StackTraceCache cache = new StackTraceCache(16);
+      DefaultException one = new DefaultException("one");
+      DefaultException two = new DefaultException("two");
+      DefaultException elsewhere = new DefaultException("one");
+
+      Assert.assertTrue("Assert 001", cache.getRendered(one).startsWith(DefaultException.class.getName() + ": one"));
+      Assert.assertTrue("Assert 002", cache.getRendered(two).startsWith(DefaultException.class.getName() + ": two"));
+      Assert.assertNotSame("Assert 003", cache.getRenderedBytes(one), cache.getRenderedBytes(elsewhere));
+
+      RepeatedException repeated = new RepeatedException(one, 5, 0);
+      Assert.assertTrue("Assert 004", cache.getRendered(repeated).startsWith("5 occurrences since "));
+      Assert.assertNotSame("Assert 005", cache.getRenderedBytes(repeated), cache.getRenderedBytes(repeated));
+   }
+
+   /**
+    * getRenderedBytes
+    * <p>
+    * Validates that exceptions that print more than their class, message and
+    * frames, through an overridden toString or suppressed exceptions, are
+    * rendered each time and printed in full.
+    * </p>
+    */
+   @Test
+   public void nonStandardTracesAreNotCached() throws Exception {
+
+      StackTraceCache cache = new StackTraceCache(16);
+      DefaultException[] exceptions = new DefaultException[2];
+      for (int i = 0; i < exceptions.length; i++) {
+         exceptions[i] = new DefaultException("same") {
+            private static final long serialVersionUID = 1L;
+            private final long id = System.nanoTime();
+            @Override
+            public String toString() {
+               return "occurrence " + id;
+            }
+         };
+      }
+      Assert.assertTrue("Assert 001", cache.getRendered(exceptions[0]).startsWith(exceptions[0].toString()));
+      Assert.assertTrue("Assert 002", cache.getRendered(exceptions[1]).startsWith(exceptions[1].toString()));
+      Assert.assertEquals("Assert 003", 0, cache.getStats().hitCount());
+
+      Method addSuppressed;
+      try {
+         addSuppressed = Throwable.class.getMethod("addSuppressed", Throwable.class);
+      } catch (NoSuchMethodException e) {
+         return;
+      }
+      DefaultException plain = newException();
+      DefaultException suppressing = newException();
+      addSuppressed.invoke(suppressing, new IllegalStateException("suppressed"));
+      cache.getRenderedBytes(plain);
+      Assert.assertTrue("Assert 004", cache.getRendered(suppressing).contains("suppressed"));
+      Assert.assertEquals("Assert 005", 0, cache.getStats().hitCount());
+   }
+
+   /**
+    * getRenderedBytes
+    * <p>
+    * Validates that an occurrence rendered again is found without a new
+    * entry and is rendered afresh once it suppresses an exception.
+    * </p>
+    */
+   @Test
+   public void renderedOccurrenceIsReused() throws Exception {
+
+      StackTraceCache cache = new StackTraceCache(16);
+      DefaultException exception = new DefaultException("Message Goes Here");
+
+      byte[] first = cache.getRenderedBytes(exception);
+      Assert.assertSame("Assert 001", first, cache.getRenderedBytes(exception));
+      Assert.assertEquals("Assert 002", 1, cache.getStats().hitCount());
+
+      Method addSuppressed;
+      try {
+         addSuppressed = Throwable.class.getMethod("addSuppressed", Throwable.class);
+      } catch (NoSuchMethodException e) {
+         return;
+      }
+      addSuppressed.invoke(exception, new IllegalStateException("suppressed"));
+      Assert.assertTrue("Assert 003", cache.getRendered(exception).contains("suppressed"));
+   }
+
+   /**
+    * intern
+    * <p>
+    * Validates that exceptions with equal stack traces share their frames
+    * and those of their causes once interned.
+    * </p>
+    */
+   @Test
+   public void equalTracesShareFrames() {
+
+      StackTraceCache cache = new StackTraceCache(16);
+      DefaultException[] exceptions = new DefaultException[2];
+      for (int i = 0; i < exceptions.length; i++) {
+         exceptions[i] = new DefaultException("Message Goes Here");
+         exceptions[i].initCause(new IllegalStateException("cause"));
+      }
+
+      StackTraceElement[] first = cache.intern(exceptions[0]);
+      StackTraceElement[] second = cache.intern(exceptions[1]);
+      Assert.assertSame("Assert 001", first[0], second[0]);
+      Assert.assertSame("Assert 002", exceptions[0].getStackTrace()[0], exceptions[1].getStackTrace()[0]);
+      Assert.assertSame("Assert 003", exceptions[0].getCause().getStackTrace()[0], exceptions[1].getCause().getStackTrace()[0]);
+   }
+
+   private DefaultException newException() {
+
+      return new DefaultException("suppressing");
+   }
+}
@@ -0,0 +1,275 @@
+package ezbake.glitch.metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.config.Configuration;
+import ezbake.glitch.dispatch.DecoratedHandlers;
+import ezbake.glitch.exception.DefaultException;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.metrics.Metrics},
+ * {@link ezbake.glitch.metrics.StripedCounter} and
+ * {@link ezbake.glitch.metrics.LatencyHistogram} classes.
+ * </p>
+ */
+public class MetricsTest {
+
+   /**
+    * getValueAtPercentile
+    * <p>
+    * Validates that percentiles are reported within the histogram's relative
+    * error and never above the maximum.
+    * </p>
+    */
+   @Test
+   public void histogramReportsPercentiles() {
+
+      LatencyHistogram histogram = new LatencyHistogram();
+      for (long i = 1; i <= 1000; i++) {
+         histogram.record(i * 1000);
+      }
+      LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+      Assert.assertEquals("Assert 001", 1000, snapshot.getCount());
+      Assert.assertEquals("Assert 002", 1000000, snapshot.getMax());
+      long p50 = snapshot.getValueAtPercentile(50);
+      Assert.assertTrue("Assert 003", p50 >= 500000 && p50 <= 500000 * 1.04);
+      long p99 = snapshot.getValueAtPercentile(99);
+      Assert.assertTrue("Assert 004", p99 >= 990000 && p99 <= 1000000);
+      Assert.assertEquals("Assert 005", 1000000, snapshot.getValueAtPercentile(100));
+      Assert.assertEquals("Assert 006", 0, new LatencyHistogram().snapshot().getValueAtPercentile(99));
+
+      for (long value = 1; value > 0; value = value * 3 + 1) {
+         Assert.assertTrue("Assert 007", LatencyHistogram.highestValueOf(LatencyHistogram.indexOf(value)) >= value);
+      }
+      Assert.assertEquals("Assert 008", 500500000, snapshot.getSum());
+   }
+
+   /**
+    * record
+    * <p>
+    * Validates that the durations recorded by concurrent threads are all
+    * counted, summed and taken into the maximum.
+    * </p>
+    */
+   @Test
+   public void histogramCountsConcurrentRecords() throws InterruptedException {
+
+      final LatencyHistogram histogram = new LatencyHistogram();
+      final CountDownLatch start = new CountDownLatch(1);
+      Thread[] threads = new Thread[8];
+      for (int i = 0; i < threads.length; i++) {
+         final long largest = 10000 + i;
+         threads[i] = new Thread(new Runnable() {
+            public void run() {
+               try {
+                  start.await();
+               } catch (InterruptedException e) {
+                  return;
+               }
+               for (long j = 1; j < 10000; j++) {
+                  histogram.record(j);
+               }
+               histogram.record(largest);
+            }
+         });
+         threads[i].start();
+      }
+      start.countDown();
+      for (Thread thread : threads) {
+         thread.join();
+      }
+
+      LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+      Assert.assertEquals("Assert 001", 80000, snapshot.getCount());
+      Assert.assertEquals("Assert 002", 8 * 49995000L + 80028, snapshot.getSum());
+      Assert.assertEquals("Assert 003", 10007, snapshot.getMax());
+   }
+
+   /**
+    * counting
+    * <p>
+    * Validates that the exceptions a handler's rate limit drops are counted
+    * as dropped for their class.
+    * </p>
+    */
+   @Test
+   public void countsDroppedExceptions() {
+
+      Configuration config = new Configuration();
+      config.setProperty(Metrics.ENABLED, "true");
+      config.setProperty(Metrics.JMX, "false");
+      config.setHandlerAttribute("Limited", DecoratedHandlers.RATE_LIMIT, "1/min");
+      Metrics metrics = Metrics.create(config);
+      Map<String, CoreExceptionHandler> handlers = new HashMap<String, CoreExceptionHandler>();
+      handlers.put("Limited", new CoreExceptionHandler() {
+         public void handle(CoreException e) {
+         }
+      });
+      DecoratedHandlers decorated = new DecoratedHandlers(config, handlers, null, metrics);
+      for (int i = 0; i < 3; i++) {
+         decorated.getHandlers().get("Limited").handle(new DefaultException("Message Goes Here"));
+      }
+      Assert.assertEquals("Assert 001", 2, metrics.getCount(DefaultException.class.getName(), Metrics.Event.DROPPED));
+      Assert.assertEquals("Assert 002", 1, metrics.getHandlerMetrics("Limited").getInvocationCount());
+      metrics.close();
+   }
+
+   /**
+    * getHandlerCounts
+    * <p>
+    * Validates that the calls that overrun a handler's timeout are counted
+    * as the handler's overruns.
+    * </p>
+    */
+   @Test
+   public void countsTimeoutOverruns() throws InterruptedException {
+
+      Configuration config = new Configuration();
+      config.setProperty(Metrics.ENABLED, "true");
+      config.setProperty(Metrics.JMX, "false");
+      config.setHandlerAttribute("Slow", DecoratedHandlers.TIMEOUT, "20ms");
+      Metrics metrics = Metrics.create(config);
+      Map<String, CoreExceptionHandler> handlers = new HashMap<String, CoreExceptionHandler>();
+      handlers.put("Slow", new CoreExceptionHandler() {
+         public void handle(CoreException e) {
+            try {
+               Thread.sleep(5000);
+            } catch (InterruptedException interrupted) {
+               // abandoned by its timeout.
+            }
+         }
+      });
+      DecoratedHandlers decorated = new DecoratedHandlers(config, handlers, null, metrics);
+      for (int i = 0; i < 2; i++) {
+         try {
+            decorated.getHandlers().get("Slow").handle(new DefaultException("Message Goes Here"));
+            Assert.fail("Assert 001");
+         } catch (RuntimeException e) {
+            // the overrun is reported to the caller.
+         }
+      }
+      Assert.assertEquals("Assert 002", 2, metrics.getHandlerMetrics("Slow").getOverrunCount());
+      Assert.assertEquals("Assert 003", Long.valueOf(2), metrics.getHandlerCounts().get("Slow:overruns"));
+      Assert.assertTrue("Assert 004", metrics.getText().contains("glitch_handler_overruns_total{handler=\"Slow\"} 2\n"));
+      decorated.shutdown(1, TimeUnit.SECONDS);
+      metrics.close();
+   }
+
+   /**
+    * increment
+    * <p>
+    * Validates that the increments of concurrent threads are all counted.
+    * </p>
+    */
+   @Test
+   public void stripedCounterCountsConcurrentIncrements() throws InterruptedException {
+
+      final StripedCounter counter = new StripedCounter();
+      final CountDownLatch start = new CountDownLatch(1);
+      Thread[] threads = new Thread[8];
+      for (int i = 0; i < threads.length; i++) {
+         threads[i] = new Thread(new Runnable() {
+            public void run() {
+               try {
+                  start.await();
+               } catch (InterruptedException e) {
+                  return;
+               }
+               for (int j = 0; j < 10000; j++) {
+                  counter.increment();
+               }
+            }
+         });
+         threads[i].start();
+      }
+      start.countDown();
+      for (Thread thread : threads) {
+         thread.join();
+      }
+
+      Assert.assertEquals("Assert 001", 80000, counter.sum());
+   }
+
+   /**
+    * getText
+    * <p>
+    * Validates that the counts and handler measurements are written in the
+    * text exposition format and served over HTTP.
+    * </p>
+    */
+   @Test
+   public void servesTextExposition() throws IOException {
+
+      Configuration config = new Configuration();
+      config.setProperty(Metrics.ENABLED, "true");
+      config.setProperty(Metrics.JMX, "false");
+      config.setProperty(Metrics.PORT, "0");
+      config.setProperty(Metrics.ADDRESS, "127.0.0.1");
+      Metrics metrics = Metrics.create(config);
+      try {
+         metrics.record("com.example.\"Quoted\"", Metrics.Event.RECEIVED);
+         metrics.record(DefaultException.class.getName(), Metrics.Event.RECEIVED);
+         metrics.record(DefaultException.class.getName(), Metrics.Event.DEFAULTED);
+         CoreExceptionHandler handler = metrics.measure("Failing", new CoreExceptionHandler() {
+            public void handle(CoreException e) {
+               throw new IllegalStateException("The handler failed.");
+            }
+         });
+         try {
+            handler.handle(new DefaultException("Message Goes Here"));
+            Assert.fail("Assert 001");
+         } catch (IllegalStateException e) {
+            // expected.
+         }
+         metrics.addQueue("dispatch", new Gauge() {
+            public long getValue() {
+               return 7;
+            }
+         });
+
+         Assert.assertEquals("Assert 002", 1, metrics.getCount(DefaultException.class.getName(), Metrics.Event.DEFAULTED));
+         Assert.assertEquals("Assert 003", 1, metrics.getHandlerMetrics("Failing").getFailureCount());
+
+         HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + metrics.getPort() + "/metrics").openConnection();
+         Assert.assertEquals("Assert 004", 200, connection.getResponseCode());
+         String text = read(connection.getInputStream());
+         Assert.assertTrue("Assert 005", text.contains("glitch_exceptions_total{class=\"" + DefaultException.class.getName() + "\",event=\"defaulted\"} 1\n"));
+         Assert.assertTrue("Assert 006", text.contains("glitch_exceptions_total{class=\"com.example.\\\"Quoted\\\"\",event=\"received\"} 1\n"));
+         Assert.assertTrue("Assert 007", text.contains("glitch_handler_failures_total{handler=\"Failing\"} 1\n"));
+         Assert.assertTrue("Assert 008", text.contains("glitch_handler_latency_seconds_count{handler=\"Failing\"} 1\n"));
+         Assert.assertTrue("Assert 009", text.contains("glitch_queue_depth{queue=\"dispatch\"} 7\n"));
+         Assert.assertTrue("Assert 010", text.contains("glitch_handler_latency_seconds_sum{handler=\"Failing\"} "));
+      } finally {
+         metrics.close();
+      }
+   }
+
+   private static String read(InputStream in) throws IOException {
+
+      try {
+         ByteArrayOutputStream out = new ByteArrayOutputStream();
+         byte[] buffer = new byte[4096];
+         for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+         }
+         return out.toString("UTF-8");
+      } finally {
+         in.close();
+      }
+   }
+}
@@ -0,0 +1,155 @@
+package ezbake.glitch.processor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.ServiceLoader;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ezbake.glitch.HandlerRegistry;
+import ezbake.glitch.Handles;
+import ezbake.glitch.config.Configuration;
+import ezbake.glitch.exception.DefaultException;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.processor.HandlesProcessor}
+ * class by compiling handler sources with it.
+ * </p>
+ */
+public class HandlesProcessorTest {
+
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   private JavaCompiler compiler;
+   private File classes;
+   private DiagnosticCollector<JavaFileObject> diagnostics;
+
+   @Before
+   public void findCompiler() throws Exception {
+
+      compiler = ToolProvider.getSystemJavaCompiler();
+      Assume.assumeNotNull(compiler);
+      classes = folder.newFolder("classes");
+      diagnostics = new DiagnosticCollector<JavaFileObject>();
+   }
+
+   /**
+    * process
+    * <p>
+    * Validates that the annotated handlers result in a registry, found with
+    * the service loader, that adds their mappings and creates them without
+    * reflection.
+    * </p>
+    */
+   @Test
+   public void generatesRegistry() throws Exception {
+
+      String exception = DefaultException.class.getName();
+      Assert.assertTrue("Assert 001", compile("demo/DemoHandler.java",
+            "package demo;\n"
+            + "import ezbake.glitch.*;\n"
+            + "@Handles(" + exception + ".class)\n"
+            + "public class DemoHandler implements CoreExceptionHandler {\n"
+            + "   public void handle(CoreException e) { }\n"
+            + "   @Handles({ " + exception + ".class })\n"
+            + "   public static class Inner implements CoreExceptionHandler {\n"
+            + "      public void handle(CoreException e) { }\n"
+            + "   }\n"
+            + "}\n"));
+
+      URLClassLoader loader = new URLClassLoader(new URL[] { classes.toURI().toURL() }, getClass().getClassLoader());
+      Iterator<HandlerRegistry> registries = ServiceLoader.load(HandlerRegistry.class, loader).iterator();
+      Assert.assertTrue("Assert 002", registries.hasNext());
+      HandlerRegistry registry = registries.next();
+      Assert.assertEquals("Assert 003", "demo." + HandlesProcessor.DEFAULT_REGISTRY_NAME, registry.getClass().getName());
+
+      Configuration config = new Configuration();
+      registry.addMappings(config);
+      Assert.assertEquals("Assert 004", 2, config.getExceptionHandlers(exception, false).size());
+      Assert.assertTrue("Assert 005", config.getExceptionHandlers(exception, false).contains("demo.DemoHandler$Inner"));
+      Assert.assertEquals("Assert 006", "demo.DemoHandler$Inner", registry.newHandler("demo.DemoHandler$Inner").getClass().getName());
+      Assert.assertNull("Assert 007", registry.newHandler("demo.OtherHandler"));
+   }
+
+   /**
+    * process
+    * <p>
+    * Validates that a class that cannot be created as a handler fails the
+    * compilation with a message on the class.
+    * </p>
+    */
+   @Test
+   public void rejectsInvalidHandlers() throws Exception {
+
+      Assert.assertFalse("Assert 001", compile("demo/BadHandler.java",
+            "package demo;\n"
+            + "import ezbake.glitch.*;\n"
+            + "@Handles(" + DefaultException.class.getName() + ".class)\n"
+            + "public class BadHandler {\n"
+            + "}\n"));
+      Assert.assertTrue("Assert 002", messages().contains("must implement"));
+
+      diagnostics = new DiagnosticCollector<JavaFileObject>();
+      Assert.assertFalse("Assert 003", compile("demo/PrivateHandler.java",
+            "package demo;\n"
+            + "import ezbake.glitch.*;\n"
+            + "@Handles(" + DefaultException.class.getName() + ".class)\n"
+            + "public class PrivateHandler implements CoreExceptionHandler {\n"
+            + "   private PrivateHandler() { }\n"
+            + "   public void handle(CoreException e) { }\n"
+            + "}\n"));
+      Assert.assertTrue("Assert 004", messages().contains("public constructor"));
+   }
+
+   private boolean compile(String path, String source) throws Exception {
+
+      File file = new File(folder.getRoot(), "src/" + path);
+      file.getParentFile().mkdirs();
+      OutputStream out = new FileOutputStream(file);
+      try {
+         out.write(source.getBytes("UTF-8"));
+      } finally {
+         out.close();
+      }
+
+      String classpath = new File(Handles.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+      StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, null);
+      try {
+         return compiler.getTask(null, files, diagnostics,
+               Arrays.asList("-classpath", classpath, "-processorpath", classpath,
+                     "-processor", HandlesProcessor.class.getName(), "-d", classes.getPath()),
+               null, files.getJavaFileObjects(file)).call().booleanValue();
+      } finally {
+         files.close();
+      }
+   }
+
+   private String messages() {
+
+      StringBuilder messages = new StringBuilder();
+      for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+         messages.append(diagnostic.getMessage(Locale.ROOT)).append('\n');
+      }
+      return messages.toString();
+   }
+}
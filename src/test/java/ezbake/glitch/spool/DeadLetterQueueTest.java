@@ -0,0 +1,100 @@
+package ezbake.glitch.spool;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.codec.DecodedException;
+import ezbake.glitch.exception.DefaultException;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.spool.DeadLetterQueue} class.
+ * </p>
+ */
+public class DeadLetterQueueTest {
+
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   /**
+    * reprocess
+    * <p>
+    * Validates that the stored exceptions are passed back in order with
+    * their stack traces, that the queue is emptied and that exceptions
+    * stored during reprocessing are kept for the next time.
+    * </p>
+    */
+   @Test
+   public void reprocessesStoredExceptions() throws IOException {
+
+      final DeadLetterQueue queue = new DeadLetterQueue(folder.getRoot(), "my.Handler");
+      DefaultException first = new DefaultException("first");
+      queue.handle(first);
+      queue.handle(new DefaultException("second"));
+      Assert.assertTrue("Assert 001", queue.getFile().length() > 0);
+
+      final List<DecodedException> received = new ArrayList<DecodedException>();
+      int count = queue.reprocess(new CoreExceptionHandler() {
+         public void handle(CoreException e) {
+            received.add((DecodedException) e);
+            if (received.size() == 2) {
+               queue.handle(e);
+            }
+         }
+      });
+
+      Assert.assertEquals("Assert 002", 2, count);
+      Assert.assertEquals("Assert 003", "first", received.get(0).getMessage());
+      Assert.assertEquals("Assert 004", DefaultException.class.getName(), received.get(0).getClassName());
+      Assert.assertEquals("Assert 005", first.getStackTrace().length, received.get(0).getTraces().get(0).getFrames().length);
+
+      received.clear();
+      Assert.assertEquals("Assert 006", 1, queue.reprocess(new CoreExceptionHandler() {
+         public void handle(CoreException e) {
+            received.add((DecodedException) e);
+         }
+      }));
+      Assert.assertEquals("Assert 007", "second", received.get(0).getMessage());
+      Assert.assertEquals("Assert 008", first.getStackTrace().length, received.get(0).getTraces().get(0).getFrames().length);
+      Assert.assertEquals("Assert 009", 0, folder.getRoot().list().length);
+      queue.close();
+   }
+
+   /**
+    * reprocess
+    * <p>
+    * Validates that an event torn by a crash ends the file and the events
+    * before it are reprocessed.
+    * </p>
+    */
+   @Test
+   public void stopsAtTornEvent() throws IOException {
+
+      DeadLetterQueue queue = new DeadLetterQueue(folder.getRoot(), "my.Handler");
+      queue.handle(new DefaultException("whole"));
+      queue.handle(new DefaultException("torn"));
+      queue.close();
+
+      RandomAccessFile access = new RandomAccessFile(queue.getFile(), "rw");
+      access.setLength(access.length() - 3);
+      access.close();
+
+      final List<String> messages = new ArrayList<String>();
+      queue.reprocess(new CoreExceptionHandler() {
+         public void handle(CoreException e) {
+            messages.add(e.getMessage());
+         }
+      });
+      Assert.assertEquals("Assert 001", 1, messages.size());
+      Assert.assertEquals("Assert 002", "whole", messages.get(0));
+   }
+}
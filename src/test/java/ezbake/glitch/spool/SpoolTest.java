@@ -0,0 +1,247 @@
+package ezbake.glitch.spool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ezbake.glitch.CoreException;
+import ezbake.glitch.CoreExceptionHandler;
+import ezbake.glitch.config.Configuration;
+import ezbake.glitch.dispatch.DecoratedHandlers;
+import ezbake.glitch.dispatch.Dispatcher;
+import ezbake.glitch.exception.DefaultException;
+import ezbake.glitch.exception.SpooledException;
+
+/**
+ * <p>
+ * Tests to validate the {@link ezbake.glitch.spool.Spool} class.
+ * </p>
+ */
+public class SpoolTest {
+
+   private static final String FIRST = "first.Handler";
+   private static final String SECOND = "second.Handler";
+   private static final long HOUR = 3600 * 1000L;
+
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   /**
+    * replay
+    * <p>
+    * Validates that after a restart each handler receives the exceptions it
+    * had not acknowledged, and only those.
+    * </p>
+    */
+   @Test
+   public void replaysUnacknowledgedExceptions() throws IOException {
+
+      Spool spool = open(64 * 1024);
+      RecordingHandler first = new RecordingHandler();
+      RecordingHandler second = new RecordingHandler();
+      CoreExceptionHandler firstTracked = spool.track(FIRST, spool.acknowledge(FIRST, first));
+      CoreExceptionHandler secondTracked = spool.track(SECOND, spool.acknowledge(SECOND, second));
+      CoreExceptionHandler secondQueued = spool.track(SECOND, new RecordingHandler());
+
+      SpooledException one = spool.append(new DefaultException("one"));
+      SpooledException two = spool.append(new DefaultException("two"));
+      SpooledException three = spool.append(new DefaultException("three"));
+      Assert.assertEquals("Assert 001", 2, three.getSequence());
+
+      firstTracked.handle(one);
+      secondTracked.handle(one);
+      spool.dispatched(one);
+      firstTracked.handle(two);
+      secondQueued.handle(two);
+      spool.dispatched(two);
+      Assert.assertEquals("Assert 002", Arrays.asList("one", "two"), first.messages);
+      Assert.assertEquals("Assert 003", 2, spool.getOffset(FIRST));
+      Assert.assertEquals("Assert 004", 1, spool.getOffset(SECOND));
+      spool.close();
+
+      spool = open(64 * 1024);
+      first = new RecordingHandler();
+      second = new RecordingHandler();
+      final CoreExceptionHandler[] handlers = new CoreExceptionHandler[] {
+            spool.track(FIRST, spool.acknowledge(FIRST, first)),
+            spool.track(SECOND, spool.acknowledge(SECOND, second)) };
+      final Spool reopened = spool;
+      int replayed = spool.replay(new Dispatcher() {
+         public void dispatch(CoreException exception) {
+            Assert.assertTrue("Assert 005", ((SpooledException) exception).isReplayed());
+            for (CoreExceptionHandler handler : handlers) {
+               handler.handle(exception);
+            }
+            reopened.dispatched((SpooledException) exception);
+         }
+      });
+
+      Assert.assertEquals("Assert 006", 2, replayed);
+      Assert.assertEquals("Assert 007", Arrays.asList("three"), first.messages);
+      Assert.assertEquals("Assert 008", Arrays.asList("two", "three"), second.messages);
+      Assert.assertEquals("Assert 009", 3, spool.getOffset(FIRST));
+      Assert.assertEquals("Assert 010", 3, spool.append(new DefaultException("four")).getSequence());
+      spool.close();
+   }
+
+   /**
+    * replay
+    * <p>
+    * Validates that a record torn by a crash is cut from its segment and the
+    * records before it are replayed.
+    * </p>
+    */
+   @Test
+   public void truncatesTornRecord() throws IOException {
+
+      Spool spool = open(64 * 1024);
+      spool.track(FIRST, spool.acknowledge(FIRST, new RecordingHandler()));
+      spool.append(new DefaultException("whole"));
+      spool.append(new DefaultException("torn"));
+      spool.close();
+
+      File segment = SpoolSegment.fileOf(folder.getRoot(), 0);
+      RandomAccessFile access = new RandomAccessFile(segment, "rw");
+      access.setLength(access.length() - 3);
+      access.close();
+      long tornLength = segment.length();
+
+      spool = open(64 * 1024);
+      RecordingHandler handler = new RecordingHandler();
+      final CoreExceptionHandler tracked = spool.track(FIRST, spool.acknowledge(FIRST, handler));
+      Assert.assertTrue("Assert 001", segment.length() < tornLength);
+      spool.replay(new Dispatcher() {
+         public void dispatch(CoreException exception) {
+            tracked.handle(exception);
+         }
+      });
+      Assert.assertEquals("Assert 002", Arrays.asList("whole"), handler.messages);
+      spool.close();
+   }
+
+   /**
+    * checkpoint
+    * <p>
+    * Validates that the segments every handler has acknowledged are deleted
+    * and that an exception a handler failed on is released, so that the
+    * handler's offset moves on with the exceptions after it.
+    * </p>
+    */
+   @Test
+   public void deletesAcknowledgedSegments() throws IOException {
+
+      Spool spool = open(1024);
+      CoreExceptionHandler tracked = spool.track(FIRST, spool.acknowledge(FIRST, new RecordingHandler()));
+      for (int i = 0; i < 5; i++) {
+         SpooledException spooled = spool.append(new DefaultException("exception " + i));
+         tracked.handle(spooled);
+         spool.dispatched(spooled);
+      }
+      Assert.assertEquals("Assert 001", 5, folder.getRoot().list().length);
+      spool.checkpoint();
+      Assert.assertEquals("Assert 002", 2, folder.getRoot().list().length);
+
+      final int[] calls = new int[1];
+      CoreExceptionHandler failingOnce = spool.track(SECOND, spool.acknowledge(SECOND, new CoreExceptionHandler() {
+         public void handle(CoreException e) {
+            if (calls[0]++ == 0) {
+               throw new IllegalStateException("The handler failed.");
+            }
+         }
+      }));
+      int failures = 0;
+      for (int i = 0; i < 3; i++) {
+         SpooledException spooled = spool.append(new DefaultException("exception " + i));
+         try {
+            failingOnce.handle(spooled);
+         } catch (IllegalStateException e) {
+            failures++;
+         }
+         spool.dispatched(spooled);
+      }
+      Assert.assertEquals("Assert 003", 1, failures);
+      spool.checkpoint();
+      Assert.assertEquals("Assert 004", 8, spool.getOffset(SECOND));
+      Assert.assertEquals("Assert 005", 2, folder.getRoot().list().length);
+      spool.close();
+   }
+
+   /**
+    * release
+    * <p>
+    * Validates that the exceptions a decorated handler gives up on, because
+    * its bulkhead drops them or its retries run out, are released, so that
+    * every offset reaches the end of the spool.
+    * </p>
+    */
+   @Test
+   public void releasesGivenUpExceptions() throws Exception {
+
+      final CountDownLatch stalled = new CountDownLatch(1);
+      Map<String, CoreExceptionHandler> handlers = new HashMap<String, CoreExceptionHandler>();
+      handlers.put(FIRST, new CoreExceptionHandler() {
+         public void handle(CoreException e) {
+            try {
+               stalled.await();
+            } catch (InterruptedException interrupted) {
+               Thread.currentThread().interrupt();
+            }
+         }
+      });
+      handlers.put(SECOND, new CoreExceptionHandler() {
+         public void handle(CoreException e) {
+            throw new IllegalStateException("The handler failed.");
+         }
+      });
+      Configuration config = new Configuration();
+      config.setHandlerAttribute(FIRST, DecoratedHandlers.THREADS, "1");
+      config.setHandlerAttribute(FIRST, DecoratedHandlers.QUEUE_SIZE, "1");
+      config.setHandlerAttribute(SECOND, DecoratedHandlers.RETRY_ATTEMPTS, "2");
+      config.setHandlerAttribute(SECOND, DecoratedHandlers.RETRY_BACKOFF, "1ms");
+
+      Spool spool = open(1024);
+      DecoratedHandlers decorated = new DecoratedHandlers(config, handlers, spool);
+      for (int i = 0; i < 4; i++) {
+         SpooledException spooled = spool.append(new DefaultException("exception " + i));
+         decorated.getHandlers().get(FIRST).handle(spooled);
+         decorated.getHandlers().get(SECOND).handle(spooled);
+         spool.dispatched(spooled);
+      }
+      Assert.assertTrue("Assert 001", spool.getOffset(FIRST) < 4);
+
+      stalled.countDown();
+      decorated.shutdown(5, TimeUnit.SECONDS);
+      spool.checkpoint();
+      Assert.assertEquals("Assert 002", 4, spool.getOffset(FIRST));
+      Assert.assertEquals("Assert 003", 4, spool.getOffset(SECOND));
+      Assert.assertEquals("Assert 004", 2, folder.getRoot().list().length);
+      spool.close();
+   }
+
+   private Spool open(long segmentSize) throws IOException {
+
+      return new Spool(folder.getRoot(), segmentSize, true, HOUR, Arrays.asList(FIRST, SECOND));
+   }
+
+   private static class RecordingHandler implements CoreExceptionHandler {
+
+      private final List<String> messages = new ArrayList<String>();
+
+      public void handle(CoreException e) {
+
+         messages.add(e.getMessage());
+      }
+   }
+}